@@ -0,0 +1,97 @@
+import java.io.File;
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import fabflix.jmh.FabFlixTarget;
+
+/**
+ * Default-package side of {@link FabFlixTarget}: runs the operations of {@link FabFlixBenchmark}
+ * and the renderers for the JMH benchmarks, which cannot refer to default-package classes.
+ */
+public class FabFlixJmhTarget implements FabFlixTarget
+{
+	private FabFlixDBManager mDBManager;
+	private Connection mSetupConnection;
+	private FabFlixBenchmark mBenchmark;
+	private Map<String, FabFlixBenchmark.Operation> mOperations;
+
+	@Override
+	public void open(String username, String password, File seedDirectory, int maxConnections, boolean cache)
+		throws Exception {
+
+		mDBManager = new FabFlixDBManager();
+		mSetupConnection = DriverManager.getConnection(FabFlixDBManager.DATABASE_URL, username, password);
+		mBenchmark = new FabFlixBenchmark(mDBManager, mSetupConnection);
+		if (seedDirectory != null)
+			mBenchmark.seed(username, password, seedDirectory);
+
+		SQLException connectionError = mDBManager.attemptConnection(username, password,
+			Math.min(maxConnections, FabFlixConnectionPool.DEFAULT_MIN_SIZE), maxConnections);
+		if (connectionError != null)
+			throw connectionError;
+		mDBManager.setStarLookupCacheEnabled(cache);
+
+		mBenchmark.prepareInputs();
+		mOperations = mBenchmark.getOperations();
+	}
+
+	@Override
+	public Operation getOperation(String name) {
+		final FabFlixBenchmark.Operation operation = mOperations.get(name);
+		if (operation == null)
+			throw new IllegalArgumentException("Unknown operation '" + name + "'. Available: " + mOperations.keySet());
+
+		return new Operation() {
+			@Override
+			public Object run(int iteration) throws Exception {
+				return operation.run(iteration);
+			}
+		};
+	}
+
+	@Override
+	public Renderer getRenderer(String format, int rowCount) {
+		final FabFlixRenderer renderer = FabFlixRenderer.forFormat(format);
+		final List<FabFlixMovie> movies = new ArrayList<FabFlixMovie>(rowCount);
+		final List<String[]> rows = new ArrayList<String[]>(rowCount);
+		final List<String> columnNames = Arrays.asList("id", "title", "year", "director", "banner_url", "trailer_url");
+
+		// Values shaped like the sample data, with characters every format has to escape
+		for (int i = 0; i < rowCount; i++) {
+			FabFlixMovie movie = new FabFlixMovie(135001 + i, "Movie \"" + i + "\", Part " + (i % 3 + 1), 1960 + i % 60,
+				"Director " + i, "https://images.example.com/" + i + ".jpg", i % 4 == 0 ? null : "https://video.example.com/watch?v=" + i);
+			movies.add(movie);
+			rows.add(new String[] { String.valueOf(movie.getID()), movie.getTitle(), String.valueOf(movie.getYear()),
+				movie.getDirector(), movie.getBannerURL(), movie.getTrailerURL() });
+		}
+
+		return new Renderer() {
+			@Override
+			public void renderMovies(Appendable out) throws IOException {
+				renderer.renderMovies(movies, out);
+			}
+
+			@Override
+			public void renderRows(Appendable out) throws IOException {
+				renderer.renderRows("movies", columnNames, rows, out);
+			}
+		};
+	}
+
+	@Override
+	public void close() throws Exception {
+		try {
+			if (mBenchmark != null)
+				mBenchmark.cleanUp();
+		} finally {
+			if (mDBManager != null)
+				mDBManager.closeConnection();
+			if (mSetupConnection != null)
+				mSetupConnection.close();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package fabflix.jmh;
+
+import java.io.File;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Database connection shared by the threads of a benchmark. It is configured with system
+ * properties, which JMH passes on to its forked JVMs:
+ * <ul>
+ * <li><i>fabflix.user</i>, <i>fabflix.password</i>: database login (default <i>root</i>, empty)</li>
+ * <li><i>fabflix.seed</i>: directory holding <i>createtable.sql</i> and <i>data.sql</i>; when set,
+ * the moviedb tables are dropped and reloaded from them at the start of every trial, so every
+ * fork measures the same data. Only use it against a local database.</li>
+ * <li><i>fabflix.connections</i>: maximum connection pool size (default 64, enough for
+ * <i>-t 64</i>)</li>
+ * <li><i>fabflix.cache</i>: <i>true</i> to enable the star lookup cache (default <i>false</i>, so
+ * lookups reach the database)</li>
+ * </ul>
+ * For example, a thread-count sweep of the lookups:
+ * <pre>
+ * mvn -B package
+ * for t in 1 4 16; do
+ *     java -Dfabflix.user=root -Dfabflix.seed=src -jar jmh/target/benchmarks.jar FabFlixReadBenchmark -t $t
+ * done
+ * </pre>
+ * Rows inserted by the write benchmarks are deleted, by ID, at the end of each trial.
+ */
+@State(Scope.Benchmark)
+public class FabFlixDatabaseState
+{
+	private FabFlixTarget mTarget;
+
+	/**
+	 * Per-thread iteration number, started at a random point so threads use different inputs.
+	 */
+	@State(Scope.Thread)
+	public static class Iteration
+	{
+		private int mNext = ThreadLocalRandom.current().nextInt(1 << 20);
+
+		public int next() {
+			return mNext++;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void open() throws Exception {
+		String seed = System.getProperty("fabflix.seed");
+		mTarget = FabFlixTarget.create();
+		mTarget.open(System.getProperty("fabflix.user", "root"), System.getProperty("fabflix.password", ""),
+			seed == null ? null : new File(seed), Integer.getInteger("fabflix.connections", 64),
+			Boolean.getBoolean("fabflix.cache"));
+	}
+
+	@TearDown(Level.Trial)
+	public void close() throws Exception {
+		mTarget.close();
+	}
+
+	public FabFlixTarget.Operation getOperation(String name) {
+		return mTarget.getOperation(name);
+	}
+}
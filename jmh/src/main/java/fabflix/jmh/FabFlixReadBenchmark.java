@@ -0,0 +1,71 @@
+package fabflix.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Read paths of the manager: the console star lookup (query plus formatting), the typed
+ * lookups, a streamed SELECT through <i>executeSQL</i>, and a bare <i>select 1</i> round trip
+ * to split driver and network time from server time. Run with <i>-t</i> for other thread
+ * counts; see {@link FabFlixDatabaseState} for the configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(2)
+@Threads(1)
+public class FabFlixReadBenchmark
+{
+	private FabFlixTarget.Operation mRoundTrip;
+	private FabFlixTarget.Operation mGetMoviesForStar;
+	private FabFlixTarget.Operation mMoviesForStarID;
+	private FabFlixTarget.Operation mMoviesForStarName;
+	private FabFlixTarget.Operation mExecuteSQL;
+
+	@Setup
+	public void setUp(FabFlixDatabaseState database) {
+		mRoundTrip = database.getOperation("roundTrip");
+		mGetMoviesForStar = database.getOperation("getMoviesForStar");
+		mMoviesForStarID = database.getOperation("moviesForStarID");
+		mMoviesForStarName = database.getOperation("moviesForStarName");
+		mExecuteSQL = database.getOperation("executeSQL");
+	}
+
+	@Benchmark
+	public Object roundTrip(FabFlixDatabaseState.Iteration iteration) throws Exception {
+		return mRoundTrip.run(iteration.next());
+	}
+
+	@Benchmark
+	public Object getMoviesForStar(FabFlixDatabaseState.Iteration iteration) throws Exception {
+		return mGetMoviesForStar.run(iteration.next());
+	}
+
+	@Benchmark
+	public Object moviesForStarID(FabFlixDatabaseState.Iteration iteration) throws Exception {
+		return mMoviesForStarID.run(iteration.next());
+	}
+
+	@Benchmark
+	public Object moviesForStarName(FabFlixDatabaseState.Iteration iteration) throws Exception {
+		return mMoviesForStarName.run(iteration.next());
+	}
+
+	@Benchmark
+	public Object executeSQL(FabFlixDatabaseState.Iteration iteration) throws Exception {
+		return mExecuteSQL.run(iteration.next());
+	}
+}
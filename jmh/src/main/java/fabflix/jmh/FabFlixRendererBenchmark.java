@@ -0,0 +1,60 @@
+package fabflix.jmh;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The output renderers on their own, with no database: every format renders the same
+ * in-memory movies and rows into a reused buffer, which is then consumed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@Threads(1)
+public class FabFlixRendererBenchmark
+{
+	@Param({ "text", "csv", "json" })
+	public String format;
+
+	@Param({ "20", "1000" })
+	public int rowCount;
+
+	private FabFlixTarget.Renderer mRenderer;
+	private final StringBuilder mOutput = new StringBuilder();
+
+	@Setup
+	public void setUp() throws ReflectiveOperationException {
+		mRenderer = FabFlixTarget.create().getRenderer(format, rowCount);
+	}
+
+	@Benchmark
+	public void renderMovies(Blackhole blackhole) throws IOException {
+		mOutput.setLength(0);
+		mRenderer.renderMovies(mOutput);
+		blackhole.consume(mOutput.length());
+	}
+
+	@Benchmark
+	public void renderRows(Blackhole blackhole) throws IOException {
+		mOutput.setLength(0);
+		mRenderer.renderRows(mOutput);
+		blackhole.consume(mOutput.length());
+	}
+}
@@ -0,0 +1,87 @@
+package fabflix.jmh;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The FabFlix operations the benchmarks call. The application's classes are in the default
+ * package, which JMH benchmarks (and any class in a named package) cannot refer to, so they are
+ * reached through this interface, implemented by the default-package <i>FabFlixJmhTarget</i>.
+ * The implementation is looked up once per trial; every call after that is a plain interface
+ * call that the JIT inlines like a direct one.
+ */
+public interface FabFlixTarget
+{
+	/**
+	 * One benchmarked manager operation. Implementations are safe to call from several threads.
+	 */
+	interface Operation
+	{
+		/**
+		 * Runs the operation once.
+		 *
+		 * @param iteration	per-thread iteration number, used to vary the inputs
+		 * @return	result of the operation
+		 * @throws Exception	if the operation failed
+		 */
+		Object run(int iteration) throws Exception;
+	}
+
+	/**
+	 * One output format, with sample movies and rows to render in it.
+	 */
+	interface Renderer
+	{
+		void renderMovies(Appendable out) throws IOException;
+
+		void renderRows(Appendable out) throws IOException;
+	}
+
+	/**
+	 * Connects to the database, optionally after reloading it from <i>createtable.sql</i> and
+	 * <i>data.sql</i>, and reads the inputs of the operations.
+	 *
+	 * @param username	database user name
+	 * @param password	database password
+	 * @param seedDirectory	directory holding <i>createtable.sql</i> and <i>data.sql</i>, or <i>null</i> to use the data as is
+	 * @param maxConnections	maximum size of the connection pool, at least the number of benchmark threads
+	 * @param cache	true to enable the star lookup cache
+	 * @throws Exception	if the database could not be seeded or connected to
+	 */
+	void open(String username, String password, File seedDirectory, int maxConnections, boolean cache) throws Exception;
+
+	/**
+	 * Returns an operation of the <i>FabFlixBenchmark</i> harness by name.
+	 *
+	 * @param name	operation name, such as <i>getMoviesForStar</i>
+	 * @return	operation
+	 * @throws IllegalArgumentException	if there is no such operation
+	 */
+	Operation getOperation(String name);
+
+	/**
+	 * Returns a renderer with its sample data. No database is needed.
+	 *
+	 * @param format	<i>text</i>, <i>csv</i> or <i>json</i>
+	 * @param rowCount	number of movies and rows rendered per call
+	 * @return	renderer of the format
+	 */
+	Renderer getRenderer(String format, int rowCount);
+
+	/**
+	 * Removes the rows the operations inserted and closes the connections.
+	 *
+	 * @throws Exception	if the rows could not be removed
+	 */
+	void close() throws Exception;
+
+	/**
+	 * Creates the implementation of this interface.
+	 *
+	 * @return	new, unopened target
+	 * @throws ReflectiveOperationException	if the implementation is not on the class path
+	 */
+	static FabFlixTarget create() throws ReflectiveOperationException {
+		return Class.forName("FabFlixJmhTarget").asSubclass(FabFlixTarget.class).getDeclaredConstructor().newInstance();
+	}
+}
@@ -0,0 +1,49 @@
+package fabflix.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-row inserts through the console methods, each one a committed transaction. The rows
+ * are deleted by ID when the trial ends. Run with <i>-t</i> for other thread counts; see
+ * {@link FabFlixDatabaseState} for the configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(2)
+@Threads(1)
+public class FabFlixWriteBenchmark
+{
+	private FabFlixTarget.Operation mInsertStar;
+	private FabFlixTarget.Operation mInsertCustomer;
+
+	@Setup
+	public void setUp(FabFlixDatabaseState database) {
+		mInsertStar = database.getOperation("insertStar");
+		mInsertCustomer = database.getOperation("insertCustomer");
+	}
+
+	@Benchmark
+	public Object insertStar(FabFlixDatabaseState.Iteration iteration) throws Exception {
+		return mInsertStar.run(iteration.next());
+	}
+
+	@Benchmark
+	public Object insertCustomer(FabFlixDatabaseState.Iteration iteration) throws Exception {
+		return mInsertCustomer.run(iteration.next());
+	}
+}
@@ -0,0 +1,350 @@
+import java.sql.*;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous front end for a {@link FabFlixDBManager}. Every call returns immediately with a
+ * <i>CompletableFuture</i> of the typed result, and fails the future with the <i>SQLException</i>
+ * instead of returning an error message. A customer batch can partly succeed, so it completes with
+ * the {@link FabFlixRowOutcome} of each customer instead, and queries complete with their rows
+ * one {@link FabFlixPage} at a time rather than as rendered text.
+ * <p>
+ * Calls run on virtual threads when the JVM supports them (Java 21 and later) and on a cached
+ * pool of daemon threads otherwise. At most {@link #getConcurrencyLimit()} calls run at once,
+ * which defaults to the size of the manager's connection pool; any further calls wait in a queue
+ * without holding a thread, so thousands of lookups can be submitted at once.
+ * <p>
+ * Calls never run inside a transaction started with {@link FabFlixDBManager#beginTransaction}
+ * since transactions are pinned to the thread that started them.
+ */
+public class FabFlixAsyncDBManager
+{
+	private final FabFlixDBManager mDBManager;
+	private final ExecutorService mExecutor;
+	private final boolean mVirtualThreads;
+	private final int mConcurrencyLimit;
+	private final Semaphore mPermits;
+	private final Queue<Task<?>> mQueue = new ConcurrentLinkedQueue<Task<?>>();
+	private volatile boolean mClosed;
+
+	private final AtomicInteger mQueuedCount = new AtomicInteger();
+	private final AtomicLong mSubmittedCount = new AtomicLong();
+	private final AtomicLong mFailedCount = new AtomicLong();
+
+	/**
+	 * A submitted call and the future it completes.
+	 */
+	private class Task<T> implements Runnable
+	{
+		private final Callable<T> mCall;
+		private final CompletableFuture<T> mFuture = new CompletableFuture<T>();
+
+		Task(Callable<T> call) {
+			mCall = call;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (mFuture.isDone())
+					return;
+				if (!mDBManager.isConnectionLive())
+					throw new SQLException("No connection established with database server.");
+				mFuture.complete(mCall.call());
+			} catch (Throwable e) {
+				mFailedCount.incrementAndGet();
+				mFuture.completeExceptionally(e);
+			} finally {
+				mPermits.release();
+				dispatch();
+			}
+		}
+	}
+
+	/**
+	 * Creates an asynchronous front end whose concurrency limit is the maximum size of the
+	 * manager's connection pool. The manager should be connected first, otherwise the default
+	 * maximum pool size is used.
+	 *
+	 * @param manager	manager the calls are run on
+	 */
+	public FabFlixAsyncDBManager(FabFlixDBManager manager) {
+		this(manager, manager.getMaxConnectionCount());
+	}
+
+	/**
+	 * Creates an asynchronous front end that runs at most a given number of calls at once.
+	 *
+	 * @param manager	manager the calls are run on
+	 * @param concurrencyLimit	maximum number of calls running at once
+	 */
+	public FabFlixAsyncDBManager(FabFlixDBManager manager, int concurrencyLimit) {
+		if (concurrencyLimit < 1)
+			throw new IllegalArgumentException("Invalid concurrency limit: " + concurrencyLimit);
+
+		mDBManager = manager;
+		mConcurrencyLimit = concurrencyLimit;
+		mPermits = new Semaphore(concurrencyLimit);
+
+		ExecutorService executor = newVirtualThreadExecutor();
+		mVirtualThreads = executor != null;
+		mExecutor = mVirtualThreads ? executor : Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger mThreadCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "FabFlixAsync-" + mThreadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Returns an executor that starts a virtual thread per task, looked up reflectively so the
+	 * class still runs on JVMs without virtual threads.
+	 *
+	 * @return	virtual thread executor, or <i>null</i> if the JVM has no virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Looks up the movies that feature a star by the star's ID number.
+	 *
+	 * @param id	star ID
+	 * @return	future of the movies featuring the star (empty if none were found)
+	 */
+	public CompletableFuture<List<FabFlixMovie>> findMoviesForStar(final int id) {
+		return submit(new Callable<List<FabFlixMovie>>() {
+			@Override
+			public List<FabFlixMovie> call() throws SQLException {
+				return mDBManager.findMoviesForStar(id);
+			}
+		});
+	}
+
+	/**
+	 * Looks up the movies that feature a star by the star's first and/or last name.
+	 *
+	 * @param firstName	the star's first name
+	 * @param lastName	the star's last name
+	 * @return	future of the movies featuring the star (empty if none were found)
+	 */
+	public CompletableFuture<List<FabFlixMovie>> findMoviesForStar(final String firstName, final String lastName) {
+		return submit(new Callable<List<FabFlixMovie>>() {
+			@Override
+			public List<FabFlixMovie> call() throws SQLException {
+				return mDBManager.findMoviesForStar(firstName, lastName);
+			}
+		});
+	}
+
+	/**
+	 * Searches the star name index by name, name prefix or partial name.
+	 *
+	 * @param query	name, name prefix or partial name of the star
+	 * @param limit	maximum number of stars returned
+	 * @return	future of the matching stars, best match first
+	 */
+	public CompletableFuture<List<FabFlixStar>> findStars(final String query, final int limit) {
+		return submit(new Callable<List<FabFlixStar>>() {
+			@Override
+			public List<FabFlixStar> call() throws SQLException {
+				return mDBManager.findStars(query, limit);
+			}
+		});
+	}
+
+	/**
+	 * Inserts a star into the database.
+	 *
+	 * @param firstName	first name of the star
+	 * @param lastName	last name of the star
+	 * @param dob	date of birth for the star, or <i>null</i> if unknown
+	 * @param photoURL	URL linking to a photo of the star, or <i>null</i> if none
+	 * @return	future of the newly added star's ID (-1 if no ID was generated)
+	 */
+	public CompletableFuture<Integer> addStar(final String firstName, final String lastName,
+		final Date dob, final String photoURL) {
+
+		return submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws SQLException {
+				return mDBManager.addStar(firstName, lastName, dob, photoURL);
+			}
+		});
+	}
+
+	/**
+	 * Inserts a batch of customers into the database. Rejected customers do not fail the future;
+	 * their outcomes hold the reason instead.
+	 *
+	 * @param customers	customers to insert
+	 * @return	future of the outcome of each customer, in the order given
+	 */
+	public CompletableFuture<List<FabFlixRowOutcome>> addCustomers(final List<FabFlixCustomer> customers) {
+		return submit(new Callable<List<FabFlixRowOutcome>>() {
+			@Override
+			public List<FabFlixRowOutcome> call() throws SQLException {
+				return mDBManager.addCustomers(customers);
+			}
+		});
+	}
+
+	/**
+	 * Deletes a customer by customer ID number.
+	 *
+	 * @param id	customer ID
+	 * @return	future of whether a customer was deleted
+	 */
+	public CompletableFuture<Boolean> removeCustomer(final int id) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws SQLException {
+				return mDBManager.removeCustomer(id);
+			}
+		});
+	}
+
+	/**
+	 * Reads the schema of the database (served from the manager's cache when possible).
+	 *
+	 * @return	future of the schema snapshot
+	 */
+	public CompletableFuture<FabFlixSchemaMetadata> findSchemaMetadata() {
+		return submit(new Callable<FabFlixSchemaMetadata>() {
+			@Override
+			public FabFlixSchemaMetadata call() throws SQLException {
+				return mDBManager.findSchemaMetadata();
+			}
+		});
+	}
+
+	/**
+	 * Reads one page of the results of a SELECT query, in primary key order. See
+	 * {@link FabFlixDBManager#findQueryPage} for the queries that can be paged.
+	 *
+	 * @param command	SELECT query to page through
+	 * @param pageSize	maximum number of rows on the page
+	 * @param token	token returned with the previous page, or <i>null</i> for the first page
+	 * @return	future of the page, holding the column names and the rows with every value read as
+	 * 			a string; it fails with an <i>IllegalArgumentException</i> if the query cannot be paged
+	 */
+	public CompletableFuture<FabFlixPage<String[]>> findQueryPage(final String command, final int pageSize,
+		final String token) {
+
+		return submit(new Callable<FabFlixPage<String[]>>() {
+			@Override
+			public FabFlixPage<String[]> call() throws SQLException {
+				return mDBManager.findQueryPage(command, pageSize, token);
+			}
+		});
+	}
+
+	/**
+	 * Queues a call on the manager and starts it once fewer than the concurrency limit
+	 * of calls are running.
+	 *
+	 * @param call	call to run
+	 * @return	future completed with the call's result or exception
+	 */
+	public <T> CompletableFuture<T> submit(Callable<T> call) {
+		Task<T> task = new Task<T>(call);
+		if (mClosed) {
+			task.mFuture.completeExceptionally(new RejectedExecutionException("Asynchronous manager is closed."));
+			return task.mFuture;
+		}
+
+		mSubmittedCount.incrementAndGet();
+		mQueuedCount.incrementAndGet();
+		mQueue.add(task);
+		dispatch();
+		return task.mFuture;
+	}
+
+	/**
+	 * Starts queued calls while permits are available. Called after every submission and after
+	 * every call finishes, so a call queued while all permits were taken is always started.
+	 */
+	private void dispatch() {
+		while (!mQueue.isEmpty() && mPermits.tryAcquire()) {
+			Task<?> task = mQueue.poll();
+			if (task == null) {
+				// Another thread took the task; give the permit back and check the queue again
+				mPermits.release();
+				continue;
+			}
+			mQueuedCount.decrementAndGet();
+
+			try {
+				mExecutor.execute(task);
+			} catch (RejectedExecutionException e) {
+				mPermits.release();
+				mFailedCount.incrementAndGet();
+				task.mFuture.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting calls and fails every queued call that has not started. Running calls
+	 * are left to finish. The manager itself is not closed.
+	 */
+	public void close() {
+		mClosed = true;
+		Task<?> task;
+		while ((task = mQueue.poll()) != null) {
+			mQueuedCount.decrementAndGet();
+			task.mFuture.completeExceptionally(new RejectedExecutionException("Asynchronous manager is closed."));
+		}
+		mExecutor.shutdown();
+	}
+
+	public int getConcurrencyLimit() {
+		return mConcurrencyLimit;
+	}
+
+	/**
+	 * Returns whether calls run on virtual threads.
+	 *
+	 * @return	true for virtual threads, false for a pool of platform threads
+	 */
+	public boolean usesVirtualThreads() {
+		return mVirtualThreads;
+	}
+
+	public int getRunningCount() {
+		return mConcurrencyLimit - mPermits.availablePermits();
+	}
+
+	public int getQueuedCount() {
+		return mQueuedCount.get();
+	}
+
+	/**
+	 * Returns a printable summary of the calls submitted, running and waiting.
+	 *
+	 * @return	output string of the asynchronous call statistics
+	 */
+	public String getStatistics() {
+		return String.format("Async calls: %d submitted, %d failed, %d running, %d queued (limit %d, %s threads)\n",
+			mSubmittedCount.get(), mFailedCount.get(), getRunningCount(), getQueuedCount(),
+			mConcurrencyLimit, mVirtualThreads ? "virtual" : "platform");
+	}
+}
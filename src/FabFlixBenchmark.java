@@ -0,0 +1,496 @@
+import java.io.*;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Micro-benchmark harness for the data-access paths of {@link FabFlixDBManager}. Every
+ * benchmark is warmed up before it is measured, and is run at each requested thread count in
+ * throughput mode (operations per second) and/or sample mode (latency percentiles).
+ *
+ * Besides the manager operations, the harness measures a bare round trip (<i>select 1</i>) and
+ * the result formatting on its own, so the cost of an operation can be split into driver and
+ * network time (round trip), server time (operation minus round trip) and string-building time.
+ *
+ * With <i>-seed</i>, the moviedb tables are dropped and recreated from <i>createtable.sql</i> and
+ * <i>data.sql</i> before the run. Only use it against a local database.
+ *
+ * This harness gives a quick reading in one JVM. For numbers that can be compared across
+ * changes, run the JMH benchmarks of the <i>jmh</i> module, which drive these same operations
+ * in forked JVMs.
+ */
+public class FabFlixBenchmark
+{
+	private static final String BENCHMARK_LAST_NAME = "FabFlixBenchmark";
+	private static final String[] DROP_ORDER = {
+		"sales", "customers", "creditcards", "genres_in_movies", "genres", "stars_in_movies", "stars", "movies"
+	};
+
+	/**
+	 * A single benchmarked operation. Implementations must be safe to call from several threads.
+	 */
+	static abstract class Operation
+	{
+		final String mName;
+
+		Operation(String name) {
+			mName = name;
+		}
+
+		/**
+		 * Runs the operation once.
+		 *
+		 * @param iteration	per-thread iteration number, used to vary the inputs
+		 * @return	result of the operation, consumed so it cannot be optimized away
+		 */
+		abstract Object run(int iteration) throws Exception;
+	}
+
+	/**
+	 * Latencies recorded by one thread during a measurement.
+	 */
+	private static class Samples
+	{
+		long[] mLatencies = new long[1024];
+		int mCount;
+		long mOperations;
+
+		void add(long latencyNanos) {
+			if (mCount == mLatencies.length)
+				mLatencies = Arrays.copyOf(mLatencies, mLatencies.length * 2);
+			mLatencies[mCount++] = latencyNanos;
+		}
+	}
+
+	private final FabFlixDBManager mDBManager;
+	private final Connection mSetupConnection;
+	private final List<Integer> mStarIDs = new ArrayList<Integer>();
+	private final List<String[]> mStarNames = new ArrayList<String[]>();
+	private final List<FabFlixMovie> mSampleMovies = new ArrayList<FabFlixMovie>();
+	private String mCreditCardID;
+
+	// Rows inserted by the benchmarks, so only they are removed afterwards
+	private final Queue<Integer> mInsertedStarIDs = new ConcurrentLinkedQueue<Integer>();
+	private final Queue<Integer> mInsertedCustomerIDs = new ConcurrentLinkedQueue<Integer>();
+
+	// Results are folded into this field so the JIT cannot discard the benchmarked calls
+	private volatile int mSink;
+
+	public FabFlixBenchmark(FabFlixDBManager manager, Connection setupConnection) {
+		mDBManager = manager;
+		mSetupConnection = setupConnection;
+	}
+
+	/**
+	 * Drops and recreates the moviedb tables and loads the sample data.
+	 *
+	 * @param username	user name field for login
+	 * @param password	password field for login
+	 * @param directory	directory containing <i>createtable.sql</i> and <i>data.sql</i>
+	 * @throws Exception	if the schema or data could not be loaded
+	 */
+	public void seed(String username, String password, File directory) throws Exception {
+		Statement statement = mSetupConnection.createStatement();
+		try {
+			statement.execute("set foreign_key_checks = 0");
+			for (String table : DROP_ORDER)
+				statement.execute("drop table if exists " + table);
+			statement.execute("set foreign_key_checks = 1");
+
+			for (String create : readFile(new File(directory, "createtable.sql")).split(";")) {
+				if (!create.trim().isEmpty())
+					statement.execute(create);
+			}
+		} finally {
+			statement.close();
+		}
+
+		FabFlixConnectionPool pool = new FabFlixConnectionPool(FabFlixDBManager.DATABASE_URL, username, password, 1, 4,
+			FabFlixConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS, FabFlixConnectionPool.DEFAULT_BORROW_TIMEOUT_MILLIS);
+		try {
+			FabFlixBulkLoader loader = new FabFlixBulkLoader(pool, FabFlixBulkLoader.DEFAULT_BATCH_SIZE,
+				FabFlixBulkLoader.DEFAULT_TRANSACTION_SIZE, true);
+			loader.addFile(new File(directory, "data.sql"));
+			System.out.println(loader.load());
+		} finally {
+			pool.close();
+		}
+	}
+
+	/**
+	 * Reads the star IDs, star names, credit card and movies used as benchmark inputs.
+	 *
+	 * @throws SQLException	if the inputs could not be read
+	 */
+	public void prepareInputs() throws SQLException {
+		Statement statement = mSetupConnection.createStatement();
+		try {
+			ResultSet result = statement.executeQuery("select distinct star_id from stars_in_movies limit 100");
+			while (result.next())
+				mStarIDs.add(result.getInt(1));
+			result.close();
+
+			result = statement.executeQuery("select first_name, last_name from stars limit 100");
+			while (result.next())
+				mStarNames.add(new String[] { result.getString(1), result.getString(2) });
+			result.close();
+
+			result = statement.executeQuery("select id from creditcards limit 1");
+			if (result.next())
+				mCreditCardID = result.getString(1);
+			result.close();
+
+			result = statement.executeQuery("select * from movies limit 20");
+			while (result.next()) {
+				mSampleMovies.add(new FabFlixMovie(result.getInt(1), result.getString(2), result.getInt(3),
+					result.getString(4), result.getString(5), result.getString(6)));
+			}
+			result.close();
+		} finally {
+			statement.close();
+		}
+
+		if (mStarIDs.isEmpty() || mStarNames.isEmpty() || mCreditCardID == null)
+			throw new SQLException("The database has no stars, movies or credit cards to benchmark with. Use -seed.");
+	}
+
+	/**
+	 * Returns every available benchmark by name.
+	 *
+	 * @return	benchmarks in the order they are run
+	 */
+	Map<String, Operation> getOperations() {
+		Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+
+		operations.put("roundTrip", new Operation("roundTrip") {
+			Object run(int iteration) {
+				return mDBManager.executeSQL("select 1", new NullWriter());
+			}
+		});
+		operations.put("moviesForStarID", new Operation("moviesForStarID") {
+			Object run(int iteration) throws SQLException {
+				return mDBManager.findMoviesForStar(mStarIDs.get(iteration % mStarIDs.size()));
+			}
+		});
+		operations.put("moviesForStarName", new Operation("moviesForStarName") {
+			Object run(int iteration) throws SQLException {
+				String[] name = mStarNames.get(iteration % mStarNames.size());
+				return mDBManager.findMoviesForStar(name[0], name[1]);
+			}
+		});
+		operations.put("getMoviesForStar", new Operation("getMoviesForStar") {
+			Object run(int iteration) {
+				return mDBManager.getMoviesForStar(mStarIDs.get(iteration % mStarIDs.size()));
+			}
+		});
+		operations.put("insertStar", new Operation("insertStar") {
+			Object run(int iteration) {
+				FabFlixResult result = mDBManager.insertStar("Bench" + iteration, BENCHMARK_LAST_NAME, null, "");
+				for (int id : result.getGeneratedIDs())
+					mInsertedStarIDs.add(id);
+				return result;
+			}
+		});
+		operations.put("insertCustomer", new Operation("insertCustomer") {
+			Object run(int iteration) {
+				FabFlixResult result = mDBManager.insertCustomer("Bench" + iteration, BENCHMARK_LAST_NAME, mCreditCardID,
+					"1 Benchmark Way", "bench@fabflix.test", "bench");
+				for (int id : result.getGeneratedIDs())
+					mInsertedCustomerIDs.add(id);
+				return result;
+			}
+		});
+		operations.put("executeSQL", new Operation("executeSQL") {
+			Object run(int iteration) {
+				return mDBManager.executeSQL("select * from movies where year > 1990", new NullWriter());
+			}
+		});
+		operations.put("formatMovies", new Operation("formatMovies") {
+			Object run(int iteration) {
+				return FabFlixDBManager.formatMovies(mSampleMovies);
+			}
+		});
+		return operations;
+	}
+
+	/**
+	 * Runs a benchmark at one thread count: warms it up, then measures it.
+	 *
+	 * @param operation	benchmark to run
+	 * @param threads	number of threads calling the operation at once
+	 * @param warmupMillis	warm-up time
+	 * @param measureMillis	measurement time
+	 * @param sample	if <b>true</b>, every call's latency is recorded for percentiles
+	 * @return	result line for the report
+	 */
+	private String run(final Operation operation, int threads, long warmupMillis, long measureMillis, final boolean sample)
+		throws InterruptedException {
+
+		runPhase(operation, threads, warmupMillis, false);
+		Samples[] samples = runPhase(operation, threads, measureMillis, sample);
+
+		long operations = 0;
+		int count = 0;
+		for (Samples threadSamples : samples) {
+			operations += threadSamples.mOperations;
+			count += threadSamples.mCount;
+		}
+
+		double throughput = operations * 1000.0 / measureMillis;
+		if (!sample)
+			return String.format("%-18s %7d  %-10s %12.1f ops/s", operation.mName, threads, "thrpt", throughput);
+
+		long[] latencies = new long[count];
+		int position = 0;
+		for (Samples threadSamples : samples) {
+			System.arraycopy(threadSamples.mLatencies, 0, latencies, position, threadSamples.mCount);
+			position += threadSamples.mCount;
+		}
+		Arrays.sort(latencies);
+
+		return String.format("%-18s %7d  %-10s %12.1f ops/s  p50 = %.3f ms  p90 = %.3f ms  p99 = %.3f ms  max = %.3f ms",
+			operation.mName, threads, "sample", throughput, percentile(latencies, 0.50), percentile(latencies, 0.90),
+			percentile(latencies, 0.99), latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1e6);
+	}
+
+	private Samples[] runPhase(final Operation operation, int threads, long durationMillis, final boolean sample)
+		throws InterruptedException {
+
+		final Samples[] samples = new Samples[threads];
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final CountDownLatch started = new CountDownLatch(1);
+		final Thread[] workers = new Thread[threads];
+
+		for (int t = 0; t < threads; t++) {
+			final Samples threadSamples = samples[t] = new Samples();
+			final int offset = t * 1000003;
+
+			workers[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						started.await();
+						for (int i = offset; running.get(); i++) {
+							long start = System.nanoTime();
+							Object result = operation.run(i);
+							if (sample)
+								threadSamples.add(System.nanoTime() - start);
+							threadSamples.mOperations++;
+							mSink += result == null ? 0 : result.hashCode();
+						}
+					} catch (Exception e) {
+						System.out.println(FabFlixConsole.getErrorMessage(operation.mName + ": " + e.getMessage()));
+					}
+				}
+			}, "FabFlixBenchmark-" + t);
+			workers[t].start();
+		}
+
+		started.countDown();
+		Thread.sleep(durationMillis);
+		running.set(false);
+		for (Thread worker : workers)
+			worker.join();
+		return samples;
+	}
+
+	/**
+	 * Removes the stars and customers inserted by the benchmarks, by the IDs they recorded, so
+	 * rows that were in the database before the run are never touched.
+	 *
+	 * @throws SQLException	if the rows could not be removed
+	 */
+	public void cleanUp() throws SQLException {
+		deleteByID("customers", mInsertedCustomerIDs);
+		deleteByID("stars", mInsertedStarIDs);
+	}
+
+	private void deleteByID(String table, Queue<Integer> insertedIDs) throws SQLException {
+		List<Integer> ids = new ArrayList<Integer>(insertedIDs);
+		insertedIDs.clear();
+
+		Statement statement = mSetupConnection.createStatement();
+		try {
+			for (int i = 0; i < ids.size(); i += FabFlixDBManager.DEFAULT_DELETE_CHUNK_SIZE) {
+				List<Integer> chunk = ids.subList(i, Math.min(i + FabFlixDBManager.DEFAULT_DELETE_CHUNK_SIZE, ids.size()));
+				statement.executeUpdate("delete from " + table + " where id in (" + chunk.toString().replaceAll("[\\[\\]]", "") + ")");
+			}
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static double percentile(long[] sorted, double fraction) {
+		if (sorted.length == 0)
+			return 0;
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)] / 1e6;
+	}
+
+	private static String readFile(File file) throws IOException {
+		Scanner scanner = new Scanner(file, "UTF-8");
+		try {
+			return scanner.useDelimiter("\\A").hasNext() ? scanner.next() : "";
+		} finally {
+			scanner.close();
+		}
+	}
+
+	/**
+	 * Writer that discards everything, so streamed query results are read but not kept.
+	 */
+	static class NullWriter extends Writer
+	{
+		@Override
+		public void write(char[] buffer, int offset, int length) {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Runs the benchmarks from the command line:
+	 * <pre>
+	 * java FabFlixBenchmark [-user name] [-password pass] [-seed directory] [-threads 1,4,16]
+	 *     [-warmup seconds] [-measure seconds] [-mode throughput|sample|all] [-cache]
+	 *     [-output file] [benchmark...]
+	 * </pre>
+	 * The star lookup cache is disabled unless <i>-cache</i> is given, so lookups reach the database.
+	 *
+	 * @param args	command line options followed by the names of the benchmarks to run (default: all)
+	 */
+	public static void main(String[] args) {
+		String username = null, password = null, output = null, mode = "all";
+		File seedDirectory = null;
+		int[] threadCounts = { 1, 4, 16 };
+		long warmupMillis = 5000, measureMillis = 10000;
+		boolean cache = false;
+		List<String> names = new ArrayList<String>();
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-user"))
+					username = args[++i];
+				else if (args[i].equals("-password"))
+					password = args[++i];
+				else if (args[i].equals("-seed"))
+					seedDirectory = new File(args[++i]);
+				else if (args[i].equals("-threads")) {
+					String[] counts = args[++i].split(",");
+					threadCounts = new int[counts.length];
+					for (int j = 0; j < counts.length; j++)
+						threadCounts[j] = Integer.parseInt(counts[j].trim());
+				}
+				else if (args[i].equals("-warmup"))
+					warmupMillis = Long.parseLong(args[++i]) * 1000;
+				else if (args[i].equals("-measure"))
+					measureMillis = Long.parseLong(args[++i]) * 1000;
+				else if (args[i].equals("-mode"))
+					mode = args[++i];
+				else if (args[i].equals("-cache"))
+					cache = true;
+				else if (args[i].equals("-output"))
+					output = args[++i];
+				else
+					names.add(args[i]);
+			}
+		} catch (RuntimeException e) {
+			System.out.println("Usage: java FabFlixBenchmark [-user name] [-password pass] [-seed directory] " +
+				"[-threads 1,4,16] [-warmup seconds] [-measure seconds] [-mode throughput|sample|all] [-cache] " +
+				"[-output file] [benchmark...]");
+			return;
+		}
+
+		Scanner reader = new Scanner(System.in);
+		if (username == null) {
+			System.out.print("Enter your database username: ");
+			username = reader.nextLine();
+		}
+		if (password == null) {
+			System.out.print("Enter your database password: ");
+			password = reader.nextLine();
+		}
+
+		FabFlixDBManager manager = null;
+		Connection setupConnection = null;
+		PrintWriter report = null;
+
+		try {
+			manager = new FabFlixDBManager();
+			setupConnection = DriverManager.getConnection(FabFlixDBManager.DATABASE_URL, username, password);
+			FabFlixBenchmark benchmark = new FabFlixBenchmark(manager, setupConnection);
+
+			if (seedDirectory != null)
+				benchmark.seed(username, password, seedDirectory);
+
+			int maxThreads = 1;
+			for (int threads : threadCounts)
+				maxThreads = Math.max(maxThreads, threads);
+
+			SQLException connectionError = manager.attemptConnection(username, password,
+				Math.min(maxThreads, FabFlixConnectionPool.DEFAULT_MIN_SIZE), maxThreads);
+			if (connectionError != null)
+				throw connectionError;
+			manager.setStarLookupCacheEnabled(cache);
+			benchmark.prepareInputs();
+
+			report = output == null ? null : new PrintWriter(new FileWriter(output));
+			Map<String, Operation> operations = benchmark.getOperations();
+			if (names.isEmpty())
+				names.addAll(operations.keySet());
+
+			for (String name : names) {
+				Operation operation = operations.get(name);
+				if (operation == null) {
+					System.out.println(FabFlixConsole.getErrorMessage("Unknown benchmark '" + name + "'. Available: " + operations.keySet()));
+					continue;
+				}
+
+				for (int threads : threadCounts) {
+					List<String> lines = new ArrayList<String>();
+					if (!mode.equals("sample"))
+						lines.add(benchmark.run(operation, threads, warmupMillis, measureMillis, false));
+					if (!mode.equals("throughput"))
+						lines.add(benchmark.run(operation, threads, warmupMillis, measureMillis, true));
+
+					for (String line : lines) {
+						System.out.println(line);
+						if (report != null)
+							report.println(line);
+					}
+				}
+			}
+			benchmark.cleanUp();
+
+		} catch (SQLException e) {
+			System.out.println(FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage()));
+		} catch (Exception e) {
+			System.out.println(FabFlixConsole.getErrorMessage("Benchmark failed: " + e));
+		} finally {
+			if (report != null)
+				report.close();
+			if (manager != null)
+				manager.closeConnection();
+			try {
+				if (setupConnection != null)
+					setupConnection.close();
+			} catch (SQLException e) {
+				// Nothing left to clean up
+			}
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,638 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads SQL dumps (such as <i>data.sql</i>) and CSV files into the movie database in bulk.
+ * Input files are streamed once and their rows spooled into one temporary file per table.
+ * The tables are then loaded in foreign key order using JDBC batches inside transactions of
+ * a fixed size, optionally loading tables that do not depend on each other at the same time.
+ *
+ * SQL files must contain <i>INSERT INTO table [(columns)] VALUES(...)[, (...)];</i> statements.
+ * CSV files are named after their table (e.g. <i>movies.csv</i>) and start with a header row
+ * naming the columns; an unquoted <i>\N</i> field is loaded as NULL.
+ */
+public class FabFlixBulkLoader
+{
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	public static final int DEFAULT_TRANSACTION_SIZE = 5000;
+
+	// Tables in the same group do not reference each other and can be loaded at the same time
+	private static final String[][] TABLE_LOAD_ORDER = {
+		{ "movies", "stars", "genres", "creditcards" },
+		{ "stars_in_movies", "genres_in_movies", "customers" },
+		{ "sales" }
+	};
+
+	private static final Pattern INSERT_PATTERN = Pattern.compile(
+		"^\\s*insert\\s+into\\s+`?(\\w+)`?\\s*(?:\\(([^)]*)\\))?\\s*values\\s*",
+		Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	/**
+	 * Rows of a single table written to a temporary file until the table is loaded.
+	 */
+	private static class TableSpool
+	{
+		final String mTableName;
+		final String[] mColumns;
+		final File mFile;
+		final DataOutputStream mOutput;
+		int mColumnCount = -1;
+		long mRowCount;
+		volatile boolean mFailed;
+
+		TableSpool(String tableName, String[] columns) throws IOException {
+			mTableName = tableName;
+			mColumns = columns;
+			mFile = File.createTempFile("fabflix-" + tableName + "-", ".spool");
+			mFile.deleteOnExit();
+			mOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile), 1 << 16));
+		}
+
+		void write(String[] values) throws IOException {
+			if (mColumnCount < 0)
+				mColumnCount = values.length;
+			else if (values.length != mColumnCount)
+				throw new IOException("Row " + (mRowCount + 1) + " of table '" + mTableName + "' has " +
+					values.length + " values, expected " + mColumnCount + ".");
+
+			for (String value : values) {
+				mOutput.writeBoolean(value == null);
+				if (value != null) {
+					// writeUTF is limited to 64 KB, which long text columns can exceed
+					byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+					mOutput.writeInt(bytes.length);
+					mOutput.write(bytes);
+				}
+			}
+			mRowCount++;
+		}
+
+		static String read(DataInputStream input) throws IOException {
+			byte[] bytes = new byte[input.readInt()];
+			input.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	private final FabFlixConnectionPool mConnectionPool;
+	private final int mBatchSize;
+	private final int mTransactionSize;
+	private final boolean mParallel;
+	private final Map<String, TableSpool> mSpools = new LinkedHashMap<String, TableSpool>();
+
+	/**
+	 * Creates a loader that draws its connections from the given pool. In parallel mode
+	 * the pool should allow as many connections as there are tables loaded at once.
+	 *
+	 * @param connectionPool	pool connected to the movie database
+	 * @param batchSize	number of rows sent to the server in one JDBC batch
+	 * @param transactionSize	number of rows committed in one transaction
+	 * @param parallel	if <b>true</b>, independent tables are loaded at the same time
+	 */
+	public FabFlixBulkLoader(FabFlixConnectionPool connectionPool, int batchSize, int transactionSize, boolean parallel) {
+		mConnectionPool = connectionPool;
+		mBatchSize = Math.max(1, batchSize);
+		mTransactionSize = Math.max(mBatchSize, transactionSize);
+		mParallel = parallel;
+	}
+
+	/**
+	 * Streams an input file and spools its rows by table. Files ending in <i>.csv</i> are read
+	 * as CSV, every other file is read as SQL insert statements.
+	 *
+	 * @param file	SQL or CSV file to read
+	 * @return	number of rows read from the file
+	 * @throws IOException	if the file could not be read or contains malformed rows
+	 */
+	public long addFile(File file) throws IOException {
+		Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16);
+		try {
+			if (file.getName().toLowerCase().endsWith(".csv")) {
+				String tableName = file.getName().substring(0, file.getName().length() - 4);
+				return addCSV(tableName, reader);
+			}
+			return addSQL(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Spools a single row for a table. Rows added for the same table must all have the same
+	 * number of values.
+	 *
+	 * @param tableName	name of the table the row is inserted into
+	 * @param columns	column names matching the values, or <i>null</i> to insert by position
+	 * @param values	column values as strings (<i>null</i> for SQL NULL)
+	 * @throws IOException	if the row could not be spooled
+	 */
+	public void addRow(String tableName, String[] columns, String[] values) throws IOException {
+		String key = tableName.toLowerCase();
+		TableSpool spool = mSpools.get(key);
+
+		if (spool == null) {
+			spool = new TableSpool(key, columns);
+			mSpools.put(key, spool);
+		} else if (!Arrays.equals(spool.mColumns, columns))
+			throw new IOException("Rows for table '" + tableName + "' use different column lists.");
+
+		spool.write(values);
+	}
+
+	/**
+	 * Loads every spooled table into the database in foreign key order and returns a report
+	 * of the rows loaded and the load rate. Loading stops after the first group of tables
+	 * in which a table failed, since later groups reference it.
+	 *
+	 * @return	output message summarizing the load
+	 */
+	public String load() {
+		StringBuffer buffer = new StringBuffer("\n");
+		long start = System.nanoTime();
+		long totalRows = 0;
+
+		for (TableSpool spool : mSpools.values()) {
+			try {
+				spool.mOutput.close();
+			} catch (IOException e) {
+				return FabFlixConsole.getErrorMessage("Unable to spool rows for table '" + spool.mTableName + "': " + e.getMessage());
+			}
+		}
+
+		for (List<TableSpool> group : getLoadGroups()) {
+			List<String> results = new ArrayList<String>();
+			boolean failed = false;
+
+			if (mParallel && group.size() > 1) {
+				ExecutorService executor = Executors.newFixedThreadPool(group.size());
+				List<Future<String>> futures = new ArrayList<Future<String>>();
+
+				for (final TableSpool spool : group) {
+					futures.add(executor.submit(new Callable<String>() {
+						@Override
+						public String call() {
+							return loadTable(spool);
+						}
+					}));
+				}
+
+				for (int i = 0; i < futures.size(); i++) {
+					try {
+						results.add(futures.get(i).get());
+					} catch (Exception e) {
+						group.get(i).mFailed = true;
+						results.add(FabFlixConsole.getErrorMessage("Table load interrupted: " + e.getMessage()));
+					}
+				}
+				executor.shutdown();
+			} else {
+				for (TableSpool spool : group)
+					results.add(loadTable(spool));
+			}
+
+			for (int i = 0; i < group.size(); i++) {
+				buffer.append(results.get(i));
+				if (group.get(i).mFailed)
+					failed = true;
+				else
+					totalRows += group.get(i).mRowCount;
+			}
+
+			if (failed) {
+				buffer.append(FabFlixConsole.getErrorMessage("Skipping remaining tables because a table they depend on failed to load."));
+				break;
+			}
+		}
+
+		for (TableSpool spool : mSpools.values())
+			spool.mFile.delete();
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		buffer.append(FabFlixConsole.getInfoMessage(String.format("Loaded %d row(s) in %.2f s (%.0f rows/s).\n",
+			totalRows, seconds, seconds > 0 ? totalRows / seconds : 0)));
+		return buffer.toString();
+	}
+
+	/**
+	 * Groups the spooled tables by their position in the foreign key order. Tables that are
+	 * not part of the movie database schema are loaded last.
+	 *
+	 * @return	groups of tables, in the order they must be loaded
+	 */
+	private List<List<TableSpool>> getLoadGroups() {
+		List<List<TableSpool>> groups = new ArrayList<List<TableSpool>>();
+		Map<String, TableSpool> remaining = new LinkedHashMap<String, TableSpool>(mSpools);
+
+		for (String[] tableNames : TABLE_LOAD_ORDER) {
+			List<TableSpool> group = new ArrayList<TableSpool>();
+			for (String tableName : tableNames) {
+				TableSpool spool = remaining.remove(tableName);
+				if (spool != null)
+					group.add(spool);
+			}
+			if (!group.isEmpty())
+				groups.add(group);
+		}
+
+		for (TableSpool spool : remaining.values())
+			groups.add(new ArrayList<TableSpool>(Arrays.asList(spool)));
+		return groups;
+	}
+
+	/**
+	 * Loads a single spooled table using JDBC batches, committing every <i>transactionSize</i> rows.
+	 * A failed table has its current transaction rolled back.
+	 *
+	 * @param spool	spooled rows of the table
+	 * @return	output message for the table (an error message if the load failed)
+	 */
+	private String loadTable(TableSpool spool) {
+		if (spool.mRowCount == 0)
+			return FabFlixConsole.getInfoMessage("Table '" + spool.mTableName + "': no rows to load.\n");
+
+		StringBuilder insert = new StringBuilder("insert into " + spool.mTableName);
+		if (spool.mColumns != null)
+			insert.append(" (" + String.join(", ", spool.mColumns) + ")");
+		insert.append(" values(");
+		for (int i = 0; i < spool.mColumnCount; i++)
+			insert.append(i == 0 ? "?" : ", ?");
+		insert.append(")");
+
+		FabFlixPooledConnection connection = null;
+		DataInputStream input = null;
+		long start = System.nanoTime();
+		long rowsLoaded = 0;
+
+		try {
+			connection = mConnectionPool.borrowConnection();
+			connection.getConnection().setAutoCommit(false);
+			PreparedStatement statement = connection.prepareStatement(insert.toString());
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(spool.mFile), 1 << 16));
+
+			for (long row = 0; row < spool.mRowCount; row++) {
+				for (int i = 1; i <= spool.mColumnCount; i++) {
+					if (input.readBoolean())
+						statement.setNull(i, Types.VARCHAR);
+					else
+						statement.setString(i, TableSpool.read(input));
+				}
+				statement.addBatch();
+
+				if ((row + 1) % mBatchSize == 0)
+					statement.executeBatch();
+				if ((row + 1) % mTransactionSize == 0) {
+					connection.getConnection().commit();
+					rowsLoaded = row + 1;
+				}
+			}
+
+			statement.executeBatch();
+			connection.getConnection().commit();
+			rowsLoaded = spool.mRowCount;
+
+			double seconds = (System.nanoTime() - start) / 1e9;
+			return FabFlixConsole.getInfoMessage(String.format("Table '%s': loaded %d row(s) in %.2f s (%.0f rows/s).\n",
+				spool.mTableName, rowsLoaded, seconds, seconds > 0 ? rowsLoaded / seconds : 0));
+
+		} catch (SQLException e) {
+			spool.mFailed = true;
+			rollback(connection);
+			SQLException cause = e.getNextException() != null ? e.getNextException() : e;
+			return FabFlixConsole.getErrorMessage("Table '" + spool.mTableName + "' failed after " + rowsLoaded +
+				" committed row(s). Error code " + cause.getErrorCode() + ": " + cause.getMessage());
+		} catch (IOException e) {
+			spool.mFailed = true;
+			rollback(connection);
+			return FabFlixConsole.getErrorMessage("Unable to read spooled rows for table '" + spool.mTableName + "': " + e.getMessage());
+		} finally {
+			if (input != null) {
+				try { input.close(); }
+				catch (IOException e) { /* spool file is deleted after the load */ }
+			}
+			if (connection != null)
+				connection.getPool().returnConnection(connection);
+		}
+	}
+
+	private void rollback(FabFlixPooledConnection connection) {
+		try {
+			if (connection != null)
+				connection.getConnection().rollback();
+		} catch (SQLException e) {
+			connection.markBroken();
+		}
+	}
+
+	/**
+	 * Reads SQL insert statements from a stream and spools their rows. Statements other
+	 * than inserts are skipped.
+	 *
+	 * @param reader	stream of SQL statements separated by semicolons
+	 * @return	number of rows spooled
+	 * @throws IOException	if the stream could not be read or an insert is malformed
+	 */
+	private long addSQL(Reader reader) throws IOException {
+		StringBuilder statement = new StringBuilder();
+		long rows = 0;
+		char quote = 0;
+		int c;
+
+		while ((c = reader.read()) != -1) {
+			if (quote != 0) {
+				statement.append((char) c);
+				if (c == '\\') {
+					int next = reader.read();
+					if (next != -1)
+						statement.append((char) next);
+				} else if (c == quote)
+					quote = 0;
+			} else if (c == ';') {
+				rows += addInsertStatement(statement.toString());
+				statement.setLength(0);
+			} else {
+				if (c == '\'' || c == '"')
+					quote = (char) c;
+				statement.append((char) c);
+			}
+		}
+
+		if (statement.toString().trim().length() > 0)
+			rows += addInsertStatement(statement.toString());
+		return rows;
+	}
+
+	/**
+	 * Parses a single insert statement and spools every row of its VALUES list.
+	 *
+	 * @param statement	SQL statement without the trailing semicolon
+	 * @return	number of rows spooled
+	 * @throws IOException	if the statement is a malformed insert
+	 */
+	private long addInsertStatement(String statement) throws IOException {
+		Matcher matcher = INSERT_PATTERN.matcher(statement);
+		if (!matcher.find()) {
+			if (!statement.trim().isEmpty())
+				System.out.println(FabFlixConsole.getInfoMessage("Skipping non-insert statement: " +
+					statement.trim().split("\\s+")[0] + "..."));
+			return 0;
+		}
+
+		String tableName = matcher.group(1);
+		String[] columns = null;
+		if (matcher.group(2) != null) {
+			columns = matcher.group(2).split(",");
+			for (int i = 0; i < columns.length; i++)
+				columns[i] = columns[i].trim().replace("`", "");
+		}
+
+		long rows = 0;
+		int position = matcher.end();
+		List<String> values = new ArrayList<String>();
+
+		while (position < statement.length()) {
+			char c = statement.charAt(position);
+			if (Character.isWhitespace(c) || c == ',') {
+				position++;
+				continue;
+			}
+			if (c != '(')
+				throw new IOException("Malformed VALUES list in insert into '" + tableName + "'.");
+
+			position = parseTuple(statement, position + 1, values);
+			addRow(tableName, columns, values.toArray(new String[values.size()]));
+			values.clear();
+			rows++;
+		}
+		return rows;
+	}
+
+	/**
+	 * Parses the literals of one VALUES tuple, starting right after its opening parenthesis.
+	 *
+	 * @param text	statement text
+	 * @param position	index of the first character inside the tuple
+	 * @param values	list the parsed values are added to (<i>null</i> for SQL NULL)
+	 * @return	index right after the closing parenthesis of the tuple
+	 * @throws IOException	if the tuple is not terminated
+	 */
+	private static int parseTuple(String text, int position, List<String> values) throws IOException {
+		StringBuilder value = new StringBuilder();
+
+		while (position < text.length()) {
+			char c = text.charAt(position);
+
+			if (Character.isWhitespace(c)) {
+				position++;
+			} else if (c == '\'' || c == '"') {
+				// Quoted string literal, supporting both doubled quotes and backslash escapes
+				value.setLength(0);
+				position++;
+				while (position < text.length()) {
+					char d = text.charAt(position++);
+					if (d == '\\' && position < text.length()) {
+						char escaped = text.charAt(position++);
+						value.append(escaped == 'n' ? '\n' : escaped == 't' ? '\t' : escaped == '0' ? '\0' : escaped);
+					} else if (d == c) {
+						if (position < text.length() && text.charAt(position) == c) {
+							value.append(c);
+							position++;
+						} else
+							break;
+					} else
+						value.append(d);
+				}
+				values.add(value.toString());
+				position = skipToSeparator(text, position);
+			} else {
+				// Unquoted literal (number, NULL, ...)
+				int end = position;
+				while (end < text.length() && text.charAt(end) != ',' && text.charAt(end) != ')')
+					end++;
+				String literal = text.substring(position, end).trim();
+				values.add(literal.equalsIgnoreCase("NULL") ? null : literal);
+				position = end;
+			}
+
+			if (position < text.length() && text.charAt(position) == ')')
+				return position + 1;
+			if (position < text.length() && text.charAt(position) == ',')
+				position++;
+		}
+		throw new IOException("Unterminated VALUES tuple.");
+	}
+
+	private static int skipToSeparator(String text, int position) {
+		while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+			position++;
+		return position;
+	}
+
+	/**
+	 * Reads CSV rows from a stream and spools them for a table. The first row names the columns.
+	 *
+	 * @param tableName	table the rows are inserted into
+	 * @param reader	stream of CSV rows
+	 * @return	number of rows spooled
+	 * @throws IOException	if the stream could not be read
+	 */
+	private long addCSV(String tableName, Reader reader) throws IOException {
+		List<String> fields = new ArrayList<String>();
+		String[] columns = null;
+		long rows = 0;
+
+		while (readCSVRecord(reader, fields)) {
+			String[] record = fields.toArray(new String[fields.size()]);
+			if (columns == null)
+				columns = record;
+			else {
+				addRow(tableName, columns, record);
+				rows++;
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Reads one CSV record. Quoted fields may contain commas, doubled quotes and line breaks.
+	 *
+	 * @param reader	stream of CSV rows
+	 * @param fields	list that is filled with the record's fields
+	 * @return	<b>false</b> if the end of the stream was reached before any field
+	 * @throws IOException	if the stream could not be read
+	 */
+	static boolean readCSVRecord(Reader reader, List<String> fields) throws IOException {
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false, wasQuoted = false, any = false;
+		fields.clear();
+		int c;
+
+		while ((c = reader.read()) != -1) {
+			any = true;
+			if (quoted) {
+				if (c == '"') {
+					reader.mark(1);
+					int next = reader.read();
+					if (next == '"')
+						field.append('"');
+					else {
+						quoted = false;
+						if (next != -1)
+							reader.reset();
+					}
+				} else
+					field.append((char) c);
+			} else if (c == '"') {
+				quoted = wasQuoted = true;
+			} else if (c == ',') {
+				fields.add(toCSVValue(field, wasQuoted));
+				field.setLength(0);
+				wasQuoted = false;
+			} else if (c == '\n') {
+				break;
+			} else if (c != '\r') {
+				field.append((char) c);
+			}
+		}
+
+		if (!any)
+			return false;
+		fields.add(toCSVValue(field, wasQuoted));
+		return true;
+	}
+
+	private static String toCSVValue(StringBuilder field, boolean wasQuoted) {
+		String value = field.toString();
+		return !wasQuoted && value.equals("\\N") ? null : value;
+	}
+
+	/**
+	 * Runs the bulk loader from the command line:
+	 * <pre>
+	 * java FabFlixBulkLoader [-user name] [-password pass] [-batch rows] [-transaction rows] [-parallel] file...
+	 * </pre>
+	 * The user name and password are prompted for if they are not given.
+	 *
+	 * @param args	command line options followed by the files to load
+	 */
+	public static void main(String[] args) {
+		String username = null, password = null;
+		int batchSize = DEFAULT_BATCH_SIZE, transactionSize = DEFAULT_TRANSACTION_SIZE;
+		boolean parallel = false;
+		List<File> files = new ArrayList<File>();
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-user"))
+					username = args[++i];
+				else if (args[i].equals("-password"))
+					password = args[++i];
+				else if (args[i].equals("-batch"))
+					batchSize = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-transaction"))
+					transactionSize = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-parallel"))
+					parallel = true;
+				else
+					files.add(new File(args[i]));
+			}
+		} catch (RuntimeException e) {
+			files.clear();
+		}
+
+		if (files.isEmpty()) {
+			System.out.println("Usage: java FabFlixBulkLoader [-user name] [-password pass] [-batch rows] " +
+				"[-transaction rows] [-parallel] file...");
+			return;
+		}
+
+		Scanner reader = new Scanner(System.in);
+		if (username == null) {
+			System.out.print("Enter your database username: ");
+			username = reader.nextLine();
+		}
+		if (password == null) {
+			System.out.print("Enter your database password: ");
+			password = reader.nextLine();
+		}
+
+		FabFlixConnectionPool pool = null;
+		try {
+			Class.forName("com.mysql.jdbc.Driver").getDeclaredConstructor().newInstance();
+			int poolSize = parallel ? TABLE_LOAD_ORDER[0].length : 1;
+			pool = new FabFlixConnectionPool(FabFlixDBManager.DATABASE_URL,
+				username, password, 1, poolSize,
+				FabFlixConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS, FabFlixConnectionPool.DEFAULT_BORROW_TIMEOUT_MILLIS);
+
+			FabFlixBulkLoader loader = new FabFlixBulkLoader(pool, batchSize, transactionSize, parallel);
+			for (File file : files) {
+				long rows = loader.addFile(file);
+				System.out.println(FabFlixConsole.getInfoMessage("Read " + rows + " row(s) from '" + file + "'."));
+			}
+			System.out.println(loader.load());
+
+		} catch (SQLException e) {
+			System.out.println(FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage()));
+		} catch (IOException e) {
+			System.out.println(FabFlixConsole.getErrorMessage("Unable to read input: " + e.getMessage()));
+		} catch (Exception e) {
+			System.out.println(FabFlixConsole.getErrorMessage("Unable to connect to JDBC driver!"));
+		} finally {
+			if (pool != null)
+				pool.close();
+			reader.close();
+		}
+	}
+}
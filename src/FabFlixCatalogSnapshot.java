@@ -0,0 +1,514 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only copy of the catalog tables (<i>movies</i>, <i>stars</i>, <i>stars_in_movies</i>,
+ * <i>genres</i> and <i>genres_in_movies</i>) in a compact binary file. Every string is stored
+ * once in a dictionary and rows refer to it by index, so each table is an array of fixed-width
+ * int records sorted by ID, and each join table is a pair of int columns sorted by its first
+ * column.
+ * <p>
+ * Opening a snapshot only memory-maps the file and checks its header; nothing is decoded until
+ * it is looked up, so opening takes the same time however large the catalog is, and the pages
+ * of the file are shared by the OS page cache between sessions. Lookups are binary searches
+ * over the mapped records and never touch the database.
+ * <p>
+ * A snapshot is a copy as of the time it was written; changes made to the database afterwards,
+ * by this client or any other, are not in it.
+ */
+public class FabFlixCatalogSnapshot
+{
+	private static final int MAGIC = 0x46465843;	// "FFXC"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 64;
+	private static final int NO_STRING = -1;
+	private static final int NO_DATE = Integer.MIN_VALUE;
+
+	// Ints per record of each table
+	private static final int MOVIE_RECORD_INTS = 6;
+	private static final int STAR_RECORD_INTS = 5;
+	private static final int GENRE_RECORD_INTS = 2;
+
+	private static final String MOVIES_QUERY =
+		"select id, title, year, director, banner_url, trailer_url from movies order by id";
+	private static final String STARS_QUERY =
+		"select id, first_name, last_name, dob, photo_url from stars order by id";
+	private static final String GENRES_QUERY =
+		"select id, name from genres order by id";
+	private static final String STARS_IN_MOVIES_QUERY =
+		"select star_id, movie_id from stars_in_movies order by star_id, movie_id";
+	private static final String GENRES_IN_MOVIES_QUERY =
+		"select movie_id, genre_id from genres_in_movies order by movie_id, genre_id";
+
+	private final File mFile;
+	private final ByteBuffer mBuffer;
+	private final long mCreatedTime;
+	private final long mOpenTimeNanos;
+
+	private final int mMovieCount, mStarCount, mGenreCount, mStarMovieCount, mGenreMovieCount, mStringCount;
+	private final int mMoviesOffset, mStarsOffset, mStarNameOrderOffset, mGenresOffset;
+	private final int mStarMoviesOffset, mGenreMoviesOffset, mStringOffsetsOffset, mStringBytesOffset;
+
+	private FabFlixCatalogSnapshot(File file, ByteBuffer buffer, long openTimeNanos) throws IOException {
+		mFile = file;
+		mBuffer = buffer;
+		mOpenTimeNanos = openTimeNanos;
+
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException("'" + file + "' is not a catalog snapshot.");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException("Unsupported catalog snapshot version " + buffer.getInt(4) + ".");
+
+		mCreatedTime = buffer.getLong(8);
+		mMovieCount = buffer.getInt(16);
+		mStarCount = buffer.getInt(20);
+		mGenreCount = buffer.getInt(24);
+		mStarMovieCount = buffer.getInt(28);
+		mGenreMovieCount = buffer.getInt(32);
+		mStringCount = buffer.getInt(36);
+
+		// Sections follow the header back to back in this order
+		mMoviesOffset = HEADER_SIZE;
+		mStarsOffset = mMoviesOffset + 4 * MOVIE_RECORD_INTS * mMovieCount;
+		mStarNameOrderOffset = mStarsOffset + 4 * STAR_RECORD_INTS * mStarCount;
+		mGenresOffset = mStarNameOrderOffset + 4 * mStarCount;
+		mStarMoviesOffset = mGenresOffset + 4 * GENRE_RECORD_INTS * mGenreCount;
+		mGenreMoviesOffset = mStarMoviesOffset + 8 * mStarMovieCount;
+		mStringOffsetsOffset = mGenreMoviesOffset + 8 * mGenreMovieCount;
+		mStringBytesOffset = mStringOffsetsOffset + 4 * (mStringCount + 1);
+
+		if (mStringBytesOffset > buffer.capacity() ||
+				mStringBytesOffset + (long) buffer.getInt(mStringBytesOffset - 4) != buffer.capacity())
+			throw new IOException("Catalog snapshot '" + file + "' is truncated or corrupt.");
+	}
+
+	/**
+	 * Memory-maps a snapshot file written by {@link #write}.
+	 *
+	 * @param file	snapshot file
+	 * @return	snapshot backed by the mapped file
+	 * @throws IOException	if the file could not be read or is not a valid snapshot
+	 */
+	public static FabFlixCatalogSnapshot open(File file) throws IOException {
+		long start = System.nanoTime();
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Catalog snapshot '" + file + "' is too large to map.");
+
+			// The mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new FabFlixCatalogSnapshot(file, buffer, System.nanoTime() - start);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads the catalog tables from the database and writes them to a snapshot file. The file
+	 * is written next to its destination and then renamed over it, so a snapshot that is open
+	 * elsewhere is never seen half-written.
+	 *
+	 * @param connection	connection to read the tables with
+	 * @param file	snapshot file to create or replace
+	 * @return	size of the written file in bytes
+	 * @throws SQLException	if an error occurred querying the database
+	 * @throws IOException	if an error occurred writing the file
+	 */
+	public static long write(Connection connection, File file) throws SQLException, IOException {
+		List<String> strings = new ArrayList<String>();
+		Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+
+		int[] movies = readTable(connection, MOVIES_QUERY, "ISISSS", strings, stringIndexes);
+		int[] stars = readTable(connection, STARS_QUERY, "ISSDS", strings, stringIndexes);
+		int[] genres = readTable(connection, GENRES_QUERY, "IS", strings, stringIndexes);
+		int[] starMovies = readTable(connection, STARS_IN_MOVIES_QUERY, "II", strings, stringIndexes);
+		int[] genreMovies = readTable(connection, GENRES_IN_MOVIES_QUERY, "II", strings, stringIndexes);
+		int starCount = stars.length / STAR_RECORD_INTS;
+
+		// Stars in name order, so name lookups are a binary search instead of a scan
+		Integer[] nameOrder = new Integer[starCount];
+		final String[] nameKeys = new String[starCount];
+		for (int i = 0; i < starCount; i++) {
+			nameOrder[i] = i;
+			nameKeys[i] = toNameKey(getString(strings, stars[i * STAR_RECORD_INTS + 2])) + "\0" +
+				toNameKey(getString(strings, stars[i * STAR_RECORD_INTS + 1]));
+		}
+		Arrays.sort(nameOrder, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return nameKeys[a].compareTo(nameKeys[b]);
+			}
+		});
+
+		File tempFile = File.createTempFile("fabflix-snapshot-", ".tmp", file.getAbsoluteFile().getParentFile());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(System.currentTimeMillis());
+			out.writeInt(movies.length / MOVIE_RECORD_INTS);
+			out.writeInt(starCount);
+			out.writeInt(genres.length / GENRE_RECORD_INTS);
+			out.writeInt(starMovies.length / 2);
+			out.writeInt(genreMovies.length / 2);
+			out.writeInt(strings.size());
+			out.write(new byte[HEADER_SIZE - out.size()]);
+
+			writeInts(out, movies);
+			writeInts(out, stars);
+			for (Integer star : nameOrder)
+				out.writeInt(star);
+			writeInts(out, genres);
+			writeColumns(out, starMovies);
+			writeColumns(out, genreMovies);
+
+			// String dictionary: the end offset of every string, then the UTF-8 bytes of all of them
+			List<byte[]> stringBytes = new ArrayList<byte[]>(strings.size());
+			int offset = 0;
+			out.writeInt(0);
+			for (String string : strings) {
+				byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+				stringBytes.add(bytes);
+				offset += bytes.length;
+				out.writeInt(offset);
+			}
+			for (byte[] bytes : stringBytes)
+				out.write(bytes);
+
+			out.close();
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return file.length();
+		} finally {
+			out.close();
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Streams the rows of a query into int records. String columns are replaced with their index
+	 * in the string dictionary and dates with their day number.
+	 *
+	 * @param connection	connection to read the rows with
+	 * @param query	query selecting the record columns in order
+	 * @param columnTypes	type of each column: <i>I</i>nt, <i>S</i>tring or <i>D</i>ate
+	 * @param strings	string dictionary, extended with new strings
+	 * @param stringIndexes	index of every string in the dictionary
+	 * @return	records of every row, back to back
+	 * @throws SQLException	if an error occurred querying the database
+	 */
+	private static int[] readTable(Connection connection, String query, String columnTypes,
+		List<String> strings, Map<String, Integer> stringIndexes) throws SQLException {
+
+		int[] records = new int[1024];
+		int size = 0;
+		int columnCount = columnTypes.length();
+
+		Statement select = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		try {
+			select.setFetchSize(Integer.MIN_VALUE);
+			ResultSet result = select.executeQuery(query);
+			while (result.next()) {
+				if (size + columnCount > records.length)
+					records = Arrays.copyOf(records, records.length * 2);
+
+				for (int i = 0; i < columnCount; i++) {
+					switch (columnTypes.charAt(i)) {
+					case 'I':
+						records[size++] = result.getInt(i + 1);
+						break;
+					case 'D':
+						Date date = result.getDate(i + 1);
+						records[size++] = date == null ? NO_DATE : (int) date.toLocalDate().toEpochDay();
+						break;
+					default:
+						String value = result.getString(i + 1);
+						if (value == null) {
+							records[size++] = NO_STRING;
+							break;
+						}
+						Integer index = stringIndexes.get(value);
+						if (index == null) {
+							index = strings.size();
+							strings.add(value);
+							stringIndexes.put(value, index);
+						}
+						records[size++] = index;
+					}
+				}
+			}
+			result.close();
+		} finally {
+			select.close();
+		}
+		return Arrays.copyOf(records, size);
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		for (int value : values)
+			out.writeInt(value);
+	}
+
+	/**
+	 * Writes two-int records as two columns: every first value, then every second value.
+	 */
+	private static void writeColumns(DataOutputStream out, int[] pairs) throws IOException {
+		for (int i = 0; i < pairs.length; i += 2)
+			out.writeInt(pairs[i]);
+		for (int i = 1; i < pairs.length; i += 2)
+			out.writeInt(pairs[i]);
+	}
+
+	private static String getString(List<String> strings, int index) {
+		return index == NO_STRING ? null : strings.get(index);
+	}
+
+	/**
+	 * Returns a name in the form star names are ordered and compared by, ignoring case and
+	 * trailing spaces as the database does.
+	 */
+	private static String toNameKey(String name) {
+		return FabFlixDBManager.toNameKey(name);
+	}
+
+	/**
+	 * Returns a movie by its ID.
+	 *
+	 * @param id	movie ID
+	 * @return	the movie, or <i>null</i> if it is not in the snapshot
+	 */
+	public FabFlixMovie getMovie(int id) {
+		int row = findRecord(mMoviesOffset, MOVIE_RECORD_INTS, mMovieCount, id);
+		return row < 0 ? null : readMovie(row);
+	}
+
+	/**
+	 * Returns a star by its ID.
+	 *
+	 * @param id	star ID
+	 * @return	the star, or <i>null</i> if it is not in the snapshot
+	 */
+	public FabFlixStar getStar(int id) {
+		int row = findRecord(mStarsOffset, STAR_RECORD_INTS, mStarCount, id);
+		return row < 0 ? null : readStar(row);
+	}
+
+	/**
+	 * Decodes every star of the snapshot, in ID order.
+	 *
+	 * @return	every star
+	 */
+	public List<FabFlixStar> getStars() {
+		List<FabFlixStar> stars = new ArrayList<FabFlixStar>(mStarCount);
+		for (int row = 0; row < mStarCount; row++)
+			stars.add(readStar(row));
+		return stars;
+	}
+
+	/**
+	 * Returns the movies that feature a star, like the database lookup by star ID.
+	 *
+	 * @param starID	star ID
+	 * @return	unmodifiable list of the movies featuring the star (empty if none were found)
+	 */
+	public List<FabFlixMovie> findMoviesForStar(int starID) {
+		List<FabFlixMovie> movies = new ArrayList<FabFlixMovie>();
+		addMoviesForStar(starID, movies);
+		return FabFlixDBManager.distinctMovies(movies);
+	}
+
+	/**
+	 * Returns the movies that feature a star, like the database lookup by first and/or last name:
+	 * names are compared ignoring case, an empty name does not filter the stars, and a movie is
+	 * listed once however many of the matching stars are in it.
+	 *
+	 * @param firstName	the star's first name
+	 * @param lastName	the star's last name
+	 * @return	unmodifiable list of the movies featuring the matching stars (empty if none were found)
+	 */
+	public List<FabFlixMovie> findMoviesForStar(String firstName, String lastName) {
+		String firstKey = toNameKey(firstName), lastKey = toNameKey(lastName);
+		List<FabFlixMovie> movies = new ArrayList<FabFlixMovie>();
+
+		if (lastKey.isEmpty()) {
+			// No last name to search by, so every star is checked
+			for (int row = 0; row < mStarCount; row++) {
+				if (firstKey.isEmpty() || firstKey.equals(toNameKey(getString(getRecordInt(mStarsOffset, STAR_RECORD_INTS, row, 1)))))
+					addMoviesForStar(getRecordInt(mStarsOffset, STAR_RECORD_INTS, row, 0), movies);
+			}
+			return FabFlixDBManager.distinctMovies(movies);
+		}
+
+		// Binary search the name order for the first star with the last name
+		int low = 0, high = mStarCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (getStarLastNameKey(middle).compareTo(lastKey) < 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		for (int i = low; i < mStarCount && getStarLastNameKey(i).equals(lastKey); i++) {
+			int row = mBuffer.getInt(mStarNameOrderOffset + 4 * i);
+			if (firstKey.isEmpty() || firstKey.equals(toNameKey(getString(getRecordInt(mStarsOffset, STAR_RECORD_INTS, row, 1)))))
+				addMoviesForStar(getRecordInt(mStarsOffset, STAR_RECORD_INTS, row, 0), movies);
+		}
+		return FabFlixDBManager.distinctMovies(movies);
+	}
+
+	/**
+	 * Returns the names of a movie's genres.
+	 *
+	 * @param movieID	movie ID
+	 * @return	genre names, in genre ID order
+	 */
+	public List<String> findGenresForMovie(int movieID) {
+		List<String> genres = new ArrayList<String>();
+		int movieIDs = mGenreMoviesOffset, genreIDs = mGenreMoviesOffset + 4 * mGenreMovieCount;
+
+		for (int i = lowerBound(movieIDs, mGenreMovieCount, movieID); i < mGenreMovieCount &&
+				mBuffer.getInt(movieIDs + 4 * i) == movieID; i++) {
+			int row = findRecord(mGenresOffset, GENRE_RECORD_INTS, mGenreCount, mBuffer.getInt(genreIDs + 4 * i));
+			if (row >= 0)
+				genres.add(getString(getRecordInt(mGenresOffset, GENRE_RECORD_INTS, row, 1)));
+		}
+		return genres;
+	}
+
+	private void addMoviesForStar(int starID, List<FabFlixMovie> movies) {
+		int starIDs = mStarMoviesOffset, movieIDs = mStarMoviesOffset + 4 * mStarMovieCount;
+
+		for (int i = lowerBound(starIDs, mStarMovieCount, starID); i < mStarMovieCount &&
+				mBuffer.getInt(starIDs + 4 * i) == starID; i++) {
+			int row = findRecord(mMoviesOffset, MOVIE_RECORD_INTS, mMovieCount, mBuffer.getInt(movieIDs + 4 * i));
+			if (row >= 0)
+				movies.add(readMovie(row));
+		}
+	}
+
+	private FabFlixMovie readMovie(int row) {
+		return new FabFlixMovie(getRecordInt(mMoviesOffset, MOVIE_RECORD_INTS, row, 0),
+			getString(getRecordInt(mMoviesOffset, MOVIE_RECORD_INTS, row, 1)),
+			getRecordInt(mMoviesOffset, MOVIE_RECORD_INTS, row, 2),
+			getString(getRecordInt(mMoviesOffset, MOVIE_RECORD_INTS, row, 3)),
+			getString(getRecordInt(mMoviesOffset, MOVIE_RECORD_INTS, row, 4)),
+			getString(getRecordInt(mMoviesOffset, MOVIE_RECORD_INTS, row, 5)));
+	}
+
+	private FabFlixStar readStar(int row) {
+		int dob = getRecordInt(mStarsOffset, STAR_RECORD_INTS, row, 3);
+		return new FabFlixStar(getRecordInt(mStarsOffset, STAR_RECORD_INTS, row, 0),
+			getString(getRecordInt(mStarsOffset, STAR_RECORD_INTS, row, 1)),
+			getString(getRecordInt(mStarsOffset, STAR_RECORD_INTS, row, 2)),
+			dob == NO_DATE ? null : Date.valueOf(LocalDate.ofEpochDay(dob)),
+			getString(getRecordInt(mStarsOffset, STAR_RECORD_INTS, row, 4)));
+	}
+
+	private String getStarLastNameKey(int nameOrderPosition) {
+		int row = mBuffer.getInt(mStarNameOrderOffset + 4 * nameOrderPosition);
+		return toNameKey(getString(getRecordInt(mStarsOffset, STAR_RECORD_INTS, row, 2)));
+	}
+
+	private int getRecordInt(int tableOffset, int recordInts, int row, int column) {
+		return mBuffer.getInt(tableOffset + 4 * (row * recordInts + column));
+	}
+
+	/**
+	 * Decodes a string of the dictionary. Only absolute reads are used on the shared buffer,
+	 * so lookups are safe from any number of threads.
+	 */
+	private String getString(int index) {
+		if (index == NO_STRING)
+			return null;
+
+		int start = mBuffer.getInt(mStringOffsetsOffset + 4 * index);
+		int end = mBuffer.getInt(mStringOffsetsOffset + 4 * (index + 1));
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = mBuffer.get(mStringBytesOffset + start + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the row of the record with an ID in a table sorted by ID.
+	 *
+	 * @return	row of the record, or -1 if there is none with the ID
+	 */
+	private int findRecord(int tableOffset, int recordInts, int count, int id) {
+		int low = 0, high = count - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int middleID = getRecordInt(tableOffset, recordInts, middle, 0);
+			if (middleID < id)
+				low = middle + 1;
+			else if (middleID > id)
+				high = middle - 1;
+			else
+				return middle;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the position of the first value of a sorted int column that is not less than a key.
+	 */
+	private int lowerBound(int columnOffset, int count, int key) {
+		int low = 0, high = count;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (mBuffer.getInt(columnOffset + 4 * middle) < key)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	public File getFile() {
+		return mFile;
+	}
+
+	/**
+	 * Returns when the snapshot was written.
+	 *
+	 * @return	creation time in milliseconds since the epoch
+	 */
+	public long getCreatedTime() {
+		return mCreatedTime;
+	}
+
+	public int getMovieCount() {
+		return mMovieCount;
+	}
+
+	public int getStarCount() {
+		return mStarCount;
+	}
+
+	/**
+	 * Returns a printable summary of the snapshot contents.
+	 *
+	 * @return	output string of the snapshot statistics
+	 */
+	public String getStatistics() {
+		return String.format("Catalog snapshot '%s' (written %tF %<tT): %d movie(s), %d star(s), %d genre(s), " +
+			"%d star/movie and %d genre/movie link(s), %d string(s), %d bytes, mapped in %.3f ms\n",
+			mFile.getPath(), new java.util.Date(mCreatedTime), mMovieCount, mStarCount, mGenreCount,
+			mStarMovieCount, mGenreMovieCount, mStringCount, mBuffer.capacity(), mOpenTimeNanos / 1000000.0);
+	}
+}
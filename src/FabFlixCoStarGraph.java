@@ -0,0 +1,351 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Co-star queries over the star/movie adjacency of a {@link FabFlixJoinEngine}. Two stars are
+ * co-stars if they appear in the same movie; the graph is never materialized as star pairs,
+ * which would grow with the square of each cast, but walked through the movies instead.
+ * <p>
+ * Searches are breadth-first and expand each level's frontier in parallel on the common
+ * <i>ForkJoinPool</i>: the frontier is split into ranges of stars, and every star and movie is
+ * claimed with a compare-and-set so it is expanded by exactly one task. Small frontiers are
+ * expanded on the calling thread, where forking would cost more than it saves.
+ * <p>
+ * The graph shares the engine's arrays and is immutable, so any number of searches may run on it
+ * at the same time.
+ */
+public class FabFlixCoStarGraph
+{
+	// Frontiers with fewer stars are expanded on the calling thread
+	private static final int PARALLEL_FRONTIER_SIZE = 512;
+
+	// Number of frontier stars expanded by each fork-join leaf task
+	private static final int TASK_STARS = 128;
+
+	/**
+	 * A star reached from the star a query started from.
+	 */
+	public static class Neighbor
+	{
+		private final int mStarID;
+		private final String mName;
+		private final int mDistance;
+		private final int mSharedMovieCount;
+
+		public Neighbor(int starID, String name, int distance, int sharedMovieCount) {
+			mStarID = starID;
+			mName = name;
+			mDistance = distance;
+			mSharedMovieCount = sharedMovieCount;
+		}
+
+		public int getStarID() {
+			return mStarID;
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		/**
+		 * Returns the number of co-star hops from the starting star.
+		 *
+		 * @return	degrees of separation, 1 for a co-star
+		 */
+		public int getDistance() {
+			return mDistance;
+		}
+
+		/**
+		 * Returns the number of movies shared with the starting star. Only counted for co-stars
+		 * listed by {@link FabFlixCoStarGraph#findCoStars}, and 0 for other neighbors.
+		 *
+		 * @return	number of shared movies
+		 */
+		public int getSharedMovieCount() {
+			return mSharedMovieCount;
+		}
+	}
+
+	/**
+	 * A shortest chain of co-stars between two stars: <i>stars[i]</i> and <i>stars[i + 1]</i>
+	 * both appear in <i>movies[i]</i>.
+	 */
+	public static class Path
+	{
+		private final List<Neighbor> mStars;
+		private final List<FabFlixMovie> mMovies;
+
+		public Path(List<Neighbor> stars, List<FabFlixMovie> movies) {
+			mStars = Collections.unmodifiableList(stars);
+			mMovies = Collections.unmodifiableList(movies);
+		}
+
+		/**
+		 * @return	stars of the path, from the first star to the last, each with its distance from the first
+		 */
+		public List<Neighbor> getStars() {
+			return mStars;
+		}
+
+		/**
+		 * @return	movies linking each star of the path to the next
+		 */
+		public List<FabFlixMovie> getMovies() {
+			return mMovies;
+		}
+
+		/**
+		 * @return	degrees of separation between the first and the last star
+		 */
+		public int getLength() {
+			return mMovies.size();
+		}
+	}
+
+	/**
+	 * Visit state of a single search. A star or movie is claimed by setting its entry from 0,
+	 * so entries hold the claiming row plus one.
+	 */
+	private class Search
+	{
+		// Row + 1 of the star each star was reached from (its own row + 1 for the start)
+		final AtomicIntegerArray mParentStars = new AtomicIntegerArray(mStarIDs.length);
+		// Row of the movie each star was reached through, written only by the claiming task
+		final int[] mViaMovies = new int[mStarIDs.length];
+		final AtomicIntegerArray mVisitedMovies = new AtomicIntegerArray(mMovies.length);
+		final int[] mDistances = new int[mStarIDs.length];
+		int mDepth;
+
+		Search(int start) {
+			mParentStars.set(start, start + 1);
+			mViaMovies[start] = -1;
+		}
+
+		/**
+		 * Expands a frontier by one level.
+		 *
+		 * @return	stars first reached from the frontier
+		 */
+		int[] expand(int[] frontier) {
+			mDepth++;
+			if (frontier.length < PARALLEL_FRONTIER_SIZE)
+				return expandRange(frontier, 0, frontier.length);
+			return ForkJoinPool.commonPool().invoke(new ExpandTask(this, frontier, 0, frontier.length));
+		}
+
+		int[] expandRange(int[] frontier, int from, int to) {
+			int[] next = new int[16];
+			int size = 0;
+
+			for (int i = from; i < to; i++) {
+				int star = frontier[i];
+				for (int m = mStarMovieOffsets[star]; m < mStarMovieOffsets[star + 1]; m++) {
+					int movie = mStarMovies[m];
+					if (!mVisitedMovies.compareAndSet(movie, 0, star + 1))
+						continue;
+
+					for (int s = mMovieStarOffsets[movie]; s < mMovieStarOffsets[movie + 1]; s++) {
+						int coStar = mMovieStars[s];
+						if (!mParentStars.compareAndSet(coStar, 0, star + 1))
+							continue;
+
+						mViaMovies[coStar] = movie;
+						mDistances[coStar] = mDepth;
+						if (size == next.length)
+							next = Arrays.copyOf(next, size * 2);
+						next[size++] = coStar;
+					}
+				}
+			}
+			return Arrays.copyOf(next, size);
+		}
+
+		boolean isVisited(int star) {
+			return mParentStars.get(star) != 0;
+		}
+	}
+
+	/**
+	 * Expands a range of a frontier, splitting it in halves until it is small enough.
+	 */
+	private static class ExpandTask extends RecursiveTask<int[]>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final transient Search mSearch;
+		private final int[] mFrontier;
+		private final int mFrom, mTo;
+
+		ExpandTask(Search search, int[] frontier, int from, int to) {
+			mSearch = search;
+			mFrontier = frontier;
+			mFrom = from;
+			mTo = to;
+		}
+
+		@Override
+		protected int[] compute() {
+			if (mTo - mFrom <= TASK_STARS)
+				return mSearch.expandRange(mFrontier, mFrom, mTo);
+
+			int middle = (mFrom + mTo) >>> 1;
+			ExpandTask left = new ExpandTask(mSearch, mFrontier, mFrom, middle);
+			left.fork();
+			int[] right = new ExpandTask(mSearch, mFrontier, middle, mTo).compute();
+			int[] leftStars = left.join();
+
+			int[] next = Arrays.copyOf(leftStars, leftStars.length + right.length);
+			System.arraycopy(right, 0, next, leftStars.length, right.length);
+			return next;
+		}
+	}
+
+	private final int[] mStarIDs;
+	private final String[] mStarNames;
+	private final FabFlixMovie[] mMovies;
+	private final int[] mStarMovieOffsets, mStarMovies;
+	private final int[] mMovieStarOffsets, mMovieStars;
+
+	/**
+	 * Creates a graph over the arrays of a join engine, which are shared and never modified.
+	 *
+	 * @param starIDs	star IDs, sorted
+	 * @param starNames	display name of each star row
+	 * @param movies	movies, sorted by ID
+	 * @param starMovieOffsets	start of each star's movies in <i>starMovies</i>
+	 * @param starMovies	movie rows of each star
+	 * @param movieStarOffsets	start of each movie's stars in <i>movieStars</i>
+	 * @param movieStars	star rows of each movie
+	 */
+	FabFlixCoStarGraph(int[] starIDs, String[] starNames, FabFlixMovie[] movies,
+		int[] starMovieOffsets, int[] starMovies, int[] movieStarOffsets, int[] movieStars) {
+
+		mStarIDs = starIDs;
+		mStarNames = starNames;
+		mMovies = movies;
+		mStarMovieOffsets = starMovieOffsets;
+		mStarMovies = starMovies;
+		mMovieStarOffsets = movieStarOffsets;
+		mMovieStars = movieStars;
+	}
+
+	/**
+	 * Returns the co-stars of a star, the stars who share the most movies with it first.
+	 *
+	 * @param starID	star ID
+	 * @param limit	maximum number of co-stars returned
+	 * @return	co-stars by descending number of shared movies, then by star ID, or <i>null</i>
+	 * 			if the star does not exist
+	 */
+	public List<Neighbor> findCoStars(int starID, int limit) {
+		int star = Arrays.binarySearch(mStarIDs, starID);
+		if (star < 0)
+			return null;
+
+		// Shared movie counts, and the co-stars whose count is set
+		int[] counts = new int[mStarIDs.length];
+		int[] coStars = new int[16];
+		int coStarCount = 0;
+
+		for (int m = mStarMovieOffsets[star]; m < mStarMovieOffsets[star + 1]; m++) {
+			int movie = mStarMovies[m];
+			for (int s = mMovieStarOffsets[movie]; s < mMovieStarOffsets[movie + 1]; s++) {
+				int coStar = mMovieStars[s];
+				if (coStar == star)
+					continue;
+				if (counts[coStar]++ == 0) {
+					if (coStarCount == coStars.length)
+						coStars = Arrays.copyOf(coStars, coStarCount * 2);
+					coStars[coStarCount++] = coStar;
+				}
+			}
+		}
+
+		List<Neighbor> neighbors = new ArrayList<Neighbor>(coStarCount);
+		for (int i = 0; i < coStarCount; i++)
+			neighbors.add(new Neighbor(mStarIDs[coStars[i]], mStarNames[coStars[i]], 1, counts[coStars[i]]));
+		Collections.sort(neighbors, new Comparator<Neighbor>() {
+			@Override
+			public int compare(Neighbor a, Neighbor b) {
+				if (a.mSharedMovieCount != b.mSharedMovieCount)
+					return a.mSharedMovieCount > b.mSharedMovieCount ? -1 : 1;
+				return Integer.compare(a.mStarID, b.mStarID);
+			}
+		});
+		return neighbors.size() > limit ? new ArrayList<Neighbor>(neighbors.subList(0, limit)) : neighbors;
+	}
+
+	/**
+	 * Returns a shortest chain of co-stars from one star to another.
+	 *
+	 * @param fromStarID	ID of the first star
+	 * @param toStarID	ID of the last star
+	 * @param maxLength	maximum degrees of separation searched
+	 * @return	shortest path between the stars, or <i>null</i> if either star does not exist or
+	 * 			they are not connected within <i>maxLength</i> hops
+	 */
+	public Path findPath(int fromStarID, int toStarID, int maxLength) {
+		int from = Arrays.binarySearch(mStarIDs, fromStarID);
+		int to = Arrays.binarySearch(mStarIDs, toStarID);
+		if (from < 0 || to < 0)
+			return null;
+
+		Search search = new Search(from);
+		int[] frontier = { from };
+		while (!search.isVisited(to) && frontier.length > 0 && search.mDepth < maxLength)
+			frontier = search.expand(frontier);
+		if (!search.isVisited(to))
+			return null;
+
+		// Walk back from the last star to the first
+		List<Neighbor> stars = new ArrayList<Neighbor>();
+		List<FabFlixMovie> movies = new ArrayList<FabFlixMovie>();
+		for (int star = to; ; star = search.mParentStars.get(star) - 1) {
+			stars.add(new Neighbor(mStarIDs[star], mStarNames[star], search.mDistances[star], 0));
+			if (star == from)
+				break;
+			movies.add(mMovies[search.mViaMovies[star]]);
+		}
+		Collections.reverse(stars);
+		Collections.reverse(movies);
+		return new Path(stars, movies);
+	}
+
+	/**
+	 * Returns every star within a number of co-star hops of a star.
+	 *
+	 * @param starID	star ID
+	 * @param hops	maximum degrees of separation
+	 * @return	stars reached, by distance and then by star ID, without the star itself; or
+	 * 			<i>null</i> if the star does not exist
+	 */
+	public List<Neighbor> findNeighborhood(int starID, int hops) {
+		int star = Arrays.binarySearch(mStarIDs, starID);
+		if (star < 0)
+			return null;
+
+		Search search = new Search(star);
+		List<int[]> levels = new ArrayList<int[]>();
+		int[] frontier = { star };
+		int size = 0;
+		while (search.mDepth < hops && (frontier = search.expand(frontier)).length > 0) {
+			Arrays.sort(frontier);
+			levels.add(frontier);
+			size += frontier.length;
+		}
+
+		List<Neighbor> neighbors = new ArrayList<Neighbor>(size);
+		for (int depth = 0; depth < levels.size(); depth++) {
+			for (int neighbor : levels.get(depth))
+				neighbors.add(new Neighbor(mStarIDs[neighbor], mStarNames[neighbor], depth + 1, 0));
+		}
+		return neighbors;
+	}
+}
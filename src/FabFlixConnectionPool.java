@@ -0,0 +1,348 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Bounded pool of database connections shared by every caller of a {@link FabFlixDBManager}.
+ * The pool keeps at least <i>minSize</i> connections open, opens new ones on demand up to
+ * <i>maxSize</i>, validates idle connections before handing them out and periodically closes
+ * connections that have been idle for too long. Callers that cannot get a connection wait
+ * up to the borrow timeout before an error is raised.
+ */
+public class FabFlixConnectionPool
+{
+	public static final int DEFAULT_MIN_SIZE = 2;
+	public static final int DEFAULT_MAX_SIZE = 10;
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+	public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 5000;
+
+	private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+	private final String mURL;
+	private final String mUsername;
+	private final String mPassword;
+	private final int mMinSize;
+	private final int mMaxSize;
+	private final long mIdleTimeoutMillis;
+	private final long mBorrowTimeoutMillis;
+
+	// Most recently returned connections are kept at the front of the list
+	private final LinkedList<FabFlixPooledConnection> mIdleConnections = new LinkedList<FabFlixPooledConnection>();
+	private final Timer mEvictionTimer;
+	private final FabFlixStatementCache.Counters mStatementCacheCounters = new FabFlixStatementCache.Counters();
+
+	private int mTotalCount;	// connections open or being opened
+	private int mActiveCount;	// connections currently borrowed
+	private int mWaiterCount;	// callers waiting for a connection
+	private boolean mClosed;
+
+	private long mBorrowCount;
+	private long mTimeoutCount;
+	private long mTotalBorrowWaitNanos;
+	private long mMaxBorrowWaitNanos;
+
+	/**
+	 * Creates a pool with the default sizes and timeouts.
+	 *
+	 * @param url	JDBC URL of the database
+	 * @param username	user name field for login
+	 * @param password	password field for login
+	 * @throws SQLException	if the initial connections could not be opened
+	 */
+	public FabFlixConnectionPool(String url, String username, String password) throws SQLException {
+		this(url, username, password, DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE,
+			DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_BORROW_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Creates a pool and opens its initial <i>minSize</i> connections. If any of them fails to
+	 * open, the ones already opened are closed and the error is thrown to the caller.
+	 *
+	 * @param url	JDBC URL of the database
+	 * @param username	user name field for login
+	 * @param password	password field for login
+	 * @param minSize	number of connections kept open even when idle
+	 * @param maxSize	maximum number of connections open at once
+	 * @param idleTimeoutMillis	time after which idle connections above <i>minSize</i> are closed
+	 * @param borrowTimeoutMillis	time a caller waits for a connection before failing
+	 * @throws SQLException	if the initial connections could not be opened
+	 */
+	public FabFlixConnectionPool(String url, String username, String password, int minSize, int maxSize,
+		long idleTimeoutMillis, long borrowTimeoutMillis) throws SQLException {
+
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+			throw new IllegalArgumentException("Invalid pool size: min = " + minSize + ", max = " + maxSize);
+
+		mURL = url;
+		mUsername = username;
+		mPassword = password;
+		mMinSize = minSize;
+		mMaxSize = maxSize;
+		mIdleTimeoutMillis = idleTimeoutMillis;
+		mBorrowTimeoutMillis = borrowTimeoutMillis;
+
+		// Open the initial connections (the first one also verifies the login credentials)
+		try {
+			for (int i = 0; i < Math.max(1, minSize); i++) {
+				mIdleConnections.add(openConnection());
+				mTotalCount++;
+			}
+		} catch (SQLException e) {
+			for (FabFlixPooledConnection connection : mIdleConnections)
+				connection.close();
+			throw e;
+		}
+
+		mEvictionTimer = new Timer("FabFlixConnectionPool-evictor", true);
+		long period = Math.max(1000, idleTimeoutMillis / 2);
+		mEvictionTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				evictIdleConnections();
+			}
+		}, period, period);
+	}
+
+	/**
+	 * Borrows a connection from the pool. An idle connection is reused if one is available
+	 * (after validating it), otherwise a new one is opened if the pool is not full. If the pool
+	 * is full, the caller waits until a connection is returned or the borrow timeout expires.
+	 *
+	 * @return	a valid connection that must be given back with {@link #returnConnection}
+	 * @throws SQLException	if the pool is closed, the wait timed out, or a new connection failed to open
+	 */
+	public FabFlixPooledConnection borrowConnection() throws SQLException {
+		long start = System.nanoTime();
+		long deadline = start + mBorrowTimeoutMillis * 1000000L;
+		FabFlixPooledConnection connection = null;
+
+		synchronized (this) {
+			while (true) {
+				if (mClosed)
+					throw new SQLException("Connection pool is closed.", "08003");
+
+				if (!mIdleConnections.isEmpty()) {
+					connection = mIdleConnections.removeFirst();
+					break;
+				}
+				if (mTotalCount < mMaxSize) {
+					// Reserve a slot and open the connection outside of the lock
+					mTotalCount++;
+					break;
+				}
+
+				long remainingMillis = (deadline - System.nanoTime()) / 1000000L;
+				if (remainingMillis <= 0) {
+					mTimeoutCount++;
+					throw new SQLException("Timed out after " + mBorrowTimeoutMillis +
+						" ms waiting for a database connection (pool size = " + mMaxSize + ").", "08001");
+				}
+
+				mWaiterCount++;
+				try {
+					wait(remainingMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted while waiting for a database connection.", "08001");
+				} finally {
+					mWaiterCount--;
+				}
+			}
+			mActiveCount++;
+		}
+
+		try {
+			// Replace idle connections that are no longer usable
+			if (connection != null && !connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+				connection.close();
+				connection = null;
+			}
+			if (connection == null)
+				connection = openConnection();
+
+		} catch (SQLException e) {
+			synchronized (this) {
+				mTotalCount--;
+				mActiveCount--;
+				notify();
+			}
+			throw e;
+		}
+
+		long waitNanos = System.nanoTime() - start;
+		synchronized (this) {
+			mBorrowCount++;
+			mTotalBorrowWaitNanos += waitNanos;
+			mMaxBorrowWaitNanos = Math.max(mMaxBorrowWaitNanos, waitNanos);
+		}
+		return connection;
+	}
+
+	/**
+	 * Gives a borrowed connection back to the pool. Broken connections, and connections returned
+	 * after the pool has been closed, are closed instead of being reused.
+	 *
+	 * @param connection	connection previously obtained from {@link #borrowConnection}
+	 */
+	public void returnConnection(FabFlixPooledConnection connection) {
+		if (connection == null)
+			return;
+
+		connection.reset();
+		boolean discard;
+
+		synchronized (this) {
+			mActiveCount--;
+			discard = mClosed || connection.isBroken();
+			if (discard) {
+				mTotalCount--;
+			} else {
+				connection.touch();
+				mIdleConnections.addFirst(connection);
+			}
+			notify();
+		}
+
+		if (discard)
+			connection.close();
+	}
+
+	/**
+	 * Closes every idle connection and stops the pool from handing out new ones.
+	 * Connections still borrowed are closed as soon as they are returned.
+	 */
+	public void close() {
+		List<FabFlixPooledConnection> toClose;
+
+		synchronized (this) {
+			if (mClosed)
+				return;
+			mClosed = true;
+			toClose = new ArrayList<FabFlixPooledConnection>(mIdleConnections);
+			mTotalCount -= mIdleConnections.size();
+			mIdleConnections.clear();
+			notifyAll();
+		}
+
+		mEvictionTimer.cancel();
+		for (FabFlixPooledConnection connection : toClose)
+			connection.close();
+	}
+
+	public synchronized boolean isClosed() {
+		return mClosed;
+	}
+
+	/**
+	 * Closes connections that have been idle for longer than the idle timeout, as long as
+	 * the pool stays at or above its minimum size.
+	 */
+	private void evictIdleConnections() {
+		List<FabFlixPooledConnection> evicted = new ArrayList<FabFlixPooledConnection>();
+		long now = System.currentTimeMillis();
+
+		synchronized (this) {
+			// Least recently used connections are at the end of the idle list
+			Iterator<FabFlixPooledConnection> iterator = mIdleConnections.descendingIterator();
+			while (iterator.hasNext() && mTotalCount > mMinSize) {
+				FabFlixPooledConnection connection = iterator.next();
+				if (now - connection.getLastUsedTime() < mIdleTimeoutMillis)
+					break;
+
+				iterator.remove();
+				mTotalCount--;
+				evicted.add(connection);
+			}
+		}
+
+		for (FabFlixPooledConnection connection : evicted)
+			connection.close();
+	}
+
+	private FabFlixPooledConnection openConnection() throws SQLException {
+		return new FabFlixPooledConnection(this, DriverManager.getConnection(mURL, mUsername, mPassword), 
+			FabFlixStatementCache.DEFAULT_MAX_SIZE, mStatementCacheCounters);
+	}
+
+	public int getMinSize() {
+		return mMinSize;
+	}
+
+	public int getMaxSize() {
+		return mMaxSize;
+	}
+
+	public synchronized int getActiveCount() {
+		return mActiveCount;
+	}
+
+	public synchronized int getIdleCount() {
+		return mIdleConnections.size();
+	}
+
+	public synchronized int getWaiterCount() {
+		return mWaiterCount;
+	}
+
+	public synchronized int getTotalCount() {
+		return mTotalCount;
+	}
+
+	public synchronized long getBorrowCount() {
+		return mBorrowCount;
+	}
+
+	public synchronized long getTimeoutCount() {
+		return mTimeoutCount;
+	}
+
+	/**
+	 * Returns the average time callers waited to borrow a connection.
+	 *
+	 * @return	average borrow wait time in milliseconds
+	 */
+	public synchronized double getAverageBorrowWaitMillis() {
+		return mBorrowCount == 0 ? 0 : mTotalBorrowWaitNanos / 1000000.0 / mBorrowCount;
+	}
+
+	/**
+	 * Returns the longest time a caller waited to borrow a connection.
+	 *
+	 * @return	maximum borrow wait time in milliseconds
+	 */
+	public synchronized double getMaxBorrowWaitMillis() {
+		return mMaxBorrowWaitNanos / 1000000.0;
+	}
+
+	/**
+	 * Returns the prepared statement cache counters shared by every connection of the pool.
+	 *
+	 * @return	statement cache hit, miss and eviction counters
+	 */
+	public FabFlixStatementCache.Counters getStatementCacheCounters() {
+		return mStatementCacheCounters;
+	}
+
+	/**
+	 * Returns a printable summary of the pool's current state and usage statistics.
+	 *
+	 * @return	output string of the pool statistics
+	 */
+	public synchronized String getStatistics() {
+		return "Pool size (min/max) = " + mMinSize + "/" + mMaxSize + "\n" +
+			"Open connections = " + mTotalCount + "\n" +
+			"Active connections = " + mActiveCount + "\n" +
+			"Idle connections = " + mIdleConnections.size() + "\n" +
+			"Waiting callers = " + mWaiterCount + "\n" +
+			"Borrows = " + mBorrowCount + " (" + mTimeoutCount + " timed out)\n" +
+			String.format("Borrow wait time (avg/max) = %.3f ms / %.3f ms\n",
+				getAverageBorrowWaitMillis(), getMaxBorrowWaitMillis()) +
+			String.format("Statement cache hits/misses/evictions = %d/%d/%d (%.1f%% hit ratio)\n",
+				mStatementCacheCounters.getHits(), mStatementCacheCounters.getMisses(), 
+				mStatementCacheCounters.getEvictions(), mStatementCacheCounters.getHitRatio() * 100);
+	}
+}
@@ -1,5 +1,20 @@
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 
@@ -9,6 +24,7 @@ public class FabFlixConsole
 {
 	private FabFlixDBManager mDBManager;
 	private Scanner mReader;
+	private PrintWriter mWriter;
 	
 	private static final String mErrorHeader = "**ERROR**: ";
 	private static final String mInfoHeader = "**INFO**: ";
@@ -23,12 +39,25 @@ public class FabFlixConsole
 					"[4]\t Insert a new customer into the database\n" +
 					"[5]\t Delete a customer from the database by ID\n" +
 					"[6]\t Print out metadata of the database\n" + 
-					"[7]\t Enter a custom SQL command and print out its results";
+					"[7]\t Enter a custom SQL command and print out its results\n" +
+					"[8]\t Print out connection and cache statistics\n" +
+					"[9]\t Import customers into the database from a CSV file\n" +
+					"[10]\t Print out operation latencies and slow queries\n" +
+					"[11]\t Search stars by name or name prefix\n" +
+					"[12]\t Page through movies featuring a star or the results of a SELECT query\n" +
+					"[13]\t Export the catalog to a snapshot file\n" +
+					"[14]\t Load a catalog snapshot file for star lookups and searches\n" +
+					"[15]\t Delete customers in bulk by ID list, ID range or file of IDs\n" +
+					"[16]\t Sales analytics: top movies and customers, genre sales per month, new sales\n" +
+					"[17]\t Export tables to compressed files, or import them back\n" +
+					"[18]\t Co-star queries: top co-stars, degrees of separation, stars within k hops\n" +
+					"[19]\t Explain captured statements and propose indexes";
 	
 	public FabFlixConsole() {
 		try {
 			mDBManager = new FabFlixDBManager();
 	        mReader = new Scanner(System.in);
+	        mWriter = new PrintWriter(new OutputStreamWriter(System.out));
 	        
 		} catch (Exception e) {
 			System.out.println(getErrorMessage("Unable to connect to JDBC driver!"));
@@ -42,7 +71,10 @@ public class FabFlixConsole
 		while (attemptLogin()) {
 			String input = "", output = "";
 			
-			System.out.println(getInfoMessage("Login successful into database '" + FabFlixDBManager.DATABASE_NAME + "'\n"));
+			if (mDBManager.isConnectionLive())
+				System.out.println(getInfoMessage("Login successful into database '" + FabFlixDBManager.DATABASE_NAME + "'\n"));
+			else
+				System.out.println(getInfoMessage("Working offline; star lookups and searches read the catalog snapshot\n"));
 			System.out.println(mMenuList);
 			
 			// Get the first user input from the user;
@@ -83,6 +115,56 @@ public class FabFlixConsole
 		System.out.print("Closing program...\n");
 	}
 	
+	/**
+	 * Logs into the database and runs a command file in batch mode. The user name and password
+	 * are prompted for if they are not given (this is not possible when commands are read from stdin).
+	 * 
+	 * @param batchFile	path of the command file, or '-' to read commands from stdin
+	 * @param outputFile	path of the results file, or <i>null</i> to write results to stdout
+	 * @param username	user name field for login, or <i>null</i> to prompt for it
+	 * @param password	password field for login, or <i>null</i> to prompt for it
+	 * @param transaction	if <b>true</b>, all operations run in one transaction
+	 * @return	true if every operation succeeded
+	 */
+	private boolean runBatch(String batchFile, String outputFile, String username, String password, boolean transaction) {
+		if ((username == null || password == null) && batchFile.equals("-")) {
+			System.out.println(getErrorMessage("-user and -password are required when reading commands from stdin."));
+			return false;
+		}
+		if (username == null) {
+			System.out.print("Enter your database username: ");
+			username = mReader.nextLine();
+		}
+		if (password == null) {
+			System.out.print("Enter your database password: ");
+			password = mReader.nextLine();
+		}
+		
+		SQLException connectionError = mDBManager.attemptConnection(username, password);
+		if (connectionError != null) {
+			System.out.println(getErrorMessage(connectionError.getMessage()));
+			return false;
+		}
+		
+		BufferedReader input = null;
+		PrintWriter output = null;
+		try {
+			input = new BufferedReader(new InputStreamReader(
+				batchFile.equals("-") ? System.in : new FileInputStream(batchFile), StandardCharsets.UTF_8));
+			output = outputFile == null ? mWriter : 
+				new PrintWriter(new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8));
+			return runBatch(input, output, transaction);
+			
+		} catch (IOException e) {
+			System.out.println(getErrorMessage("Unable to run batch file: " + e.getMessage()));
+			return false;
+		} finally {
+			if (output != null && output != mWriter)
+				output.close();
+			mDBManager.closeConnection();
+		}
+	}
+	
 	/**
 	 * Handles user input and returns an output string from the resulting input(s).
 	 * 
@@ -130,7 +212,7 @@ public class FabFlixConsole
 			}
 			
 			String photoURL = promptString("\tEnter a URL of the movie star's photo (optional): ", "", true, true);
-			output = mDBManager.insertStar(firstName, lastName, dob, photoURL);
+			output = mDBManager.insertStar(firstName, lastName, dob, photoURL).getOutput();
 			break;
 		
 		case 4: 
@@ -155,7 +237,7 @@ public class FabFlixConsole
 			if (password == null)
 				password = "";
 			
-			output = mDBManager.insertCustomer(firstName, lastName, creditCardID, address, email, password);
+			output = mDBManager.insertCustomer(firstName, lastName, creditCardID, address, email, password).getOutput();
 			break;
 			
 		case 5:
@@ -163,7 +245,7 @@ public class FabFlixConsole
 			if (id == null)
 				break;
 			
-			output = mDBManager.deleteCustomer(id);
+			output = mDBManager.deleteCustomer(id).getOutput();
 			break;
 			
 		case 6:
@@ -172,8 +254,75 @@ public class FabFlixConsole
 			
 		case 7:
 			String command = promptString("\tEnter a valid SELECT/UPDATE/INSERT/DELETE SQL command: ", "Invalid or empty SQL command found. Unable to execute command.", false, true);
+			// Stream the results straight to the console so large tables are never held in memory
 			if (command != null && !command.isEmpty())
-				output = mDBManager.executeSQL(command);
+				output = mDBManager.executeSQL(command, mWriter).getOutput();
+			break;
+			
+		case 8:
+			output = mDBManager.getStatistics();
+			break;
+			
+		case 9:
+			String customersFile = promptString("\tEnter the path of the customers CSV file " + 
+				"(first_name,last_name,cc_id,address,email,password): ", 
+				"Invalid or empty file path inputted. Unable to execute insertion.", false, true);
+			if (customersFile == null)
+				break;
+			
+			List<FabFlixCustomer> customers = readCustomersFile(customersFile);
+			if (customers != null)
+				output = mDBManager.insertCustomers(customers).getOutput();
+			break;
+			
+		case 10:
+			output = mDBManager.getLatencyStatistics();
+			break;
+			
+		case 11:
+			String query = promptString("\tEnter the beginning of the star's name (e.g. 'tom h' or 'hank'): ", 
+				"Invalid or empty name inputted. Unable to execute search.", false, true);
+			if (query != null)
+				output = mDBManager.searchStars(query);
+			break;
+			
+		case 12:
+			output = runPagedQuery();
+			break;
+			
+		case 13:
+			String exportFile = promptString("\tEnter the path of the snapshot file to write: ", 
+				"Invalid or empty file path inputted. Unable to export snapshot.", false, true);
+			if (exportFile != null)
+				output = mDBManager.exportCatalogSnapshot(exportFile);
+			break;
+			
+		case 14:
+			String snapshotFile = promptString("\tEnter the path of the snapshot file to load: ", 
+				"Invalid or empty file path inputted. Unable to load snapshot.", false, true);
+			if (snapshotFile != null)
+				output = mDBManager.loadCatalogSnapshot(snapshotFile);
+			break;
+			
+		case 15:
+			output = runBulkDelete();
+			break;
+			
+		case 16:
+			output = runSalesAnalytics();
+			break;
+			
+		case 17:
+			output = runTableArchive();
+			break;
+			
+		case 18:
+			output = runCoStarQuery();
+			break;
+			
+		case 19:
+			String apply = promptString("\tCreate the proposed indexes and measure them before and after? (y/N): ", "", true, true);
+			output = mDBManager.adviseIndexes(apply.equalsIgnoreCase("y"));
 			break;
 		default:	// Unknown command
 			output = getErrorMessage("Unknown command inputted. Please try again");
@@ -182,11 +331,498 @@ public class FabFlixConsole
 		return output;
 	}
 	
+	/**
+	 * Prompts for a star lookup or a SELECT query and a page size, then prints one page at a time
+	 * until the user stops or the last page is reached.
+	 * 
+	 * @return	output of the last page shown, or an error message
+	 */
+	private String runPagedQuery() {
+		Integer source = promptInt("\tPage through (1) movies by star ID, (2) movies by star name or (3) a SELECT query: ", 
+			"Invalid option inputted. Unable to execute query.", true);
+		if (source == null || source < 1 || source > 3)
+			return getErrorMessage("Invalid option inputted. Unable to execute query.");
+		
+		Integer id = null;
+		String firstName = null, lastName = null, command = null;
+		if (source == 1 && (id = promptInt("\tEnter the movie star's ID: ", "Invalid ID inputted. Unable to execute query.", true)) == null)
+			return "";
+		if (source == 2) {
+			firstName = promptString("\tEnter the movie star's first name (optional): ", "", true, true);
+			lastName = promptString("\tEnter the movie star's last name (optional): ", "", true, true);
+		}
+		if (source == 3 && (command = promptString("\tEnter a SELECT query that selects its table's primary key (no ORDER BY/LIMIT): ", 
+				"Invalid or empty SQL command found. Unable to execute command.", false, true)) == null)
+			return "";
+		
+		String pageSizeInput = promptString("\tEnter the page size (default " + FabFlixDBManager.DEFAULT_PAGE_SIZE + "): ", "", true, true);
+		int pageSize = FabFlixDBManager.DEFAULT_PAGE_SIZE;
+		try {
+			if (!pageSizeInput.isEmpty())
+				pageSize = Integer.parseInt(pageSizeInput);
+		} catch (NumberFormatException e) {
+			return getErrorMessage("Invalid page size inputted. Unable to execute query.");
+		}
+		
+		String token = null;
+		while (true) {
+			FabFlixPage<?> page;
+			StringBuilder output = new StringBuilder();
+			try {
+				if (source == 3) {
+					FabFlixPage<String[]> rows = mDBManager.findQueryPage(command, pageSize, token);
+					mDBManager.getRenderer().renderRows(null, rows.getColumnNames(), rows.getItems(), output);
+					page = rows;
+				} else {
+					FabFlixPage<FabFlixMovie> movies = source == 1 ? mDBManager.findMoviesForStarPage(id, pageSize, token) : 
+						mDBManager.findMoviesForStarPage(firstName, lastName, pageSize, token);
+					output.append(FabFlixDBManager.formatMovies(movies.getItems(), mDBManager.getRenderer()));
+					page = movies;
+				}
+			} catch (SQLException e) {
+				switch (e.getErrorCode()) {
+				case 1064:
+					return getErrorMessage("Invalid SQL syntax. Please check your syntax and try again.");
+				case 1054:
+					return getErrorMessage("Invalid column specified. " + e.getMessage());
+				}
+				return getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+			} catch (IllegalArgumentException e) {
+				return getErrorMessage(e.getMessage());
+			} catch (IOException e) {
+				// Appending to a StringBuilder never fails
+				throw new IllegalStateException(e);
+			}
+			
+			output.append(FabFlixDBManager.formatPageFooter(page));
+			if (!page.hasNextPage())
+				return output.toString();
+			token = page.getNextToken();
+			
+			System.out.println(output);
+			if (promptString("\tPress Enter for the next page, or 'q' to stop: ", "", true, true).equalsIgnoreCase("q"))
+				return "";
+		}
+	}
+	
+	/**
+	 * Prompts for the customers to delete in bulk and a chunk size, then deletes them while
+	 * printing the progress of each chunk.
+	 * 
+	 * @return	output of the deletion, or an error message
+	 */
+	private String runBulkDelete() {
+		Integer source = promptInt("\tDelete customers by (1) ID list, (2) ID range or (3) file of IDs: ", 
+			"Invalid option inputted. Unable to execute deletion.", true);
+		if (source == null || source < 1 || source > 3)
+			return getErrorMessage("Invalid option inputted. Unable to execute deletion.");
+		
+		String value = promptString(source == 1 ? "\tEnter the customer IDs (e.g. '1, 2, 5'): " : 
+			source == 2 ? "\tEnter the customer ID range (e.g. '100-200'): " : "\tEnter the path of the file of customer IDs: ", 
+			"Invalid or empty input. Unable to execute deletion.", false, true);
+		if (value == null)
+			return "";
+		
+		String chunkSizeInput = promptString("\tEnter the number of customers deleted per transaction (default " + 
+			FabFlixDBManager.DEFAULT_DELETE_CHUNK_SIZE + "): ", "", true, true);
+		try {
+			int chunkSize = chunkSizeInput.isEmpty() ? FabFlixDBManager.DEFAULT_DELETE_CHUNK_SIZE : Integer.parseInt(chunkSizeInput);
+			return deleteCustomers(source == 1 ? "list" : source == 2 ? "range" : "file", value, chunkSize, mWriter).getOutput();
+		} catch (NumberFormatException e) {
+			return getErrorMessage("Invalid chunk size inputted. Unable to execute deletion.");
+		}
+	}
+	
+	/**
+	 * Prompts for a sales report or sales operation and runs it.
+	 * 
+	 * @return	output of the report or operation, or an error message
+	 */
+	private String runSalesAnalytics() {
+		Integer option = promptInt("\t(1) Top-selling movies, (2) top customers, (3) sales per genre per month, " + 
+			"(4) record a sale, (5) rebuild the aggregates or (6) check them against the sales table: ", 
+			"Invalid option inputted. Unable to run sales analytics.", true);
+		if (option == null || option < 1 || option > 6)
+			return getErrorMessage("Invalid option inputted. Unable to run sales analytics.");
+		
+		switch (option) {
+		case 1:
+		case 2:
+			String limitInput = promptString("\tEnter the number of rows to list (default " + 
+				FabFlixDBManager.DEFAULT_SALES_REPORT_SIZE + "): ", "", true, true);
+			try {
+				int limit = limitInput.isEmpty() ? FabFlixDBManager.DEFAULT_SALES_REPORT_SIZE : Integer.parseInt(limitInput);
+				return option == 1 ? mDBManager.getTopSellingMovies(limit) : mDBManager.getTopCustomers(limit);
+			} catch (NumberFormatException e) {
+				return getErrorMessage("Invalid number of rows inputted. Unable to run report.");
+			}
+		case 3:
+			return mDBManager.getSalesPerGenrePerMonth();
+		case 4:
+			Integer customerID = promptInt("\tEnter the customer's ID: ", "Invalid ID inputted. Unable to execute insertion.", true);
+			if (customerID == null)
+				return "";
+			Integer movieID = promptInt("\tEnter the movie's ID: ", "Invalid ID inputted. Unable to execute insertion.", true);
+			if (movieID == null)
+				return "";
+			String dateInput = promptString("\tEnter the sale date (in MM-dd-yyyy format): ", 
+				"Invalid or empty date inputted. Unable to execute insertion.", false, true);
+			Date saleDate = dateInput == null ? null : parseDate(dateInput, "Invalid date inputted. Please try again.");
+			return saleDate == null ? "" : mDBManager.insertSale(customerID, movieID, saleDate).getOutput();
+		case 5:
+			return mDBManager.rebuildSalesAggregates();
+		default:
+			return mDBManager.checkSalesAggregates();
+		}
+	}
+	
+	/**
+	 * Prompts for a directory and the tables to export to it or import from it, then runs the
+	 * export or import.
+	 * 
+	 * @return	output of the export or import, or an error message
+	 */
+	private String runTableArchive() {
+		Integer option = promptInt("\t(1) Export tables or (2) import tables: ", 
+			"Invalid option inputted. Unable to export or import tables.", true);
+		if (option == null || option < 1 || option > 2)
+			return getErrorMessage("Invalid option inputted. Unable to export or import tables.");
+		
+		String directory = promptString("\tEnter the directory of the table files: ", 
+			"Invalid or empty directory inputted. Unable to export or import tables.", false, true);
+		if (directory == null)
+			return "";
+		String tables = promptString("\tEnter the tables, separated by commas (optional, default all): ", "", true, true);
+		
+		return option == 1 ? mDBManager.exportTables(directory, parseTableNames(tables)) : 
+			mDBManager.importTables(directory, parseTableNames(tables));
+	}
+	
+	/**
+	 * Prompts for a co-star query and its inputs, then runs it.
+	 * 
+	 * @return	output of the query, or an error message
+	 */
+	private String runCoStarQuery() {
+		Integer option = promptInt("\t(1) Top co-stars of a star, (2) degrees of separation between two stars or " + 
+			"(3) stars within k hops of a star: ", "Invalid option inputted. Unable to run co-star query.", true);
+		if (option == null || option < 1 || option > 3)
+			return getErrorMessage("Invalid option inputted. Unable to run co-star query.");
+		
+		Integer starID = promptInt("\tEnter the " + (option == 2 ? "first " : "") + "star's ID: ", 
+			"Invalid ID inputted. Unable to run co-star query.", true);
+		if (starID == null)
+			return "";
+		
+		if (option == 2) {
+			Integer toStarID = promptInt("\tEnter the second star's ID: ", "Invalid ID inputted. Unable to run co-star query.", true);
+			return toStarID == null ? "" : mDBManager.getStarPath(starID, toStarID);
+		}
+		
+		String countInput = promptString(option == 1 ? "\tEnter the number of co-stars to list (default " + 
+			FabFlixDBManager.DEFAULT_CO_STAR_COUNT + "): " : "\tEnter the number of hops (default " + 
+			FabFlixDBManager.DEFAULT_STAR_NEIGHBORHOOD_HOPS + "): ", "", true, true);
+		try {
+			if (option == 1)
+				return mDBManager.getCoStars(starID, countInput.isEmpty() ? FabFlixDBManager.DEFAULT_CO_STAR_COUNT : Integer.parseInt(countInput));
+			return mDBManager.getStarNeighborhood(starID, countInput.isEmpty() ? 
+				FabFlixDBManager.DEFAULT_STAR_NEIGHBORHOOD_HOPS : Integer.parseInt(countInput));
+		} catch (NumberFormatException e) {
+			return getErrorMessage("Invalid number inputted. Unable to run co-star query.");
+		}
+	}
+	
+	/**
+	 * Splits a comma or whitespace separated list of table names.
+	 * 
+	 * @param tables	table names, or <i>null</i>
+	 * @return	list of the table names, empty if none were given
+	 */
+	private static List<String> parseTableNames(String tables) {
+		List<String> tableNames = new ArrayList<String>();
+		if (tables != null) {
+			for (String tableName : tables.trim().split("[\\s,]+")) {
+				if (!tableName.isEmpty())
+					tableNames.add(tableName);
+			}
+		}
+		return tableNames;
+	}
+	
+	/**
+	 * Deletes customers in bulk from an ID list, an ID range or a file of IDs.
+	 * 
+	 * @param source	'list', 'range' or 'file'
+	 * @param value	comma or whitespace separated IDs, a range 'first-last', or the path of a
+	 * 			file holding comma or whitespace separated IDs
+	 * @param chunkSize	number of customers deleted by each transaction
+	 * @param progress	writer the progress of each chunk is written to, or <i>null</i>
+	 * @return	result of the deletion
+	 */
+	private FabFlixResult deleteCustomers(String source, String value, int chunkSize, PrintWriter progress) {
+		try {
+			if (source.equals("range")) {
+				String[] range = value.trim().split("\\s*-\\s*");
+				if (range.length != 2)
+					return FabFlixResult.failed("Invalid ID range '" + value + "'; expected first-last.");
+				return mDBManager.deleteCustomers(Integer.parseInt(range[0]), Integer.parseInt(range[1]), chunkSize, progress);
+			}
+			
+			String ids = value;
+			if (source.equals("file"))
+				ids = new String(Files.readAllBytes(Paths.get(value.trim())), StandardCharsets.UTF_8);
+			else if (!source.equals("list"))
+				return FabFlixResult.failed("Unknown deletion source '" + source + "'; expected list, range or file.");
+			
+			List<Integer> customerIDs = new ArrayList<Integer>();
+			for (String id : ids.trim().split("[\\s,]+")) {
+				if (!id.isEmpty())
+					customerIDs.add(Integer.parseInt(id));
+			}
+			return mDBManager.deleteCustomers(customerIDs, chunkSize, progress);
+			
+		} catch (NumberFormatException e) {
+			return FabFlixResult.failed("Invalid ID inputted. Unable to execute deletion.");
+		} catch (IOException e) {
+			return FabFlixResult.failed("Unable to read customer IDs file: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Runs operations from a command stream without prompting, one operation per line, and writes
+	 * one JSON object per operation to the output. Each line holds the menu option number followed
+	 * by its inputs, separated by tabs (the same inputs the menu prompts for, in the same order):
+	 * <pre>
+	 * 1	star ID
+	 * 2	first name	last name
+	 * 3	first name	last name	date of birth (MM-dd-yyyy)	photo URL
+	 * 4	first name	last name	credit card ID	address	e-mail	password
+	 * 5	customer ID
+	 * 6
+	 * 7	SQL command
+	 * 8
+	 * 9	customers CSV file
+	 * 10
+	 * 11	star name or name prefix
+	 * 12	id|name|sql	page size	page token (empty for the first page)	star ID | first name	last name | SELECT query
+	 * 13	snapshot file to write
+	 * 14	snapshot file to load
+	 * 15	list|range|file	IDs | first-last | file of IDs	chunk size (optional)
+	 * 16	top-movies|top-customers|genre-month|sale|rebuild|check	number of rows | customer ID	movie ID	sale date (MM-dd-yyyy)
+	 * 17	export|import	directory	comma separated tables (optional, default all)
+	 * 18	co-stars|path|neighborhood	star ID	number of co-stars (optional) | second star ID | number of hops
+	 * 19	apply (optional)
+	 * </pre>
+	 * Empty lines and lines starting with '#' are skipped.
+	 * 
+	 * @param input	stream of operations
+	 * @param output	writer the JSON results are written to
+	 * @param transaction	if <b>true</b>, every operation runs in one transaction that is only committed if none failed
+	 * @return	true if every operation succeeded
+	 */
+	public boolean runBatch(BufferedReader input, PrintWriter output, boolean transaction) throws IOException {
+		boolean succeeded = true;
+		String line;
+		int lineNumber = 0;
+		
+		if (transaction) {
+			SQLException error = mDBManager.beginTransaction();
+			if (error != null) {
+				output.println("{\"status\":\"error\",\"output\":" + toJSONString(getErrorMessage(error.getMessage())) + "}");
+				output.flush();
+				return false;
+			}
+		}
+		
+		while ((line = input.readLine()) != null) {
+			lineNumber++;
+			if (line.trim().isEmpty() || line.startsWith("#"))
+				continue;
+			
+			String[] fields = line.split("\t", -1);
+			FabFlixResult result = handleBatchCommand(fields);
+			succeeded &= result.isSucceeded();
+			
+			output.println("{\"line\":" + lineNumber + ",\"command\":" + toJSONString(fields[0].trim()) + 
+				",\"status\":\"" + (result.isSucceeded() ? "ok" : "error") + "\",\"output\":" + toJSONString(result.getOutput()) + "}");
+		}
+		
+		if (transaction) {
+			SQLException error = succeeded ? mDBManager.commitTransaction() : mDBManager.rollbackTransaction();
+			succeeded &= error == null;
+			output.println("{\"status\":\"" + (error == null ? "ok" : "error") + "\",\"transaction\":\"" + 
+				(succeeded ? "committed" : "rolled back") + "\"" + 
+				(error == null ? "" : ",\"output\":" + toJSONString(getErrorMessage(error.getMessage()))) + "}");
+		}
+		output.flush();
+		return succeeded;
+	}
+	
+	/**
+	 * Runs a single operation of a command stream and returns its result. Writes report their
+	 * status with their result; lookups and reports only fail with an error message, so their
+	 * status is read from the output.
+	 * 
+	 * @param fields	menu option number followed by the operation's inputs
+	 * @return	result of the operation, failed if its inputs are invalid
+	 */
+	private FabFlixResult handleBatchCommand(String[] fields) {
+		int inputCommand;
+		try { inputCommand = Integer.parseInt(fields[0].trim()); }
+		catch (NumberFormatException e) {
+			return FabFlixResult.failed("Invalid command '" + fields[0] + "'.");
+		}
+		
+		try {
+			switch (inputCommand) {
+			case 1:
+				return toResult(mDBManager.getMoviesForStar(Integer.parseInt(fields[1].trim())));
+			case 2:
+				return toResult(mDBManager.getMoviesForStar(fields[1].trim(), fields[2].trim()));
+			case 3:
+				Date dob = null;
+				if (!fields[3].trim().isEmpty()) {
+					try { dob = new Date(new SimpleDateFormat("MM-dd-yyyy").parse(fields[3].trim()).getTime()); }
+					catch (ParseException e) { return FabFlixResult.failed("Invalid date inputted. Unable to execute insertion."); }
+				}
+				return mDBManager.insertStar(fields[1].trim(), fields[2].trim(), dob, fields[4].trim());
+			case 4:
+				return mDBManager.insertCustomer(fields[1].trim(), fields[2].trim(), fields[3].trim(), 
+					fields[4].trim(), fields[5].trim(), fields[6].trim());
+			case 5:
+				return mDBManager.deleteCustomer(Integer.parseInt(fields[1].trim()));
+			case 6:
+				return toResult(mDBManager.getMetaData());
+			case 7:
+				return mDBManager.executeSQL(fields[1].trim());
+			case 8:
+				return toResult(mDBManager.getStatistics());
+			case 9:
+				// Checked up front since readCustomersFile reports read errors on stdout
+				if (!new File(fields[1].trim()).canRead())
+					return FabFlixResult.failed("Unable to read customers file '" + fields[1].trim() + "'.");
+				List<FabFlixCustomer> customers = readCustomersFile(fields[1].trim());
+				return customers == null ? FabFlixResult.failed("Unable to read customers file.") : mDBManager.insertCustomers(customers);
+			case 10:
+				return toResult(mDBManager.getLatencyStatistics());
+			case 11:
+				return toResult(mDBManager.searchStars(fields[1]));
+			case 12:
+				int pageSize = Integer.parseInt(fields[2].trim());
+				String token = fields[3].trim().isEmpty() ? null : fields[3].trim();
+				if (fields[1].trim().equals("id"))
+					return toResult(mDBManager.getMoviesForStarPage(Integer.parseInt(fields[4].trim()), pageSize, token));
+				if (fields[1].trim().equals("name"))
+					return toResult(mDBManager.getMoviesForStarPage(fields[4].trim(), fields[5].trim(), pageSize, token));
+				if (fields[1].trim().equals("sql"))
+					return toResult(mDBManager.executeSQLPage(fields[4].trim(), pageSize, token));
+				return FabFlixResult.failed("Unknown page source '" + fields[1] + "'; expected id, name or sql.");
+			case 13:
+				return toResult(mDBManager.exportCatalogSnapshot(fields[1]));
+			case 14:
+				return toResult(mDBManager.loadCatalogSnapshot(fields[1]));
+			case 15:
+				// Progress lines are left out so each result stays on one JSON line
+				int chunkSize = fields.length > 3 && !fields[3].trim().isEmpty() ? 
+					Integer.parseInt(fields[3].trim()) : FabFlixDBManager.DEFAULT_DELETE_CHUNK_SIZE;
+				return deleteCustomers(fields[1].trim(), fields[2], chunkSize, null);
+			case 16:
+				String report = fields[1].trim();
+				int limit = fields.length > 2 && !fields[2].trim().isEmpty() ? 
+					Integer.parseInt(fields[2].trim()) : FabFlixDBManager.DEFAULT_SALES_REPORT_SIZE;
+				if (report.equals("top-movies"))
+					return toResult(mDBManager.getTopSellingMovies(limit));
+				if (report.equals("top-customers"))
+					return toResult(mDBManager.getTopCustomers(limit));
+				if (report.equals("genre-month"))
+					return toResult(mDBManager.getSalesPerGenrePerMonth());
+				if (report.equals("rebuild"))
+					return toResult(mDBManager.rebuildSalesAggregates());
+				if (report.equals("check"))
+					return toResult(mDBManager.checkSalesAggregates());
+				if (report.equals("sale")) {
+					try {
+						return mDBManager.insertSale(Integer.parseInt(fields[2].trim()), Integer.parseInt(fields[3].trim()), 
+							new Date(new SimpleDateFormat("MM-dd-yyyy").parse(fields[4].trim()).getTime()));
+					} catch (ParseException e) {
+						return FabFlixResult.failed("Invalid date inputted. Unable to execute insertion.");
+					}
+				}
+				return FabFlixResult.failed("Unknown sales report '" + fields[1] + "'; expected top-movies, top-customers, " + 
+					"genre-month, sale, rebuild or check.");
+			case 17:
+				List<String> tableNames = parseTableNames(fields.length > 3 ? fields[3] : null);
+				if (fields[1].trim().equals("export"))
+					return toResult(mDBManager.exportTables(fields[2], tableNames));
+				if (fields[1].trim().equals("import"))
+					return toResult(mDBManager.importTables(fields[2], tableNames));
+				return FabFlixResult.failed("Unknown table operation '" + fields[1] + "'; expected export or import.");
+			case 18:
+				int starID = Integer.parseInt(fields[2].trim());
+				if (fields[1].trim().equals("co-stars"))
+					return toResult(mDBManager.getCoStars(starID, fields.length > 3 && !fields[3].trim().isEmpty() ? 
+						Integer.parseInt(fields[3].trim()) : FabFlixDBManager.DEFAULT_CO_STAR_COUNT));
+				if (fields[1].trim().equals("path"))
+					return toResult(mDBManager.getStarPath(starID, Integer.parseInt(fields[3].trim())));
+				if (fields[1].trim().equals("neighborhood"))
+					return toResult(mDBManager.getStarNeighborhood(starID, Integer.parseInt(fields[3].trim())));
+				return FabFlixResult.failed("Unknown co-star query '" + fields[1] + "'; expected co-stars, path or neighborhood.");
+			case 19:
+				return toResult(mDBManager.adviseIndexes(fields.length > 1 && fields[1].trim().equals("apply")));
+			default:
+				return FabFlixResult.failed("Unknown command '" + inputCommand + "'.");
+			}
+		} catch (NumberFormatException e) {
+			return FabFlixResult.failed("Invalid ID inputted. Unable to execute command.");
+		} catch (ArrayIndexOutOfBoundsException e) {
+			return FabFlixResult.failed("Missing inputs for command " + inputCommand + ".");
+		}
+	}
+	
+	/**
+	 * Returns the result of an operation that reports its failures with an error message
+	 * rather than a {@link FabFlixResult}.
+	 * 
+	 * @param output	output of the operation
+	 * @return	result that failed if the output is an error message
+	 */
+	private static FabFlixResult toResult(String output) {
+		return new FabFlixResult(!output.startsWith(mErrorHeader), output, 0, null);
+	}
+	
+	/**
+	 * Returns a string as a quoted JSON string literal.
+	 * 
+	 * @param value	string to quote
+	 * @return	JSON string literal
+	 */
+	static String toJSONString(String value) {
+		StringBuilder json = new StringBuilder(value.length() + 2);
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':	json.append("\\\""); break;
+			case '\\':	json.append("\\\\"); break;
+			case '\n':	json.append("\\n"); break;
+			case '\r':	json.append("\\r"); break;
+			case '\t':	json.append("\\t"); break;
+			default:
+				if (c < 0x20)
+					json.append(String.format("\\u%04x", (int) c));
+				else
+					json.append(c);
+			}
+		}
+		return json.append('"').toString();
+	}
+	
 	/**
 	 * Attempts to login into MySQL database with user input for user name and password.
 	 * Automatically checks for erroneous inputs for user name/password.
 	 * Prints out proper error messages while attempting login.
 	 * Creates a connection to the specified database server if successfully logged in.
+	 * The user name 'offline' skips the login when a catalog snapshot is loaded.
 	 * 
 	 * @return	true if login was successful, false if user quits the program
 	 */
@@ -203,6 +839,15 @@ public class FabFlixConsole
 				continue;
 			}
 			
+			// Lookups can be served from the catalog snapshot without logging in
+			if (username.equals("offline")) {
+				if (mDBManager.getCatalogSnapshot() != null)
+					return true;
+				System.out.println(getErrorMessage("No catalog snapshot loaded; start with -snapshot to work offline."));
+				System.out.print("Enter your username, or enter 'quit' to exit program: ");
+				continue;
+			}
+			
 			System.out.print("Enter your database password: ");
 			password = mReader.nextLine();
 			if (password.isEmpty()) {
@@ -309,6 +954,47 @@ public class FabFlixConsole
 	}
 	
 
+	/**
+	 * Reads customers from a CSV file with one customer per row, in the column order of the
+	 * <i>customers</i> table without the ID. A header row starting with <i>first_name</i> is skipped.
+	 * Prints out an error message if the file could not be read.
+	 * 
+	 * @param path	path of the CSV file
+	 * @return	customers read from the file, or <i>null</i> if the file could not be read
+	 */
+	private List<FabFlixCustomer> readCustomersFile(String path) {
+		List<FabFlixCustomer> customers = new ArrayList<FabFlixCustomer>();
+		List<String> fields = new ArrayList<String>();
+		Reader reader = null;
+		
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8));
+			
+			while (FabFlixBulkLoader.readCSVRecord(reader, fields)) {
+				if (customers.isEmpty() && fields.get(0).equalsIgnoreCase("first_name"))
+					continue;
+				
+				// Missing trailing fields are left null so the row is rejected with a reason
+				while (fields.size() < 6)
+					fields.add(null);
+				customers.add(new FabFlixCustomer(fields.get(0), fields.get(1), fields.get(2), 
+					fields.get(3), fields.get(4), fields.get(5)));
+			}
+			return customers;
+			
+		} catch (IOException e) {
+			System.out.println(getErrorMessage("Unable to read customers file: " + e.getMessage()));
+			return null;
+		} finally {
+			try {
+				if (reader != null)
+					reader.close();
+			} catch (IOException e) {
+				// Nothing left to read
+			}
+		}
+	}
+	
 	/**
 	 * Returns a Date object from a string. Prints out an error message if the operation
 	 * was unsuccessful.
@@ -329,12 +1015,86 @@ public class FabFlixConsole
 	/**
 	 * Runs the main program for the JDBC client.
 	 * 
-	 * @param arg	unused
+	 * <pre>
+	 * java FabFlixConsole [-cardfilter] [-joinengine] [-writebehind size,millis] [-resultcache megabytes] [-salesaggregates] [-advisor] [-slowquery millis] [-format text|csv|json] [-snapshot file] [-batch file|- [-user name] [-password pass] [-transaction] [-output file]]
+	 * </pre>
+	 * <i>-cardfilter</i> keeps credit card IDs in memory to speed up customer insertions.
+	 * <i>-joinengine</i> answers star lookups from an in-memory copy of the catalog joins.
+	 * <i>-writebehind</i> queues star and customer insertions and commits them in batches of up
+	 * to <i>size</i> rows, waiting at most <i>millis</i> for a batch to fill.
+	 * <i>-resultcache</i> keeps the results of repeated SELECT queries in memory, up to the given size.
+	 * <i>-salesaggregates</i> keeps the sales totals in memory and updates them on every sale and deletion.
+	 * <i>-advisor</i> captures the statements issued, so option 19 can explain them and propose indexes.
+	 * <i>-slowquery</i> sets how long an operation must take to be added to the slow-query log.
+	 * <i>-format</i> sets the output format of movie lists, star searches and query results.
+	 * <i>-snapshot</i> loads a catalog snapshot, so star lookups and searches are answered without
+	 * the database; log in as 'offline' to use it without a connection.
+	 * <i>-batch</i> runs the operations of a command file (or stdin for '-') without prompting, see
+	 * {@link #runBatch}; the results are written to the output file, or stdout if none is given.
+	 * 
+	 * @param arg	command line options
 	 */
     public static void main(String[] arg)
     {
     	try {
         	FabFlixConsole console = new FabFlixConsole();
+        	String batchFile = null, outputFile = null, username = null, password = null, snapshotFile = null;
+        	boolean transaction = false;
+        	
+        	for (int i = 0; i < arg.length; i++) {
+        		if (arg[i].equals("-cardfilter") && console.mDBManager != null)
+        			console.mDBManager.setCreditCardFilterEnabled(true);
+        		else if (arg[i].equals("-joinengine") && console.mDBManager != null)
+        			console.mDBManager.setJoinEngineEnabled(true);
+        		else if (arg[i].equals("-writebehind") && i + 1 < arg.length && console.mDBManager != null) {
+        			String[] limits = arg[++i].split(",");
+        			try {
+        				console.mDBManager.setWriteBehindEnabled(true, Integer.parseInt(limits[0].trim()), 
+        					limits.length > 1 ? Long.parseLong(limits[1].trim()) : FabFlixWriteBehindQueue.DEFAULT_MAX_DELAY_MILLIS);
+        			} catch (IllegalArgumentException e) {
+        				System.out.println(getErrorMessage("Invalid write-behind limits: " + arg[i]));
+        				System.exit(1);
+        			}
+        		}
+        		else if (arg[i].equals("-resultcache") && i + 1 < arg.length && console.mDBManager != null)
+        			console.mDBManager.setResultCacheEnabled(true, Long.parseLong(arg[++i]) * 1024 * 1024);
+        		else if (arg[i].equals("-salesaggregates") && console.mDBManager != null)
+        			console.mDBManager.setSalesAggregatesEnabled(true);
+        		else if (arg[i].equals("-advisor") && console.mDBManager != null)
+        			console.mDBManager.setStatementCaptureEnabled(true);
+        		else if (arg[i].equals("-slowquery") && i + 1 < arg.length && console.mDBManager != null)
+        			console.mDBManager.setSlowQueryThreshold(Long.parseLong(arg[++i]));
+        		else if (arg[i].equals("-format") && i + 1 < arg.length && console.mDBManager != null) {
+        			try {
+        				console.mDBManager.setRenderer(FabFlixRenderer.forFormat(arg[++i]));
+        			} catch (IllegalArgumentException e) {
+        				System.out.println(getErrorMessage(e.getMessage()));
+        				System.exit(1);
+        			}
+        		}
+        		else if (arg[i].equals("-snapshot") && i + 1 < arg.length)
+        			snapshotFile = arg[++i];
+        		else if (arg[i].equals("-batch") && i + 1 < arg.length)
+        			batchFile = arg[++i];
+        		else if (arg[i].equals("-output") && i + 1 < arg.length)
+        			outputFile = arg[++i];
+        		else if (arg[i].equals("-user") && i + 1 < arg.length)
+        			username = arg[++i];
+        		else if (arg[i].equals("-password") && i + 1 < arg.length)
+        			password = arg[++i];
+        		else if (arg[i].equals("-transaction"))
+        			transaction = true;
+        	}
+        	
+        	if (snapshotFile != null && console.mDBManager != null) {
+        		String output = console.mDBManager.loadCatalogSnapshot(snapshotFile);
+        		// Batch results written to stdout must stay one JSON object per line
+        		if (batchFile == null || outputFile != null || output.startsWith(mErrorHeader))
+        			System.out.println(output);
+        	}
+        	
+        	if (batchFile != null)
+        		System.exit(console.runBatch(batchFile, outputFile, username, password, transaction) ? 0 : 1);
         	console.run();
     	}
     	catch (Exception e) {
@@ -0,0 +1,153 @@
+import java.sql.*;
+
+/**
+ * In-memory membership set over <i>creditcards.id</i>, used to skip the database round trip
+ * when checking that a customer's credit card exists. IDs are kept in a single open-addressing
+ * table of strings, which needs far less memory than a <i>HashSet</i> with one node object per ID.
+ * A card that is not in the set may still have been added to the database by another client,
+ * so misses must be confirmed against the database.
+ */
+public class FabFlixCreditCardFilter
+{
+	private static final String ALL_CREDIT_CARDS_QUERY = "select id from creditcards";
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private String[] mTable = new String[INITIAL_CAPACITY];
+	private int mSize;
+	private boolean mLoaded;
+	private long mLastRefreshTime;
+
+	/**
+	 * Replaces the contents of the filter with every credit card ID currently in the database.
+	 * The IDs are read into a new table so lookups keep using the old one until it is swapped in.
+	 *
+	 * @param connection	connection to read the credit cards with
+	 * @throws SQLException	if an error occurred querying the database
+	 */
+	public void refresh(Connection connection) throws SQLException {
+		String[] table = new String[INITIAL_CAPACITY];
+		int size = 0;
+
+		Statement select = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		try {
+			// Stream the IDs so the table is the only copy held in memory
+			select.setFetchSize(Integer.MIN_VALUE);
+			ResultSet result = select.executeQuery(ALL_CREDIT_CARDS_QUERY);
+			while (result.next()) {
+				if (size + 1 > table.length / 2)
+					table = resize(table, table.length * 2);
+				if (insert(table, result.getString(1)))
+					size++;
+			}
+			result.close();
+		} finally {
+			select.close();
+		}
+
+		synchronized (this) {
+			mTable = table;
+			mSize = size;
+			mLoaded = true;
+			mLastRefreshTime = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Checks if a credit card ID is known to exist.
+	 *
+	 * @param creditCardID	ID of the credit card
+	 * @return	true if the card is in the set; false if it is not (the database must then be checked)
+	 */
+	public synchronized boolean contains(String creditCardID) {
+		if (creditCardID == null)
+			return false;
+
+		int mask = mTable.length - 1;
+		for (int i = hash(creditCardID) & mask; mTable[i] != null; i = (i + 1) & mask) {
+			if (mTable[i].equals(creditCardID))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds a credit card ID that is known to exist in the database.
+	 *
+	 * @param creditCardID	ID of the credit card
+	 */
+	public synchronized void add(String creditCardID) {
+		if (creditCardID == null)
+			return;
+		if (mSize + 1 > mTable.length / 2)
+			mTable = resize(mTable, mTable.length * 2);
+		if (insert(mTable, creditCardID))
+			mSize++;
+	}
+
+	/**
+	 * Returns whether the filter has been loaded from the database at least once.
+	 *
+	 * @return	true if the filter is loaded
+	 */
+	public synchronized boolean isLoaded() {
+		return mLoaded;
+	}
+
+	public synchronized int size() {
+		return mSize;
+	}
+
+	/**
+	 * Returns an estimate of the heap used by the filter: the table itself plus the ID strings
+	 * it references (assuming compressed references and compact Latin-1 strings).
+	 *
+	 * @return	estimated memory use in bytes
+	 */
+	public synchronized long getEstimatedMemoryBytes() {
+		long bytes = 16 + 4L * mTable.length;
+		for (String id : mTable) {
+			if (id != null)
+				bytes += 24 + 16 + ((id.length() + 7) & ~7);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns a printable summary of the filter's size and memory use.
+	 *
+	 * @return	output string of the filter statistics
+	 */
+	public synchronized String getStatistics() {
+		if (!mLoaded)
+			return "Credit card filter: not loaded\n";
+		return String.format("Credit card filter: %d card(s), ~%.1f KB, refreshed %d s ago\n",
+			mSize, getEstimatedMemoryBytes() / 1024.0, (System.currentTimeMillis() - mLastRefreshTime) / 1000);
+	}
+
+	private static boolean insert(String[] table, String creditCardID) {
+		int mask = table.length - 1;
+		int i = hash(creditCardID) & mask;
+
+		for (; table[i] != null; i = (i + 1) & mask) {
+			if (table[i].equals(creditCardID))
+				return false;
+		}
+		table[i] = creditCardID;
+		return true;
+	}
+
+	private static String[] resize(String[] table, int capacity) {
+		String[] resized = new String[capacity];
+		for (String id : table) {
+			if (id != null)
+				insert(resized, id);
+		}
+		return resized;
+	}
+
+	private static int hash(String creditCardID) {
+		// Spread the bits since numeric IDs have very similar hash codes
+		int h = creditCardID.hashCode();
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * A single row of the <i>customers</i> table.
+ */
+public class FabFlixCustomer
+{
+	private final int mID;
+	private final String mFirstName;
+	private final String mLastName;
+	private final String mCreditCardID;
+	private final String mAddress;
+	private final String mEmail;
+	private final String mPassword;
+	
+	/**
+	 * Creates a customer that has not been inserted into the database yet (its ID is 0).
+	 * 
+	 * @param firstName	first name of customer
+	 * @param lastName	last name of customer
+	 * @param creditCardID	ID of the customers's credit card
+	 * @param address	address of customer
+	 * @param email	e-mail address of customer login
+	 * @param password	password for customer login
+	 */
+	public FabFlixCustomer(String firstName, String lastName, String creditCardID, 
+		String address, String email, String password) {
+		this(0, firstName, lastName, creditCardID, address, email, password);
+	}
+	
+	public FabFlixCustomer(int id, String firstName, String lastName, String creditCardID, 
+		String address, String email, String password) {
+		mID = id;
+		mFirstName = firstName;
+		mLastName = lastName;
+		mCreditCardID = creditCardID;
+		mAddress = address;
+		mEmail = email;
+		mPassword = password;
+	}
+	
+	public int getID() {
+		return mID;
+	}
+	
+	public String getFirstName() {
+		return mFirstName;
+	}
+	
+	public String getLastName() {
+		return mLastName;
+	}
+	
+	public String getCreditCardID() {
+		return mCreditCardID;
+	}
+	
+	public String getAddress() {
+		return mAddress;
+	}
+	
+	public String getEmail() {
+		return mEmail;
+	}
+	
+	public String getPassword() {
+		return mPassword;
+	}
+}
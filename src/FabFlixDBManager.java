@@ -1,13 +1,197 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TreeSet;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 // ssh -i "CS122binstance.pem" ubuntu@ec2-52-38-107-73.us-west-2.compute.amazonaws.com (for Christian's computer)
 // Server IP address: 52.38.107.73
 
 public class FabFlixDBManager
 {
-	private Connection mConnection;
+	private volatile FabFlixConnectionPool mConnectionPool;
+	
+	// Connection pinned to the calling thread while it has a transaction open
+	private final ThreadLocal<FabFlixPooledConnection> mTransactionConnection = new ThreadLocal<FabFlixPooledConnection>();
+	
+	// Optional in-memory set of credit card IDs, refreshed on a schedule while connected
+	private volatile FabFlixCreditCardFilter mCreditCardFilter;
+	private boolean mCreditCardFilterEnabled;
+	private Timer mCreditCardFilterTimer;
+	
+	// Schema metadata is read once per login and reset by DDL commands
+	private volatile FabFlixSchemaMetadata mSchemaMetadata;
+	private volatile long mSchemaGeneration;
+	
+	// Star lookups rarely change, so their results are cached until a write may affect them
+	private final FabFlixLookupCache<Integer, List<FabFlixMovie>> mMoviesByStarIDCache = 
+		new FabFlixLookupCache<Integer, List<FabFlixMovie>>("Movies by star ID", STAR_CACHE_SIZE, STAR_CACHE_TTL_MILLIS);
+	private final FabFlixLookupCache<String, List<FabFlixMovie>> mMoviesByStarNameCache = 
+		new FabFlixLookupCache<String, List<FabFlixMovie>>("Movies by star name", STAR_CACHE_SIZE, STAR_CACHE_TTL_MILLIS);
+	private volatile boolean mStarLookupCacheEnabled = true;
+	
+	// Prefix index over star names, loaded on the first search
+	private volatile FabFlixStarIndex mStarIndex;
+	private long mStarIndexGeneration;
+	
+	// Memory-mapped copy of the catalog tables; serves star lookups until a write through this
+	// manager may have changed them, and always while disconnected
+	private volatile FabFlixCatalogSnapshot mCatalogSnapshot;
+	private volatile boolean mCatalogSnapshotStale;
+	
+	// Optional in-memory copy of the catalog joins, loaded on the first star lookup
+	private volatile FabFlixJoinEngine mJoinEngine;
+	private volatile boolean mJoinEngineEnabled;
+	private long mJoinEngineGeneration;
+	
+	// Optional write-behind queue that group-commits star and customer inserts while connected
+	private volatile FabFlixWriteBehindQueue mWriteBehindQueue;
+	private final Object mWriteBehindLock = new Object();
+	private boolean mWriteBehindEnabled;
+	private int mWriteBehindBatchSize = FabFlixWriteBehindQueue.DEFAULT_MAX_BATCH_SIZE;
+	private long mWriteBehindDelayMillis = FabFlixWriteBehindQueue.DEFAULT_MAX_DELAY_MILLIS;
+	
+	// Optional in-memory sales totals, kept up to date as sales are added and customers deleted
+	private volatile FabFlixSalesAggregates mSalesAggregates;
+	private volatile boolean mSalesAggregatesEnabled;
+	private long mSalesAggregatesGeneration;
+	private int mSalesWritesInFlight;
+	
+	// Optional cache of SELECT results run through executeSQL, invalidated by the tables written
+	private volatile FabFlixResultCache mResultCache;
+	
+	// Output format of the movie, star and query results returned as strings
+	private volatile FabFlixRenderer mRenderer = FabFlixRenderer.TEXT;
+	
+	// Latency histograms of every operation and the slow-query log
+	private final FabFlixQueryMetrics mMetrics = new FabFlixQueryMetrics();
 	
 	public static final String DATABASE_NAME = "moviedb";
+	// useInformationSchema makes getColumns read information_schema in one query instead of one SHOW per table
+	public static final String DATABASE_URL = "jdbc:mysql:///" + DATABASE_NAME + 
+		"?useSSL=false&useServerPrepStmts=true&rewriteBatchedStatements=true&useInformationSchema=true";
+	
+	private static final long CREDIT_CARD_FILTER_REFRESH_MILLIS = 10 * 60 * 1000;
+	private static final Pattern CREDIT_CARD_TABLE_PATTERN = 
+		Pattern.compile("\\bcreditcards\\b", Pattern.CASE_INSENSITIVE);
+	
+	private static final int STAR_CACHE_SIZE = 1000;
+	private static final long STAR_CACHE_TTL_MILLIS = 5 * 60 * 1000;
+	
+	// Tables whose changes can affect the results of the star lookups
+	private static final Pattern STAR_LOOKUP_TABLES_PATTERN = 
+		Pattern.compile("\\b(stars|movies|stars_in_movies)\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern CATALOG_TABLES_PATTERN = 
+		Pattern.compile("\\b(stars|movies|stars_in_movies|genres|genres_in_movies)\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern SALES_AGGREGATE_TABLES_PATTERN = 
+		Pattern.compile("\\b(sales|customers|movies|genres|genres_in_movies)\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern STARS_TABLE_PATTERN = 
+		Pattern.compile("\\bstars\\b", Pattern.CASE_INSENSITIVE);
+	private static final int STAR_SEARCH_LIMIT = 20;
+	public static final int DEFAULT_PAGE_SIZE = 20;
+	public static final int MAX_PAGE_SIZE = 1000;
+	
+	// Paged queries are matched against their top-level text, without literals or parenthesized parts
+	private static final Pattern PAGED_QUERY_TABLE_PATTERN = Pattern.compile(
+		"^\\s*select\\b.*?\\bfrom\\s+`?(\\w+)`?(?:\\s+(?:as\\s+)?`?(\\w+)`?)?", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern ORDER_OR_LIMIT_PATTERN = 
+		Pattern.compile("\\b(order\\s+by|limit)\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern UNPAGEABLE_QUERY_PATTERN = 
+		Pattern.compile("\\b(union|into)\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern WHERE_PATTERN = 
+		Pattern.compile("\\bwhere\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern AFTER_WHERE_PATTERN = 
+		Pattern.compile("\\b(group\\s+by|having|window|for\\s+update|lock\\s+in)\\b", Pattern.CASE_INSENSITIVE);
+	private static final Set<String> NON_ALIAS_KEYWORDS = new HashSet<String>(Arrays.asList("where", "join", "inner", 
+		"left", "right", "cross", "natural", "straight_join", "group", "having", "window", "for", "lock", "use", 
+		"force", "ignore", "partition"));
+	private static final Pattern DDL_COMMAND_PATTERN = 
+		Pattern.compile("^\\s*(create|alter|drop|rename)\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern READ_ONLY_COMMAND_PATTERN = 
+		Pattern.compile("^\\s*\\(?\\s*(select|show|describe|desc|explain)\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern CALL_COMMAND_PATTERN = 
+		Pattern.compile("^\\s*call\\b", Pattern.CASE_INSENSITIVE);
+	
+	// SELECTs whose results depend on more than the tables they read are never cached
+	private static final Pattern SELECT_COMMAND_PATTERN = 
+		Pattern.compile("^\\s*\\(?\\s*select\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern UNCACHEABLE_QUERY_PATTERN = Pattern.compile(
+		"\\b(rand|now|sysdate|uuid|uuid_short|curdate|curtime|unix_timestamp|utc_date|utc_time|utc_timestamp|" + 
+		"user|current_user|session_user|system_user|connection_id|last_insert_id|found_rows|row_count|" + 
+		"database|schema|sleep|benchmark|get_lock|is_free_lock|is_used_lock|release_lock)\\s*\\(|" + 
+		"\\b(current_date|current_time|current_timestamp|localtime|localtimestamp)\\b|" + 
+		"\\bfor\\s+update\\b|\\block\\s+in\\s+share\\s+mode\\b|\\binto\\b|@", 
+		Pattern.CASE_INSENSITIVE);
+	private static final Pattern TABLE_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_$]+");
+	private static final Set<String> STARS_TABLE = Collections.singleton("stars");
+	private static final Set<String> CUSTOMERS_TABLE = Collections.singleton("customers");
+	private static final Set<String> SALES_TABLE = Collections.singleton("sales");
+	
+	// Tells Connector/J to stream result sets row by row instead of buffering them client-side
+	private static final int STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+	
+	// Fixed queries run through the per-connection prepared statement cache
+	private static final String MOVIES_FOR_STAR_ID_QUERY = 
+		"select distinct m.* from stars_in_movies sm, movies m where sm.star_id = ? and sm.movie_id = m.id";
+	private static final String MOVIES_FOR_STAR_QUERY = 
+		"select distinct m.* from stars s, stars_in_movies sm, movies m where s.id = sm.star_id and m.id = sm.movie_id";
+	private static final String MOVIES_FOR_STAR_FULL_NAME_QUERY = 
+		MOVIES_FOR_STAR_QUERY + " and s.first_name = ? and s.last_name = ?";
+	private static final String MOVIES_FOR_STAR_LAST_NAME_QUERY = 
+		MOVIES_FOR_STAR_QUERY + " and s.last_name = ?";
+	private static final String MOVIES_FOR_STAR_FIRST_NAME_QUERY = 
+		MOVIES_FOR_STAR_QUERY + " and s.first_name = ?";
+	
+	// Keyset-paginated star lookups: each page seeks past the last movie ID of the previous one
+	private static final String MOVIES_FOR_STAR_ID_PAGE_QUERY = 
+		"select distinct m.* from stars_in_movies sm, movies m where sm.star_id = ? and sm.movie_id = m.id and m.id > ?";
+	private static final String MOVIES_FOR_STAR_PAGE_QUERY = 
+		"select distinct m.* from stars s, stars_in_movies sm, movies m where s.id = sm.star_id and m.id = sm.movie_id and m.id > ?";
+	private static final String MOVIES_PAGE_ORDER = " order by m.id limit ?";
+	
+	private static final String INSERT_STAR_STATEMENT = 
+		"insert into stars values(DEFAULT, ?, ?, ?, ?)";
+	private static final String INSERT_CUSTOMER_STATEMENT = 
+		"insert into customers values(DEFAULT, ?, ?, ?, ?, ?, ?)";
+	private static final String INSERT_SALE_STATEMENT = 
+		"insert into sales values(DEFAULT, ?, ?, ?)";
+	public static final int DEFAULT_SALES_REPORT_SIZE = 10;
+	private static final String DELETE_CUSTOMER_STATEMENT = 
+		"delete from customers where id = ?";
+	
+	// Bulk deletions remove this many customers with each statement and transaction, so the
+	// locks on the customers and their cascaded sales are only held for one chunk at a time
+	public static final int DEFAULT_DELETE_CHUNK_SIZE = 500;
+	public static final int MAX_DELETE_CHUNK_SIZE = 5000;
+	
+	// Co-star queries list this many co-stars, and search paths of at most this many hops
+	public static final int DEFAULT_CO_STAR_COUNT = 10;
+	public static final int DEFAULT_STAR_NEIGHBORHOOD_HOPS = 2;
+	public static final int MAX_STAR_DISTANCE = 12;
+	private static final String CUSTOMER_IDS_IN_RANGE_QUERY = 
+		"select id from customers where id >= ? and id <= ? order by id limit ? for update";
+	private static final String CREDIT_CARD_EXISTS_QUERY = 
+		"select id from creditcards where id = ?";
+	
+	// Credit cards of a customer batch are checked this many at a time with a single query
+	private static final int CREDIT_CARD_LOOKUP_CHUNK_SIZE = 200;
+	private static final String CREDIT_CARDS_EXIST_QUERY = 
+		"select id from creditcards where id in (" + repeatPlaceholders(CREDIT_CARD_LOOKUP_CHUNK_SIZE) + ")";
 	
 	public FabFlixDBManager()  throws Exception {
 		// Incorporate mySQL driver
@@ -23,28 +207,267 @@ public class FabFlixDBManager
 	 * @return	<i>null</i> if connection was successful, a <i>SQLException</i> object if the connection failed
 	 */
 	public SQLException attemptConnection(String username, String password) {
+		return attemptConnection(username, password, 
+			FabFlixConnectionPool.DEFAULT_MIN_SIZE, FabFlixConnectionPool.DEFAULT_MAX_SIZE);
+	}
+	
+	/**
+	 * Attempts to make a connection with MySQL database with a specified user name and password,
+	 * opening a pool of connections that is shared by every query made through this manager.
+	 * 
+	 * @param username	user name field for login
+	 * @param password	password field for login
+	 * @param minPoolSize	number of connections kept open even when idle
+	 * @param maxPoolSize	maximum number of connections open at once
+	 * @return	<i>null</i> if connection was successful, a <i>SQLException</i> object if the connection failed
+	 */
+	public SQLException attemptConnection(String username, String password, int minPoolSize, int maxPoolSize) {
+		closeConnection();
+		
 		try {
-			// Attempt to create a connection to the database
-			mConnection = DriverManager.getConnection(
-				"jdbc:mysql:///" + FabFlixDBManager.DATABASE_NAME + "?useSSL=false", 
-				username, 
-				password);
+			// Attempt to create a pool of connections to the database
+			mConnectionPool = new FabFlixConnectionPool(DATABASE_URL, username, password, 
+				minPoolSize, maxPoolSize, 
+				FabFlixConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS, 
+				FabFlixConnectionPool.DEFAULT_BORROW_TIMEOUT_MILLIS);
 			
 		} catch (SQLException e) {
-			mConnection = null;
+			mConnectionPool = null;
 			return e;
 		}
+		
+		if (mCreditCardFilterEnabled)
+			startCreditCardFilter();
+		synchronized (mWriteBehindLock) {
+			if (mWriteBehindEnabled)
+				startWriteBehind();
+		}
 		return null;
 	}
 	
 	public void closeConnection() {
+		// Queued inserts are flushed while the pool is still open
+		stopWriteBehind();
+		
+		FabFlixConnectionPool pool = mConnectionPool;
+		mConnectionPool = null;
+		invalidateStarLookups();
+		invalidateSchemaMetadata();
+		invalidateStarIndex();
+		invalidateJoinEngine();
+		invalidateSalesAggregates();
+		invalidateQueryResults(null);
+		stopCreditCardFilter();
+		
+		if (pool != null)
+			pool.close();
+	}
+	
+	/**
+	 * Enables or disables the in-memory credit card filter. When enabled, every credit card ID
+	 * is loaded into memory when connecting and refreshed on a schedule, so checking the credit
+	 * card of a new customer normally does not need a database round trip.
+	 * 
+	 * @param enabled	true to use the credit card filter
+	 */
+	public synchronized void setCreditCardFilterEnabled(boolean enabled) {
+		mCreditCardFilterEnabled = enabled;
+		
+		if (!enabled)
+			stopCreditCardFilter();
+		else if (mConnectionPool != null && mCreditCardFilter == null)
+			startCreditCardFilter();
+	}
+	
+	/**
+	 * Enables or disables write-behind inserts with the default batch size and delay.
+	 * 
+	 * @param enabled	true to queue star and customer inserts
+	 * @see #setWriteBehindEnabled(boolean, int, long)
+	 */
+	public void setWriteBehindEnabled(boolean enabled) {
+		setWriteBehindEnabled(enabled, FabFlixWriteBehindQueue.DEFAULT_MAX_BATCH_SIZE, 
+			FabFlixWriteBehindQueue.DEFAULT_MAX_DELAY_MILLIS);
+	}
+	
+	/**
+	 * Enables or disables write-behind inserts. When enabled, the star and customer inserts
+	 * made outside of a transaction are queued and inserted by a background thread as JDBC
+	 * batches, each committed in one transaction, so concurrent inserts share a commit. Each
+	 * caller still waits for its own row to be committed and gets its own ID or error back.
+	 * Disabling write-behind flushes the rows already queued.
+	 * <p>
+	 * The write-behind queue has its own lock rather than this manager's, since closing it waits
+	 * for its flushing thread, which updates the star index after each batch.
+	 * 
+	 * @param enabled	true to queue star and customer inserts
+	 * @param maxBatchSize	maximum number of rows committed together
+	 * @param maxDelayMillis	maximum time a row waits for more rows to join its batch
+	 */
+	public void setWriteBehindEnabled(boolean enabled, int maxBatchSize, long maxDelayMillis) {
+		if (maxBatchSize < 1 || maxDelayMillis < 0)
+			throw new IllegalArgumentException("Invalid write-behind batch size or delay.");
+		
+		synchronized (mWriteBehindLock) {
+			mWriteBehindEnabled = enabled;
+			mWriteBehindBatchSize = maxBatchSize;
+			mWriteBehindDelayMillis = maxDelayMillis;
+			
+			stopWriteBehind();
+			if (enabled && mConnectionPool != null)
+				startWriteBehind();
+		}
+	}
+	
+	private void startWriteBehind() {
+		synchronized (mWriteBehindLock) {
+			stopWriteBehind();
+			mWriteBehindQueue = new FabFlixWriteBehindQueue(mConnectionPool, mWriteBehindBatchSize, mWriteBehindDelayMillis);
+		}
+	}
+	
+	private void stopWriteBehind() {
+		synchronized (mWriteBehindLock) {
+			FabFlixWriteBehindQueue queue = mWriteBehindQueue;
+			mWriteBehindQueue = null;
+			if (queue != null)
+				queue.close();
+		}
+	}
+	
+	/**
+	 * Loads the credit card filter and schedules its periodic refresh. The filter is only used
+	 * for lookups once it has been loaded successfully.
+	 */
+	private synchronized void startCreditCardFilter() {
+		stopCreditCardFilter();
+		
+		final FabFlixCreditCardFilter filter = new FabFlixCreditCardFilter();
+		mCreditCardFilter = filter;
+		refreshCreditCardFilter(filter);
+		
+		mCreditCardFilterTimer = new Timer("FabFlixCreditCardFilter-refresh", true);
+		mCreditCardFilterTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				refreshCreditCardFilter(filter);
+			}
+		}, CREDIT_CARD_FILTER_REFRESH_MILLIS, CREDIT_CARD_FILTER_REFRESH_MILLIS);
+	}
+	
+	private synchronized void stopCreditCardFilter() {
+		if (mCreditCardFilterTimer != null)
+			mCreditCardFilterTimer.cancel();
+		mCreditCardFilterTimer = null;
+		mCreditCardFilter = null;
+	}
+	
+	/**
+	 * Schedules an immediate background refresh of the credit card filter, if it is in use.
+	 */
+	private synchronized void scheduleCreditCardFilterRefresh() {
+		final FabFlixCreditCardFilter filter = mCreditCardFilter;
+		if (filter == null || mCreditCardFilterTimer == null)
+			return;
+		
+		mCreditCardFilterTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				refreshCreditCardFilter(filter);
+			}
+		}, 0);
+	}
+	
+	private void refreshCreditCardFilter(FabFlixCreditCardFilter filter) {
+		FabFlixPooledConnection connection = null;
+		
 		try {
-			if (mConnection != null && !mConnection.isClosed())
-				mConnection.close();
+			connection = borrowConnection();
+			filter.refresh(connection.getConnection());
 		} catch (SQLException e) {
-			System.out.println(FabFlixConsole.getErrorMessage("Error closing connection: " + e.getMessage()));
+			System.out.println(FabFlixConsole.getErrorMessage("Credit card filter refresh: Error code " + 
+				e.getErrorCode() + ": " + e.getMessage()));
+		} catch (NullPointerException e) {
+			// Connection was closed; the filter is no longer in use
+		} finally {
+			releaseConnection(connection);
+		}
+	}
+	
+	/**
+	 * Starts a transaction for the calling thread. Every call made by this thread until
+	 * {@link #commitTransaction} or {@link #rollbackTransaction} runs on the same connection
+	 * inside the transaction.
+	 * 
+	 * @return	<i>null</i> if the transaction was started, a <i>SQLException</i> object if it could not be started
+	 */
+	public SQLException beginTransaction() {
+		if (mTransactionConnection.get() != null)
+			return new SQLException("A transaction is already open.");
+		
+		FabFlixPooledConnection connection = null;
+		try {
+			connection = borrowConnection();
+			connection.getConnection().setAutoCommit(false);
+			mTransactionConnection.set(connection);
+			return null;
+			
+		} catch (SQLException e) {
+			releaseConnection(connection);
+			return e;
+		} catch (NullPointerException e) {
+			return new SQLException("No connection established with database server.");
+		}
+	}
+	
+	/**
+	 * Commits the calling thread's transaction.
+	 * 
+	 * @return	<i>null</i> if the transaction was committed, a <i>SQLException</i> object if the commit failed
+	 */
+	public SQLException commitTransaction() {
+		return endTransaction(true);
+	}
+	
+	/**
+	 * Rolls back the calling thread's transaction.
+	 * 
+	 * @return	<i>null</i> if the transaction was rolled back, a <i>SQLException</i> object if the rollback failed
+	 */
+	public SQLException rollbackTransaction() {
+		return endTransaction(false);
+	}
+	
+	private SQLException endTransaction(boolean commit) {
+		FabFlixPooledConnection connection = mTransactionConnection.get();
+		if (connection == null)
+			return new SQLException("No transaction is open.");
+		
+		mTransactionConnection.remove();
+		try {
+			if (commit)
+				connection.getConnection().commit();
+			else
+				connection.getConnection().rollback();
+			connection.getConnection().setAutoCommit(true);
+			return null;
+			
+		} catch (SQLException e) {
+			return e;
+		} finally {
+			// Lookups cached while the transaction was open may not match what was committed
+			invalidateStarLookups();
+			scheduleCreditCardFilterRefresh();
+			if (!commit) {
+				// Stars added to the index by the transaction were never committed
+				invalidateStarIndex();
+				markCatalogSnapshotStale();
+			}
+			invalidateJoinEngine();
+			invalidateSalesAggregates();
+			invalidateQueryResults(null);
+			releaseConnection(connection);
 		}
-
 	}
 	
 	/**
@@ -53,12 +476,293 @@ public class FabFlixDBManager
 	 * @return	true if the connection is live, false otherwise
 	 */
 	public boolean isConnectionLive() {
+		FabFlixConnectionPool pool = mConnectionPool;
+		return pool != null && !pool.isClosed();
+	}
+	
+	/**
+	 * Returns the maximum number of connections the pool opens at once, which is the most
+	 * queries that can run against the database concurrently.
+	 * 
+	 * @return	maximum pool size, or the default maximum if no connection is established
+	 */
+	public int getMaxConnectionCount() {
+		FabFlixConnectionPool pool = mConnectionPool;
+		return pool == null ? FabFlixConnectionPool.DEFAULT_MAX_SIZE : pool.getMaxSize();
+	}
+	
+	/**
+	 * Returns the current state and usage statistics of the connection pool.
+	 * 
+	 * @return	output string of the pool statistics, or an error message if no connection is established
+	 */
+	public String getPoolStatistics() {
+		FabFlixConnectionPool pool = mConnectionPool;
+		if (pool == null)
+			return FabFlixConsole.getErrorMessage("No connection established with database server.");
+		
+		return "\n" + pool.getStatistics();
+	}
+	
+	/**
+	 * Returns the statistics of the connection pool and of the star lookup caches.
+	 * 
+	 * @return	output string of the statistics
+	 */
+	public String getStatistics() {
+		FabFlixConnectionPool pool = mConnectionPool;
+		
+		return "\n" + (pool == null ? "No connection established with database server.\n" : pool.getStatistics()) + 
+			mMoviesByStarIDCache.getStatistics() + 
+			mMoviesByStarNameCache.getStatistics() + 
+			(mCreditCardFilter == null ? "" : mCreditCardFilter.getStatistics()) + 
+			(mWriteBehindQueue == null ? "" : mWriteBehindQueue.getStatistics()) + 
+			(mResultCache == null ? "" : mResultCache.getStatistics()) + 
+			(mStarIndex == null ? "" : mStarIndex.getStatistics()) + 
+			(mJoinEngine == null ? "" : mJoinEngine.getStatistics()) + 
+			(mSalesAggregates == null ? "" : mSalesAggregates.getStatistics()) + 
+			(mCatalogSnapshot == null ? "" : mCatalogSnapshot.getStatistics() + 
+				(mCatalogSnapshotStale ? "Catalog snapshot is out of date; star lookups use the database.\n" : ""));
+	}
+	
+	/**
+	 * Returns the latency histograms and slow-query log of this manager's operations. The
+	 * returned object is live; use its snapshot methods to read consistent values.
+	 * 
+	 * @return	operation metrics of this manager
+	 */
+	public FabFlixQueryMetrics getQueryMetrics() {
+		return mMetrics;
+	}
+	
+	/**
+	 * Returns the latency percentiles, call and error counts of every operation, followed by
+	 * the most recent slow queries split into execute, fetch and format time.
+	 * 
+	 * @return	output string of the latency statistics
+	 */
+	public String getLatencyStatistics() {
+		return "\n" + mMetrics.getStatistics();
+	}
+	
+	/**
+	 * Sets how long an operation must take to be added to the slow-query log.
+	 * 
+	 * @param millis	threshold in milliseconds (0 logs every operation)
+	 */
+	public void setSlowQueryThreshold(long millis) {
+		mMetrics.setSlowQueryThresholdMillis(millis);
+	}
+	
+	/**
+	 * Enables or disables capturing the statements this manager executes, for {@link #adviseIndexes}.
+	 * 
+	 * @param enabled	true to capture statements
+	 */
+	public void setStatementCaptureEnabled(boolean enabled) {
+		mMetrics.setStatementCaptureEnabled(enabled);
+	}
+	
+	/**
+	 * Runs <i>EXPLAIN</i> on the captured statements and proposes indexes for the full scans and
+	 * sorts it finds, by estimated benefit. Optionally creates the proposed indexes, timing the
+	 * statements they help before and after each one.
+	 * 
+	 * @param apply	true to create the proposed indexes and measure them
+	 * @return	output string of the findings, the proposed indexes and their measurements, or an error message
+	 */
+	public String adviseIndexes(boolean apply) {
+		Map<String, Long> statements = mMetrics.getCapturedStatements();
+		if (statements.isEmpty())
+			return FabFlixConsole.getErrorMessage("No statements captured. Enable statement capture and run some operations first.");
+		// Creating an index commits the open transaction
+		if (apply && mTransactionConnection.get() != null)
+			return FabFlixConsole.getErrorMessage("Indexes cannot be created while a transaction is open.");
+		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("adviseIndexes");
+		FabFlixPooledConnection connection = null;
+		boolean applied = false;
 		try {
-			return mConnection != null && !mConnection.isClosed();
+			FabFlixIndexAdvisor advisor = new FabFlixIndexAdvisor(findSchemaMetadata());
+			connection = borrowConnection();
+			advisor.analyze(connection.getConnection(), statements);
+			mMetrics.markFetched();
+			
+			String report = advisor.getReport();
+			if (apply && !advisor.getProposals().isEmpty()) {
+				applied = true;
+				report += advisor.applyAndMeasure(connection.getConnection());
+			}
+			return "\n" + FabFlixConsole.getInfoMessage(report);
 			
 		} catch (SQLException e) {
-			return false;
+			sample.fail(e.getErrorCode());
+			return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+		} catch (NullPointerException e) {
+			sample.fail(0);
+			if (mConnectionPool == null)
+				return FabFlixConsole.getErrorMessage("No connection established with database server.");
+			return FabFlixConsole.getErrorMessage("Error advising indexes.");
+		} finally {
+			releaseConnection(connection);
+			if (applied)
+				invalidateSchemaMetadata();
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Sets the output format of the movie lists, star searches and query results returned as
+	 * strings. Messages and statistics are always plain text.
+	 * 
+	 * @param renderer	renderer of the output format
+	 */
+	public void setRenderer(FabFlixRenderer renderer) {
+		mRenderer = renderer;
+	}
+	
+	public FabFlixRenderer getRenderer() {
+		return mRenderer;
+	}
+	
+	/**
+	 * Enables or disables caching of the star lookups. Disabling the cache also empties it.
+	 * 
+	 * @param enabled	true to serve repeated star lookups from the cache
+	 */
+	public void setStarLookupCacheEnabled(boolean enabled) {
+		mStarLookupCacheEnabled = enabled;
+		if (!enabled)
+			invalidateStarLookups();
+	}
+	
+	/**
+	 * Enables or disables the query result cache with the default memory budget.
+	 * 
+	 * @param enabled	true to serve repeated SELECT queries from the cache
+	 * @see #setResultCacheEnabled(boolean, long)
+	 */
+	public void setResultCacheEnabled(boolean enabled) {
+		setResultCacheEnabled(enabled, FabFlixResultCache.DEFAULT_MAX_BYTES);
+	}
+	
+	/**
+	 * Enables or disables the query result cache. When enabled, the rows of the SELECT queries
+	 * run through {@link #executeSQL(String, Writer, FabFlixRenderer)} outside of a transaction
+	 * are kept in memory, keyed by the normalized query text, and repeated queries are answered
+	 * without the database. Each result is removed as soon as a write made through this manager
+	 * changes one of the tables its query reads (or a table that cascades from one). Writes made
+	 * by other clients are not seen, so only enable it when this tool is the only writer.
+	 * <p>
+	 * Queries using non-deterministic functions, user variables, locking reads or
+	 * <i>SELECT ... INTO</i> are never cached, nor are queries naming a view, since the base
+	 * tables behind it are not known. Every result is removed after a <i>CALL</i>, or a write
+	 * to a view or to a table with triggers, since those may change any table.
+	 * 
+	 * @param enabled	true to serve repeated SELECT queries from the cache
+	 * @param maxBytes	memory budget of the cached results; least recently used results are evicted beyond it
+	 */
+	public void setResultCacheEnabled(boolean enabled, long maxBytes) {
+		mResultCache = enabled ? new FabFlixResultCache(maxBytes) : null;
+	}
+	
+	/**
+	 * Removes the cached query results that read from any of the given tables, or from a
+	 * table with a foreign key to one of them, since deletes and updates may cascade to it.
+	 * Every result is removed if one of the tables is a view or has triggers, since the tables
+	 * those write to are not known.
+	 * 
+	 * @param tables	lower case names of the tables written, or <i>null</i> to remove every result
+	 */
+	private void invalidateQueryResults(Set<String> tables) {
+		FabFlixResultCache cache = mResultCache;
+		if (cache == null)
+			return;
+		
+		FabFlixSchemaMetadata metadata = mSchemaMetadata;
+		if (tables == null || metadata == null || namesIndirectTable(tables, metadata, true)) {
+			cache.invalidateAll();
+			return;
 		}
+		
+		// Follow the foreign keys until no further table references a changed one
+		Set<String> changed = new HashSet<String>(tables);
+		boolean added = true;
+		while (added) {
+			added = false;
+			for (FabFlixSchemaMetadata.Table table : metadata.getTables()) {
+				for (FabFlixSchemaMetadata.Key key : table.getForeignKeys()) {
+					if (key.getReferencedTable() != null && changed.contains(key.getReferencedTable().toLowerCase()))
+						added |= changed.add(table.getName().toLowerCase());
+				}
+			}
+		}
+		cache.invalidateTables(changed);
+	}
+	
+	/**
+	 * Returns the tables of the database named in a SQL command. Every word of the command
+	 * that is the name of a table counts, so the result may include more tables than the
+	 * command actually uses, but never fewer.
+	 * 
+	 * @param command	SQL command
+	 * @param metadata	schema of the database
+	 * @return	lower case names of the tables named in the command
+	 */
+	private static Set<String> findTableNames(String command, FabFlixSchemaMetadata metadata) {
+		Set<String> tables = new HashSet<String>();
+		Matcher word = TABLE_NAME_PATTERN.matcher(command);
+		while (word.find()) {
+			if (metadata.getTable(word.group()) != null)
+				tables.add(word.group().toLowerCase());
+		}
+		return tables;
+	}
+	
+	/**
+	 * Returns whether any of a set of tables is a view, or optionally has triggers, so using it
+	 * reads or writes tables that are not named.
+	 * 
+	 * @param tables	lower case table names
+	 * @param metadata	schema of the database
+	 * @param triggers	true to also look for tables with triggers
+	 * @return	true if a table is a view or has triggers
+	 */
+	private static boolean namesIndirectTable(Set<String> tables, FabFlixSchemaMetadata metadata, boolean triggers) {
+		for (String name : tables) {
+			FabFlixSchemaMetadata.Table table = metadata.getTable(name);
+			if (table != null && (table.isView() || (triggers && table.hasTriggers())))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Writes a cached query result in a renderer's format.
+	 * 
+	 * @param result	cached result
+	 * @param writer	writer the rows are written to
+	 * @param renderer	renderer of the output format
+	 * @throws IOException	if an error occurred writing the rows
+	 */
+	private static void renderCachedResult(FabFlixResultCache.Result result, Writer writer, FabFlixRenderer renderer) 
+		throws IOException {
+		
+		String[] columnNames = result.getColumnNames();
+		renderer.beginRows(result.getTableName(), columnNames, writer);
+		long rowCount = 0;
+		for (String[] values : result.getRows())
+			renderer.renderRow(columnNames, values, rowCount++, writer);
+		renderer.endRows(rowCount, writer);
+		writer.flush();
+	}
+	
+	/**
+	 * Removes every cached star lookup result.
+	 */
+	private void invalidateStarLookups() {
+		mMoviesByStarIDCache.invalidateAll();
+		mMoviesByStarNameCache.invalidateAll();
 	}
 	
 	/**
@@ -72,41 +776,12 @@ public class FabFlixDBManager
 		if (id == null)
 			return FabFlixConsole.getErrorMessage("Invalid ID inputted. Cannot execute query.");
 
-		Statement select;
-		ResultSet result;
-		StringBuffer buffer = new StringBuffer();
-		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("getMoviesForStar(id)");
 		try {
-			// Create and run the query onto the database
-			select = mConnection.createStatement();
-			result = select.executeQuery(
-				"select m.* from stars_in_movies sm, movies m where sm.star_id = " + 
-					id + " and sm.movie_id = m.id;");
-			buffer.append("\n");
-			
-			// If there are no initial results, add a message for no results found
-			boolean resultsFound = false;
-			
-			// Create the output string from the query
-			while (result.next()) {
-				resultsFound = true;
-				buffer.append("ID = " +  result.getInt(1) + "\n");
-				buffer.append("Title = " +  result.getString(2) + "\n");
-				buffer.append("Year = " +  result.getInt(3) + "\n");
-				buffer.append("Director = " +  result.getString(4) + "\n");
-				buffer.append("Banner URL = " +  (result.getString(5).isEmpty() ? "N/A" : result.getString(5)) + "\n");
-				buffer.append("Trailer URL = " +  (result.getString(6).isEmpty() ? "N/A" : result.getString(6)) + "\n");
-				buffer.append("\n");
-			}
-			
-			if (!resultsFound)
-				buffer.append("No results found!\n");
-			
-			select.close();
-			result.close();
-			return buffer.toString();
+			return formatMovies(findMoviesForStar(id), mRenderer);
 		}
 		catch (SQLException e) {
+			sample.fail(e.getErrorCode());
 			// Return the proper error message 
 			switch (e.getErrorCode()) {
 			case 1146:
@@ -115,9 +790,12 @@ public class FabFlixDBManager
 				return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
 			}
 		} catch (NullPointerException e) {
-			if (mConnection == null)
+			sample.fail(0);
+			if (mConnectionPool == null)
 				return FabFlixConsole.getErrorMessage("No connection established with database server.");
 			return FabFlixConsole.getErrorMessage("Error executing insertion of star.");
+		} finally {
+			sample.finish();
 		}
 	}
 
@@ -133,54 +811,12 @@ public class FabFlixDBManager
 		if (firstName == null || lastName == null)
 			return FabFlixConsole.getErrorMessage("Invalid names inputted. Cannot execute query.");
 		
-		String query = "select m.* from stars s, stars_in_movies sm, movies m where s.id = sm.star_id and m.id = sm.movie_id ";
-		Statement select;
-		ResultSet result;
-		StringBuffer buffer = new StringBuffer();
-		
-		// Obtain the correct query based on the inputs for the first name and the last name
-		if (!firstName.isEmpty() && !lastName.isEmpty())
-			query += "and s.first_name = \"" + firstName + "\" and s.last_name = \"" + lastName + "\"";
-		else if (!lastName.isEmpty())
-			query += "and s.last_name = \"" + lastName + "\"";
-		else if (!firstName.isEmpty())
-			query += "and s.first_name = \"" + firstName + "\"";
-		
-		// Uncomment if we want to have no results appear when empty first and last name are inputted
-		/*
-		else
-			query += "and s.first_name = \"\" and s.last_name = \"\"";
-		*/
-		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("getMoviesForStar(name)");
 		try {
-			// Create and run the query onto the database
-			select = mConnection.createStatement();
-			result = select.executeQuery(query);
-			buffer.append("\n");
-			
-			// If there are no initial results, add a message for no results found
-			boolean resultsFound = false;
-			
-			// Create the output string from the query
-			while (result.next()) {
-				resultsFound = true;
-				buffer.append("ID = " +  result.getInt(1) + "\n");
-				buffer.append("Title = " +  result.getString(2) + "\n");
-				buffer.append("Year = " +  result.getInt(3) + "\n");
-				buffer.append("Director = " +  result.getString(4) + "\n");
-				buffer.append("Banner URL = " +  (result.getString(5).isEmpty() ? "N/A" : result.getString(5)) + "\n");
-				buffer.append("Trailer URL = " +  (result.getString(6).isEmpty() ? "N/A" : result.getString(6)) + "\n");
-				buffer.append("\n");
-			}
-			
-			if (!resultsFound)
-				buffer.append("No results found!\n");
-			
-			select.close();
-			result.close();
-			return buffer.toString();
+			return formatMovies(findMoviesForStar(firstName, lastName), mRenderer);
 			
 		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
 			// Return the proper error message 
 			switch (e.getErrorCode()) {
 			case 1146:	// Table not found
@@ -189,222 +825,2504 @@ public class FabFlixDBManager
 				return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
 			}
 		} catch (NullPointerException e) {
-			if (mConnection == null)
+			sample.fail(0);
+			if (mConnectionPool == null)
+				return FabFlixConsole.getErrorMessage("No connection established with database server.");
+			return FabFlixConsole.getErrorMessage("Error executing insertion of star.");
+		} finally {
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Returns the movies that feature a given star by the star's ID number. Results are served
+	 * from the catalog snapshot, the join engine or the star lookup cache when possible, and
+	 * cached after being read from the database.
+	 * 
+	 * @param id	integer representing the star's ID number
+	 * @return	movies featuring the star (empty if none were found)
+	 * @throws SQLException	if an error occurred querying the database
+	 */
+	public List<FabFlixMovie> findMoviesForStar(int id) throws SQLException {
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("getMoviesForStar(id)");
+		FabFlixCatalogSnapshot snapshot = getReadableCatalogSnapshot();
+		if (snapshot != null) {
+			sample.finish();
+			return snapshot.findMoviesForStar(id);
+		}
+		if (mJoinEngineEnabled) {
+			try {
+				return findJoinEngine().findMoviesForStar(id);
+			} catch (SQLException e) {
+				sample.fail(e.getErrorCode());
+				throw e;
+			} catch (RuntimeException e) {
+				sample.fail(0);
+				throw e;
+			} finally {
+				sample.finish();
+			}
+		}
+		
+		List<FabFlixMovie> movies = mStarLookupCacheEnabled ? mMoviesByStarIDCache.get(id) : null;
+		if (movies != null) {
+			sample.finish();
+			return movies;
+		}
+		
+		long generation = mMoviesByStarIDCache.getGeneration();
+		FabFlixPooledConnection connection = null;
+		
+		try {
+			// Run the cached query onto the database
+			connection = borrowConnection();
+			PreparedStatement select = connection.prepareStatement(MOVIES_FOR_STAR_ID_QUERY);
+			select.setInt(1, id);
+			ResultSet result = select.executeQuery();
+			mMetrics.markExecuted(MOVIES_FOR_STAR_ID_QUERY);
+			movies = readMovies(result);
+			mMetrics.markFetched();
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			throw e;
+		} catch (RuntimeException e) {
+			sample.fail(0);
+			throw e;
+		} finally {
+			releaseConnection(connection);
+			sample.finish();
+		}
+		
+		if (mStarLookupCacheEnabled)
+			mMoviesByStarIDCache.put(id, movies, generation);
+		return movies;
+	}
+	
+	/**
+	 * Returns the movies that feature a given star by the star's first and/or last name. An empty
+	 * name is not used to filter the stars. Results are served from the catalog snapshot, the
+	 * join engine or the star lookup cache when possible, and cached after being read from the
+	 * database.
+	 * 
+	 * @param firstName	the star's first name
+	 * @param lastName	the star's last name
+	 * @return	movies featuring the star (empty if none were found)
+	 * @throws SQLException	if an error occurred querying the database
+	 */
+	public List<FabFlixMovie> findMoviesForStar(String firstName, String lastName) throws SQLException {
+		// The database ignores trailing spaces and case when comparing names, so the bound names
+		// and the cache key are normalized the same way
+		firstName = stripTrailingSpaces(firstName);
+		lastName = stripTrailingSpaces(lastName);
+		String key = toNameKey(firstName) + "\0" + toNameKey(lastName);
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("getMoviesForStar(name)");
+		FabFlixCatalogSnapshot snapshot = getReadableCatalogSnapshot();
+		if (snapshot != null) {
+			sample.finish();
+			return snapshot.findMoviesForStar(firstName, lastName);
+		}
+		if (mJoinEngineEnabled) {
+			try {
+				return findJoinEngine().findMoviesForStar(firstName, lastName);
+			} catch (SQLException e) {
+				sample.fail(e.getErrorCode());
+				throw e;
+			} catch (RuntimeException e) {
+				sample.fail(0);
+				throw e;
+			} finally {
+				sample.finish();
+			}
+		}
+		
+		List<FabFlixMovie> movies = mStarLookupCacheEnabled ? mMoviesByStarNameCache.get(key) : null;
+		if (movies != null) {
+			sample.finish();
+			return movies;
+		}
+		
+		long generation = mMoviesByStarNameCache.getGeneration();
+		FabFlixPooledConnection connection = null;
+		PreparedStatement select;
+		String query;
+		
+		try {
+			connection = borrowConnection();
+			
+			// Obtain the correct query based on the inputs for the first name and the last name
+			if (!firstName.isEmpty() && !lastName.isEmpty()) {
+				select = connection.prepareStatement(query = MOVIES_FOR_STAR_FULL_NAME_QUERY);
+				select.setString(1, firstName);
+				select.setString(2, lastName);
+			}
+			else if (!lastName.isEmpty()) {
+				select = connection.prepareStatement(query = MOVIES_FOR_STAR_LAST_NAME_QUERY);
+				select.setString(1, lastName);
+			}
+			else if (!firstName.isEmpty()) {
+				select = connection.prepareStatement(query = MOVIES_FOR_STAR_FIRST_NAME_QUERY);
+				select.setString(1, firstName);
+			}
+			else
+				select = connection.prepareStatement(query = MOVIES_FOR_STAR_QUERY);
+			
+			// Uncomment if we want to have no results appear when empty first and last name are inputted
+			/*
+			else {
+				select = connection.prepareStatement(MOVIES_FOR_STAR_FULL_NAME_QUERY);
+				select.setString(1, "");
+				select.setString(2, "");
+			}
+			*/
+			
+			// Run the cached query onto the database
+			ResultSet result = select.executeQuery();
+			mMetrics.markExecuted(query);
+			movies = readMovies(result);
+			mMetrics.markFetched();
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			throw e;
+		} catch (RuntimeException e) {
+			sample.fail(0);
+			throw e;
+		} finally {
+			releaseConnection(connection);
+			sample.finish();
+		}
+		
+		if (mStarLookupCacheEnabled)
+			mMoviesByStarNameCache.put(key, movies, generation);
+		return movies;
+	}
+	
+	/**
+	 * Returns the stars whose name matches a search, formatted one star per line, best match first.
+	 * A proper error message is returned if an error occurred loading the star name index.
+	 * 
+	 * @param query	name, name prefix or partial name of the star (case-insensitive)
+	 * @return	output string listing the matching stars
+	 */
+	public String searchStars(String query) {
+		if (query == null || query.trim().isEmpty())
+			return FabFlixConsole.getErrorMessage("Invalid or empty name inputted. Cannot execute search.");
+		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("searchStars");
+		try {
+			long start = System.nanoTime();
+			boolean loaded = mStarIndex != null;
+			List<FabFlixStar> stars = findStars(query, STAR_SEARCH_LIMIT);
+			double elapsedMillis = (System.nanoTime() - start) / 1000000.0;
+			
+			StringBuilder buffer = new StringBuilder();
+			mRenderer.renderStars(stars, buffer);
+			
+			buffer.append("\n");
+			buffer.append(FabFlixConsole.getInfoMessage(String.format("%d star(s) found in %.3f ms%s.", stars.size(), elapsedMillis, 
+				loaded ? "" : String.format(" (index loaded from database in %.3f ms)", mStarIndex == null ? 0 : mStarIndex.getLoadTimeMillis()))));
+			return buffer.toString();
+			
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+		} catch (IOException e) {
+			// Appending to a StringBuilder never fails
+			throw new IllegalStateException(e);
+		} catch (NullPointerException e) {
+			sample.fail(0);
+			if (mConnectionPool == null)
+				return FabFlixConsole.getErrorMessage("No connection established with database server.");
+			return FabFlixConsole.getErrorMessage("Error executing search of stars.");
+		} finally {
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Returns the stars whose name starts with the query, or has a word starting with each word
+	 * of the query, ignoring case. The search is served from an in-memory prefix index, which is
+	 * read from the database on the first search and kept up to date by {@link #insertStar}.
+	 * 
+	 * @param query	name, name prefix or partial name of the star
+	 * @param limit	maximum number of stars returned
+	 * @return	matching stars, best match first (see {@link FabFlixStarIndex#search})
+	 * @throws SQLException	if an error occurred loading the index
+	 */
+	public List<FabFlixStar> findStars(String query, int limit) throws SQLException {
+		return findStarIndex().search(query, limit);
+	}
+	
+	/**
+	 * Returns the star name index, reading it from the catalog snapshot or the database if it
+	 * is not loaded.
+	 * 
+	 * @return	index of every star
+	 * @throws SQLException	if an error occurred reading the stars
+	 */
+	private FabFlixStarIndex findStarIndex() throws SQLException {
+		FabFlixStarIndex index = mStarIndex;
+		if (index != null)
+			return index;
+		
+		long generation;
+		synchronized (this) {
+			generation = mStarIndexGeneration;
+		}
+		
+		FabFlixCatalogSnapshot snapshot = getReadableCatalogSnapshot();
+		if (snapshot != null)
+			index = FabFlixStarIndex.create(snapshot.getStars());
+		else {
+			FabFlixPooledConnection connection = borrowConnection();
+			try {
+				index = FabFlixStarIndex.load(connection.getConnection());
+			} finally {
+				releaseConnection(connection);
+			}
+		}
+		
+		// Do not keep an index that may have missed a star added while it was being read
+		synchronized (this) {
+			if (generation == mStarIndexGeneration)
+				mStarIndex = index;
+		}
+		return index;
+	}
+	
+	private synchronized void addToStarIndex(FabFlixStar star) {
+		mStarIndexGeneration++;
+		if (mStarIndex != null)
+			mStarIndex.add(star);
+	}
+	
+	private synchronized void invalidateStarIndex() {
+		mStarIndexGeneration++;
+		mStarIndex = null;
+	}
+	
+	/**
+	 * Enables or disables the in-memory join engine. When enabled, the catalog joins are read
+	 * into memory on the first star lookup, and lookups are answered from memory until a write
+	 * through this manager changes the catalog tables, after which the engine is read again.
+	 * Changes made by other clients are not seen until then.
+	 * 
+	 * @param enabled	true to answer star lookups from the join engine
+	 */
+	public void setJoinEngineEnabled(boolean enabled) {
+		mJoinEngineEnabled = enabled;
+		if (!enabled)
+			invalidateJoinEngine();
+	}
+	
+	/**
+	 * Returns the join engine, reading it from the database if it is not loaded.
+	 * 
+	 * @return	engine over the catalog joins
+	 * @throws SQLException	if an error occurred reading the catalog tables
+	 */
+	private FabFlixJoinEngine findJoinEngine() throws SQLException {
+		return findJoinEngine(false);
+	}
+	
+	/**
+	 * Returns the join engine, reading it from the database if it is not loaded.
+	 * 
+	 * @param keep	true to keep the engine loaded even if star lookups do not use it
+	 * @return	engine over the catalog joins
+	 * @throws SQLException	if an error occurred reading the catalog tables
+	 */
+	private FabFlixJoinEngine findJoinEngine(boolean keep) throws SQLException {
+		FabFlixJoinEngine engine = mJoinEngine;
+		if (engine != null)
+			return engine;
+		
+		long generation;
+		synchronized (this) {
+			generation = mJoinEngineGeneration;
+		}
+		FabFlixPooledConnection connection = borrowConnection();
+		
+		try {
+			engine = FabFlixJoinEngine.load(connection.getConnection());
+		} finally {
+			releaseConnection(connection);
+		}
+		
+		// Do not keep an engine that may have missed a write made while it was being read
+		synchronized (this) {
+			if (generation == mJoinEngineGeneration && (mJoinEngineEnabled || keep))
+				mJoinEngine = engine;
+		}
+		return engine;
+	}
+	
+	private synchronized void invalidateJoinEngine() {
+		mJoinEngineGeneration++;
+		mJoinEngine = null;
+	}
+	
+	/**
+	 * Returns the co-stars of a star, ranked by the number of movies they share with it. Co-star
+	 * queries run on the co-star graph of the join engine, which is read on the first query and
+	 * kept until a write through this manager changes the catalog tables.
+	 * 
+	 * @param starID	integer representing the star's ID number
+	 * @param limit	maximum number of co-stars listed
+	 * @return	output string listing the co-stars and their shared movies, or an error message
+	 */
+	public String getCoStars(int starID, int limit) {
+		if (limit < 1 || limit > MAX_PAGE_SIZE)
+			return FabFlixConsole.getErrorMessage("Number of co-stars must be between 1 and " + MAX_PAGE_SIZE + ".");
+		return getCoStarReport("getCoStars", starID, 0, limit);
+	}
+	
+	/**
+	 * Returns a shortest chain of co-stars linking two stars, with the movie linking each star
+	 * of the chain to the next.
+	 * 
+	 * @param fromStarID	ID of the first star
+	 * @param toStarID	ID of the last star
+	 * @return	output string listing the stars and movies of the chain, or an error message if
+	 * 			the stars are not connected
+	 * @see #getCoStars
+	 */
+	public String getStarPath(int fromStarID, int toStarID) {
+		return getCoStarReport("getStarPath", fromStarID, toStarID, 0);
+	}
+	
+	/**
+	 * Returns every star within a number of co-star hops of a star.
+	 * 
+	 * @param starID	integer representing the star's ID number
+	 * @param hops	maximum degrees of separation
+	 * @return	output string listing the stars reached and their distance, or an error message
+	 * @see #getCoStars
+	 */
+	public String getStarNeighborhood(int starID, int hops) {
+		if (hops < 1 || hops > MAX_STAR_DISTANCE)
+			return FabFlixConsole.getErrorMessage("Number of hops must be between 1 and " + MAX_STAR_DISTANCE + ".");
+		return getCoStarReport("getStarNeighborhood", starID, 0, hops);
+	}
+	
+	/**
+	 * Renders one of the co-star queries.
+	 * 
+	 * @param query	name of the query, which is also the name of its operation metrics
+	 * @param starID	ID of the star the query starts from
+	 * @param toStarID	ID of the last star of a path
+	 * @param limit	number of co-stars, or number of hops of a neighborhood
+	 * @return	output string of the query, or an error message
+	 */
+	private String getCoStarReport(String query, int starID, int toStarID, int limit) {
+		FabFlixQueryMetrics.Sample sample = mMetrics.start(query);
+		try {
+			FabFlixCoStarGraph graph = findJoinEngine(true).getCoStarGraph();
+			mMetrics.markExecuted(query);
+			
+			List<String> columnNames;
+			List<String[]> rows = new ArrayList<String[]>();
+			if (query.equals("getStarPath")) {
+				FabFlixCoStarGraph.Path path = graph.findPath(starID, toStarID, MAX_STAR_DISTANCE);
+				if (path == null)
+					return FabFlixConsole.getErrorMessage("Stars " + starID + " and " + toStarID + 
+						" do not exist or are not connected within " + MAX_STAR_DISTANCE + " co-star hops.");
+				
+				// Each star is listed with the movie it shares with the previous star
+				columnNames = Arrays.asList("distance", "star_id", "name", "movie_id", "title");
+				for (int i = 0; i < path.getStars().size(); i++) {
+					FabFlixCoStarGraph.Neighbor star = path.getStars().get(i);
+					FabFlixMovie movie = i == 0 ? null : path.getMovies().get(i - 1);
+					rows.add(new String[] { String.valueOf(star.getDistance()), String.valueOf(star.getStarID()), star.getName(), 
+						movie == null ? null : String.valueOf(movie.getID()), movie == null ? null : movie.getTitle() });
+				}
+			} else {
+				List<FabFlixCoStarGraph.Neighbor> neighbors = query.equals("getCoStars") ? 
+					graph.findCoStars(starID, limit) : graph.findNeighborhood(starID, limit);
+				if (neighbors == null)
+					return FabFlixConsole.getErrorMessage("No star found with ID " + starID + ".");
+				
+				boolean coStars = query.equals("getCoStars");
+				columnNames = Arrays.asList("star_id", "name", coStars ? "shared_movies" : "distance");
+				for (FabFlixCoStarGraph.Neighbor neighbor : neighbors) {
+					rows.add(new String[] { String.valueOf(neighbor.getStarID()), neighbor.getName(), 
+						String.valueOf(coStars ? neighbor.getSharedMovieCount() : neighbor.getDistance()) });
+				}
+			}
+			
+			StringBuilder buffer = new StringBuilder();
+			mRenderer.renderRows("stars", columnNames, rows, buffer);
+			mMetrics.markFetched();
+			return buffer.toString();
+			
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+		} catch (IOException e) {
+			// Appending to a StringBuilder never fails
+			throw new IllegalStateException(e);
+		} catch (NullPointerException e) {
+			sample.fail(0);
+			if (mConnectionPool == null)
+				return FabFlixConsole.getErrorMessage("No connection established with database server.");
+			return FabFlixConsole.getErrorMessage("Error reading the co-star graph.");
+		} finally {
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Enables or disables the in-memory sales aggregates. When enabled, the sales totals are
+	 * read on the first sales report and then updated as sales are inserted with
+	 * {@link #insertSale} and customers are deleted through this manager, so later reports do
+	 * not scan <i>sales</i>. Other writes through {@link #executeSQL} to the sales, customer or
+	 * catalog tables make the totals be read again; writes by other clients are not seen until
+	 * {@link #rebuildSalesAggregates} is run. When disabled, every report reads the totals.
+	 * 
+	 * @param enabled	true to keep the sales totals in memory
+	 */
+	public void setSalesAggregatesEnabled(boolean enabled) {
+		mSalesAggregatesEnabled = enabled;
+		if (!enabled)
+			invalidateSalesAggregates();
+	}
+	
+	/**
+	 * Returns the sales aggregates, reading them from the database if they are not loaded.
+	 * 
+	 * @return	sales totals per movie, per customer and per genre and month
+	 * @throws SQLException	if an error occurred reading the sales
+	 */
+	public FabFlixSalesAggregates findSalesAggregates() throws SQLException {
+		FabFlixSalesAggregates aggregates = mSalesAggregates;
+		if (aggregates != null)
+			return aggregates;
+		
+		long generation;
+		synchronized (this) {
+			generation = mSalesAggregatesGeneration;
+		}
+		FabFlixPooledConnection connection = borrowConnection();
+		
+		try {
+			aggregates = FabFlixSalesAggregates.load(connection.getConnection());
+		} finally {
+			releaseConnection(connection);
+		}
+		
+		// Do not keep totals that may have missed, or already include, a sale added or removed while they were being read
+		synchronized (this) {
+			if (generation == mSalesAggregatesGeneration && mSalesWritesInFlight == 0 && mSalesAggregatesEnabled)
+				mSalesAggregates = aggregates;
+		}
+		return aggregates;
+	}
+	
+	private synchronized void invalidateSalesAggregates() {
+		mSalesAggregatesGeneration++;
+		mSalesAggregates = null;
+	}
+	
+	/**
+	 * Marks a sale as being written. Aggregates read until the matching {@link #finishSalesWrite}
+	 * may or may not include the sale, so they are not kept; otherwise the sale would be added
+	 * to them a second time.
+	 */
+	private synchronized void beginSalesWrite() {
+		mSalesAggregatesGeneration++;
+		mSalesWritesInFlight++;
+	}
+	
+	private synchronized void finishSalesWrite() {
+		mSalesWritesInFlight--;
+		mSalesAggregatesGeneration++;
+	}
+	
+	private synchronized void addToSalesAggregates(int customerID, int movieID, Date saleDate) {
+		mSalesAggregatesGeneration++;
+		if (mSalesAggregates != null)
+			mSalesAggregates.addSale(customerID, movieID, saleDate);
+	}
+	
+	private synchronized void removeFromSalesAggregates(Collection<Integer> customerIDs) {
+		mSalesAggregatesGeneration++;
+		if (mSalesAggregates != null) {
+			for (int customerID : customerIDs)
+				mSalesAggregates.removeCustomer(customerID);
+		}
+	}
+	
+	/**
+	 * Inserts a sale into the database and adds it to the sales aggregates. If an error occurs,
+	 * the operation is canceled and a proper error message is returned by the method.
+	 * 
+	 * @param customerID	ID of the customer who bought the movie
+	 * @param movieID	ID of the movie sold
+	 * @param saleDate	date of the sale
+	 * @return	result of the insertion, with the new sale's ID if it succeeded
+	 */
+	public FabFlixResult insertSale(Integer customerID, Integer movieID, Date saleDate) {
+		if (customerID == null)
+			return FabFlixResult.failed("Invalid customer ID inputted. Cannot insert sale.");
+		if (movieID == null)
+			return FabFlixResult.failed("Invalid movie ID inputted. Cannot insert sale.");
+		if (saleDate == null)
+			return FabFlixResult.failed("Invalid sale date inputted. Cannot insert sale.");
+		
+		try {
+			int newSaleID = addSale(customerID, movieID, saleDate);
+			if (newSaleID > 0)
+				return FabFlixResult.succeeded(FabFlixConsole.getInfoMessage("Successfully added sale into database! Newly added sale's ID is " + newSaleID + ".\n"), newSaleID);
+			return FabFlixResult.failed("Unable to add sale into database.\n");
+			
+		} catch (SQLException e) {
+			switch (e.getErrorCode()) {
+			case 1452:	// Foreign key constraint fails
+				return FabFlixResult.failed("Customer or movie does not exist inside database. Cannot insert sale.", e.getErrorCode());
+			default:
+				return FabFlixResult.failed("Error code " + e.getErrorCode() + ": " + e.getMessage(), e.getErrorCode());
+			}
+		} catch (NullPointerException e) {
+			if (mConnectionPool == null)
+				return FabFlixResult.failed("No connection established with database server.");
+			return FabFlixResult.failed("Error executing insertion of sale.");
+		}
+	}
+	
+	/**
+	 * Inserts a sale into the database, adds it to the sales aggregates and returns its new ID.
+	 * 
+	 * @param customerID	ID of the customer who bought the movie
+	 * @param movieID	ID of the movie sold
+	 * @param saleDate	date of the sale
+	 * @return	ID of the newly added sale, or -1 if no ID was generated
+	 * @throws SQLException	if an error occurred inserting the sale
+	 */
+	public int addSale(int customerID, int movieID, Date saleDate) throws SQLException {
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("insertSale");
+		FabFlixPooledConnection connection = null;
+		beginSalesWrite();
+		
+		try {
+			connection = borrowConnection();
+			PreparedStatement insert = connection.prepareStatement(INSERT_SALE_STATEMENT, Statement.RETURN_GENERATED_KEYS);
+			insert.setInt(1, customerID);
+			insert.setInt(2, movieID);
+			insert.setDate(3, saleDate);
+			
+			insert.executeUpdate();
+			mMetrics.markExecuted(INSERT_SALE_STATEMENT);
+			addToSalesAggregates(customerID, movieID, saleDate);
+			invalidateQueryResults(SALES_TABLE);
+			
+			ResultSet result = insert.getGeneratedKeys();
+			if (result == null || !result.next())
+				return -1;
+			int newSaleID = result.getInt(1);
+			result.close();
+			mMetrics.markFetched();
+			return newSaleID;
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			throw e;
+		} catch (RuntimeException e) {
+			sample.fail(0);
+			throw e;
+		} finally {
+			finishSalesWrite();
+			releaseConnection(connection);
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Returns the best-selling movies, from the sales aggregates.
+	 * 
+	 * @param limit	maximum number of movies listed
+	 * @return	output string listing the movies and their number of sales, or an error message
+	 */
+	public String getTopSellingMovies(int limit) {
+		return getSalesReport("topSellingMovies", limit);
+	}
+	
+	/**
+	 * Returns the customers with the most sales, from the sales aggregates.
+	 * 
+	 * @param limit	maximum number of customers listed
+	 * @return	output string listing the customers and their number of sales, or an error message
+	 */
+	public String getTopCustomers(int limit) {
+		return getSalesReport("topCustomers", limit);
+	}
+	
+	/**
+	 * Returns the number of sales of every genre in every month, from the sales aggregates.
+	 * 
+	 * @return	output string listing the genres, months and their number of sales, or an error message
+	 */
+	public String getSalesPerGenrePerMonth() {
+		return getSalesReport("salesPerGenrePerMonth", 0);
+	}
+	
+	/**
+	 * Renders one of the sales reports.
+	 * 
+	 * @param report	name of the report, which is also the name of its operation metrics
+	 * @param limit	maximum number of rows of the top-N reports
+	 * @return	output string of the report, or an error message
+	 */
+	private String getSalesReport(String report, int limit) {
+		if (!report.equals("salesPerGenrePerMonth") && (limit < 1 || limit > MAX_PAGE_SIZE))
+			return FabFlixConsole.getErrorMessage("Report size must be between 1 and " + MAX_PAGE_SIZE + ".");
+		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start(report);
+		try {
+			FabFlixSalesAggregates aggregates = findSalesAggregates();
+			mMetrics.markExecuted(report);
+			
+			List<String> columnNames;
+			List<FabFlixSalesAggregates.Total> totals;
+			if (report.equals("topSellingMovies")) {
+				columnNames = Arrays.asList("movie_id", "title", "sales");
+				totals = aggregates.getTopMovies(limit);
+			} else if (report.equals("topCustomers")) {
+				columnNames = Arrays.asList("customer_id", "sales");
+				totals = aggregates.getTopCustomers(limit);
+			} else {
+				columnNames = Arrays.asList("genre_id", "genre", "month", "sales");
+				totals = aggregates.getGenreMonthTotals();
+			}
+			
+			List<String[]> rows = new ArrayList<String[]>(totals.size());
+			for (FabFlixSalesAggregates.Total total : totals) {
+				String id = String.valueOf(total.getID()), count = String.valueOf(total.getCount());
+				if (columnNames.size() == 2)
+					rows.add(new String[] { id, count });
+				else if (columnNames.size() == 3)
+					rows.add(new String[] { id, total.getName(), count });
+				else
+					rows.add(new String[] { id, total.getName(), FabFlixSalesAggregates.formatMonth(total.getMonth()), count });
+			}
+			
+			StringBuilder buffer = new StringBuilder();
+			mRenderer.renderRows("sales", columnNames, rows, buffer);
+			mMetrics.markFetched();
+			return buffer.toString();
+			
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+		} catch (IOException e) {
+			// Appending to a StringBuilder never fails
+			throw new IllegalStateException(e);
+		} catch (NullPointerException e) {
+			sample.fail(0);
+			if (mConnectionPool == null)
+				return FabFlixConsole.getErrorMessage("No connection established with database server.");
+			return FabFlixConsole.getErrorMessage("Error reading the sales aggregates.");
+		} finally {
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Reads the sales aggregates again from the base tables, replacing the totals in memory.
+	 * 
+	 * @return	output message with the size of the aggregates and how long they took to read
+	 */
+	public String rebuildSalesAggregates() {
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("rebuildSalesAggregates");
+		try {
+			invalidateSalesAggregates();
+			FabFlixSalesAggregates aggregates = findSalesAggregates();
+			mMetrics.markExecuted("sales, movies, genres and genres_in_movies");
+			return FabFlixConsole.getInfoMessage(String.format("Rebuilt sales aggregates of %d sale(s) in %.1f ms.%s\n", 
+				aggregates.getSaleCount(), aggregates.getLoadTimeMillis(), 
+				mSalesAggregatesEnabled ? "" : " Aggregates are not enabled, so they will be read again by every report."));
+			
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+		} catch (NullPointerException e) {
+			sample.fail(0);
+			if (mConnectionPool == null)
+				return FabFlixConsole.getErrorMessage("No connection established with database server.");
+			return FabFlixConsole.getErrorMessage("Error rebuilding the sales aggregates.");
+		} finally {
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Compares the sales aggregates in memory with totals grouped from the base tables.
+	 * 
+	 * @return	output message saying the aggregates are consistent, or an error message listing the differences
+	 */
+	public String checkSalesAggregates() {
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("checkSalesAggregates");
+		FabFlixPooledConnection connection = null;
+		try {
+			FabFlixSalesAggregates aggregates = findSalesAggregates();
+			connection = borrowConnection();
+			List<String> differences = aggregates.check(connection.getConnection());
+			mMetrics.markExecuted("sales grouped by movie, customer and genre and month");
+			
+			if (differences.isEmpty())
+				return FabFlixConsole.getInfoMessage("Sales aggregates of " + aggregates.getSaleCount() + 
+					" sale(s) match the sales table.\n");
+			
+			StringBuilder buffer = new StringBuilder("Sales aggregates do not match the sales table; " + 
+				"run a rebuild to correct them:\n");
+			for (String difference : differences)
+				buffer.append(difference).append("\n");
+			return FabFlixConsole.getErrorMessage(buffer.toString());
+			
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+		} catch (NullPointerException e) {
+			sample.fail(0);
+			if (mConnectionPool == null)
+				return FabFlixConsole.getErrorMessage("No connection established with database server.");
+			return FabFlixConsole.getErrorMessage("Error checking the sales aggregates.");
+		} finally {
+			releaseConnection(connection);
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Writes the catalog tables to a snapshot file that can be loaded with {@link #loadCatalogSnapshot}
+	 * by later sessions. A proper error message is returned if an error occurred.
+	 * 
+	 * @param path	path of the snapshot file to create or replace
+	 * @return	output message if the export was a success or not
+	 */
+	public String exportCatalogSnapshot(String path) {
+		if (path == null || path.trim().isEmpty())
+			return FabFlixConsole.getErrorMessage("Invalid or empty file path inputted. Unable to export snapshot.");
+		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("exportCatalogSnapshot");
+		FabFlixPooledConnection connection = null;
+		try {
+			long start = System.nanoTime();
+			connection = borrowConnection();
+			long size = FabFlixCatalogSnapshot.write(connection.getConnection(), new File(path.trim()));
+			mMetrics.markFetched();
+			
+			return FabFlixConsole.getInfoMessage(String.format("Exported the catalog to '%s' (%d bytes) in %.3f ms.\n", 
+				path.trim(), size, (System.nanoTime() - start) / 1000000.0));
+			
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+		} catch (IOException e) {
+			sample.fail(0);
+			return FabFlixConsole.getErrorMessage("Unable to write snapshot file: " + e.getMessage());
+		} catch (NullPointerException e) {
+			sample.fail(0);
+			if (mConnectionPool == null)
+				return FabFlixConsole.getErrorMessage("No connection established with database server.");
+			return FabFlixConsole.getErrorMessage("Error exporting catalog snapshot.");
+		} finally {
+			releaseConnection(connection);
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Memory-maps a catalog snapshot and uses it to answer star lookups and searches, including
+	 * while no connection is established. A proper error message is returned if the file is not
+	 * a valid snapshot.
+	 * 
+	 * @param path	path of a snapshot file written by {@link #exportCatalogSnapshot}
+	 * @return	output message if the snapshot was loaded or not
+	 */
+	public String loadCatalogSnapshot(String path) {
+		if (path == null || path.trim().isEmpty())
+			return FabFlixConsole.getErrorMessage("Invalid or empty file path inputted. Unable to load snapshot.");
+		
+		try {
+			FabFlixCatalogSnapshot snapshot = openCatalogSnapshot(new File(path.trim()));
+			return "\n" + FabFlixConsole.getInfoMessage("Loaded " + snapshot.getStatistics());
+		} catch (IOException e) {
+			return FabFlixConsole.getErrorMessage("Unable to load snapshot file: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Memory-maps a catalog snapshot and uses it to answer star lookups and searches.
+	 * 
+	 * @param file	snapshot file
+	 * @return	the loaded snapshot
+	 * @throws IOException	if the file could not be read or is not a valid snapshot
+	 * @see #loadCatalogSnapshot
+	 */
+	public FabFlixCatalogSnapshot openCatalogSnapshot(File file) throws IOException {
+		FabFlixCatalogSnapshot snapshot = FabFlixCatalogSnapshot.open(file);
+		mCatalogSnapshot = snapshot;
+		mCatalogSnapshotStale = false;
+		invalidateStarLookups();
+		invalidateStarIndex();
+		return snapshot;
+	}
+	
+	/**
+	 * Returns the loaded catalog snapshot.
+	 * 
+	 * @return	catalog snapshot, or <i>null</i> if none is loaded
+	 */
+	public FabFlixCatalogSnapshot getCatalogSnapshot() {
+		return mCatalogSnapshot;
+	}
+	
+	/**
+	 * Returns the catalog snapshot if star lookups should be read from it: always while no
+	 * connection is established, and otherwise until a write through this manager may have
+	 * changed the catalog tables.
+	 * 
+	 * @return	catalog snapshot, or <i>null</i> if lookups should go to the database
+	 */
+	private FabFlixCatalogSnapshot getReadableCatalogSnapshot() {
+		FabFlixCatalogSnapshot snapshot = mCatalogSnapshot;
+		if (snapshot == null || (mCatalogSnapshotStale && mConnectionPool != null))
+			return null;
+		return snapshot;
+	}
+	
+	private void markCatalogSnapshotStale() {
+		if (mCatalogSnapshot != null)
+			mCatalogSnapshotStale = true;
+	}
+	
+	/**
+	 * Exports tables to compressed columnar files, one per table, that can be loaded back with
+	 * {@link #importTables}. Each table is streamed in chunks so memory use does not grow with its
+	 * size, and tables are exported in parallel, up to one per processor. Changes made by a
+	 * transaction that is still open are not exported.
+	 * 
+	 * @param directory	directory the files are written to
+	 * @param tableNames	names of the tables to export, or <i>null</i> or empty for every table
+	 * @return	output message with the rows and sizes exported
+	 */
+	public String exportTables(String directory, List<String> tableNames) {
+		if (directory == null || directory.trim().isEmpty())
+			return FabFlixConsole.getErrorMessage("Invalid or empty directory inputted. Unable to export tables.");
+		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("exportTables");
+		try {
+			if (tableNames == null || tableNames.isEmpty()) {
+				tableNames = new ArrayList<String>();
+				for (FabFlixSchemaMetadata.Table table : findSchemaMetadata().getTables())
+					tableNames.add(table.getName());
+			}
+			
+			// Leave a connection free for the rest of the application
+			int threads = Math.min(Runtime.getRuntime().availableProcessors(), mConnectionPool.getMaxSize() - 1);
+			FabFlixTableArchive archive = new FabFlixTableArchive(mConnectionPool, FabFlixTableArchive.DEFAULT_CHUNK_ROWS, threads);
+			String report = archive.exportTables(new File(directory.trim()), tableNames);
+			mMetrics.markFetched();
+			return report;
+			
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+		} catch (NullPointerException e) {
+			sample.fail(0);
+			if (mConnectionPool == null)
+				return FabFlixConsole.getErrorMessage("No connection established with database server.");
+			return FabFlixConsole.getErrorMessage("Error exporting tables.");
+		} finally {
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Loads tables from files written by {@link #exportTables}. The rows are added to the
+	 * existing ones with {@link FabFlixBulkLoader}, so the tables are loaded in foreign key order
+	 * using batched inserts, and rows that already exist make their table fail to load.
+	 * 
+	 * @param directory	directory the files are read from
+	 * @param tableNames	names of the tables to import, or <i>null</i> or empty for every file of the directory
+	 * @return	output message with the rows loaded, or an error message
+	 */
+	public String importTables(String directory, List<String> tableNames) {
+		if (directory == null || directory.trim().isEmpty())
+			return FabFlixConsole.getErrorMessage("Invalid or empty directory inputted. Unable to import tables.");
+		
+		File folder = new File(directory.trim());
+		List<File> files = new ArrayList<File>();
+		if (tableNames == null || tableNames.isEmpty()) {
+			File[] listed = folder.listFiles();
+			if (listed == null)
+				return FabFlixConsole.getErrorMessage("Unable to read directory '" + folder + "'.");
+			Arrays.sort(listed);
+			for (File file : listed) {
+				if (file.isFile() && file.getName().endsWith(FabFlixTableArchive.FILE_EXTENSION))
+					files.add(file);
+			}
+		} else {
+			for (String tableName : tableNames)
+				files.add(new File(folder, tableName + FabFlixTableArchive.FILE_EXTENSION));
+		}
+		if (files.isEmpty())
+			return FabFlixConsole.getErrorMessage("No exported tables found in '" + folder + "'.");
+		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("importTables");
+		try {
+			FabFlixBulkLoader loader = new FabFlixBulkLoader(mConnectionPool, FabFlixBulkLoader.DEFAULT_BATCH_SIZE, 
+				FabFlixBulkLoader.DEFAULT_TRANSACTION_SIZE, true);
+			
+			long rowCount = 0;
+			for (long count : FabFlixTableArchive.addToLoader(files, loader))
+				rowCount += count;
+			mMetrics.markExecuted("bulk load of " + files.size() + " exported table(s)");
+			
+			return "\nRead " + rowCount + " row(s) from " + files.size() + " file(s)." + loader.load();
+			
+		} catch (IOException e) {
+			sample.fail(0);
+			return FabFlixConsole.getErrorMessage("Unable to read exported tables: " + e.getMessage());
+		} catch (NullPointerException e) {
+			sample.fail(0);
+			if (mConnectionPool == null)
+				return FabFlixConsole.getErrorMessage("No connection established with database server.");
+			return FabFlixConsole.getErrorMessage("Error importing tables.");
+		} finally {
+			// Any table may have been written, so every cached copy of the data is dropped
+			invalidateStarLookups();
+			invalidateStarIndex();
+			markCatalogSnapshotStale();
+			invalidateJoinEngine();
+			invalidateSalesAggregates();
+			scheduleCreditCardFilterRefresh();
+			invalidateQueryResults(null);
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Reads every row of a result set of <i>movies</i> rows and closes the result set.
+	 * 
+	 * @param result	result set whose columns match the <i>movies</i> table
+	 * @return	unmodifiable list of the movies read
+	 * @throws SQLException	if an error occurred reading the result set
+	 */
+	private static List<FabFlixMovie> readMovies(ResultSet result) throws SQLException {
+		List<FabFlixMovie> movies = new ArrayList<FabFlixMovie>();
+		
+		try {
+			while (result.next()) {
+				movies.add(new FabFlixMovie(result.getInt(1), result.getString(2), result.getInt(3), 
+					result.getString(4), result.getString(5), result.getString(6)));
+			}
+		} finally {
+			result.close();
+		}
+		return Collections.unmodifiableList(movies);
+	}
+	
+	/**
+	 * Creates the console output string for a list of movies.
+	 * 
+	 * @param movies	movies to output
+	 * @return	output string listing each movie, or a message if the list is empty
+	 */
+	static String formatMovies(List<FabFlixMovie> movies) {
+		return formatMovies(movies, FabFlixRenderer.TEXT);
+	}
+	
+	/**
+	 * Creates the output string for a list of movies in a renderer's format.
+	 * 
+	 * @param movies	movies to output
+	 * @param renderer	renderer of the output format
+	 * @return	output string listing each movie
+	 */
+	static String formatMovies(List<FabFlixMovie> movies, FabFlixRenderer renderer) {
+		// Roughly the size of one rendered movie, so most results need a single buffer
+		StringBuilder buffer = new StringBuilder(64 + 256 * movies.size());
+		try {
+			renderer.renderMovies(movies, buffer);
+		} catch (IOException e) {
+			// Appending to a StringBuilder never fails
+			throw new IllegalStateException(e);
+		}
+		return buffer.toString();
+	}
+	
+	/**
+	 * Inserts a star into the movie database. If an error occurs while inserting a star,
+	 * the operation is canceled and a proper error message is returned by the method.
+	 * We do not need to include the ID for a star because it is auto-incremented.
+	 * 
+	 * @param firstName	first name of the star
+	 * @param lastName	last name of the star
+	 * @param dob	date of birth for the star
+	 * @param photoURL	URL linking to a photo of the star
+	 * @return	result of the insertion, with the new star's ID if it succeeded
+	 */
+	public FabFlixResult insertStar(String firstName, String lastName, Date dob, String photoURL) {
+		if (firstName == null)
+			return FabFlixResult.failed("Invalid first name inputted. Cannot execute insertion.");
+		if (lastName == null || lastName.isEmpty())
+			return FabFlixResult.failed("Invalid last name inputted. Cannot execute insertion.");
+		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("insertStar");
+		
+		try {
+			int newStarID = addStar(firstName, lastName, dob, photoURL);
+			if (newStarID > 0)
+				return FabFlixResult.succeeded("\n" + FabFlixConsole.getInfoMessage("Successfully added star into database! Newly added star's ID is " + newStarID + "\n"), newStarID);
+			return FabFlixResult.failed("Unable to add star into database.\n");
+			
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			// Return the proper error message 
+			switch (e.getErrorCode()) {
+			case 1146:	// Table not found
+				return FabFlixResult.failed(e.getMessage() + ". Unable to run insertion.", e.getErrorCode());
+			default:
+				return FabFlixResult.failed("Error code " + e.getErrorCode() + ": " + e.getMessage(), e.getErrorCode());
+			}
+		} catch (NullPointerException e) {
+			sample.fail(0);
+			if (mConnectionPool == null)
+				return FabFlixResult.failed("No connection established with database server.");
+			return FabFlixResult.failed("Error executing insertion of star.");
+		} finally {
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Inserts a star into the movie database and returns the star's new ID. The inputs are
+	 * not validated; see {@link #insertStar} for the checks made before inserting. If write-behind
+	 * is enabled and no transaction is open, the star is queued and this waits until the batch
+	 * holding it has been committed.
+	 * 
+	 * @param firstName	first name of the star
+	 * @param lastName	last name of the star
+	 * @param dob	date of birth for the star, or <i>null</i> if unknown
+	 * @param photoURL	URL linking to a photo of the star, or <i>null</i> if none
+	 * @return	ID of the newly added star, or -1 if no ID was generated
+	 * @throws SQLException	if an error occurred inserting the star
+	 */
+	public int addStar(String firstName, String lastName, Date dob, String photoURL) throws SQLException {
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("insertStar");
+		FabFlixPooledConnection connection = null;
+		
+		try {
+			FabFlixStar star = new FabFlixStar(0, firstName, lastName, dob, photoURL);
+			FabFlixWriteBehindQueue queue = mWriteBehindQueue;
+			if (queue != null && mTransactionConnection.get() == null) {
+				int newStarID = awaitInsert(queue.add(new StarInsert(star)));
+				mMetrics.markExecuted(INSERT_STAR_STATEMENT);
+				return newStarID;
+			}
+			
+			connection = borrowConnection();
+			PreparedStatement insert = connection.prepareStatement(INSERT_STAR_STATEMENT, Statement.RETURN_GENERATED_KEYS);
+			setStarParameters(insert, star);
+			
+			insert.executeUpdate();
+			mMetrics.markExecuted(INSERT_STAR_STATEMENT);
+			ResultSet result = insert.getGeneratedKeys();
+			if (result == null || !result.next())
+				return -1;
+			
+			int newStarID = result.getInt(1);
+			result.close();
+			mMetrics.markFetched();
+			
+			starInserted(newStarID, star);
+			return newStarID;
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			throw e;
+		} catch (RuntimeException e) {
+			sample.fail(0);
+			throw e;
+		} finally {
+			releaseConnection(connection);
+			sample.finish();
+		}
+	}
+
+	/**
+	 * Queues a star to be inserted by the write-behind queue, or inserts it right away if
+	 * write-behind is disabled. The inputs are not validated; see {@link #insertStar} for the
+	 * checks made before inserting.
+	 * 
+	 * @param firstName	first name of the star
+	 * @param lastName	last name of the star
+	 * @param dob	date of birth for the star, or <i>null</i> if unknown
+	 * @param photoURL	URL linking to a photo of the star, or <i>null</i> if none
+	 * @return	future completed with the ID of the newly added star (-1 if no ID was generated),
+	 * 			or with the <i>SQLException</i> that prevented it from being inserted
+	 */
+	public CompletableFuture<Integer> queueStar(String firstName, String lastName, Date dob, String photoURL) {
+		FabFlixWriteBehindQueue queue = mWriteBehindQueue;
+		if (queue != null)
+			return queue.add(new StarInsert(new FabFlixStar(0, firstName, lastName, dob, photoURL)));
+		
+		CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+		try {
+			future.complete(addStar(firstName, lastName, dob, photoURL));
+		} catch (SQLException | RuntimeException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	
+	/**
+	 * Updates the lookup caches and indexes of the star lookups after a star was inserted.
+	 * 
+	 * @param newStarID	generated ID of the star
+	 * @param star	inserted star
+	 */
+	private void starInserted(int newStarID, FabFlixStar star) {
+		// A lookup for the new star's ID or name may have been cached before it existed
+		markCatalogSnapshotStale();
+		mMoviesByStarIDCache.invalidate(newStarID);
+		mMoviesByStarNameCache.invalidateAll();
+		invalidateQueryResults(STARS_TABLE);
+		addToStarIndex(new FabFlixStar(newStarID, star.getFirstName(), star.getLastName(), star.getDOB(), star.getPhotoURL()));
+	}
+	
+	private static void setStarParameters(PreparedStatement insert, FabFlixStar star) throws SQLException {
+		insert.setString(1, star.getFirstName());
+		insert.setString(2, star.getLastName());
+		if (star.getDOB() == null)
+			insert.setNull(3, Types.DATE);
+		else
+			insert.setDate(3, star.getDOB());
+		insert.setString(4, star.getPhotoURL() == null ? "" : star.getPhotoURL());
+	}
+	
+	/**
+	 * A star waiting in the write-behind queue.
+	 */
+	private class StarInsert extends FabFlixWriteBehindQueue.Row
+	{
+		private final FabFlixStar mStar;
+		
+		StarInsert(FabFlixStar star) {
+			super(INSERT_STAR_STATEMENT);
+			mStar = star;
+		}
+		
+		@Override
+		protected void setParameters(PreparedStatement insert) throws SQLException {
+			setStarParameters(insert, mStar);
+		}
+		
+		@Override
+		protected void inserted(int id) {
+			starInserted(id, mStar);
+		}
+	}
+	
+	/**
+	 * A customer waiting in the write-behind queue.
+	 */
+	private class CustomerInsert extends FabFlixWriteBehindQueue.Row
+	{
+		private final FabFlixCustomer mCustomer;
+		
+		CustomerInsert(FabFlixCustomer customer) {
+			super(INSERT_CUSTOMER_STATEMENT);
+			mCustomer = customer;
+		}
+		
+		@Override
+		protected void setParameters(PreparedStatement insert) throws SQLException {
+			setCustomerParameters(insert, mCustomer);
+		}
+		
+		@Override
+		protected void inserted(int id) {
+			invalidateQueryResults(CUSTOMERS_TABLE);
+		}
+	}
+	
+	/**
+	 * Waits for a row queued in the write-behind queue to be committed.
+	 * 
+	 * @param future	future returned when the row was queued
+	 * @return	generated ID of the row, or -1 if none was generated
+	 * @throws SQLException	if the row could not be inserted, or the wait was interrupted
+	 */
+	private static int awaitInsert(CompletableFuture<Integer> future) throws SQLException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SQLException)
+				throw (SQLException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new SQLException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for the insertion to be committed.", e);
+		}
+	}
+	
+	/**
+	 * Inserts a customer into the movie database. If an error occurs while inserting a customer,
+	 * the operation is canceled and a proper error message is returned by the method.
+	 * If the credit card ID provided does not exist, an error message is returned. No
+	 * ID is needed for the insertion since it is auto-incremented.
+	 * 
+	 * @param firstName	first name of customer
+	 * @param lastName	last name of customer
+	 * @param creditCardID	ID of the customers's credit card (must exist in database)
+	 * @param address	address of customer
+	 * @param email	e-mail address of customer login
+	 * @param password	password for customer login
+	 * @return	result of the insertion, with the new customer's ID if it succeeded
+	 */
+	public FabFlixResult insertCustomer(String firstName, String lastName, String creditCardID, 
+		String address, String email, String password) {
+		
+		if (lastName == null)
+			return FabFlixResult.failed("Invalid last name inputted. Cannot insert customer.");
+		if (creditCardID == null)
+			return FabFlixResult.failed("Invalid credit card ID inputted. Cannot insert customer.");
+		if (address == null)
+			return FabFlixResult.failed("Invalid address inputted. Cannot insert customer.");
+		if (email == null)
+			return FabFlixResult.failed("Invalid e-mail address inputted. Cannot insert customer.");
+		if (password == null)
+			return FabFlixResult.failed("Invalid password inputted. Cannot insert customer.");
+		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("insertCustomer");
+		if (!creditCardExistsInDB(creditCardID)) {
+			sample.finish();
+			return FabFlixResult.failed("Credit card does not exist inside database. Cannot insert customer.");
+		}
+		
+		FabFlixCustomer customer = new FabFlixCustomer(firstName, lastName, creditCardID, address, email, password);
+		FabFlixPooledConnection connection = null;
+		
+		try {
+			FabFlixWriteBehindQueue queue = mWriteBehindQueue;
+			if (queue != null && mTransactionConnection.get() == null) {
+				// Wait for the customer to be committed with the rest of its batch
+				int newCustomerID = awaitInsert(queue.add(new CustomerInsert(customer)));
+				mMetrics.markExecuted(INSERT_CUSTOMER_STATEMENT);
+				if (newCustomerID > 0)
+					return FabFlixResult.succeeded(FabFlixConsole.getInfoMessage("Successfully added customer into database! Newly added customer's ID is " + newCustomerID + ".\n"), newCustomerID);
+				return FabFlixResult.failed("Unable to add customer into database.\n");
+			}
+			
+			connection = borrowConnection();
+			PreparedStatement insert = connection.prepareStatement(INSERT_CUSTOMER_STATEMENT, Statement.RETURN_GENERATED_KEYS);
+			setCustomerParameters(insert, customer);
+			
+			insert.executeUpdate();
+			mMetrics.markExecuted(INSERT_CUSTOMER_STATEMENT);
+			ResultSet result = insert.getGeneratedKeys();
+			
+			invalidateQueryResults(CUSTOMERS_TABLE);
+			if (result != null && result.next()) {
+				int newCustomerID = result.getInt(1);
+				result.close();
+				mMetrics.markFetched();
+				return FabFlixResult.succeeded(FabFlixConsole.getInfoMessage("Successfully added customer into database! Newly added customer's ID is " + newCustomerID + ".\n"), newCustomerID);
+			}
+			
+			return FabFlixResult.failed("Unable to add customer into database.\n");
+			
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			// Return the proper error message 
+			switch (e.getErrorCode()) {
+			case 1146:	// Table not found
+				return FabFlixResult.failed(e.getMessage() + ". Unable to run insertion.", e.getErrorCode());
+			default:
+				return FabFlixResult.failed("Error code " + e.getErrorCode() + ": " + e.getMessage(), e.getErrorCode());
+			}
+		} catch (NullPointerException e) {
+			sample.fail(0);
+			if (mConnectionPool == null)
+				return FabFlixResult.failed("No connection established with database server.");
+			return FabFlixResult.failed("Error executing insertion of star.");
+		} finally {
+			releaseConnection(connection);
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Queues a customer to be inserted by the write-behind queue. The customer's fields and
+	 * credit card are checked before it is queued, the same way {@link #insertCustomer} does.
+	 * If write-behind is disabled, the customer is inserted right away.
+	 * 
+	 * @param customer	customer to insert (its ID is ignored since it is auto-incremented)
+	 * @return	future completed with the ID of the newly added customer (-1 if no ID was
+	 * 			generated), or with the <i>SQLException</i> that prevented it from being inserted
+	 */
+	public CompletableFuture<Integer> queueCustomer(FabFlixCustomer customer) {
+		CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+		String missingField = getMissingCustomerField(customer);
+		
+		if (missingField != null)
+			future.completeExceptionally(new SQLException(missingField + " Cannot insert customer."));
+		else if (mConnectionPool == null)
+			future.completeExceptionally(new SQLException("No connection established with database server."));
+		else if (!creditCardExistsInDB(customer.getCreditCardID()))
+			future.completeExceptionally(new SQLException("Credit card does not exist inside database. Cannot insert customer."));
+		else {
+			FabFlixWriteBehindQueue queue = mWriteBehindQueue;
+			if (queue != null)
+				return queue.add(new CustomerInsert(customer));
+			
+			// Insert it right away as a batch of one
+			String[] rejections = new String[1];
+			int[] newCustomerIDs = new int[1];
+			FabFlixPooledConnection connection = null;
+			try {
+				connection = borrowConnection();
+				insertCustomerBatch(connection, Collections.singletonList(customer), 
+					Collections.singletonList(0), newCustomerIDs, rejections);
+				invalidateQueryResults(CUSTOMERS_TABLE);
+				if (rejections[0] != null)
+					future.completeExceptionally(new SQLException(rejections[0]));
+				else
+					future.complete(newCustomerIDs[0]);
+			} catch (SQLException | RuntimeException e) {
+				future.completeExceptionally(e);
+			} finally {
+				releaseConnection(connection);
+			}
+		}
+		return future;
+	}
+	
+	/**
+	 * Inserts a batch of customers into the movie database. See {@link #addCustomers} for how
+	 * the batch is checked and inserted.
+	 * 
+	 * @param customers	customers to insert (their IDs are ignored since they are auto-incremented)
+	 * @return	result listing the newly added customer IDs and every rejected row; it only succeeds if no row was rejected
+	 */
+	public FabFlixResult insertCustomers(List<FabFlixCustomer> customers) {
+		if (customers == null || customers.isEmpty())
+			return FabFlixResult.failed("No customers given. Cannot insert customers.");
+		
+		try {
+			return formatCustomerResults(addCustomers(customers));
+			
+		} catch (SQLException e) {
+			switch (e.getErrorCode()) {
+			case 1146:	// Table not found
+				return FabFlixResult.failed(e.getMessage() + ". Unable to run insertion.", e.getErrorCode());
+			default:
+				return FabFlixResult.failed("Error code " + e.getErrorCode() + ": " + e.getMessage(), e.getErrorCode());
+			}
+		} catch (NullPointerException e) {
+			if (mConnectionPool == null)
+				return FabFlixResult.failed("No connection established with database server.");
+			return FabFlixResult.failed("Error executing insertion of customers.");
+		}
+	}
+	
+	/**
+	 * Inserts a batch of customers into the movie database and returns the outcome of each one.
+	 * The credit card IDs of the whole batch are checked with set-based lookups, and the valid
+	 * customers are inserted with one JDBC batch inside a single transaction. Customers that are
+	 * missing a required field, whose credit card does not exist or whose row fails are rejected
+	 * with the reason, and the others are still inserted.
+	 * 
+	 * @param customers	customers to insert (their IDs are ignored since they are auto-incremented)
+	 * @return	outcome of each customer, in the order given
+	 * @throws SQLException	if an error occurred that prevented the whole batch from being inserted
+	 */
+	public List<FabFlixRowOutcome> addCustomers(List<FabFlixCustomer> customers) throws SQLException {
+		String[] rejections = new String[customers.size()];
+		int[] newCustomerIDs = new int[customers.size()];
+		FabFlixPooledConnection connection = null;
+		
+		// Reject rows with missing fields before touching the database
+		Set<String> creditCardIDs = new HashSet<String>();
+		for (int i = 0; i < customers.size(); i++) {
+			FabFlixCustomer customer = customers.get(i);
+			rejections[i] = getMissingCustomerField(customer);
+			if (rejections[i] == null)
+				creditCardIDs.add(customer.getCreditCardID());
+		}
+		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("insertCustomers");
+		try {
+			connection = borrowConnection();
+			Set<String> existingCreditCardIDs = findExistingCreditCards(connection, creditCardIDs);
+			
+			List<Integer> rowsToInsert = new ArrayList<Integer>();
+			for (int i = 0; i < customers.size(); i++) {
+				if (rejections[i] != null)
+					continue;
+				if (existingCreditCardIDs.contains(toNameKey(customers.get(i).getCreditCardID())))
+					rowsToInsert.add(i);
+				else
+					rejections[i] = "Credit card '" + customers.get(i).getCreditCardID() + "' does not exist inside database.";
+			}
+			
+			if (!rowsToInsert.isEmpty()) {
+				insertCustomerBatch(connection, customers, rowsToInsert, newCustomerIDs, rejections);
+				invalidateQueryResults(CUSTOMERS_TABLE);
+			}
+			mMetrics.markExecuted(INSERT_CUSTOMER_STATEMENT);
+			mMetrics.markFetched();
+			
+			List<FabFlixRowOutcome> outcomes = new ArrayList<FabFlixRowOutcome>(customers.size());
+			for (int i = 0; i < customers.size(); i++)
+				outcomes.add(rejections[i] == null ? FabFlixRowOutcome.inserted(newCustomerIDs[i]) : FabFlixRowOutcome.rejected(rejections[i]));
+			return outcomes;
+			
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			throw e;
+		} catch (RuntimeException e) {
+			sample.fail(0);
+			throw e;
+		} finally {
+			releaseConnection(connection);
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Returns the result of a customer batch, listing the outcome of each row. The batch only
+	 * succeeded if no row was rejected.
+	 * 
+	 * @param outcomes	outcome of each customer of the batch
+	 * @return	result with the newly added customer IDs, listing every rejected row
+	 */
+	private static FabFlixResult formatCustomerResults(List<FabFlixRowOutcome> outcomes) {
+		StringBuffer buffer = new StringBuffer("\n");
+		StringBuffer rejected = new StringBuffer();
+		int[] newCustomerIDs = new int[outcomes.size()];
+		int insertedCount = 0;
+		
+		for (int i = 0; i < outcomes.size(); i++) {
+			FabFlixRowOutcome outcome = outcomes.get(i);
+			if (!outcome.isInserted())
+				rejected.append("Row " + (i + 1) + ": " + outcome.getRejection() + "\n");
+			else {
+				insertedCount++;
+				newCustomerIDs[i] = outcome.getID();
+				buffer.append("Row " + (i + 1) + ": new customer ID = " + outcome.getID() + "\n");
+			}
+		}
+		
+		buffer.append(FabFlixConsole.getInfoMessage("Successfully added " + insertedCount + " of " + 
+			outcomes.size() + " customer(s) into database.\n"));
+		if (rejected.length() > 0)
+			buffer.append(FabFlixConsole.getErrorMessage((outcomes.size() - insertedCount) + 
+				" customer(s) rejected:\n" + rejected));
+		return new FabFlixResult(rejected.length() == 0, buffer.toString(), 0, newCustomerIDs);
+	}
+	
+	/**
+	 * Returns the reason a customer cannot be inserted because a required field is missing.
+	 * 
+	 * @param customer	customer to check
+	 * @return	reason for rejecting the customer, or <i>null</i> if every required field is present
+	 */
+	private static String getMissingCustomerField(FabFlixCustomer customer) {
+		if (customer == null)
+			return "Missing customer.";
+		if (customer.getLastName() == null || customer.getLastName().isEmpty())
+			return "Invalid last name.";
+		if (customer.getCreditCardID() == null || customer.getCreditCardID().isEmpty())
+			return "Invalid credit card ID.";
+		if (customer.getAddress() == null)
+			return "Invalid address.";
+		if (customer.getEmail() == null)
+			return "Invalid e-mail address.";
+		if (customer.getPassword() == null)
+			return "Invalid password.";
+		return null;
+	}
+	
+	/**
+	 * Returns which of the given credit card IDs exist in the database, checking a whole chunk
+	 * of IDs with each query. IDs already in the credit card filter are not looked up. The
+	 * database matches IDs regardless of case and trailing spaces, so the IDs found are returned
+	 * as keys from {@link #toNameKey} rather than as spelled in the database.
+	 * 
+	 * @param connection	connection to run the lookups on
+	 * @param creditCardIDs	credit card IDs to look up
+	 * @return	keys of the IDs that exist in the <i>creditcards</i> table
+	 * @throws SQLException	if an error occurred querying the database
+	 */
+	private Set<String> findExistingCreditCards(FabFlixPooledConnection connection, Set<String> creditCardIDs) 
+		throws SQLException {
+		
+		Set<String> existing = new HashSet<String>();
+		List<String> ids = new ArrayList<String>();
+		FabFlixCreditCardFilter filter = mCreditCardFilter;
+		
+		for (String id : creditCardIDs) {
+			if (filter != null && filter.contains(id))
+				existing.add(toNameKey(id));
+			else
+				ids.add(id);
+		}
+		
+		for (int start = 0; start < ids.size(); start += CREDIT_CARD_LOOKUP_CHUNK_SIZE) {
+			PreparedStatement select = connection.prepareStatement(CREDIT_CARDS_EXIST_QUERY);
+			
+			// Pad the last chunk by repeating its final ID so the statement text never changes
+			int end = Math.min(start + CREDIT_CARD_LOOKUP_CHUNK_SIZE, ids.size());
+			for (int i = 0; i < CREDIT_CARD_LOOKUP_CHUNK_SIZE; i++)
+				select.setString(i + 1, ids.get(Math.min(start + i, end - 1)));
+			
+			ResultSet result = select.executeQuery();
+			while (result.next()) {
+				existing.add(toNameKey(result.getString(1)));
+				// A card seen inside a transaction may not be committed, so only the refresh adds it
+				if (filter != null && filter.isLoaded() && mTransactionConnection.get() == null)
+					filter.add(result.getString(1));
+			}
+			result.close();
+		}
+		return existing;
+	}
+	
+	/**
+	 * Inserts the given rows of a customer batch in a single transaction using one JDBC batch.
+	 * If the batch fails, it is rolled back and the rows are inserted one at a time instead, each
+	 * behind its own savepoint, so each failing row is rejected with its own error and undone
+	 * without the rows before it. A deadlock or lock wait timeout may roll back the whole
+	 * transaction, so the batch is then restarted from the beginning (up to
+	 * {@link FabFlixWriteBehindQueue#MAX_BATCH_ATTEMPTS} times). If the connection is already
+	 * inside a transaction (see {@link #beginTransaction}), a savepoint is used instead and the
+	 * caller's transaction is left open; the batch is never restarted then, since the caller's
+	 * earlier statements may be gone too, and the error is thrown for the whole batch.
+	 * 
+	 * @param connection	connection to run the insertions on
+	 * @param customers	customer batch
+	 * @param rows	indexes of the customers to insert
+	 * @param newCustomerIDs	array filled with the generated ID of each inserted customer
+	 * @param rejections	array filled with the reason each failed customer was rejected
+	 * @throws SQLException	if the transaction could not be started or committed, or was rolled back
+	 */
+	private static void insertCustomerBatch(FabFlixPooledConnection connection, List<FabFlixCustomer> customers, 
+		List<Integer> rows, int[] newCustomerIDs, String[] rejections) throws SQLException {
+		
+		boolean ownsTransaction = connection.getConnection().getAutoCommit();
+		for (int attempt = 1; ; attempt++) {
+			try {
+				insertCustomerRows(connection, customers, rows, newCustomerIDs, rejections, ownsTransaction);
+				return;
+			} catch (SQLException e) {
+				// Rows written before the rollback are gone, so the whole batch is inserted again
+				if (!ownsTransaction || !FabFlixWriteBehindQueue.isTransactionRolledBack(e) 
+					|| attempt == FabFlixWriteBehindQueue.MAX_BATCH_ATTEMPTS)
+					throw e;
+				for (int row : rows) {
+					newCustomerIDs[row] = 0;
+					rejections[row] = null;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Makes one attempt at inserting the given rows of a customer batch. A deadlock or lock wait
+	 * timeout is thrown rather than rejecting a single row, since it may have rolled back the
+	 * whole transaction.
+	 * 
+	 * @param connection	connection to run the insertions on
+	 * @param customers	customer batch
+	 * @param rows	indexes of the customers to insert
+	 * @param newCustomerIDs	array filled with the generated ID of each inserted customer
+	 * @param rejections	array filled with the reason each failed customer was rejected
+	 * @param ownsTransaction	true to run the rows in their own transaction, false to run them
+	 * 			behind a savepoint of the caller's transaction
+	 * @throws SQLException	if the transaction could not be started or committed, or was rolled back
+	 */
+	private static void insertCustomerRows(FabFlixPooledConnection connection, List<FabFlixCustomer> customers, 
+		List<Integer> rows, int[] newCustomerIDs, String[] rejections, boolean ownsTransaction) throws SQLException {
+		
+		Connection jdbcConnection = connection.getConnection();
+		PreparedStatement insert = connection.prepareStatement(INSERT_CUSTOMER_STATEMENT, Statement.RETURN_GENERATED_KEYS);
+		boolean committed = false;
+		boolean rolledBack = false;
+		Savepoint savepoint = null;
+		
+		if (ownsTransaction)
+			jdbcConnection.setAutoCommit(false);
+		else
+			savepoint = jdbcConnection.setSavepoint();
+		
+		try {
+			try {
+				for (int row : rows) {
+					setCustomerParameters(insert, customers.get(row));
+					insert.addBatch();
+				}
+				insert.executeBatch();
+				
+				// Generated keys are returned in the same order as the batched rows
+				ResultSet keys = insert.getGeneratedKeys();
+				for (int row : rows) {
+					if (keys.next())
+						newCustomerIDs[row] = keys.getInt(1);
+					else
+						rejections[row] = "Unable to add customer into database.";
+				}
+				keys.close();
+				
+			} catch (BatchUpdateException e) {
+				if (FabFlixWriteBehindQueue.isTransactionRolledBack(e)) {
+					rolledBack = true;
+					throw e;
+				}
+				if (ownsTransaction)
+					jdbcConnection.rollback();
+				else
+					jdbcConnection.rollback(savepoint);
+				insert.clearBatch();
+				
+				for (int row : rows) {
+					Savepoint rowSavepoint = jdbcConnection.setSavepoint();
+					try {
+						setCustomerParameters(insert, customers.get(row));
+						insert.executeUpdate();
+						
+						ResultSet keys = insert.getGeneratedKeys();
+						if (keys.next())
+							newCustomerIDs[row] = keys.getInt(1);
+						else
+							rejections[row] = "Unable to add customer into database.";
+						keys.close();
+						jdbcConnection.releaseSavepoint(rowSavepoint);
+					} catch (SQLException rowError) {
+						if (FabFlixWriteBehindQueue.isTransactionRolledBack(rowError)) {
+							rolledBack = true;
+							throw rowError;
+						}
+						jdbcConnection.rollback(rowSavepoint);
+						rejections[row] = "Error code " + rowError.getErrorCode() + ": " + rowError.getMessage();
+					}
+				}
+			}
+			if (ownsTransaction)
+				jdbcConnection.commit();
+			else
+				jdbcConnection.releaseSavepoint(savepoint);
+			committed = true;
+			
+		} finally {
+			// Never let re-enabling auto-commit commit a partial batch
+			if (!committed && ownsTransaction)
+				jdbcConnection.rollback();
+			else if (!committed) {
+				try {
+					jdbcConnection.rollback(savepoint);
+				} catch (SQLException e) {
+					// The savepoint is gone if the caller's whole transaction was rolled back
+					if (!rolledBack)
+						throw e;
+				}
+			}
+			
+			if (ownsTransaction)
+				jdbcConnection.setAutoCommit(true);
+		}
+	}
+	
+	private static void setCustomerParameters(PreparedStatement insert, FabFlixCustomer customer) throws SQLException {
+		insert.setString(1, customer.getFirstName() == null ? "" : customer.getFirstName());
+		insert.setString(2, customer.getLastName());
+		insert.setString(3, customer.getCreditCardID());
+		insert.setString(4, customer.getAddress());
+		insert.setString(5, customer.getEmail());
+		insert.setString(6, customer.getPassword());
+	}
+	
+	/**
+	 * Deletes a customer from the database by customer ID number. Outputs
+	 * proper error messages if an error occurred doing the deletion. Otherwise,
+	 * a proper output message is displayed if the function was a success or not.
+	 * 
+	 * @param id	customer ID
+	 * @return	result of the deletion; it fails if no customer has the ID
+	 */
+	public FabFlixResult deleteCustomer(Integer id) {
+		if (id == null)
+			return FabFlixResult.failed("Invalid ID inputted. Cannot execute deletion.");
+		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("deleteCustomer");
+		try {
+			if (removeCustomer(id))
+				return FabFlixResult.succeeded(FabFlixConsole.getInfoMessage("Successfully deleted customer with ID =  " + id + " from database.\n")); 
+			return FabFlixResult.failed("No customer with ID = " + id + " found. Unable to remove customer from database.\n");
+			
+		}
+		catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			// Return the proper error message 
+			switch (e.getErrorCode()) {
+			case 1146:
+				return FabFlixResult.failed(e.getMessage() + ". Unable to run query.", e.getErrorCode());
+			default:
+				return FabFlixResult.failed("Error code " + e.getErrorCode() + ": " + e.getMessage(), e.getErrorCode());
+			}
+		} catch (NullPointerException e) {
+			sample.fail(0);
+			if (mConnectionPool == null)
+				return FabFlixResult.failed("No connection established with database server.");
+			return FabFlixResult.failed("Error executing insertion of star.");
+		} finally {
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Deletes a customer from the database by customer ID number.
+	 * 
+	 * @param id	customer ID
+	 * @return	true if the customer was deleted, false if no customer has the ID
+	 * @throws SQLException	if an error occurred deleting the customer
+	 */
+	public boolean removeCustomer(int id) throws SQLException {
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("deleteCustomer");
+		FabFlixPooledConnection connection = null;
+		
+		try {
+			// Run the cached deletion onto the database
+			connection = borrowConnection();
+			PreparedStatement delete = connection.prepareStatement(DELETE_CUSTOMER_STATEMENT);
+			delete.setInt(1, id);
+			boolean deleted = delete.executeUpdate() > 0;
+			mMetrics.markExecuted(DELETE_CUSTOMER_STATEMENT);
+			
+			// The deletion cascades to the customer's sales
+			if (deleted) {
+				removeFromSalesAggregates(Collections.singleton(id));
+				invalidateQueryResults(CUSTOMERS_TABLE);
+			}
+			return deleted;
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			throw e;
+		} catch (RuntimeException e) {
+			sample.fail(0);
+			throw e;
+		} finally {
+			releaseConnection(connection);
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Deletes every customer of an ID list from the database, along with their sales, using
+	 * the default chunk size.
+	 * 
+	 * @param ids	IDs of the customers to delete
+	 * @param progress	writer a progress line is written to after each chunk, or <i>null</i>
+	 * @return	result with the number of customers and sales deleted, or the error
+	 * @see #deleteCustomers(Collection, int, Writer)
+	 */
+	public FabFlixResult deleteCustomers(Collection<Integer> ids, Writer progress) {
+		return deleteCustomers(ids, DEFAULT_DELETE_CHUNK_SIZE, progress);
+	}
+	
+	/**
+	 * Deletes every customer of an ID list from the database, along with their sales. The
+	 * IDs are deleted in ascending order, a chunk at a time, with one set-based deletion and
+	 * one transaction per chunk; the sales of each chunk are counted (and locked) before the
+	 * deletion cascades to them. If a transaction is already open (see {@link #beginTransaction}),
+	 * every chunk runs inside it and nothing is committed.
+	 * 
+	 * @param ids	IDs of the customers to delete
+	 * @param chunkSize	number of customers deleted by each statement and transaction
+	 * @param progress	writer a progress line is written to after each chunk, or <i>null</i>
+	 * @return	result with the number of customers and sales deleted, or the error
+	 */
+	public FabFlixResult deleteCustomers(Collection<Integer> ids, int chunkSize, Writer progress) {
+		if (ids == null || ids.isEmpty())
+			return FabFlixResult.failed("No customer IDs given. Cannot execute deletion.");
+		if (ids.contains(null))
+			return FabFlixResult.failed("Invalid ID inputted. Cannot execute deletion.");
+		
+		// Sorted so concurrent bulk deletions always lock customers in the same order
+		return deleteCustomerChunks(new ArrayList<Integer>(new TreeSet<Integer>(ids)), 0, 0, chunkSize, progress);
+	}
+	
+	/**
+	 * Deletes every customer whose ID is within a range from the database, along with their
+	 * sales. The range is walked in ascending ID order, a chunk of existing customers at a time,
+	 * the same way {@link #deleteCustomers(Collection, int, Writer)} deletes an ID list.
+	 * 
+	 * @param firstID	lowest customer ID to delete
+	 * @param lastID	highest customer ID to delete (inclusive)
+	 * @param chunkSize	number of customers deleted by each statement and transaction
+	 * @param progress	writer a progress line is written to after each chunk, or <i>null</i>
+	 * @return	result with the number of customers and sales deleted, or the error
+	 */
+	public FabFlixResult deleteCustomers(int firstID, int lastID, int chunkSize, Writer progress) {
+		if (firstID > lastID)
+			return FabFlixResult.failed("Invalid ID range inputted. Cannot execute deletion.");
+		return deleteCustomerChunks(null, firstID, lastID, chunkSize, progress);
+	}
+	
+	/**
+	 * Deletes customers a chunk at a time, either from an ID list or from an ID range.
+	 * 
+	 * @param ids	sorted IDs of the customers to delete, or <i>null</i> to delete an ID range
+	 * @param firstID	lowest customer ID of the range
+	 * @param lastID	highest customer ID of the range
+	 * @param chunkSize	number of customers deleted by each statement and transaction
+	 * @param progress	writer a progress line is written to after each chunk, or <i>null</i>
+	 * @return	result with the number of customers and sales deleted, or the error
+	 */
+	private FabFlixResult deleteCustomerChunks(List<Integer> ids, int firstID, int lastID, int chunkSize, Writer progress) {
+		if (chunkSize < 1 || chunkSize > MAX_DELETE_CHUNK_SIZE)
+			return FabFlixResult.failed("Chunk size must be between 1 and " + MAX_DELETE_CHUNK_SIZE + ".");
+		
+		String deleteCustomers = "delete from customers where id in (" + repeatPlaceholders(chunkSize) + ")";
+		String countSales = "select count(*) from sales where customer_id in (" + repeatPlaceholders(chunkSize) + ") for update";
+		long start = System.nanoTime();
+		long deletedCustomers = 0, deletedSales = 0;
+		int chunkCount = 0;
+		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("deleteCustomers");
+		FabFlixPooledConnection connection = null;
+		Connection jdbcConnection = null;
+		boolean ownsTransaction = false;
+		
+		try {
+			connection = borrowConnection();
+			jdbcConnection = connection.getConnection();
+			ownsTransaction = jdbcConnection.getAutoCommit();
+			if (ownsTransaction)
+				jdbcConnection.setAutoCommit(false);
+			
+			int nextIndex = 0;
+			long nextID = firstID;
+			while (true) {
+				List<Integer> chunk;
+				if (ids != null) {
+					if (nextIndex >= ids.size())
+						break;
+					chunk = ids.subList(nextIndex, Math.min(nextIndex + chunkSize, ids.size()));
+					nextIndex += chunk.size();
+				} else {
+					if (nextID > lastID)
+						break;
+					chunk = findCustomerIDs(connection, (int) nextID, lastID, chunkSize);
+					if (chunk.isEmpty())
+						break;
+					nextID = chunk.get(chunk.size() - 1) + 1L;
+				}
+				
+				// Sales are counted first since the cascade does not report the rows it deletes
+				PreparedStatement count = connection.prepareStatement(countSales);
+				setChunkParameters(count, chunk, chunkSize);
+				ResultSet result = count.executeQuery();
+				long chunkSales = result.next() ? result.getLong(1) : 0;
+				result.close();
+				
+				PreparedStatement delete = connection.prepareStatement(deleteCustomers);
+				setChunkParameters(delete, chunk, chunkSize);
+				int chunkCustomers = delete.executeUpdate();
+				if (ownsTransaction)
+					jdbcConnection.commit();
+				removeFromSalesAggregates(chunk);
+				invalidateQueryResults(CUSTOMERS_TABLE);
+				
+				chunkCount++;
+				deletedCustomers += chunkCustomers;
+				deletedSales += chunkSales;
+				if (progress != null) {
+					progress.write(String.format("Chunk %d: deleted %d customer(s) and %d sale(s); %d customer(s)%s so far, %.0f rows/s\n", 
+						chunkCount, chunkCustomers, chunkSales, deletedCustomers, 
+						ids == null ? "" : " of " + ids.size(), getRowsPerSecond(deletedCustomers + deletedSales, start)));
+					progress.flush();
+				}
+			}
+			mMetrics.markExecuted(deleteCustomers);
+			
+			return FabFlixResult.succeeded(FabFlixConsole.getInfoMessage(String.format("Deleted %d%s customer(s) and %d sale(s) in %d chunk(s), %.2f s (%.0f rows/s).\n", 
+				deletedCustomers, ids == null ? "" : " of " + ids.size(), deletedSales, chunkCount, 
+				(System.nanoTime() - start) / 1e9, getRowsPerSecond(deletedCustomers + deletedSales, start))));
+			
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			return FabFlixResult.failed("Error code " + e.getErrorCode() + ": " + e.getMessage() + 
+				getDeletedBeforeError(deletedCustomers, deletedSales, ownsTransaction), e.getErrorCode());
+		} catch (IOException e) {
+			sample.fail(0);
+			return FabFlixResult.failed("Unable to write progress: " + e.getMessage() + 
+				getDeletedBeforeError(deletedCustomers, deletedSales, ownsTransaction));
+		} catch (NullPointerException e) {
+			sample.fail(0);
+			if (mConnectionPool == null)
+				return FabFlixResult.failed("No connection established with database server.");
+			return FabFlixResult.failed("Error executing deletion of customers.");
+		} finally {
+			// Only the chunk that failed is rolled back; earlier chunks stay committed
+			try {
+				if (ownsTransaction) {
+					jdbcConnection.rollback();
+					jdbcConnection.setAutoCommit(true);
+				}
+			} catch (SQLException e) {
+				connection.markBroken();
+			}
+			releaseConnection(connection);
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Returns the IDs of the customers within an ID range, locking them until the end of the
+	 * transaction.
+	 * 
+	 * @param connection	connection to run the query on
+	 * @param firstID	lowest customer ID to return
+	 * @param lastID	highest customer ID to return
+	 * @param limit	maximum number of IDs to return
+	 * @return	customer IDs in ascending order
+	 * @throws SQLException	if an error occurred querying the database
+	 */
+	private static List<Integer> findCustomerIDs(FabFlixPooledConnection connection, int firstID, int lastID, int limit) 
+		throws SQLException {
+		
+		PreparedStatement select = connection.prepareStatement(CUSTOMER_IDS_IN_RANGE_QUERY);
+		select.setInt(1, firstID);
+		select.setInt(2, lastID);
+		select.setInt(3, limit);
+		
+		List<Integer> ids = new ArrayList<Integer>(limit);
+		ResultSet result = select.executeQuery();
+		while (result.next())
+			ids.add(result.getInt(1));
+		result.close();
+		return ids;
+	}
+	
+	/**
+	 * Sets the ID placeholders of a chunk statement, padding a short chunk by repeating its
+	 * last ID so the statement text never changes.
+	 * 
+	 * @param statement	statement with <i>chunkSize</i> ID placeholders
+	 * @param chunk	IDs of the chunk
+	 * @param chunkSize	number of placeholders of the statement
+	 * @throws SQLException	if a parameter could not be set
+	 */
+	private static void setChunkParameters(PreparedStatement statement, List<Integer> chunk, int chunkSize) throws SQLException {
+		for (int i = 0; i < chunkSize; i++)
+			statement.setInt(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+	}
+	
+	private static double getRowsPerSecond(long rows, long startNanos) {
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		return seconds <= 0 ? 0 : rows / seconds;
+	}
+	
+	private static String getDeletedBeforeError(long deletedCustomers, long deletedSales, boolean committed) {
+		if (!committed)
+			return ". Customers deleted before the error are only removed if the open transaction is committed.";
+		return ". " + deletedCustomers + " customer(s) and " + deletedSales + " sale(s) were deleted before the error.";
+	}
+	
+	/**
+	 * Output a string of the database meta-data information. If an error occurs
+	 * while obtaining the meta-data, output an error message. The schema is read once and
+	 * cached until the connection is closed or a DDL command is run through {@link #executeSQL}.
+	 * 
+	 * @return	output of operation: either the meta-data of the database or an error message
+	 */
+	public String getMetaData() {
+		if (mConnectionPool == null)
+			return FabFlixConsole.getInfoMessage("No connection established with database. Unable to execute metadata query.");
+		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("getMetaData");
+		try {
+			long start = System.nanoTime();
+			boolean cached = mSchemaMetadata != null;
+			FabFlixSchemaMetadata metadata = findSchemaMetadata();
+			
+			StringBuffer buffer = new StringBuffer();
+			buffer.append("\n");
+			buffer.append("TABLE_NAME: COLUMN_NAME1 (COLUMN_TYPE1), COLUMN_NAME2 (COLUMN_TYPE2), ...\n");
+			buffer.append("    KEY_TYPE KEY_NAME (KEY_COLUMN1, ...)\n");
+			buffer.append("----------------------------------------------------\n");
+			
+			for (FabFlixSchemaMetadata.Table table : metadata.getTables()) {
+				buffer.append(table.getName() + ":");
+				
+				for (FabFlixSchemaMetadata.Column column : table.getColumns())
+					buffer.append(" " + column.getName() + " (" + getColumnTypeName(column.getType(), column.getTypeName()) + "),");
+				buffer.deleteCharAt(buffer.length()-1);
+				buffer.append("\n");
+				
+				for (FabFlixSchemaMetadata.Key index : table.getIndexes()) {
+					buffer.append("    " + (index.isPrimaryKey() ? "PRIMARY KEY" : index.isUnique() ? "UNIQUE INDEX " + index.getName() : 
+						"INDEX " + index.getName()) + " (" + join(index.getColumns()) + ")\n");
+				}
+				for (FabFlixSchemaMetadata.Key foreignKey : table.getForeignKeys()) {
+					buffer.append("    FOREIGN KEY " + foreignKey.getName() + " (" + join(foreignKey.getColumns()) + ") REFERENCES " + 
+						foreignKey.getReferencedTable() + " (" + join(foreignKey.getReferencedColumns()) + ")\n");
+				}
+			}
+			
+			double elapsedMillis = (System.nanoTime() - start) / 1000000.0;
+			buffer.append("\n");
+			buffer.append(FabFlixConsole.getInfoMessage(cached ? 
+				String.format("Metadata served from cache in %.3f ms (loaded from database in %.3f ms).", elapsedMillis, metadata.getLoadTimeMillis()) : 
+				String.format("Metadata loaded from database in %.3f ms.", elapsedMillis)));
+			return buffer.toString();
+			
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+		} catch (NullPointerException e) {
+			sample.fail(0);
+			return FabFlixConsole.getInfoMessage("No connection established with database. Unable to execute metadata query.");
+		} finally {
+			sample.finish();
+		}
+	}
+	
+	/**
+	 * Returns the cached schema of the database, reading it from the database if it is not cached.
+	 * 
+	 * @return	schema of the database
+	 * @throws SQLException	if an error occurred reading the schema
+	 */
+	public FabFlixSchemaMetadata findSchemaMetadata() throws SQLException {
+		FabFlixSchemaMetadata metadata = mSchemaMetadata;
+		if (metadata != null)
+			return metadata;
+		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("getMetaData");
+		long generation = mSchemaGeneration;
+		FabFlixPooledConnection connection = null;
+		
+		try {
+			connection = borrowConnection();
+			metadata = FabFlixSchemaMetadata.load(connection.getConnection());
+			mMetrics.markExecuted("information_schema columns, statistics and key_column_usage");
+			mMetrics.markFetched();
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			throw e;
+		} catch (RuntimeException e) {
+			sample.fail(0);
+			throw e;
+		} finally {
+			releaseConnection(connection);
+			sample.finish();
+		}
+		
+		// Do not cache a schema read while a DDL command was changing it
+		synchronized (this) {
+			if (generation == mSchemaGeneration)
+				mSchemaMetadata = metadata;
+		}
+		return metadata;
+	}
+	
+	private synchronized void invalidateSchemaMetadata() {
+		mSchemaGeneration++;
+		mSchemaMetadata = null;
+	}
+	
+	/**
+	 * Returns one page of the movies that feature a given star by the star's ID number, in movie ID order.
+	 * A proper error message is returned if an error occurred attempting to query the database.
+	 * 
+	 * @param id	integer representing the star's ID number
+	 * @param pageSize	maximum number of movies on the page
+	 * @param token	token returned with the previous page, or <i>null</i> for the first page
+	 * @return	output string listing the page's movies followed by the next page's token
+	 */
+	public String getMoviesForStarPage(Integer id, int pageSize, String token) {
+		if (id == null)
+			return FabFlixConsole.getErrorMessage("Invalid ID inputted. Cannot execute query.");
+		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("getMoviesForStarPage");
+		try {
+			FabFlixPage<FabFlixMovie> page = findMoviesForStarPage(id, pageSize, token);
+			return formatMovies(page.getItems(), mRenderer) + formatPageFooter(page);
+			
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+		} catch (IllegalArgumentException e) {
+			return FabFlixConsole.getErrorMessage(e.getMessage());
+		} catch (NullPointerException e) {
+			sample.fail(0);
+			if (mConnectionPool == null)
 				return FabFlixConsole.getErrorMessage("No connection established with database server.");
-			return FabFlixConsole.getErrorMessage("Error executing insertion of star.");
+			return FabFlixConsole.getErrorMessage("Error executing query of movies.");
+		} finally {
+			sample.finish();
 		}
 	}
-
+	
 	/**
-	 * Inserts a star into the movie database. If an error occurs while inserting a star,
-	 * the operation is canceled and a proper error message is returned by the method.
-	 * We do not need to include the ID for a star because it is auto-incremented.
+	 * Returns one page of the movies that feature a given star by the star's first and/or last name,
+	 * in movie ID order. A proper error message is returned if an error occurred attempting to query
+	 * the database.
 	 * 
-	 * @param firstName	first name of the star
-	 * @param lastName	last name of the star
-	 * @param dob	date of birth for the star
-	 * @param photoURL	URL linking to a photo of the star
-	 * @return	output message if the insertion was a success or not
+	 * @param firstName	the star's first name
+	 * @param lastName	the star's last name
+	 * @param pageSize	maximum number of movies on the page
+	 * @param token	token returned with the previous page, or <i>null</i> for the first page
+	 * @return	output string listing the page's movies followed by the next page's token
 	 */
-	public String insertStar(String firstName, String lastName, Date dob, String photoURL) {
-		if (firstName == null)
-			return FabFlixConsole.getErrorMessage("Invalid first name inputted. Cannot execute insertion."); 
-		if (lastName == null || lastName.isEmpty())
-			return FabFlixConsole.getErrorMessage("Invalid last name inputted. Cannot execute insertion.");
-		
-		StringBuffer buffer = new StringBuffer();
-		String insertStatement = "insert into stars values(DEFAULT" + 
-				",\"" + firstName + "\"" +
-				",\"" + lastName + "\"" +
-				"," + (dob == null ? "NULL" : "\"" + dob.toString() + "\"") +
-				"," + (photoURL == null || photoURL.isEmpty() ? "\"\"" : "\"" + photoURL + "\"") + ")";
+	public String getMoviesForStarPage(String firstName, String lastName, int pageSize, String token) {
+		if (firstName == null || lastName == null)
+			return FabFlixConsole.getErrorMessage("Invalid names inputted. Cannot execute query.");
 		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("getMoviesForStarPage");
 		try {
-			Statement insert = mConnection.createStatement();
-			insert.executeUpdate(insertStatement,Statement.RETURN_GENERATED_KEYS);
-			ResultSet result = insert.getGeneratedKeys();
-			buffer.append("\n");
-			
-			if (result != null && result.next()) {
-				int newStarID = result.getInt(1);
-				result.close();
-				buffer.append(FabFlixConsole.getInfoMessage("Successfully added star into database! Newly added star's ID is " + newStarID + "\n"));
-			}
-			else
-				buffer.append(FabFlixConsole.getErrorMessage("Unable to add star into database.\n"));
-			
-			insert.close();
-			return buffer.toString();
+			FabFlixPage<FabFlixMovie> page = findMoviesForStarPage(firstName, lastName, pageSize, token);
+			return formatMovies(page.getItems(), mRenderer) + formatPageFooter(page);
 			
 		} catch (SQLException e) {
-			// Return the proper error message 
-			switch (e.getErrorCode()) {
-			case 1146:	// Table not found
-				return FabFlixConsole.getErrorMessage(e.getMessage() + ". Unable to run insertion.");
-			default:
-				return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
-			}
+			sample.fail(e.getErrorCode());
+			return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+		} catch (IllegalArgumentException e) {
+			return FabFlixConsole.getErrorMessage(e.getMessage());
 		} catch (NullPointerException e) {
-			if (mConnection == null)
+			sample.fail(0);
+			if (mConnectionPool == null)
 				return FabFlixConsole.getErrorMessage("No connection established with database server.");
-			return FabFlixConsole.getErrorMessage("Error executing insertion of star.");
+			return FabFlixConsole.getErrorMessage("Error executing query of movies.");
+		} finally {
+			sample.finish();
 		}
 	}
-
+	
 	/**
-	 * Inserts a customer into the movie database. If an error occurs while inserting a customer,
-	 * the operation is canceled and a proper error message is returned by the method.
-	 * If the credit card ID provided does not exist, an error message is returned. No
-	 * ID is needed for the insertion since it is auto-incremented.
+	 * Returns one page of the movies that feature a given star by the star's ID number. Pages are
+	 * ordered by movie ID and read with a seek past the previous page's last movie ID, so every
+	 * page costs the same. Pages are not cached.
 	 * 
-	 * @param firstName	first name of customer
-	 * @param lastName	last name of customer
-	 * @param creditCardID	ID of the customers's credit card (must exist in database)
-	 * @param address	address of customer
-	 * @param email	e-mail address of customer login
-	 * @param password	password for customer login
-	 * @return	message that indicates whether operation succeeded or failed
+	 * @param id	star ID
+	 * @param pageSize	maximum number of movies on the page (at most {@link #MAX_PAGE_SIZE})
+	 * @param token	token returned with the previous page, or <i>null</i> for the first page
+	 * @return	page of movies featuring the star
+	 * @throws SQLException	if an error occurred querying the database
+	 * @throws IllegalArgumentException	if the token is invalid or belongs to a different lookup
 	 */
-	public String insertCustomer(String firstName, String lastName, String creditCardID, 
-		String address, String email, String password) {
+	public FabFlixPage<FabFlixMovie> findMoviesForStarPage(int id, int pageSize, String token) throws SQLException {
+		if (mJoinEngineEnabled)
+			return pageMovies(findJoinEngine().findMoviesForStar(id), "star-id:" + id, pageSize, token);
 		
-		if (lastName == null)
-			return FabFlixConsole.getErrorMessage("Invalid last name inputted. Cannot insert customer.");
-		if (creditCardID == null)
-			return FabFlixConsole.getErrorMessage("Invalid credit card ID inputted. Cannot insert customer.");
-		if (address == null)
-			return FabFlixConsole.getErrorMessage("Invalid address inputted. Cannot insert customer.");
-		if (email == null)
-			return FabFlixConsole.getErrorMessage("Invalid e-mail address inputted. Cannot insert customer.");
-		if (password == null)
-			return FabFlixConsole.getErrorMessage("Invalid password inputted. Cannot insert customer.");
+		List<Object> parameters = new ArrayList<Object>();
+		parameters.add(id);
+		return findMoviesPage(MOVIES_FOR_STAR_ID_PAGE_QUERY + MOVIES_PAGE_ORDER, "star-id:" + id, 
+			parameters, 1, pageSize, token);
+	}
+	
+	/**
+	 * Returns one page of the movies that feature a given star by the star's first and/or last
+	 * name. An empty name is not used to filter the stars. Pages are ordered by movie ID and read
+	 * with a seek past the previous page's last movie ID, so every page costs the same.
+	 * 
+	 * @param firstName	the star's first name
+	 * @param lastName	the star's last name
+	 * @param pageSize	maximum number of movies on the page (at most {@link #MAX_PAGE_SIZE})
+	 * @param token	token returned with the previous page, or <i>null</i> for the first page
+	 * @return	page of movies featuring the star
+	 * @throws SQLException	if an error occurred querying the database
+	 * @throws IllegalArgumentException	if the token is invalid or belongs to a different lookup
+	 */
+	public FabFlixPage<FabFlixMovie> findMoviesForStarPage(String firstName, String lastName, int pageSize, String token) 
+		throws SQLException {
 		
-		if (!creditCardExistsInDB(creditCardID))
-			return FabFlixConsole.getErrorMessage("Credit card does not exist inside database. Cannot insert customer.");
+		firstName = stripTrailingSpaces(firstName);
+		lastName = stripTrailingSpaces(lastName);
+		String queryKey = "star-name:" + toNameKey(firstName) + "\0" + toNameKey(lastName);
+		if (mJoinEngineEnabled)
+			return pageMovies(findJoinEngine().findMoviesForStar(firstName, lastName), queryKey, pageSize, token);
 		
-		String insertStatement = "insert into customers values(DEFAULT" + 
-				",\"" + firstName + "\"" +
-				",\"" + lastName + "\"" +
-				",\"" + creditCardID + "\"" +
-				",\"" + address + "\"" +
-				",\"" + email + "\"" +
-				",\"" + password + "\"" + ")";
+		StringBuffer query = new StringBuffer(MOVIES_FOR_STAR_PAGE_QUERY);
+		List<Object> parameters = new ArrayList<Object>();
+		if (!firstName.isEmpty()) {
+			query.append(" and s.first_name = ?");
+			parameters.add(firstName);
+		}
+		if (!lastName.isEmpty()) {
+			query.append(" and s.last_name = ?");
+			parameters.add(lastName);
+		}
+		query.append(MOVIES_PAGE_ORDER);
+		
+		return findMoviesPage(query.toString(), queryKey, parameters, 0, pageSize, token);
+	}
+	
+	/**
+	 * Runs a paginated movie query. The query's parameters are the given values with the last
+	 * movie ID inserted at <i>keyIndex</i>, followed by the row limit.
+	 */
+	private FabFlixPage<FabFlixMovie> findMoviesPage(String query, String queryKey, List<Object> parameters, 
+		int keyIndex, int pageSize, String token) throws SQLException {
+		
+		pageSize = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+		int lastMovieID = Integer.MIN_VALUE;
+		if (token != null && !token.trim().isEmpty())
+			lastMovieID = Integer.parseInt(FabFlixPage.decodeToken(token, queryKey).get(0));
 		
+		parameters.add(keyIndex, lastMovieID);
+		parameters.add(pageSize + 1);
+		
+		FabFlixPooledConnection connection = borrowConnection();
+		List<FabFlixMovie> movies;
 		try {
-			Statement insert = mConnection.createStatement();
-			insert.executeUpdate(insertStatement,Statement.RETURN_GENERATED_KEYS);
-			ResultSet result = insert.getGeneratedKeys();
+			PreparedStatement select = connection.prepareStatement(query);
+			for (int i = 0; i < parameters.size(); i++)
+				select.setObject(i + 1, parameters.get(i));
 			
-			if (result != null && result.next()) {
-				int newCustomerID = result.getInt(1);
-				insert.close();
-				result.close();
-				return FabFlixConsole.getInfoMessage("Successfully added customer into database! Newly added customer's ID is " + newCustomerID + ".\n");
+			ResultSet result = select.executeQuery();
+			mMetrics.markExecuted(query);
+			movies = new ArrayList<FabFlixMovie>(readMovies(result));
+			mMetrics.markFetched();
+		} finally {
+			releaseConnection(connection);
+		}
+		
+		// One row past the page tells whether there is a next page
+		String nextToken = null;
+		if (movies.size() > pageSize) {
+			movies.remove(pageSize);
+			nextToken = FabFlixPage.encodeToken(queryKey, 
+				Collections.singletonList(String.valueOf(movies.get(pageSize - 1).getID())));
+		}
+		return new FabFlixPage<FabFlixMovie>(movies, null, nextToken);
+	}
+	
+	/**
+	 * Pages through movies that are already in memory the same way {@link #findMoviesPage} does
+	 * in the database, so the tokens of either can be used with the other.
+	 */
+	private static FabFlixPage<FabFlixMovie> pageMovies(List<FabFlixMovie> allMovies, String queryKey, 
+		int pageSize, String token) {
+		
+		pageSize = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+		int lastMovieID = Integer.MIN_VALUE;
+		if (token != null && !token.trim().isEmpty())
+			lastMovieID = Integer.parseInt(FabFlixPage.decodeToken(token, queryKey).get(0));
+		
+		List<FabFlixMovie> sorted = new ArrayList<FabFlixMovie>(allMovies);
+		Collections.sort(sorted, new Comparator<FabFlixMovie>() {
+			@Override
+			public int compare(FabFlixMovie a, FabFlixMovie b) {
+				return Integer.compare(a.getID(), b.getID());
 			}
-			
-			insert.close();
-			return FabFlixConsole.getInfoMessage("Unable to add customer into database.\n");
-			
-		} catch (SQLException e) {
-			// Return the proper error message 
-			switch (e.getErrorCode()) {
-			case 1146:	// Table not found
-				return FabFlixConsole.getErrorMessage(e.getMessage() + ". Unable to run insertion.");
-			default:
-				return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+		});
+		
+		// Distinct movies past the last one of the previous page, plus one to tell whether there is a next page
+		List<FabFlixMovie> movies = new ArrayList<FabFlixMovie>(pageSize + 1);
+		for (FabFlixMovie movie : sorted) {
+			if (movie.getID() > lastMovieID && movies.size() <= pageSize) {
+				movies.add(movie);
+				lastMovieID = movie.getID();
 			}
-		} catch (NullPointerException e) {
-			if (mConnection == null)
-				return FabFlixConsole.getErrorMessage("No connection established with database server.");
-			return FabFlixConsole.getErrorMessage("Error executing insertion of star.");
 		}
+		
+		String nextToken = null;
+		if (movies.size() > pageSize) {
+			movies.remove(pageSize);
+			nextToken = FabFlixPage.encodeToken(queryKey, 
+				Collections.singletonList(String.valueOf(movies.get(pageSize - 1).getID())));
+		}
+		return new FabFlixPage<FabFlixMovie>(movies, null, nextToken);
 	}
 	
 	/**
-	 * Deletes a customer from the database by customer ID number. Outputs
-	 * proper error messages if an error occurred doing the deletion. Otherwise,
-	 * a proper output message is displayed if the function was a success or not.
+	 * Returns one page of the results of a SELECT query, in the primary key order of the query's
+	 * (first) table. A proper error message is returned if the query cannot be paged or an error
+	 * occurred attempting to query the database.
 	 * 
-	 * @param id	customer ID
-	 * @return	output message (success, failure, error) of deleting a customer
+	 * @param command	SELECT query without ORDER BY or LIMIT that selects the primary key of its table
+	 * @param pageSize	maximum number of rows on the page
+	 * @param token	token returned with the previous page, or <i>null</i> for the first page
+	 * @return	output string listing the page's rows followed by the next page's token
 	 */
-	public String deleteCustomer(Integer id) {
-		if (id == null)
-			return FabFlixConsole.getErrorMessage("Invalid ID inputted. Cannot execute deletion.");
-		
-		String deleteStatement = "delete from customers where id = " + id;
+	public String executeSQLPage(String command, int pageSize, String token) {
+		if (command == null || command.trim().isEmpty())
+			return FabFlixConsole.getErrorMessage("Invalid or empty SQL command found. Unable to execute command.");
 		
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("executeSQLPage");
 		try {
-			// Create and run the query onto the database
-			Statement delete = mConnection.createStatement();
-			int rowsDeleted = delete.executeUpdate(deleteStatement, Statement.RETURN_GENERATED_KEYS);
-			delete.close();
-	
-			if (rowsDeleted > 0)
-				return FabFlixConsole.getInfoMessage("Successfully deleted customer with ID =  " + id + " from database.\n"); 
-			return FabFlixConsole.getInfoMessage("No customer with ID = " + id + " found. Unable to remove customer from database.\n");
+			FabFlixPage<String[]> page = findQueryPage(command, pageSize, token);
+			StringBuilder buffer = new StringBuilder();
+			mRenderer.renderRows(null, page.getColumnNames(), page.getItems(), buffer);
+			return buffer.append(formatPageFooter(page)).toString();
 			
-		}
-		catch (SQLException e) {
-			// Return the proper error message 
+		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
 			switch (e.getErrorCode()) {
-			case 1146:
-				return FabFlixConsole.getErrorMessage(e.getMessage() + ". Unable to run query.");
-			default:
-				return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+			case 1064:
+				return FabFlixConsole.getErrorMessage("Invalid SQL syntax. Please check your syntax and try again.");
+			case 1054:
+				return FabFlixConsole.getErrorMessage("Invalid column specified. " + e.getMessage());
 			}
+			return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+		} catch (IllegalArgumentException e) {
+			return FabFlixConsole.getErrorMessage(e.getMessage());
+		} catch (IOException e) {
+			// Appending to a StringBuilder never fails
+			throw new IllegalStateException(e);
 		} catch (NullPointerException e) {
-			if (mConnection == null)
+			sample.fail(0);
+			if (mConnectionPool == null)
 				return FabFlixConsole.getErrorMessage("No connection established with database server.");
-			return FabFlixConsole.getErrorMessage("Error executing insertion of star.");
+			return FabFlixConsole.getErrorMessage("Error executing executing command + '" + command + "'.");
+		} finally {
+			sample.finish();
 		}
 	}
 	
 	/**
-	 * Output a string of the database meta-data information. If an error occurs
-	 * while obtaining the meta-data, output an error message.
+	 * Returns one page of the results of a SELECT query. The query is ordered by the primary key
+	 * of its first table (taken from the schema metadata), and each page after the first seeks
+	 * past the previous page's last key with a condition added to the query's own WHERE clause,
+	 * so the database reads at most one page plus one row from the key index whatever the depth.
+	 * The query must select every primary key column and must not have its own ORDER BY or LIMIT,
+	 * UNION or INTO.
 	 * 
-	 * @return	output of operation: either the meta-data of the database or an error message
+	 * @param command	SELECT query to page through
+	 * @param pageSize	maximum number of rows on the page (at most {@link #MAX_PAGE_SIZE})
+	 * @param token	token returned with the previous page, or <i>null</i> for the first page
+	 * @return	page of rows, with every value read as a string
+	 * @throws SQLException	if an error occurred querying the database
+	 * @throws IllegalArgumentException	if the query cannot be paged or the token is invalid
 	 */
-	public String getMetaData() {
-		if (mConnection == null)
-			return FabFlixConsole.getInfoMessage("No connection established with database. Unable to execute metadata query.");
+	public FabFlixPage<String[]> findQueryPage(String command, int pageSize, String token) throws SQLException {
+		String query = command.trim();
+		while (query.endsWith(";"))
+			query = query.substring(0, query.length() - 1).trim();
+		
+		// Clauses are only looked for outside of literals, comments and subqueries
+		String topLevel = maskSQL(query, true);
+		Matcher tableMatcher = PAGED_QUERY_TABLE_PATTERN.matcher(topLevel);
+		if (!tableMatcher.find())
+			throw new IllegalArgumentException("Only SELECT queries can be paged.");
+		if (ORDER_OR_LIMIT_PATTERN.matcher(topLevel).find())
+			throw new IllegalArgumentException("Paged queries are ordered by primary key and cannot have ORDER BY or LIMIT.");
+		if (UNPAGEABLE_QUERY_PATTERN.matcher(topLevel).find())
+			throw new IllegalArgumentException("Paged queries cannot have UNION or INTO.");
+		
+		FabFlixSchemaMetadata.Table table = findSchemaMetadata().getTable(tableMatcher.group(1));
+		if (table == null)
+			throw new IllegalArgumentException("Unknown table '" + tableMatcher.group(1) + "'.");
+		FabFlixSchemaMetadata.Key primaryKey = table.getPrimaryKey();
+		if (primaryKey == null)
+			throw new IllegalArgumentException("Table '" + table.getName() + "' has no primary key to page on.");
+		
+		pageSize = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+		List<String> keyColumns = primaryKey.getColumns();
+		List<String> lastKey = token == null || token.trim().isEmpty() ? null : FabFlixPage.decodeToken(token, "query:" + query);
+		if (lastKey != null && lastKey.size() != keyColumns.size())
+			throw new IllegalArgumentException("Page token does not belong to this query.");
+		
+		// Key columns are qualified by the table's alias since other tables may have the same columns
+		String alias = tableMatcher.group(2);
+		if (alias == null || NON_ALIAS_KEYWORDS.contains(alias.toLowerCase(Locale.ROOT)))
+			alias = tableMatcher.group(1);
+		String keyList = "`" + alias + "`.`" + join(keyColumns).replace(", ", "`, `" + alias + "`.`") + "`";
+		
+		// The seek condition is ANDed with the query's own WHERE clause, before any GROUP BY or HAVING
+		StringBuffer pagedQuery = new StringBuffer(query);
+		if (lastKey != null) {
+			// Row value comparison lets MySQL seek the composite key index directly
+			String seek = keyColumns.size() == 1 ? keyList + " > ?" : 
+				"(" + keyList + ") > (" + repeatPlaceholders(keyColumns.size()) + ")";
+			Matcher afterWhere = AFTER_WHERE_PATTERN.matcher(topLevel);
+			int whereEnd = afterWhere.find(tableMatcher.end()) ? afterWhere.start() : query.length();
+			Matcher where = WHERE_PATTERN.matcher(topLevel).region(tableMatcher.start(1), whereEnd);
+			if (where.find()) {
+				pagedQuery.insert(whereEnd, ") and " + seek + " ");
+				pagedQuery.insert(where.end(), " (");
+			} else {
+				pagedQuery.insert(whereEnd, " where " + seek + " ");
+			}
+		}
+		pagedQuery.append(" order by " + keyList + " limit ?");
+		
+		FabFlixPooledConnection connection = borrowConnection();
+		PreparedStatement select = null;
+		List<String[]> rows = new ArrayList<String[]>();
+		List<String> columnNames = new ArrayList<String>();
+		int[] keyPositions = new int[keyColumns.size()];
 		
 		try {
-			// thanks to: http://tutorials.jenkov.com/jdbc/databasemetadata.html
-			DatabaseMetaData metadata = mConnection.getMetaData();
-			ResultSet tables = metadata.getTables(null, null, null, null);
-			ResultSet columns;
+			// User queries are not put in the statement cache so they cannot evict the fixed queries
+			select = connection.getConnection().prepareStatement(pagedQuery.toString());
+			int parameter = 1;
+			if (lastKey != null) {
+				for (String value : lastKey)
+					select.setString(parameter++, value);
+			}
+			select.setInt(parameter, pageSize + 1);
 			
-			StringBuffer buffer = new StringBuffer();
-			buffer.append("\n");
-			buffer.append("TABLE_NAME: COLUMN_NAME1 (COLUMN_TYPE1), COLUMN_NAME2 (COLUMN_TYPE2), ...\n");
-			buffer.append("----------------------------------------------------\n");
+			ResultSet result = select.executeQuery();
+			mMetrics.markExecuted(pagedQuery.toString());
+			ResultSetMetaData resultMetaData = result.getMetaData();
+			int columnCount = resultMetaData.getColumnCount();
+			for (int i = 1; i <= columnCount; i++)
+				columnNames.add(resultMetaData.getColumnLabel(i));
 			
-			while (tables.next()) {
-				// Table name located at column 3 of meta-data table info
-				String tableName = tables.getString(3);
-				buffer.append(tableName + ":");
-				
-				columns = metadata.getColumns(null, null, tableName, null);
-				while (columns.next()) {
-					// Column name and type located at columns 4 and 5 of meta-data column info
-					String columnName = columns.getString(4);
-					String columnType = getColumnTypeName(columns.getInt(5));
-					
-					buffer.append(" " + columnName + " (" + columnType + "),");
+			for (int k = 0; k < keyColumns.size(); k++) {
+				keyPositions[k] = -1;
+				// The first table's columns come first when several tables have a key column's name
+				for (int i = columnCount - 1; i >= 0; i--) {
+					if (columnNames.get(i).equalsIgnoreCase(keyColumns.get(k)))
+						keyPositions[k] = i;
+				}
+				if (keyPositions[k] < 0) {
+					result.close();
+					throw new IllegalArgumentException("Paged queries must select the primary key column(s) of '" + 
+						table.getName() + "': " + join(keyColumns) + ".");
 				}
-				columns.close();
-				buffer.append("\n");
 			}
 			
-			tables.close();
-			buffer.deleteCharAt(buffer.length()-1);
-			return buffer.toString();
-			
-		} catch (SQLException e) {
-			return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+			while (result.next()) {
+				String[] row = new String[columnCount];
+				for (int i = 0; i < columnCount; i++)
+					row[i] = result.getString(i + 1);
+				rows.add(row);
+			}
+			result.close();
+			mMetrics.markFetched();
+		} finally {
+			closeQuietly(select);
+			releaseConnection(connection);
 		}
+		
+		String nextToken = null;
+		if (rows.size() > pageSize) {
+			rows.remove(pageSize);
+			String[] lastRow = rows.get(pageSize - 1);
+			List<String> nextKey = new ArrayList<String>();
+			for (int position : keyPositions)
+				nextKey.add(lastRow[position]);
+			nextToken = FabFlixPage.encodeToken("query:" + query, nextKey);
+		}
+		return new FabFlixPage<String[]>(rows, columnNames, nextToken);
+	}
+	
+	/**
+	 * Returns the line printed after a page, with the token for the next page if there is one.
+	 * 
+	 * @param page	page that was printed
+	 * @return	info message of the page size and next page token
+	 */
+	static String formatPageFooter(FabFlixPage<?> page) {
+		if (page.hasNextPage())
+			return FabFlixConsole.getInfoMessage(page.getItems().size() + " row(s) on this page. Next page token: " + page.getNextToken() + "\n");
+		return FabFlixConsole.getInfoMessage(page.getItems().size() + " row(s) on this page. This is the last page.\n");
 	}
 	
 	/**
@@ -413,70 +3331,226 @@ public class FabFlixDBManager
 	 * then it outputs the amount of rows affected by the update query.
 	 * 
 	 * @param command	SQL command to be processed
-	 * @return	output message; if the command was a SELECT query, the table is returned; otherwise the number of rows affected is output
+	 * @return	result of the command; its output is the table of a SELECT query, otherwise the number of rows affected
+	 */
+	public FabFlixResult executeSQL(String command) {
+		StringWriter writer = new StringWriter();
+		FabFlixResult result = executeSQL(command, writer);
+		
+		// Only return the table if the whole result was written without an error
+		return result.isSucceeded() && result.getOutput().isEmpty() ? FabFlixResult.succeeded(writer.toString()) : result;
+	}
+	
+	/**
+	 * Execute a custom SQL command and stream its results to an output stream as UTF-8 text.
+	 * 
+	 * @param command	SQL command to be processed
+	 * @param stream	output stream the resulting table of a SELECT query is written to
+	 * @return	result of the command; its output is empty if a SELECT query was written successfully, otherwise the number of rows affected or an error message
+	 * @see #executeSQL(String, Writer)
+	 */
+	public FabFlixResult executeSQL(String command, OutputStream stream) {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+		FabFlixResult result = executeSQL(command, writer);
+		
+		try {
+			writer.flush();
+		} catch (IOException e) {
+			return FabFlixResult.failed("Unable to write query results: " + e.getMessage());
+		}
+		return result;
+	}
+	
+	/**
+	 * Execute a custom SQL command and stream its results. If the command was a SELECT query,
+	 * the driver fetches the result one row at a time and each row is written to the writer
+	 * as soon as it arrives, so memory use does not depend on the number of rows returned.
+	 * If the command was an UPDATE/DELETE/INSERT, the amount of rows affected is returned.
+	 * 
+	 * @param command	SQL command to be processed
+	 * @param writer	writer the resulting table of a SELECT query is written to
+	 * @return	result of the command; its output is empty if a SELECT query was written successfully, otherwise the number of rows affected or an error message
+	 */
+	public FabFlixResult executeSQL(String command, Writer writer) {
+		return executeSQL(command, writer, mRenderer);
+	}
+	
+	/**
+	 * Execute a custom SQL command and stream its results in a renderer's format. The values of
+	 * each row are read into one array that is reused for every row.
+	 * 
+	 * @param command	SQL command to be processed
+	 * @param writer	writer the resulting table of a SELECT query is written to
+	 * @param renderer	renderer of the output format
+	 * @return	result of the command; its output is empty if a SELECT query was written successfully, otherwise the number of rows affected or an error message
+	 * @see #executeSQL(String, Writer)
 	 */
-	public String executeSQL(String command) {
+	public FabFlixResult executeSQL(String command, Writer writer, FabFlixRenderer renderer) {
 		if (command == null || command.isEmpty())
-			return FabFlixConsole.getErrorMessage("Invalid or empty SQL command found. Unable to execute command.");
+			return FabFlixResult.failed("Invalid or empty SQL command found. Unable to execute command.");
 		
+		FabFlixPooledConnection connection = null;
 		Statement statement = null;
 		ResultSet result = null;
 		
+		// Writes to the tables behind the star lookups make their cached results stale
+		boolean isWrite = !READ_ONLY_COMMAND_PATTERN.matcher(command).find();
+		boolean invalidatesStarLookups = isWrite && STAR_LOOKUP_TABLES_PATTERN.matcher(command).find();
+		boolean changesCreditCards = isWrite && CREDIT_CARD_TABLE_PATTERN.matcher(command).find();
+		boolean changesStars = isWrite && STARS_TABLE_PATTERN.matcher(command).find();
+		boolean changesCatalog = isWrite && CATALOG_TABLES_PATTERN.matcher(command).find();
+		boolean changesSales = isWrite && SALES_AGGREGATE_TABLES_PATTERN.matcher(command).find();
+		boolean changesSchema = DDL_COMMAND_PATTERN.matcher(command).find();
+		
+		// A stored procedure may write to any table
+		boolean callsProcedure = CALL_COMMAND_PATTERN.matcher(command).find();
+		invalidatesStarLookups |= callsProcedure;
+		changesCreditCards |= callsProcedure;
+		changesStars |= callsProcedure;
+		changesCatalog |= callsProcedure;
+		changesSales |= callsProcedure;
+		FabFlixQueryMetrics.Sample sample = mMetrics.start("executeSQL");
+		
+		// Results read inside a transaction may include writes that are never committed
+		FabFlixResultCache resultCache = mResultCache;
+		boolean cacheable = resultCache != null && mTransactionConnection.get() == null && 
+			SELECT_COMMAND_PATTERN.matcher(command).find() && !UNCACHEABLE_QUERY_PATTERN.matcher(command).find();
+		String cacheKey = null;
+		Set<String> readTables = null;
+		long cacheGeneration = 0;
+		
 		try {
-			statement = mConnection.createStatement();
+			if (cacheable) {
+				cacheKey = FabFlixResultCache.normalize(command);
+				FabFlixResultCache.Result cached = resultCache.get(cacheKey);
+				if (cached != null) {
+					mMetrics.markExecuted(command);
+					renderCachedResult(cached, writer, renderer);
+					mMetrics.markFetched();
+					return FabFlixResult.succeeded("");
+				}
+				
+				// The generation is read first so a write made while the query runs drops its result
+				cacheGeneration = resultCache.getGeneration();
+				try {
+					FabFlixSchemaMetadata metadata = findSchemaMetadata();
+					readTables = findTableNames(command, metadata);
+					
+					// A view reads base tables the query does not name, so writes to them would go unseen
+					if (namesIndirectTable(readTables, metadata, false))
+						cacheKey = null;
+				} catch (SQLException e) {
+					// Without the schema the tables read are unknown, so the result is not cached
+					cacheKey = null;
+				}
+			}
+			
+			connection = borrowConnection();
+			statement = connection.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			statement.setFetchSize(STREAMING_FETCH_SIZE);
 			boolean hasResultSet = statement.execute(command, Statement.RETURN_GENERATED_KEYS);
+			mMetrics.markExecuted(command);
 			result = statement.getResultSet();
 			
 			if (hasResultSet && result != null) {
 				ResultSetMetaData resultMetaData = result.getMetaData();
-				StringBuffer buffer = new StringBuffer("\nTable: " + resultMetaData.getTableName(1) + 
-					"\n--------------------------");
-				boolean resultsFound = false;
+				int columnCount = resultMetaData.getColumnCount();
+				String[] columnNames = new String[columnCount];
+				for (int i = 0; i < columnCount; i++)
+					columnNames[i] = resultMetaData.getColumnName(i + 1);
+				
+				String tableName = String.valueOf(resultMetaData.getTableName(1));
+				renderer.beginRows(tableName, columnNames, writer);
+				String[] values = new String[columnCount];
+				long rowCount = 0;
+				
+				// Rows are only kept for the cache until the result grows too large to store
+				List<String[]> cachedRows = cacheKey == null ? null : new ArrayList<String[]>();
+				long cachedBytes = 0;
 				
-				buffer.append("\n");
 				while (result.next()) {
-					resultsFound = true;
+					for (int i = 0; i < columnCount; i++)
+						values[i] = result.getString(i + 1);
+					renderer.renderRow(columnNames, values, rowCount, writer);
 					
-					for (int i = 1; i < resultMetaData.getColumnCount() + 1; i++) {
-						String columnValue = result.getString(i);
-						buffer.append(resultMetaData.getColumnName(i) + " = " + 
-								(columnValue == null ? "null" : columnValue) + "\n");
+					if (cachedRows != null) {
+						cachedRows.add(values.clone());
+						cachedBytes += FabFlixResultCache.estimateBytes(values);
+						if (cachedBytes > resultCache.getMaxEntryBytes())
+							cachedRows = null;
 					}
-					buffer.append("\n");
+					
+					// Push the first row out right away so callers see results as soon as possible
+					if (rowCount++ == 0)
+						writer.flush();
 				}
+				renderer.endRows(rowCount, writer);
 				
-				if (!resultsFound)
-					buffer.append("No results found!\n");
+				// Rows are written as they are streamed, so writing them is counted as fetch time
+				mMetrics.markFetched();
+				writer.flush();
+				
+				if (cachedRows != null)
+					resultCache.put(cacheKey, new FabFlixResultCache.Result(tableName, columnNames, cachedRows, readTables, cachedBytes), 
+						cacheGeneration);
 				
-				statement.close();
 				result.close();
-				return buffer.toString();
+				statement.close();
+				return FabFlixResult.succeeded("");
 			} else {
 				int updateCount = statement.getUpdateCount();
 				statement.close();
-				return FabFlixConsole.getInfoMessage("Successfully updated database. " + 
-						updateCount + " record(s) have been updated.");
+				return FabFlixResult.succeeded(FabFlixConsole.getInfoMessage("Successfully updated database. " + 
+						updateCount + " record(s) have been updated."));
 			}
 			
 		} catch (SQLException e) {
+			sample.fail(e.getErrorCode());
+			closeQuietly(statement);
 			switch (e.getErrorCode()) {
 			case 1064:
-				return FabFlixConsole.getErrorMessage("Invalid SQL syntax. Please check your syntax and try again.");
+				return FabFlixResult.failed("Invalid SQL syntax. Please check your syntax and try again.", e.getErrorCode());
 			case 1146:
-				return FabFlixConsole.getErrorMessage("Invalid table specified. " + e.getMessage());
+				return FabFlixResult.failed("Invalid table specified. " + e.getMessage(), e.getErrorCode());
 			case 1054:
-				return FabFlixConsole.getErrorMessage("Invalid column specified. " + e.getMessage());
+				return FabFlixResult.failed("Invalid column specified. " + e.getMessage(), e.getErrorCode());
 			case 1136:
-				return FabFlixConsole.getErrorMessage("Invalid amount of values specified for insertion. " + e.getMessage());
+				return FabFlixResult.failed("Invalid amount of values specified for insertion. " + e.getMessage(), e.getErrorCode());
 			case 1366:
-				return FabFlixConsole.getErrorMessage("Invalid value type for column specification. " + e.getMessage());
+				return FabFlixResult.failed("Invalid value type for column specification. " + e.getMessage(), e.getErrorCode());
 			}
-			return FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage());
+			return FabFlixResult.failed("Error code " + e.getErrorCode() + ": " + e.getMessage(), e.getErrorCode());
 			
+		} catch (IOException e) {
+			sample.fail(0);
+			// Closing the statement discards the rest of the streamed result
+			closeQuietly(statement);
+			return FabFlixResult.failed("Unable to write query results: " + e.getMessage());
 		} catch (NullPointerException e) {
-			if (mConnection == null)
-				return FabFlixConsole.getErrorMessage("No connection established with database server.");
-			return FabFlixConsole.getErrorMessage("Error executing executing command + '" + command + "'.");
+			sample.fail(0);
+			if (mConnectionPool == null)
+				return FabFlixResult.failed("No connection established with database server.");
+			return FabFlixResult.failed("Error executing executing command + '" + command + "'.");
+		} finally {
+			releaseConnection(connection);
+			if (invalidatesStarLookups)
+				invalidateStarLookups();
+			if (changesCreditCards)
+				scheduleCreditCardFilterRefresh();
+			if (changesStars)
+				invalidateStarIndex();
+			if (changesCatalog) {
+				markCatalogSnapshotStale();
+				invalidateJoinEngine();
+			}
+			if (changesSales)
+				invalidateSalesAggregates();
+			if (changesSchema)
+				invalidateSchemaMetadata();
+			if (isWrite)
+				invalidateQueryResults(changesSchema || callsProcedure || mSchemaMetadata == null ? null : 
+					findTableNames(command, mSchemaMetadata));
+			sample.finish();
 		}
 	}
 	
@@ -487,15 +3561,24 @@ public class FabFlixDBManager
 	 * @return	true if the credit card exists, false otherwise
 	 */
 	private boolean creditCardExistsInDB(String creditCardID) {
-		String query = "select * from creditcards where id = \"" + creditCardID + "\"";
+		// Known cards skip the round trip; unknown ones may have been added since the last refresh
+		FabFlixCreditCardFilter filter = mCreditCardFilter;
+		if (filter != null && filter.contains(creditCardID))
+			return true;
+		
+		FabFlixPooledConnection connection = null;
 		
 		try {
-			Statement statement = mConnection.createStatement();
-			ResultSet result = statement.executeQuery(query);
+			connection = borrowConnection();
+			PreparedStatement statement = connection.prepareStatement(CREDIT_CARD_EXISTS_QUERY);
+			statement.setString(1, creditCardID);
+			ResultSet result = statement.executeQuery();
 			boolean resultBoolean = result != null && result.next();
 			
-			statement.close();
 			result.close();
+			// A card seen inside a transaction may not be committed, so only the refresh adds it
+			if (resultBoolean && filter != null && filter.isLoaded() && mTransactionConnection.get() == null)
+				filter.add(creditCardID);
 			return resultBoolean;
 			
 		} catch (SQLException e) {
@@ -510,36 +3593,219 @@ public class FabFlixDBManager
 			}
 			return false;
 		} catch (NullPointerException e) {
-			if (mConnection == null)
+			if (mConnectionPool == null)
 				System.out.println(FabFlixConsole.getErrorMessage("Credit card check: " + "No connection established with database server."));
 			else
 				System.out.println(FabFlixConsole.getErrorMessage("Credit card check: " + "Error executing insertion of star."));
 			return false;
+		} finally {
+			releaseConnection(connection);
 		}
 	}
 
+	/**
+	 * Borrows a connection from the connection pool. Throws a <i>NullPointerException</i> if no
+	 * connection has been established, which callers report as a missing connection.
+	 * 
+	 * @return	connection borrowed from the pool
+	 * @throws SQLException	if no connection could be obtained before the borrow timeout
+	 */
+	private FabFlixPooledConnection borrowConnection() throws SQLException {
+		// Calls made inside a transaction all run on the connection the transaction was started on
+		FabFlixPooledConnection transactionConnection = mTransactionConnection.get();
+		if (transactionConnection != null)
+			return transactionConnection;
+		
+		return mConnectionPool.borrowConnection();
+	}
+	
+	/**
+	 * Returns a borrowed connection to the pool that owns it. The connection of the calling
+	 * thread's open transaction is kept until the transaction ends.
+	 * 
+	 * @param connection	connection to return, or <i>null</i> if none was borrowed
+	 */
+	private void releaseConnection(FabFlixPooledConnection connection) {
+		if (connection != null && connection != mTransactionConnection.get())
+			connection.getPool().returnConnection(connection);
+	}
+
+	/**
+	 * Returns a comma-separated list of JDBC parameter placeholders.
+	 * 
+	 * @param count	number of placeholders
+	 * @return	placeholder list such as <i>?, ?, ?</i>
+	 */
+	private static String repeatPlaceholders(int count) {
+		StringBuilder placeholders = new StringBuilder();
+		for (int i = 0; i < count; i++)
+			placeholders.append(i == 0 ? "?" : ", ?");
+		return placeholders.toString();
+	}
+	
+	/**
+	 * Returns the movies of a list without repeats, each at its first position, as the distinct
+	 * movie lookups in the database return them.
+	 * 
+	 * @param movies	movies that may contain the same movie more than once
+	 * @return	unmodifiable list of the distinct movies
+	 */
+	static List<FabFlixMovie> distinctMovies(List<FabFlixMovie> movies) {
+		Set<Integer> movieIDs = new HashSet<Integer>();
+		List<FabFlixMovie> distinct = new ArrayList<FabFlixMovie>(movies.size());
+		for (FabFlixMovie movie : movies) {
+			if (movieIDs.add(movie.getID()))
+				distinct.add(movie);
+		}
+		return Collections.unmodifiableList(distinct);
+	}
+	
+	/**
+	 * Blanks out the string literals and comments of a SQL command, and optionally everything
+	 * within parentheses, so its clauses can be matched with patterns. Every other character
+	 * stays at its position.
+	 * 
+	 * @param sql	SQL command
+	 * @param nested	true to also blank out parenthesized parts such as subqueries
+	 * @return	command of the same length with the masked parts replaced by spaces
+	 */
+	static String maskSQL(String sql, boolean nested) {
+		char[] masked = sql.toCharArray();
+		int depth = 0;
+		for (int i = 0; i < masked.length; i++) {
+			char c = masked[i];
+			if (c == '\'' || c == '"') {
+				// Quotes are kept; doubled quotes mask as two adjacent literals
+				for (i++; i < masked.length && masked[i] != c; i++) {
+					if (masked[i] == '\\' && i + 1 < masked.length)
+						masked[i++] = ' ';
+					masked[i] = ' ';
+				}
+			} else if (c == '#' || (c == '-' && sql.startsWith("-- ", i)) || (c == '/' && sql.startsWith("/*", i))) {
+				int end = c == '/' ? sql.indexOf("*/", i + 2) : sql.indexOf('\n', i);
+				end = end < 0 ? masked.length : (c == '/' ? end + 2 : end);
+				Arrays.fill(masked, i, end, ' ');
+				i = end - 1;
+			} else if (nested && c == '(') {
+				depth++;
+			} else if (nested && c == ')' && depth > 0) {
+				depth--;
+			} else if (depth > 0) {
+				masked[i] = ' ';
+			}
+		}
+		return new String(masked);
+	}
+	
+	/**
+	 * Removes the trailing spaces of a name. Names are compared with a PAD SPACE collation,
+	 * which ignores trailing spaces but not leading ones.
+	 * 
+	 * @param name	name as entered
+	 * @return	name without trailing spaces
+	 */
+	static String stripTrailingSpaces(String name) {
+		int end = name.length();
+		while (end > 0 && name.charAt(end - 1) == ' ')
+			end--;
+		return name.substring(0, end);
+	}
+	
+	/**
+	 * Returns the key two names (or other strings of the default collation, such as credit card
+	 * IDs) are equal by in the database's case-insensitive collation.
+	 * 
+	 * @param name	name, or <i>null</i>
+	 * @return	lowercase name without trailing spaces, or an empty string for <i>null</i>
+	 */
+	static String toNameKey(String name) {
+		return name == null ? "" : stripTrailingSpaces(name).toLowerCase(Locale.ROOT);
+	}
+	
+	/**
+	 * Closes a statement (and its result set), ignoring any error raised while closing.
+	 * 
+	 * @param statement	statement to close, or <i>null</i>
+	 */
+	private static void closeQuietly(Statement statement) {
+		try {
+			if (statement != null)
+				statement.close();
+		} catch (SQLException e) {
+			// Statement is being discarded anyway
+		}
+	}
+	
 	/**
 	 * Get the column type name given a corresponding ID for the column type.
 	 * 
 	 * @param columnTypeID	column type ID
+	 * @param driverTypeName	type name reported by the driver, used for unknown type IDs (may be <i>null</i>)
 	 * @return	title for the column type
 	 */
-	private String getColumnTypeName(int columnTypeID) {
+	private static String getColumnTypeName(int columnTypeID, String driverTypeName) {
 		switch (columnTypeID) {
 		case Types.INTEGER:
 			return "INTEGER";
+		case Types.SMALLINT:
+			return "SMALLINT";
+		case Types.TINYINT:
+			return "TINYINT";
+		case Types.BIGINT:
+			return "BIGINT";
+		case Types.DECIMAL:
+			return "DECIMAL";
+		case Types.NUMERIC:
+			return "NUMERIC";
+		case Types.FLOAT:
+			return "FLOAT";
+		case Types.REAL:
+			return "REAL";
+		case Types.DOUBLE:
+			return "DOUBLE";
+		case Types.BIT:
+			return "BIT";
+		case Types.BOOLEAN:
+			return "BOOLEAN";
 		case Types.DATE:
 			return "DATE";
+		case Types.TIME:
+			return "TIME";
+		case Types.TIMESTAMP:
+			return "TIMESTAMP";
 		case Types.NULL:
 			return "NULL";
 		case Types.VARCHAR:
 			return "VARCHAR";
+		case Types.LONGVARCHAR:
+			return "LONGVARCHAR";
 		case Types.CHAR:
 			return "CHAR";
 		case Types.NCHAR:
 			return "NCHAR";
+		case Types.NVARCHAR:
+			return "NVARCHAR";
+		case Types.LONGNVARCHAR:
+			return "LONGNVARCHAR";
+		case Types.BINARY:
+			return "BINARY";
+		case Types.VARBINARY:
+			return "VARBINARY";
+		case Types.LONGVARBINARY:
+			return "LONGVARBINARY";
+		case Types.BLOB:
+			return "BLOB";
+		case Types.CLOB:
+			return "CLOB";
 		default:
-			return "COLUMN TYPE ID = " + columnTypeID;
+			return driverTypeName != null ? driverTypeName : "COLUMN TYPE ID = " + columnTypeID;
 		}
 	}
+	
+	private static String join(List<String> values) {
+		StringBuilder joined = new StringBuilder();
+		for (String value : values)
+			joined.append(joined.length() == 0 ? value : ", " + value);
+		return joined.toString();
+	}
 }
@@ -0,0 +1,806 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Proposes indexes for captured statements. Each statement is run through <i>EXPLAIN</i>, and
+ * every table it reads with a full table scan, a full index scan or a filesort is matched with
+ * the columns the statement filters and sorts that table by. Those columns become a composite
+ * index: equality columns first, then the sort columns (or a single range column), extended to
+ * a covering index when the statement reads only a few other columns of the table. Proposals of
+ * the same table are merged when one index can serve both.
+ * <p>
+ * Statements are read with a small tokenizer rather than a full SQL parser, which is enough for
+ * the statements FabFlixDBManager issues and for simple hand-written queries; columns it cannot
+ * attribute to a table are ignored. Parameter markers are replaced with constants.
+ * <p>
+ * The estimated benefit of an index is the number of rows its statements would no longer
+ * examine: the rows <i>EXPLAIN</i> reports for the scan, less the rows expected per distinct
+ * value of the equality columns, times the number of times the statements were executed.
+ * {@link #applyAndMeasure} creates the proposed indexes and times the statements before and after.
+ */
+public class FabFlixIndexAdvisor
+{
+	// Columns of the table the statement also reads are only added to make a covering index up to this size
+	private static final int MAX_COVERING_COLUMNS = 4;
+	private static final int MAX_INDEX_NAME_LENGTH = 64;
+	private static final int MEASURE_RUNS = 5;
+	private static final String PARAMETER_VALUE = "'0'";
+	private static final String ROW_COUNT_PARAMETER_VALUE = "100";
+	private static final Pattern ROW_COUNT_CLAUSE_PATTERN = Pattern.compile("\\b(limit|offset)\\s*(\\d+\\s*,\\s*)?$",
+		Pattern.CASE_INSENSITIVE);
+	private static final Set<String> TWO_CHARACTER_OPERATORS = new HashSet<String>(Arrays.asList("<=", ">=", "!=", "<>"));
+
+	private static final Pattern EXPLAINABLE_PATTERN = Pattern.compile("^\\s*(select|update|delete)\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern MEASURABLE_PATTERN = Pattern.compile("^\\s*select\\b", Pattern.CASE_INSENSITIVE);
+
+	// SELECTs that write files or variables, or take locks, are never run again to be timed
+	private static final Pattern SIDE_EFFECT_PATTERN = Pattern.compile(
+		"\\binto\\b|:=|\\bfor\\s+(update|share)\\b|\\block\\s+in\\s+share\\s+mode\\b", Pattern.CASE_INSENSITIVE);
+
+	// Keywords that end a list of tables
+	private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+		"select", "from", "where", "on", "join", "inner", "left", "right", "outer", "cross", "natural", "straight_join",
+		"order", "group", "by", "limit", "having", "union", "for", "using", "set", "and", "or", "not", "as", "in",
+		"is", "null", "like", "between", "asc", "desc", "distinct", "values", "into", "lock", "update", "delete",
+		"exists", "case", "when", "then", "else", "end", "offset", "all", "any", "some"));
+
+	/**
+	 * An index proposed for one table and the statements it would help.
+	 */
+	public static class Proposal
+	{
+		private final String mTableName;
+		private List<String> mColumnNames;
+		private final int mEqualityCount;
+		private final boolean mCovering;
+		private final Set<String> mReasons = new LinkedHashSet<String>();
+		private final Map<String, Long> mStatements = new LinkedHashMap<String, Long>();
+		private final Map<String, String> mAliases = new HashMap<String, String>();
+		private long mRowsBefore;
+		private long mRowsAfter;
+		private long mBenefit;
+		private boolean mReordered;
+
+		Proposal(String tableName, List<String> columnNames, int equalityCount, boolean covering) {
+			mTableName = tableName;
+			mColumnNames = columnNames;
+			mEqualityCount = equalityCount;
+			mCovering = covering;
+		}
+
+		public String getTableName() {
+			return mTableName;
+		}
+
+		public List<String> getColumnNames() {
+			return Collections.unmodifiableList(mColumnNames);
+		}
+
+		public boolean isCovering() {
+			return mCovering;
+		}
+
+		/**
+		 * @return	statements the index would help, and how many times each was executed
+		 */
+		public Map<String, Long> getStatements() {
+			return Collections.unmodifiableMap(mStatements);
+		}
+
+		/**
+		 * @return	estimated number of rows examined by the statements that the index would avoid
+		 */
+		public long getBenefit() {
+			return mBenefit;
+		}
+
+		public String getIndexName() {
+			StringBuilder name = new StringBuilder("idx_").append(mTableName);
+			for (String columnName : mColumnNames)
+				name.append('_').append(columnName);
+			return name.length() > MAX_INDEX_NAME_LENGTH ? name.substring(0, MAX_INDEX_NAME_LENGTH) : name.toString();
+		}
+
+		/**
+		 * @return	statement that creates the index
+		 */
+		public String getDDL() {
+			StringBuilder ddl = new StringBuilder("alter table `" + mTableName + "` add index `" + getIndexName() + "` (");
+			for (int i = 0; i < mColumnNames.size(); i++)
+				ddl.append(i == 0 ? "" : ", ").append('`').append(mColumnNames.get(i)).append('`');
+			return ddl.append(')').toString();
+		}
+	}
+
+	/**
+	 * Columns a statement compares with constants, joins on, sorts by and reads, by table.
+	 */
+	private static class ParsedStatement
+	{
+		final Map<String, String> mAliases = new LinkedHashMap<String, String>();
+		final Map<String, Set<String>> mEqualityColumns = new HashMap<String, Set<String>>();
+		final Map<String, Set<String>> mJoinColumns = new HashMap<String, Set<String>>();
+		final Map<String, Set<String>> mRangeColumns = new HashMap<String, Set<String>>();
+		final Map<String, Set<String>> mSelectedColumns = new HashMap<String, Set<String>>();
+		final List<String[]> mOrderColumns = new ArrayList<String[]>();
+		final Set<String> mAllColumnTables = new HashSet<String>();
+		boolean mSelectsAll;
+
+		static void add(Map<String, Set<String>> columns, String tableName, String columnName) {
+			Set<String> names = columns.get(tableName);
+			if (names == null)
+				columns.put(tableName, names = new LinkedHashSet<String>());
+			names.add(columnName);
+		}
+
+		Set<String> get(Map<String, Set<String>> columns, String tableName) {
+			Set<String> names = columns.get(tableName);
+			return names == null ? Collections.<String>emptySet() : names;
+		}
+	}
+
+	private final FabFlixSchemaMetadata mMetadata;
+	private final List<Proposal> mProposals = new ArrayList<Proposal>();
+	private final List<String> mFindings = new ArrayList<String>();
+	private int mStatementCount;
+	private int mExplainedCount;
+	private int mScanCount;
+
+	/**
+	 * Creates an advisor for a schema.
+	 *
+	 * @param metadata	tables, columns and existing indexes of the schema
+	 */
+	public FabFlixIndexAdvisor(FabFlixSchemaMetadata metadata) {
+		mMetadata = metadata;
+	}
+
+	/**
+	 * Explains statements and collects the indexes that would remove their scans and sorts.
+	 * Statements that cannot be explained are counted and skipped.
+	 *
+	 * @param connection	connection to explain the statements on
+	 * @param statements	statements and how many times each was executed
+	 * @throws SQLException	if the distinct values of a proposed index could not be counted
+	 */
+	public void analyze(Connection connection, Map<String, Long> statements) throws SQLException {
+		Map<String, Proposal> proposals = new LinkedHashMap<String, Proposal>();
+
+		for (Map.Entry<String, Long> entry : statements.entrySet()) {
+			if (!EXPLAINABLE_PATTERN.matcher(entry.getKey()).find())
+				continue;
+			mStatementCount++;
+
+			List<String[]> plan;
+			try {
+				plan = explain(connection, entry.getKey());
+				mExplainedCount++;
+			} catch (SQLException e) {
+				mFindings.add("Not explained (error " + e.getErrorCode() + "): " + entry.getKey());
+				continue;
+			}
+
+			ParsedStatement statement = parse(entry.getKey());
+			for (String[] step : plan) {
+				String tableName = statement.mAliases.get(step[0]);
+				List<String> reasons = getReasons(step);
+				if (tableName == null || reasons.isEmpty())
+					continue;
+
+				long rows = step[3] == null ? 0 : Long.parseLong(step[3]);
+				mScanCount++;
+				mFindings.add(String.format("%s of %s%s (~%d rows, %d call(s)): %s", join(reasons), tableName,
+					step[0].equals(tableName) ? "" : " " + step[0], rows, entry.getValue(), entry.getKey()));
+
+				Proposal proposal = propose(statement, tableName, step[4] != null && step[4].contains("Using filesort"));
+				if (proposal == null) {
+					mFindings.add("    No filter or sort column of " + tableName + " to index.");
+					continue;
+				}
+
+				String key = proposal.getDDL();
+				Proposal existing = proposals.get(key);
+				if (existing == null)
+					proposals.put(key, existing = proposal);
+				existing.mReasons.addAll(reasons);
+				existing.mStatements.put(entry.getKey(), entry.getValue());
+				existing.mAliases.put(entry.getKey(), step[0]);
+				existing.mRowsBefore = Math.max(existing.mRowsBefore, rows);
+			}
+		}
+
+		mProposals.addAll(merge(new ArrayList<Proposal>(proposals.values())));
+		for (Proposal proposal : mProposals)
+			estimateBenefit(connection, proposal);
+		Collections.sort(mProposals, new Comparator<Proposal>() {
+			@Override
+			public int compare(Proposal a, Proposal b) {
+				return Long.compare(b.mBenefit, a.mBenefit);
+			}
+		});
+	}
+
+	public List<Proposal> getProposals() {
+		return Collections.unmodifiableList(mProposals);
+	}
+
+	/**
+	 * Runs <i>EXPLAIN</i> on a statement.
+	 *
+	 * @return	table, access type, key, rows and extra information of each step of the plan
+	 */
+	private static List<String[]> explain(Connection connection, String sql) throws SQLException {
+		List<String[]> plan = new ArrayList<String[]>();
+		Statement select = connection.createStatement();
+
+		try {
+			ResultSet result = select.executeQuery("explain " + bindParameters(sql));
+			while (result.next()) {
+				String table = result.getString("table");
+				plan.add(new String[] { table == null ? null : table.toLowerCase(Locale.ROOT), result.getString("type"),
+					result.getString("key"), result.getString("rows"), result.getString("Extra") });
+			}
+			result.close();
+		} finally {
+			select.close();
+		}
+		return plan;
+	}
+
+	/**
+	 * Returns why a step of a plan needs an index: a full table scan, a full index scan or a sort.
+	 */
+	private static List<String> getReasons(String[] step) {
+		List<String> reasons = new ArrayList<String>();
+		if ("ALL".equals(step[1]))
+			reasons.add("full table scan");
+		else if ("index".equals(step[1]))
+			reasons.add("full index scan");
+		if (step[4] != null && step[4].contains("Using filesort"))
+			reasons.add("filesort");
+		return reasons;
+	}
+
+	/**
+	 * Chooses the index columns of a table for a statement: the columns it compares with constants
+	 * (or else the columns it joins on), then either its
+	 * sort columns (if the statement only sorts by this table) or one range column, then the
+	 * other columns it reads if that keeps the index small enough to cover the statement.
+	 *
+	 * @return	proposal, or <i>null</i> if the statement does not filter or sort the table or an
+	 * 			existing index already starts with the columns
+	 */
+	private Proposal propose(ParsedStatement statement, String tableName, boolean filesort) {
+		// Join columns only help if the table is not filtered by a constant, so it can be joined to instead of scanned
+		List<String> columnNames = new ArrayList<String>(statement.get(statement.mEqualityColumns, tableName));
+		if (columnNames.isEmpty())
+			columnNames.addAll(statement.get(statement.mJoinColumns, tableName));
+		int equalityCount = columnNames.size();
+
+		List<String> orderColumns = new ArrayList<String>();
+		for (String[] column : statement.mOrderColumns) {
+			if (!column[0].equals(tableName)) {
+				orderColumns = null;
+				break;
+			}
+			orderColumns.add(column[1]);
+		}
+
+		Set<String> rangeColumns = statement.get(statement.mRangeColumns, tableName);
+		if (orderColumns != null && !orderColumns.isEmpty() && (filesort || rangeColumns.isEmpty())) {
+			for (String columnName : orderColumns) {
+				if (!columnNames.contains(columnName))
+					columnNames.add(columnName);
+			}
+		} else {
+			for (String columnName : rangeColumns) {
+				if (!columnNames.contains(columnName)) {
+					columnNames.add(columnName);
+					break;
+				}
+			}
+		}
+		if (columnNames.isEmpty() || hasIndexStartingWith(tableName, columnNames))
+			return null;
+
+		// Secondary indexes already hold the primary key, so it never needs to be added
+		boolean covering = false;
+		if (!statement.mSelectsAll && !statement.mAllColumnTables.contains(tableName)) {
+			Set<String> needed = new LinkedHashSet<String>(columnNames);
+			needed.addAll(statement.get(statement.mSelectedColumns, tableName));
+			needed.addAll(rangeColumns);
+			FabFlixSchemaMetadata.Key primaryKey = mMetadata.getTable(tableName).getPrimaryKey();
+			if (primaryKey != null)
+				needed.removeAll(toLowerCase(primaryKey.getColumns()));
+
+			if (needed.size() <= MAX_COVERING_COLUMNS) {
+				columnNames = new ArrayList<String>(needed);
+				covering = true;
+			}
+		}
+		return new Proposal(tableName, columnNames, equalityCount, covering);
+	}
+
+	private boolean hasIndexStartingWith(String tableName, List<String> columnNames) {
+		for (FabFlixSchemaMetadata.Key index : mMetadata.getTable(tableName).getIndexes()) {
+			List<String> indexColumns = toLowerCase(index.getColumns());
+			if (indexColumns.size() >= columnNames.size() && indexColumns.subList(0, columnNames.size()).equals(columnNames))
+				return true;
+		}
+		return false;
+	}
+
+	private static List<String> toLowerCase(List<String> names) {
+		List<String> lowerCaseNames = new ArrayList<String>(names.size());
+		for (String name : names)
+			lowerCaseNames.add(name.toLowerCase(Locale.ROOT));
+		return lowerCaseNames;
+	}
+
+	/**
+	 * Merges proposals of a table when the columns of one are a prefix of another, or are all
+	 * equality columns of another that can be moved to the front of it.
+	 */
+	private static List<Proposal> merge(List<Proposal> proposals) {
+		Collections.sort(proposals, new Comparator<Proposal>() {
+			@Override
+			public int compare(Proposal a, Proposal b) {
+				return b.mColumnNames.size() - a.mColumnNames.size();
+			}
+		});
+
+		List<Proposal> merged = new ArrayList<Proposal>();
+		for (Proposal proposal : proposals) {
+			Proposal target = null;
+			for (Proposal candidate : merged) {
+				if (!candidate.mTableName.equals(proposal.mTableName) || candidate.mColumnNames.size() < proposal.mColumnNames.size())
+					continue;
+
+				List<String> prefix = candidate.mColumnNames.subList(0, proposal.mColumnNames.size());
+				if (prefix.equals(proposal.mColumnNames)) {
+					target = candidate;
+					break;
+				}
+
+				List<String> equalityColumns = candidate.mColumnNames.subList(0, candidate.mEqualityCount);
+				if (!candidate.mReordered && proposal.mEqualityCount == proposal.mColumnNames.size() &&
+					equalityColumns.containsAll(proposal.mColumnNames)) {
+
+					List<String> columnNames = new ArrayList<String>(proposal.mColumnNames);
+					for (String columnName : candidate.mColumnNames) {
+						if (!columnNames.contains(columnName))
+							columnNames.add(columnName);
+					}
+					candidate.mColumnNames = columnNames;
+					candidate.mReordered = true;
+					target = candidate;
+					break;
+				}
+			}
+
+			if (target == null)
+				merged.add(proposal);
+			else {
+				target.mReasons.addAll(proposal.mReasons);
+				target.mStatements.putAll(proposal.mStatements);
+				target.mAliases.putAll(proposal.mAliases);
+				target.mRowsBefore = Math.max(target.mRowsBefore, proposal.mRowsBefore);
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Estimates the rows examined per call with the index from the number of distinct values of
+	 * its equality columns, and the rows avoided over every call of its statements.
+	 */
+	private void estimateBenefit(Connection connection, Proposal proposal) throws SQLException {
+		proposal.mRowsAfter = proposal.mRowsBefore;
+		if (proposal.mEqualityCount > 0) {
+			StringBuilder columns = new StringBuilder();
+			for (String columnName : proposal.mColumnNames.subList(0, Math.min(proposal.mEqualityCount, proposal.mColumnNames.size())))
+				columns.append(columns.length() == 0 ? "" : ", ").append('`').append(columnName).append('`');
+
+			Statement select = connection.createStatement();
+			try {
+				ResultSet result = select.executeQuery("select count(*), count(distinct " + columns + ") from `" +
+					proposal.mTableName + "`");
+				if (result.next() && result.getLong(2) > 0)
+					proposal.mRowsAfter = (result.getLong(1) + result.getLong(2) - 1) / result.getLong(2);
+				result.close();
+			} finally {
+				select.close();
+			}
+		}
+
+		long calls = 0;
+		for (long count : proposal.mStatements.values())
+			calls += count;
+		long saved = proposal.mRowsBefore - Math.min(proposal.mRowsBefore, proposal.mRowsAfter);
+		// A sort is avoided on every row the statement reads
+		if (proposal.mReasons.contains("filesort"))
+			saved += proposal.mRowsAfter;
+		proposal.mBenefit = saved * calls;
+	}
+
+	/**
+	 * Returns a printable report of the scans found and the proposed indexes.
+	 *
+	 * @return	output string of the advice
+	 */
+	public String getReport() {
+		StringBuilder buffer = new StringBuilder();
+		buffer.append(String.format("Explained %d of %d captured statement(s); %d scan(s) or sort(s) found:\n",
+			mExplainedCount, mStatementCount, mScanCount));
+		for (String finding : mFindings)
+			buffer.append("  ").append(finding).append('\n');
+
+		if (mProposals.isEmpty())
+			return buffer.append("\nNo indexes to propose.\n").toString();
+
+		buffer.append("\nProposed indexes, by estimated benefit:\n");
+		for (int i = 0; i < mProposals.size(); i++) {
+			Proposal proposal = mProposals.get(i);
+			buffer.append(String.format("%d. %s;\n   %s%s, rows examined per call ~%d -> ~%d, ~%d row(s) saved over %d statement(s)\n",
+				i + 1, proposal.getDDL(), join(new ArrayList<String>(proposal.mReasons)), proposal.mCovering ? ", covering" : "",
+				proposal.mRowsBefore, proposal.mRowsAfter, proposal.mBenefit, proposal.mStatements.size()));
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Creates every proposed index, timing the SELECT statements of each before and after it is
+	 * created and explaining them again. Statements that take locks, write files or set variables
+	 * are only explained.
+	 *
+	 * @param connection	connection to create the indexes on, outside of any transaction
+	 * @return	output string comparing the plans and timings before and after each index
+	 * @throws SQLException	if a statement could not be timed or explained
+	 */
+	public String applyAndMeasure(Connection connection) throws SQLException {
+		StringBuilder buffer = new StringBuilder("\nApplying proposed indexes:\n");
+
+		for (Proposal proposal : mProposals) {
+			double before = measure(connection, proposal);
+			long start = System.nanoTime();
+			Statement ddl = connection.createStatement();
+			try {
+				ddl.executeUpdate(proposal.getDDL());
+			} catch (SQLException e) {
+				buffer.append(proposal.getDDL()).append("\n   Not created (error ").append(e.getErrorCode()).append("): ")
+					.append(e.getMessage()).append('\n');
+				continue;
+			} finally {
+				ddl.close();
+			}
+			double createMillis = (System.nanoTime() - start) / 1e6;
+			double after = measure(connection, proposal);
+
+			buffer.append(String.format("%s (%.1f ms)\n   SELECT time per round %.3f ms -> %.3f ms\n",
+				proposal.getDDL(), createMillis, before, after));
+			for (Map.Entry<String, String> alias : proposal.mAliases.entrySet()) {
+				for (String[] step : explain(connection, alias.getKey())) {
+					if (alias.getValue().equals(step[0]))
+						buffer.append(String.format("   %s now: %s via %s (~%s rows)%s\n", alias.getValue(), step[1],
+							step[2] == null ? "no index" : step[2], step[3], step[4] == null ? "" : ", " + step[4]));
+				}
+			}
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Runs the SELECT statements of a proposal several times and returns the median time of one
+	 * run of all of them, reading every row.
+	 */
+	private static double measure(Connection connection, Proposal proposal) throws SQLException {
+		double[] times = new double[MEASURE_RUNS];
+		Statement select = connection.createStatement();
+
+		try {
+			for (int run = 0; run < MEASURE_RUNS; run++) {
+				long start = System.nanoTime();
+				for (String sql : proposal.mStatements.keySet()) {
+					if (!isMeasurable(sql))
+						continue;
+					ResultSet result = select.executeQuery(bindParameters(sql));
+					while (result.next())
+						;
+					result.close();
+				}
+				times[run] = (System.nanoTime() - start) / 1e6;
+			}
+		} finally {
+			select.close();
+		}
+		Arrays.sort(times);
+		return times[MEASURE_RUNS / 2];
+	}
+
+	/**
+	 * Returns whether a statement can be run again just to time it: a SELECT without
+	 * <i>INTO OUTFILE</i>, <i>INTO DUMPFILE</i> or <i>INTO</i> variables, without variable
+	 * assignments and without locking reads. Only text outside of string literals counts.
+	 */
+	private static boolean isMeasurable(String sql) {
+		return MEASURABLE_PATTERN.matcher(sql).find() &&
+			!SIDE_EFFECT_PATTERN.matcher(FabFlixDBManager.maskSQL(sql, false)).find();
+	}
+
+	/**
+	 * Replaces the parameter markers of a statement with constants so it can run unprepared.
+	 */
+	static String bindParameters(String sql) {
+		StringBuilder bound = new StringBuilder(sql.length() + 16);
+		char quote = 0;
+		for (int i = 0; i < sql.length(); i++) {
+			char c = sql.charAt(i);
+			if (quote != 0) {
+				bound.append(c);
+				if (c == '\\' && quote != '`' && i + 1 < sql.length())
+					bound.append(sql.charAt(++i));
+				else if (c == quote)
+					quote = 0;
+			} else if (c == '?') {
+				// LIMIT and OFFSET only take numbers
+				bound.append(ROW_COUNT_CLAUSE_PATTERN.matcher(bound).find() ? ROW_COUNT_PARAMETER_VALUE : PARAMETER_VALUE);
+			} else {
+				bound.append(c);
+				if (c == '\'' || c == '"' || c == '`')
+					quote = c;
+			}
+		}
+		return bound.toString();
+	}
+
+	/**
+	 * Splits a statement into lower case words and back-quoted identifiers without their quotes,
+	 * string literals with their quotes, numbers, parameter markers and operators.
+	 */
+	static List<String> tokenize(String sql) {
+		List<String> tokens = new ArrayList<String>();
+		int i = 0;
+		while (i < sql.length()) {
+			char c = sql.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '`') {
+				int end = sql.indexOf('`', i + 1);
+				end = end < 0 ? sql.length() : end;
+				tokens.add(sql.substring(i + 1, end).toLowerCase(Locale.ROOT));
+				i = end + 1;
+			} else if (c == '\'' || c == '"') {
+				int end = i + 1;
+				while (end < sql.length() && sql.charAt(end) != c)
+					end += sql.charAt(end) == '\\' ? 2 : 1;
+				tokens.add(sql.substring(i, Math.min(end + 1, sql.length())));
+				i = end + 1;
+			} else if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+				int end = i;
+				while (end < sql.length() && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_' || sql.charAt(end) == '$'))
+					end++;
+				tokens.add(sql.substring(i, end).toLowerCase(Locale.ROOT));
+				i = end;
+			} else if (i + 1 < sql.length() && TWO_CHARACTER_OPERATORS.contains(sql.substring(i, i + 2))) {
+				tokens.add(sql.substring(i, i + 2));
+				i += 2;
+			} else {
+				tokens.add(String.valueOf(c));
+				i++;
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Reads the tables of a statement and the columns it filters, sorts and selects.
+	 */
+	private ParsedStatement parse(String sql) {
+		List<String> tokens = tokenize(sql);
+		ParsedStatement statement = new ParsedStatement();
+
+		// Tables and their aliases, after FROM, JOIN, UPDATE and DELETE ... FROM
+		for (int i = 0; i < tokens.size(); i++) {
+			String token = tokens.get(i);
+			if (!token.equals("from") && !token.equals("join") && !(token.equals("update") && i == 0))
+				continue;
+
+			int j = i + 1;
+			while (j < tokens.size()) {
+				if (tokens.get(j).equals("(")) {
+					j = skipParentheses(tokens, j);
+				} else if (isIdentifier(tokens.get(j))) {
+					String tableName = tokens.get(j++);
+					if (j + 1 < tokens.size() && tokens.get(j).equals(".") && isIdentifier(tokens.get(j + 1))) {
+						tableName = tokens.get(j + 1);
+						j += 2;
+					}
+					String alias = tableName;
+					if (j < tokens.size() && tokens.get(j).equals("as"))
+						j++;
+					if (j < tokens.size() && isIdentifier(tokens.get(j)))
+						alias = tokens.get(j++);
+
+					if (mMetadata.getTable(tableName) != null) {
+						String name = mMetadata.getTable(tableName).getName().toLowerCase(Locale.ROOT);
+						statement.mAliases.put(alias, name);
+						if (!statement.mAliases.containsKey(tableName))
+							statement.mAliases.put(tableName, name);
+					}
+				} else
+					break;
+
+				// Skip the alias of a derived table
+				if (j < tokens.size() && tokens.get(j).equals("as"))
+					j++;
+				if (j < tokens.size() && isIdentifier(tokens.get(j)))
+					j++;
+				if (j < tokens.size() && tokens.get(j).equals(","))
+					j++;
+				else
+					break;
+			}
+		}
+
+		String clause = "";
+		for (int i = 0; i < tokens.size(); i++) {
+			String token = tokens.get(i);
+			if (token.equals("select") || token.equals("where") || token.equals("on") || token.equals("set") ||
+				token.equals("having") || token.equals("limit") || token.equals("from")) {
+				clause = token;
+				continue;
+			}
+			if ((token.equals("order") || token.equals("group")) && i + 1 < tokens.size() && tokens.get(i + 1).equals("by")) {
+				clause = "order";
+				i++;
+				continue;
+			}
+
+			if (clause.equals("select")) {
+				String previous = i == 0 ? "" : tokens.get(i - 1);
+				if (token.equals("*") && (previous.equals("select") || previous.equals(",") || previous.equals("distinct")))
+					statement.mSelectsAll = true;
+				else if (token.equals("*") && i >= 2 && statement.mAliases.containsKey(tokens.get(i - 2)))
+					statement.mAllColumnTables.add(statement.mAliases.get(tokens.get(i - 2)));
+				else {
+					String[] column = readColumn(statement, tokens, i);
+					if (column != null && (i == 0 || !tokens.get(i - 1).equals("as")))
+						ParsedStatement.add(statement.mSelectedColumns, column[0], column[1]);
+				}
+			} else if (clause.equals("order")) {
+				String[] column = readColumn(statement, tokens, i);
+				if (column != null && !containsColumn(statement.mOrderColumns, column))
+					statement.mOrderColumns.add(column);
+			} else if (clause.equals("where") || clause.equals("on") || clause.equals("having")) {
+				addPredicate(statement, tokens, i);
+			}
+		}
+		return statement;
+	}
+
+	/**
+	 * Records the columns compared by the operator at a position, if any.
+	 */
+	private void addPredicate(ParsedStatement statement, List<String> tokens, int i) {
+		String operator = tokens.get(i);
+		boolean equality = operator.equals("=") || operator.equals("in") || operator.equals("is");
+		boolean range = operator.equals("<") || operator.equals(">") || operator.equals("<=") || operator.equals(">=") ||
+			operator.equals("between") || operator.equals("like");
+		if (!equality && !range)
+			return;
+
+		// A pattern starting with a wildcard cannot use an index
+		if (operator.equals("like") && i + 1 < tokens.size() && (tokens.get(i + 1).startsWith("'%") ||
+			tokens.get(i + 1).startsWith("'_") || tokens.get(i + 1).startsWith("\"%") || tokens.get(i + 1).startsWith("\"_")))
+			return;
+
+		// Subqueries are not attributed to the outer statement
+		if (operator.equals("in") && i + 2 < tokens.size() && tokens.get(i + 2).equals("select"))
+			return;
+
+		String[] left = null, right = null;
+		int start = i - 1;
+		if (start >= 2 && tokens.get(start - 1).equals("."))
+			start -= 2;
+		if (start >= 0 && isIdentifier(tokens.get(start)))
+			left = readColumn(statement, tokens, start);
+
+		// The other side of a comparison, as in a join condition or "? < column"
+		if (!operator.equals("in") && !operator.equals("is") && !operator.equals("between") && !operator.equals("like"))
+			right = readColumn(statement, tokens, i + 1);
+
+		if (left != null && right != null) {
+			if (equality) {
+				ParsedStatement.add(statement.mJoinColumns, left[0], left[1]);
+				ParsedStatement.add(statement.mJoinColumns, right[0], right[1]);
+			}
+		} else if (left != null || right != null) {
+			String[] column = left != null ? left : right;
+			ParsedStatement.add(equality ? statement.mEqualityColumns : statement.mRangeColumns, column[0], column[1]);
+		}
+	}
+
+	/**
+	 * Reads a column reference, qualified or not, starting at a position and resolves its table.
+	 *
+	 * @return	lower case table and column names, or <i>null</i> if the position does not hold a
+	 * 			column of one of the statement's tables
+	 */
+	private String[] readColumn(ParsedStatement statement, List<String> tokens, int i) {
+		if (i >= tokens.size() || !isIdentifier(tokens.get(i)) || (i > 0 && tokens.get(i - 1).equals(".")))
+			return null;
+
+		String qualifier = null, columnName = tokens.get(i);
+		int end = i + 1;
+		if (i + 2 < tokens.size() && tokens.get(i + 1).equals(".") && isIdentifier(tokens.get(i + 2))) {
+			qualifier = columnName;
+			columnName = tokens.get(i + 2);
+			end = i + 3;
+		}
+		// A name followed by a parenthesis is a function
+		if (end < tokens.size() && tokens.get(end).equals("("))
+			return null;
+
+		if (qualifier != null) {
+			String tableName = statement.mAliases.get(qualifier);
+			if (tableName == null || mMetadata.getTable(tableName).getColumn(columnName) == null)
+				return null;
+			return new String[] { tableName, columnName };
+		}
+
+		String found = null;
+		for (String tableName : new HashSet<String>(statement.mAliases.values())) {
+			if (mMetadata.getTable(tableName).getColumn(columnName) != null) {
+				if (found != null)
+					return null;
+				found = tableName;
+			}
+		}
+		return found == null ? null : new String[] { found, columnName };
+	}
+
+	private static boolean containsColumn(List<String[]> columns, String[] column) {
+		for (String[] existing : columns) {
+			if (Arrays.equals(existing, column))
+				return true;
+		}
+		return false;
+	}
+
+	private static int skipParentheses(List<String> tokens, int i) {
+		int depth = 0;
+		for (; i < tokens.size(); i++) {
+			if (tokens.get(i).equals("("))
+				depth++;
+			else if (tokens.get(i).equals(")") && --depth == 0)
+				return i + 1;
+		}
+		return i;
+	}
+
+	private static boolean isIdentifier(String token) {
+		if (token.isEmpty())
+			return false;
+		char c = token.charAt(0);
+		return (Character.isLetter(c) || c == '_' || c == '$') && !KEYWORDS.contains(token);
+	}
+
+	private static String join(List<String> values) {
+		StringBuilder joined = new StringBuilder();
+		for (String value : values)
+			joined.append(joined.length() == 0 ? "" : ", ").append(value);
+		return joined.toString();
+	}
+}
@@ -0,0 +1,397 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * In-memory copy of the catalog joins. Movies, stars and genres are held in arrays sorted by
+ * ID, and each direction of <i>stars_in_movies</i> and <i>genres_in_movies</i> is held as a
+ * compressed sparse row (CSR) adjacency: an <i>int</i> array of the row numbers every entity
+ * links to, grouped by entity, and an <i>int</i> array of where each entity's group starts.
+ * A join is then a binary search for the entity's row and a scan of its group, with no boxing
+ * and no per-link objects; the links of the whole catalog take 8 bytes each per direction.
+ * <p>
+ * The star/movie adjacency also backs the co-star queries of {@link #getCoStarGraph}.
+ * <p>
+ * The engine is a copy of the tables as of the time it was loaded and is never updated; it
+ * must be reloaded after the tables change.
+ */
+public class FabFlixJoinEngine
+{
+	private static final String MOVIES_QUERY =
+		"select id, title, year, director, banner_url, trailer_url from movies order by id";
+	private static final String STARS_QUERY =
+		"select id, first_name, last_name from stars order by id";
+	private static final String GENRES_QUERY =
+		"select id, name from genres order by id";
+	private static final String STARS_IN_MOVIES_QUERY =
+		"select star_id, movie_id from stars_in_movies order by star_id, movie_id";
+	private static final String GENRES_IN_MOVIES_QUERY =
+		"select genre_id, movie_id from genres_in_movies order by genre_id, movie_id";
+
+	// Entities, sorted by ID
+	private final FabFlixMovie[] mMovies;
+	private final int[] mMovieIDs;
+	private final int[] mStarIDs;
+	private final String[] mStarFirstNameKeys;
+	private final String[] mStarNames;
+	private final int[] mGenreIDs;
+	private final String[] mGenreNames;
+
+	// Star rows in last name, first name order, and their last names in the same order
+	private final int[] mStarNameOrder;
+	private final String[] mOrderedLastNameKeys;
+
+	// Adjacency of each join direction: links of row r are in [offsets[r], offsets[r + 1])
+	private final int[] mStarMovieOffsets, mStarMovies;
+	private final int[] mMovieStarOffsets, mMovieStars;
+	private final int[] mGenreMovieOffsets, mGenreMovies;
+	private final int[] mMovieGenreOffsets, mMovieGenres;
+
+	private final FabFlixCoStarGraph mCoStarGraph;
+	private final long mLoadTimeNanos;
+
+	private FabFlixJoinEngine(FabFlixMovie[] movies, int[] starIDs, String[] firstNames, String[] lastNames,
+		int[] genreIDs, String[] genreNames, int[] starMovieLinks, int[] genreMovieLinks, long start) {
+
+		mMovies = movies;
+		mMovieIDs = new int[movies.length];
+		for (int i = 0; i < movies.length; i++)
+			mMovieIDs[i] = movies[i].getID();
+		mStarIDs = starIDs;
+		mGenreIDs = genreIDs;
+		mGenreNames = genreNames;
+
+		mStarFirstNameKeys = new String[starIDs.length];
+		mStarNames = new String[starIDs.length];
+		final String[] lastNameKeys = new String[starIDs.length];
+		Integer[] nameOrder = new Integer[starIDs.length];
+		for (int i = 0; i < starIDs.length; i++) {
+			mStarFirstNameKeys[i] = toNameKey(firstNames[i]);
+			mStarNames[i] = ((firstNames[i] == null ? "" : firstNames[i].trim()) + " " +
+				(lastNames[i] == null ? "" : lastNames[i].trim())).trim();
+			lastNameKeys[i] = toNameKey(lastNames[i]);
+			nameOrder[i] = i;
+		}
+		Arrays.sort(nameOrder, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return lastNameKeys[a].compareTo(lastNameKeys[b]);
+			}
+		});
+		mStarNameOrder = new int[starIDs.length];
+		mOrderedLastNameKeys = new String[starIDs.length];
+		for (int i = 0; i < starIDs.length; i++) {
+			mStarNameOrder[i] = nameOrder[i];
+			mOrderedLastNameKeys[i] = lastNameKeys[nameOrder[i]];
+		}
+
+		// Links are turned into row pairs once, then counted and placed for both directions
+		int[] starMovieRows = toRowPairs(starMovieLinks, starIDs, mMovieIDs);
+		mStarMovieOffsets = new int[starIDs.length + 1];
+		mStarMovies = buildAdjacency(starMovieRows, 0, mStarMovieOffsets);
+		mMovieStarOffsets = new int[movies.length + 1];
+		mMovieStars = buildAdjacency(starMovieRows, 1, mMovieStarOffsets);
+
+		int[] genreMovieRows = toRowPairs(genreMovieLinks, genreIDs, mMovieIDs);
+		mGenreMovieOffsets = new int[genreIDs.length + 1];
+		mGenreMovies = buildAdjacency(genreMovieRows, 0, mGenreMovieOffsets);
+		mMovieGenreOffsets = new int[movies.length + 1];
+		mMovieGenres = buildAdjacency(genreMovieRows, 1, mMovieGenreOffsets);
+
+		mCoStarGraph = new FabFlixCoStarGraph(mStarIDs, mStarNames, mMovies,
+			mStarMovieOffsets, mStarMovies, mMovieStarOffsets, mMovieStars);
+		mLoadTimeNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * Reads the catalog tables into a new engine. Every result is streamed, so the arrays of
+	 * the engine are the only full copy held in memory.
+	 *
+	 * @param connection	connection to read the tables with
+	 * @return	engine over the current contents of the tables
+	 * @throws SQLException	if an error occurred querying the database
+	 */
+	public static FabFlixJoinEngine load(Connection connection) throws SQLException {
+		long start = System.nanoTime();
+		List<FabFlixMovie> movies = new ArrayList<FabFlixMovie>();
+		List<String> firstNames = new ArrayList<String>(), lastNames = new ArrayList<String>();
+		List<String> genreNames = new ArrayList<String>();
+		int[] starIDs = new int[256], genreIDs = new int[64];
+		int[] starMovieLinks, genreMovieLinks;
+		int starCount = 0, genreCount = 0;
+
+		Statement select = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		try {
+			select.setFetchSize(Integer.MIN_VALUE);
+
+			ResultSet result = select.executeQuery(MOVIES_QUERY);
+			while (result.next()) {
+				movies.add(new FabFlixMovie(result.getInt(1), result.getString(2), result.getInt(3),
+					result.getString(4), result.getString(5), result.getString(6)));
+			}
+			result.close();
+
+			result = select.executeQuery(STARS_QUERY);
+			while (result.next()) {
+				if (starCount == starIDs.length)
+					starIDs = Arrays.copyOf(starIDs, starCount * 2);
+				starIDs[starCount++] = result.getInt(1);
+				firstNames.add(result.getString(2));
+				lastNames.add(result.getString(3));
+			}
+			result.close();
+
+			result = select.executeQuery(GENRES_QUERY);
+			while (result.next()) {
+				if (genreCount == genreIDs.length)
+					genreIDs = Arrays.copyOf(genreIDs, genreCount * 2);
+				genreIDs[genreCount++] = result.getInt(1);
+				genreNames.add(result.getString(2));
+			}
+			result.close();
+
+			starMovieLinks = readLinks(select, STARS_IN_MOVIES_QUERY);
+			genreMovieLinks = readLinks(select, GENRES_IN_MOVIES_QUERY);
+		} finally {
+			select.close();
+		}
+
+		return new FabFlixJoinEngine(movies.toArray(new FabFlixMovie[movies.size()]),
+			Arrays.copyOf(starIDs, starCount), firstNames.toArray(new String[starCount]), lastNames.toArray(new String[starCount]),
+			Arrays.copyOf(genreIDs, genreCount), genreNames.toArray(new String[genreCount]),
+			starMovieLinks, genreMovieLinks, start);
+	}
+
+	/**
+	 * Reads the ID pairs of a join table.
+	 *
+	 * @return	pairs of IDs, back to back
+	 */
+	private static int[] readLinks(Statement select, String query) throws SQLException {
+		int[] links = new int[1024];
+		int size = 0;
+
+		ResultSet result = select.executeQuery(query);
+		while (result.next()) {
+			if (size + 2 > links.length)
+				links = Arrays.copyOf(links, links.length * 2);
+			links[size++] = result.getInt(1);
+			links[size++] = result.getInt(2);
+		}
+		result.close();
+		return Arrays.copyOf(links, size);
+	}
+
+	/**
+	 * Replaces the ID pairs of a join table with the row numbers of the IDs, dropping pairs whose
+	 * IDs have no row.
+	 */
+	private static int[] toRowPairs(int[] links, int[] fromIDs, int[] toIDs) {
+		int[] rows = new int[links.length];
+		int size = 0;
+		for (int i = 0; i < links.length; i += 2) {
+			int from = Arrays.binarySearch(fromIDs, links[i]);
+			int to = Arrays.binarySearch(toIDs, links[i + 1]);
+			if (from >= 0 && to >= 0) {
+				rows[size++] = from;
+				rows[size++] = to;
+			}
+		}
+		return Arrays.copyOf(rows, size);
+	}
+
+	/**
+	 * Builds one direction of a join's adjacency with a counting sort of its row pairs. Pairs are
+	 * placed in the order they are given, so for pairs sorted by (first, second) both directions
+	 * come out with each group sorted.
+	 *
+	 * @param rowPairs	row pairs of the join, back to back
+	 * @param side	0 to group by the first row of each pair, 1 to group by the second
+	 * @param offsets	filled with the start of each group, plus the total at the end
+	 * @return	linked rows, grouped
+	 */
+	private static int[] buildAdjacency(int[] rowPairs, int side, int[] offsets) {
+		for (int i = side; i < rowPairs.length; i += 2)
+			offsets[rowPairs[i] + 1]++;
+		for (int i = 1; i < offsets.length; i++)
+			offsets[i] += offsets[i - 1];
+
+		int[] adjacency = new int[rowPairs.length / 2];
+		int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+		for (int i = 0; i < rowPairs.length; i += 2)
+			adjacency[next[rowPairs[i + side]]++] = rowPairs[i + 1 - side];
+		return adjacency;
+	}
+
+	/**
+	 * Returns a name in the form star names are compared by, ignoring case and trailing
+	 * spaces as the database does.
+	 */
+	private static String toNameKey(String name) {
+		return FabFlixDBManager.toNameKey(name);
+	}
+
+	/**
+	 * Returns the movies that feature a star, like the database lookup by star ID.
+	 *
+	 * @param starID	star ID
+	 * @return	unmodifiable list of the movies featuring the star in movie ID order (empty if none were found)
+	 */
+	public List<FabFlixMovie> findMoviesForStar(int starID) {
+		int star = Arrays.binarySearch(mStarIDs, starID);
+		if (star < 0)
+			return Collections.emptyList();
+
+		List<FabFlixMovie> movies = new ArrayList<FabFlixMovie>(mStarMovieOffsets[star + 1] - mStarMovieOffsets[star]);
+		addMoviesForStar(star, movies);
+		return FabFlixDBManager.distinctMovies(movies);
+	}
+
+	/**
+	 * Returns the movies that feature a star, like the database lookup by first and/or last name:
+	 * names are compared ignoring case, an empty name does not filter the stars, and a movie is
+	 * listed once however many of the matching stars are in it.
+	 *
+	 * @param firstName	the star's first name
+	 * @param lastName	the star's last name
+	 * @return	unmodifiable list of the movies featuring the matching stars (empty if none were found)
+	 */
+	public List<FabFlixMovie> findMoviesForStar(String firstName, String lastName) {
+		String firstKey = toNameKey(firstName), lastKey = toNameKey(lastName);
+		List<FabFlixMovie> movies = new ArrayList<FabFlixMovie>();
+
+		if (lastKey.isEmpty()) {
+			// No last name to search by, so every star is checked
+			for (int star = 0; star < mStarIDs.length; star++) {
+				if (firstKey.isEmpty() || firstKey.equals(mStarFirstNameKeys[star]))
+					addMoviesForStar(star, movies);
+			}
+			return FabFlixDBManager.distinctMovies(movies);
+		}
+
+		int low = 0, high = mOrderedLastNameKeys.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (mOrderedLastNameKeys[middle].compareTo(lastKey) < 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		for (int i = low; i < mOrderedLastNameKeys.length && mOrderedLastNameKeys[i].equals(lastKey); i++) {
+			int star = mStarNameOrder[i];
+			if (firstKey.isEmpty() || firstKey.equals(mStarFirstNameKeys[star]))
+				addMoviesForStar(star, movies);
+		}
+		return FabFlixDBManager.distinctMovies(movies);
+	}
+
+	/**
+	 * Returns the IDs of the stars of a movie.
+	 *
+	 * @param movieID	movie ID
+	 * @return	star IDs in ascending order (empty if none were found)
+	 */
+	public int[] findStarIDsForMovie(int movieID) {
+		int movie = Arrays.binarySearch(mMovieIDs, movieID);
+		if (movie < 0)
+			return new int[0];
+
+		int[] starIDs = new int[mMovieStarOffsets[movie + 1] - mMovieStarOffsets[movie]];
+		for (int i = 0; i < starIDs.length; i++)
+			starIDs[i] = mStarIDs[mMovieStars[mMovieStarOffsets[movie] + i]];
+		return starIDs;
+	}
+
+	/**
+	 * Returns the names of a movie's genres.
+	 *
+	 * @param movieID	movie ID
+	 * @return	genre names in genre ID order (empty if none were found)
+	 */
+	public List<String> findGenresForMovie(int movieID) {
+		int movie = Arrays.binarySearch(mMovieIDs, movieID);
+		if (movie < 0)
+			return Collections.emptyList();
+
+		List<String> genres = new ArrayList<String>(mMovieGenreOffsets[movie + 1] - mMovieGenreOffsets[movie]);
+		for (int i = mMovieGenreOffsets[movie]; i < mMovieGenreOffsets[movie + 1]; i++)
+			genres.add(mGenreNames[mMovieGenres[i]]);
+		return genres;
+	}
+
+	/**
+	 * Returns the movies of a genre.
+	 *
+	 * @param genreName	name of the genre (case-insensitive)
+	 * @return	unmodifiable list of the genre's movies in movie ID order (empty if none were found)
+	 */
+	public List<FabFlixMovie> findMoviesForGenre(String genreName) {
+		List<FabFlixMovie> movies = new ArrayList<FabFlixMovie>();
+		for (int genre = 0; genre < mGenreIDs.length; genre++) {
+			if (!mGenreNames[genre].equalsIgnoreCase(genreName.trim()))
+				continue;
+			for (int i = mGenreMovieOffsets[genre]; i < mGenreMovieOffsets[genre + 1]; i++)
+				movies.add(mMovies[mGenreMovies[i]]);
+		}
+		return Collections.unmodifiableList(movies);
+	}
+
+	private void addMoviesForStar(int star, List<FabFlixMovie> movies) {
+		for (int i = mStarMovieOffsets[star]; i < mStarMovieOffsets[star + 1]; i++)
+			movies.add(mMovies[mStarMovies[i]]);
+	}
+
+	/**
+	 * Returns the co-star graph over the star/movie adjacency of this engine.
+	 *
+	 * @return	co-star graph sharing the arrays of this engine
+	 */
+	public FabFlixCoStarGraph getCoStarGraph() {
+		return mCoStarGraph;
+	}
+
+	public int getMovieCount() {
+		return mMovies.length;
+	}
+
+	public int getStarCount() {
+		return mStarIDs.length;
+	}
+
+	/**
+	 * Returns how long it took to read the tables and build the engine.
+	 *
+	 * @return	load time in milliseconds
+	 */
+	public double getLoadTimeMillis() {
+		return mLoadTimeNanos / 1000000.0;
+	}
+
+	/**
+	 * Returns the memory taken by the ID and adjacency arrays, without the movie objects and
+	 * name strings.
+	 *
+	 * @return	size of the arrays in bytes
+	 */
+	public long getArrayBytes() {
+		long ints = mMovieIDs.length + mStarIDs.length + mGenreIDs.length + mStarNameOrder.length +
+			mStarMovieOffsets.length + mStarMovies.length + mMovieStarOffsets.length + mMovieStars.length +
+			mGenreMovieOffsets.length + mGenreMovies.length + mMovieGenreOffsets.length + mMovieGenres.length;
+		return 4 * ints;
+	}
+
+	/**
+	 * Returns a printable summary of the engine size.
+	 *
+	 * @return	output string of the engine statistics
+	 */
+	public String getStatistics() {
+		return String.format("Join engine: %d movie(s), %d star(s), %d genre(s), %d star/movie and %d genre/movie link(s), " +
+			"%d KB of arrays, loaded in %.3f ms\n", mMovies.length, mStarIDs.length, mGenreIDs.length,
+			mStarMovies.length, mGenreMovies.length, getArrayBytes() / 1024, getLoadTimeMillis());
+	}
+}
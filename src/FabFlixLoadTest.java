@@ -0,0 +1,469 @@
+import java.io.*;
+import java.sql.*;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load-test harness for {@link FabFlixDBManager}. A weighted mix of the console operations is
+ * replayed from a number of threads for a fixed time, and the throughput, error rate and latency
+ * percentiles of every operation are reported for every interval of the run and for the run as
+ * a whole.
+ * <p>
+ * In closed-loop mode every thread starts its next operation as soon as the previous one
+ * finishes, which finds the most throughput the manager sustains. In open-loop mode operations
+ * are started on a fixed schedule at the requested rate whether or not earlier ones have
+ * finished, and latency is measured from the scheduled start, so time spent waiting behind a
+ * slow operation is counted instead of hidden. The threads are the most operations in flight
+ * at once in either mode.
+ * <p>
+ * Results are also written as CSV so runs can be compared. Stars and customers inserted by the
+ * run are removed at the end.
+ */
+public class FabFlixLoadTest
+{
+	private static final String LOAD_TEST_LAST_NAME = "FabFlixLoadTest";
+	private static final String[] OPERATIONS = {
+		"lookupByID", "lookupByName", "insertStar", "insertCustomer", "deleteCustomer", "executeSQL"
+	};
+	private static final int LOOKUP_BY_ID = 0, LOOKUP_BY_NAME = 1, INSERT_STAR = 2;
+	private static final int INSERT_CUSTOMER = 3, DELETE_CUSTOMER = 4, EXECUTE_SQL = 5;
+	private static final int ALL_OPERATIONS = OPERATIONS.length;
+
+	public static final String DEFAULT_MIX =
+		"lookupByID=40,lookupByName=30,insertStar=5,insertCustomer=10,deleteCustomer=5,executeSQL=10";
+	public static final String DEFAULT_SQL = "select * from movies where year > 1990";
+
+	private static final String CSV_HEADER =
+		"elapsed_s,operation,count,errors,ops_per_s,mean_ms,p50_ms,p90_ms,p99_ms,p999_ms,max_ms";
+
+	private final FabFlixDBManager mDBManager;
+	private final int[] mCumulativeWeights = new int[OPERATIONS.length];
+	private final String mMix;
+	private final String mSQL;
+
+	private final List<Integer> mStarIDs = new ArrayList<Integer>();
+	private final List<String[]> mStarNames = new ArrayList<String[]>();
+	private String mCreditCardID;
+
+	// Rows inserted by the run; deleted customers are taken off the queue
+	private final Queue<Integer> mInsertedStarIDs = new ConcurrentLinkedQueue<Integer>();
+	private final Queue<Integer> mCustomerIDs = new ConcurrentLinkedQueue<Integer>();
+
+	// Latencies of the current interval (swapped out by the reporter) and of the whole run, by operation
+	private final AtomicReferenceArray<FabFlixLatencyHistogram> mIntervalHistograms =
+		new AtomicReferenceArray<FabFlixLatencyHistogram>(ALL_OPERATIONS + 1);
+	private final FabFlixLatencyHistogram[] mTotalHistograms = new FabFlixLatencyHistogram[ALL_OPERATIONS + 1];
+	private volatile long mMeasureStart;
+
+	/**
+	 * Creates a load test of a mix of operations.
+	 *
+	 * @param manager	connected manager the operations are run on
+	 * @param mix	comma-separated <i>operation=weight</i> pairs; operations left out are not run
+	 * @param sql	query run by the <i>executeSQL</i> operation
+	 * @throws IllegalArgumentException	if the mix names an unknown operation or has no weight
+	 */
+	public FabFlixLoadTest(FabFlixDBManager manager, String mix, String sql) {
+		mDBManager = manager;
+		mMix = mix;
+		mSQL = sql;
+
+		int[] weights = new int[OPERATIONS.length];
+		for (String entry : mix.split(",")) {
+			String[] pair = entry.split("=");
+			int operation = indexOf(pair[0].trim());
+			if (operation < 0 || pair.length != 2)
+				throw new IllegalArgumentException("Invalid mix entry '" + entry + "'. Operations: " + Arrays.toString(OPERATIONS));
+			weights[operation] = Integer.parseInt(pair[1].trim());
+		}
+
+		int total = 0;
+		for (int i = 0; i < weights.length; i++)
+			mCumulativeWeights[i] = total += Math.max(0, weights[i]);
+		if (total == 0)
+			throw new IllegalArgumentException("The operation mix has no weight.");
+
+		for (int i = 0; i <= ALL_OPERATIONS; i++)
+			mTotalHistograms[i] = new FabFlixLatencyHistogram(getName(i));
+	}
+
+	/**
+	 * Reads the star IDs, star names and credit card used as operation inputs.
+	 *
+	 * @throws SQLException	if the inputs could not be read
+	 */
+	public void prepareInputs() throws SQLException {
+		for (String[] row : mDBManager.findQueryPage("select id, first_name, last_name from stars", 1000, null).getItems()) {
+			mStarIDs.add(Integer.parseInt(row[0]));
+			mStarNames.add(new String[] { row[1], row[2] });
+		}
+
+		List<String[]> creditCards = mDBManager.findQueryPage("select id from creditcards", 1, null).getItems();
+		if (!creditCards.isEmpty())
+			mCreditCardID = creditCards.get(0)[0];
+
+		if (mStarIDs.isEmpty() || mCreditCardID == null)
+			throw new SQLException("The database has no stars or credit cards to load test with.");
+	}
+
+	/**
+	 * Runs the load test and reports every interval while it runs.
+	 *
+	 * @param openLoop	if <b>true</b>, operations are started at a fixed rate instead of back to back
+	 * @param threads	number of threads running operations
+	 * @param rate	operations started per second in open-loop mode (ignored in closed-loop mode)
+	 * @param warmupMillis	time run before measuring starts
+	 * @param durationMillis	time measured
+	 * @param intervalMillis	length of each reported interval
+	 * @param console	writer the human-readable report is written to
+	 * @param report	writer the CSV results are written to, or <i>null</i> for none
+	 * @throws InterruptedException	if interrupted while waiting for the threads
+	 */
+	public void run(final boolean openLoop, final int threads, final double rate, long warmupMillis, long durationMillis,
+		long intervalMillis, PrintWriter console, PrintWriter report) throws InterruptedException {
+
+		for (int i = 0; i <= ALL_OPERATIONS; i++)
+			mIntervalHistograms.set(i, new FabFlixLatencyHistogram(getName(i)));
+
+		final long start = System.nanoTime();
+		mMeasureStart = start + warmupMillis * 1000000L;
+		final long end = mMeasureStart + durationMillis * 1000000L;
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread[] workers = new Thread[threads];
+
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			workers[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					// Open-loop schedule: the threads take turns starting the operations, rate per second in all
+					double periodNanos = openLoop ? 1e9 * threads / rate : 0;
+
+					for (long k = 0; running.get() && System.nanoTime() < end; k++) {
+						long scheduled = System.nanoTime();
+						if (openLoop) {
+							scheduled = start + (long) (thread * 1e9 / rate + k * periodNanos);
+							if (scheduled >= end)
+								break;
+							long wait;
+							while ((wait = scheduled - System.nanoTime()) > 0 && running.get())
+								LockSupport.parkNanos(wait);
+						}
+						runOperation(pickOperation(), scheduled);
+					}
+				}
+			}, "FabFlixLoadTest-" + t);
+			workers[t].setDaemon(true);
+			workers[t].start();
+		}
+
+		console.println(String.format("%s load test: %d thread(s)%s, %d s warm-up, %d s measured, mix %s",
+			openLoop ? "Open-loop" : "Closed-loop", threads, openLoop ? String.format(" at %.1f ops/s", rate) : "",
+			warmupMillis / 1000, durationMillis / 1000, mMix));
+		console.flush();
+		if (report != null) {
+			report.println("# FabFlixLoadTest " + new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new java.util.Date()) +
+				" mode=" + (openLoop ? "open" : "closed") + " threads=" + threads + (openLoop ? " rate=" + rate : "") +
+				" warmup_s=" + warmupMillis / 1000 + " duration_s=" + durationMillis / 1000 + " mix=" + mMix + " sql=" + mSQL);
+			report.println(CSV_HEADER);
+		}
+
+		// Report each interval as it ends; the warm-up is discarded
+		LockSupport.parkNanos(mMeasureStart - System.nanoTime());
+		for (int i = 0; i <= ALL_OPERATIONS; i++)
+			mIntervalHistograms.set(i, new FabFlixLatencyHistogram(getName(i)));
+
+		long intervalStart = mMeasureStart;
+		while (intervalStart < end) {
+			long intervalEnd = Math.min(end, intervalStart + intervalMillis * 1000000L);
+			long wait;
+			while ((wait = intervalEnd - System.nanoTime()) > 0)
+				LockSupport.parkNanos(wait);
+
+			String elapsed = String.valueOf((intervalEnd - mMeasureStart) / 1000000000L);
+			for (int i = 0; i <= ALL_OPERATIONS; i++) {
+				FabFlixLatencyHistogram.Snapshot snapshot =
+					mIntervalHistograms.getAndSet(i, new FabFlixLatencyHistogram(getName(i))).snapshot();
+				report(elapsed, snapshot, intervalEnd - intervalStart, i == ALL_OPERATIONS, console, report);
+			}
+			console.flush();
+			intervalStart = intervalEnd;
+		}
+
+		running.set(false);
+		for (Thread worker : workers)
+			worker.join();
+
+		console.println("Total:");
+		for (int i = 0; i <= ALL_OPERATIONS; i++)
+			report("total", mTotalHistograms[i].snapshot(), end - mMeasureStart, true, console, report);
+		console.flush();
+		if (report != null)
+			report.flush();
+	}
+
+	/**
+	 * Writes one operation's results for a period to the console and the CSV report. Operations
+	 * that did not run are left out unless <i>always</i> is set.
+	 */
+	private static void report(String elapsed, FabFlixLatencyHistogram.Snapshot snapshot, long periodNanos,
+		boolean always, PrintWriter console, PrintWriter report) {
+
+		if (snapshot.getCount() == 0 && !always)
+			return;
+
+		double throughput = snapshot.getCount() * 1e9 / periodNanos;
+		console.println(String.format("%7s  %-15s %9.1f ops/s  errors = %5.2f%%  p50 = %8.3f ms  p99 = %8.3f ms  max = %8.3f ms",
+			elapsed.equals("total") ? elapsed : elapsed + "s", snapshot.getOperation(), throughput,
+			snapshot.getCount() == 0 ? 0 : 100.0 * snapshot.getErrorCount() / snapshot.getCount(),
+			snapshot.getPercentileMillis(50), snapshot.getPercentileMillis(99), snapshot.getMaxMillis()));
+
+		if (report != null) {
+			report.println(String.format("%s,%s,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f", elapsed, snapshot.getOperation(),
+				snapshot.getCount(), snapshot.getErrorCount(), throughput, snapshot.getMeanMillis(),
+				snapshot.getPercentileMillis(50), snapshot.getPercentileMillis(90), snapshot.getPercentileMillis(99),
+				snapshot.getPercentileMillis(99.9), snapshot.getMaxMillis()));
+		}
+	}
+
+	private int pickOperation() {
+		int pick = ThreadLocalRandom.current().nextInt(mCumulativeWeights[mCumulativeWeights.length - 1]);
+		int operation = 0;
+		while (pick >= mCumulativeWeights[operation])
+			operation++;
+		return operation;
+	}
+
+	/**
+	 * Runs one operation through the manager, and records its latency from the time it was
+	 * scheduled to start. Whether the operation failed is taken from its typed result, never
+	 * from the wording of its output.
+	 *
+	 * @param operation	index of the operation
+	 * @param scheduled	time the operation was scheduled to start, in {@link System#nanoTime} units
+	 */
+	private void runOperation(int operation, long scheduled) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		// Error code of a failed operation (0 if it did not fail with a SQL error), or -1 if it succeeded
+		int errorCode = -1;
+		try {
+			FabFlixResult result;
+			switch (operation) {
+			case LOOKUP_BY_ID:
+				mDBManager.findMoviesForStar(mStarIDs.get(random.nextInt(mStarIDs.size())));
+				break;
+			case LOOKUP_BY_NAME:
+				String[] name = mStarNames.get(random.nextInt(mStarNames.size()));
+				mDBManager.findMoviesForStar(name[0], name[1]);
+				break;
+			case INSERT_STAR:
+				result = mDBManager.insertStar("Load" + random.nextInt(1000000), LOAD_TEST_LAST_NAME, null, "");
+				for (int id : result.getGeneratedIDs())
+					mInsertedStarIDs.add(id);
+				errorCode = getErrorCode(result);
+				break;
+			case INSERT_CUSTOMER:
+				result = mDBManager.insertCustomer("Load" + random.nextInt(1000000), LOAD_TEST_LAST_NAME, mCreditCardID,
+					"1 Load Test Way", "load@fabflix.test", "load");
+				for (int id : result.getGeneratedIDs())
+					mCustomerIDs.add(id);
+				errorCode = getErrorCode(result);
+				break;
+			case DELETE_CUSTOMER:
+				// Deletes a customer inserted by this run; with none left the delete is an expected miss, still one round trip
+				Integer id = mCustomerIDs.poll();
+				result = mDBManager.deleteCustomer(id == null ? -1 : id);
+				if (id != null) {
+					errorCode = getErrorCode(result);
+					if (errorCode >= 0)
+						mCustomerIDs.add(id);
+				}
+				break;
+			case EXECUTE_SQL:
+			default:
+				errorCode = getErrorCode(mDBManager.executeSQL(mSQL, new FabFlixBenchmark.NullWriter()));
+			}
+		} catch (SQLException e) {
+			errorCode = e.getErrorCode();
+		} catch (RuntimeException e) {
+			errorCode = 0;
+		}
+
+		long latency = System.nanoTime() - scheduled;
+		if (System.nanoTime() < mMeasureStart)
+			return;
+
+		for (int histogram : new int[] { operation, ALL_OPERATIONS }) {
+			if (errorCode < 0) {
+				mIntervalHistograms.get(histogram).record(latency);
+				mTotalHistograms[histogram].record(latency);
+			} else {
+				mIntervalHistograms.get(histogram).recordError(latency, errorCode);
+				mTotalHistograms[histogram].recordError(latency, errorCode);
+			}
+		}
+	}
+
+	private static int getErrorCode(FabFlixResult result) {
+		return result.isSucceeded() ? -1 : result.getErrorCode();
+	}
+
+	/**
+	 * Removes the stars and customers inserted by the run, by the IDs the run recorded, so rows
+	 * that were in the database before the run are never touched.
+	 */
+	public void cleanUp() {
+		if (!mCustomerIDs.isEmpty())
+			mDBManager.deleteCustomers(new ArrayList<Integer>(mCustomerIDs), null);
+		mCustomerIDs.clear();
+
+		List<Integer> starIDs = new ArrayList<Integer>(mInsertedStarIDs);
+		for (int i = 0; i < starIDs.size(); i += FabFlixDBManager.DEFAULT_DELETE_CHUNK_SIZE) {
+			List<Integer> chunk = starIDs.subList(i, Math.min(i + FabFlixDBManager.DEFAULT_DELETE_CHUNK_SIZE, starIDs.size()));
+			mDBManager.executeSQL("delete from stars where id in (" + chunk.toString().replaceAll("[\\[\\]]", "") + ")");
+		}
+		mInsertedStarIDs.clear();
+	}
+
+	private static int indexOf(String operation) {
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			if (OPERATIONS[i].equals(operation))
+				return i;
+		}
+		return -1;
+	}
+
+	private static String getName(int operation) {
+		return operation == ALL_OPERATIONS ? "all" : OPERATIONS[operation];
+	}
+
+	/**
+	 * Runs the load test from the command line:
+	 * <pre>
+	 * java FabFlixLoadTest [-user name] [-password pass] [-mode closed|open] [-threads 16] [-rate ops/s]
+	 *     [-warmup seconds] [-duration seconds] [-interval seconds] [-mix op=weight,...] [-sql query]
+	 *     [-cache] [-joinengine] [-resultcache] [-writebehind size,millis] [-output file]
+	 * </pre>
+	 * The star lookup cache is disabled unless <i>-cache</i> is given, so lookups reach the database;
+	 * likewise the query result cache is only used with <i>-resultcache</i>.
+	 * Open-loop mode requires <i>-rate</i>.
+	 * <i>-writebehind</i> group-commits the insertions in batches of up to <i>size</i> rows.
+	 *
+	 * @param args	command line options
+	 */
+	public static void main(String[] args) {
+		String username = null, password = null, output = null, mix = DEFAULT_MIX, sql = DEFAULT_SQL;
+		boolean openLoop = false, cache = false, joinEngine = false, resultCache = false;
+		int threads = 16, writeBehindBatchSize = 0;
+		long writeBehindDelayMillis = FabFlixWriteBehindQueue.DEFAULT_MAX_DELAY_MILLIS;
+		double rate = 0;
+		long warmupMillis = 5000, durationMillis = 60000, intervalMillis = 5000;
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-user"))
+					username = args[++i];
+				else if (args[i].equals("-password"))
+					password = args[++i];
+				else if (args[i].equals("-mode"))
+					openLoop = args[++i].equals("open");
+				else if (args[i].equals("-threads"))
+					threads = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-rate"))
+					rate = Double.parseDouble(args[++i]);
+				else if (args[i].equals("-warmup"))
+					warmupMillis = Long.parseLong(args[++i]) * 1000;
+				else if (args[i].equals("-duration"))
+					durationMillis = Long.parseLong(args[++i]) * 1000;
+				else if (args[i].equals("-interval"))
+					intervalMillis = Long.parseLong(args[++i]) * 1000;
+				else if (args[i].equals("-mix"))
+					mix = args[++i];
+				else if (args[i].equals("-sql"))
+					sql = args[++i];
+				else if (args[i].equals("-cache"))
+					cache = true;
+				else if (args[i].equals("-joinengine"))
+					joinEngine = true;
+				else if (args[i].equals("-resultcache"))
+					resultCache = true;
+				else if (args[i].equals("-writebehind")) {
+					String[] limits = args[++i].split(",");
+					writeBehindBatchSize = Integer.parseInt(limits[0].trim());
+					if (limits.length > 1)
+						writeBehindDelayMillis = Long.parseLong(limits[1].trim());
+				}
+				else if (args[i].equals("-output"))
+					output = args[++i];
+				else
+					throw new IllegalArgumentException(args[i]);
+			}
+			if (threads < 1 || writeBehindBatchSize < 0 || writeBehindDelayMillis < 0 || intervalMillis < 1000 || durationMillis < 1000 || (openLoop && rate <= 0))
+				throw new IllegalArgumentException();
+		} catch (RuntimeException e) {
+			System.out.println("Usage: java FabFlixLoadTest [-user name] [-password pass] [-mode closed|open] " +
+				"[-threads 16] [-rate ops/s] [-warmup seconds] [-duration seconds] [-interval seconds] " +
+				"[-mix op=weight,...] [-sql query] [-cache] [-joinengine] [-resultcache] [-writebehind size,millis] [-output file]");
+			return;
+		}
+
+		Scanner reader = new Scanner(System.in);
+		if (username == null) {
+			System.out.print("Enter your database username: ");
+			username = reader.nextLine();
+		}
+		if (password == null) {
+			System.out.print("Enter your database password: ");
+			password = reader.nextLine();
+		}
+
+		FabFlixDBManager manager = null;
+		FabFlixLoadTest loadTest = null;
+		PrintWriter report = null;
+
+		try {
+			manager = new FabFlixDBManager();
+			SQLException connectionError = manager.attemptConnection(username, password,
+				Math.min(threads, FabFlixConnectionPool.DEFAULT_MIN_SIZE), threads);
+			if (connectionError != null)
+				throw connectionError;
+			manager.setStarLookupCacheEnabled(cache);
+			manager.setJoinEngineEnabled(joinEngine);
+			manager.setResultCacheEnabled(resultCache);
+			if (writeBehindBatchSize > 0)
+				manager.setWriteBehindEnabled(true, writeBehindBatchSize, writeBehindDelayMillis);
+
+			loadTest = new FabFlixLoadTest(manager, mix, sql);
+			loadTest.prepareInputs();
+
+			report = output == null ? null : new PrintWriter(new FileWriter(output));
+			loadTest.run(openLoop, threads, rate, warmupMillis, durationMillis, intervalMillis,
+				new PrintWriter(new OutputStreamWriter(System.out)), report);
+
+		} catch (SQLException e) {
+			System.out.println(FabFlixConsole.getErrorMessage("Error code " + e.getErrorCode() + ": " + e.getMessage()));
+		} catch (IllegalArgumentException e) {
+			System.out.println(FabFlixConsole.getErrorMessage(e.getMessage()));
+		} catch (Exception e) {
+			System.out.println(FabFlixConsole.getErrorMessage("Load test failed: " + e));
+		} finally {
+			if (report != null)
+				report.close();
+			if (loadTest != null)
+				loadTest.cleanUp();
+			if (manager != null)
+				manager.closeConnection();
+			reader.close();
+		}
+	}
+}
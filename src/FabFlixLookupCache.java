@@ -0,0 +1,168 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, thread-safe read-through cache. Entries are evicted in least-recently-used order
+ * once the cache is full and expire after a fixed time to live. Every invalidation bumps a
+ * generation number so a lookup that started before an invalidation cannot store a stale value.
+ * 
+ * @param <K>	type of the lookup keys
+ * @param <V>	type of the cached values
+ */
+public class FabFlixLookupCache<K, V>
+{
+	private static class CacheEntry<V>
+	{
+		final V mValue;
+		final long mExpirationTime;
+		
+		CacheEntry(V value, long expirationTime) {
+			mValue = value;
+			mExpirationTime = expirationTime;
+		}
+	}
+	
+	private final String mName;
+	private final int mMaxSize;
+	private final long mTimeToLiveMillis;
+	private final LinkedHashMap<K, CacheEntry<V>> mEntries;
+	
+	private long mGeneration;
+	private long mHits;
+	private long mMisses;
+	private long mEvictions;
+	private long mExpirations;
+	private long mInvalidations;
+	
+	/**
+	 * Creates an empty cache.
+	 * 
+	 * @param name	name of the cache shown in its statistics
+	 * @param maxSize	maximum number of entries kept
+	 * @param timeToLiveMillis	time after which an entry expires
+	 */
+	public FabFlixLookupCache(String name, final int maxSize, long timeToLiveMillis) {
+		mName = name;
+		mMaxSize = maxSize;
+		mTimeToLiveMillis = timeToLiveMillis;
+		mEntries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+				if (size() <= maxSize)
+					return false;
+				
+				mEvictions++;
+				return true;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the cached value for a key, or <i>null</i> if it is not cached or has expired.
+	 * 
+	 * @param key	lookup key
+	 * @return	cached value, or <i>null</i> on a miss
+	 */
+	public synchronized V get(K key) {
+		CacheEntry<V> entry = mEntries.get(key);
+		
+		if (entry != null && entry.mExpirationTime < System.currentTimeMillis()) {
+			mEntries.remove(key);
+			mExpirations++;
+			entry = null;
+		}
+		
+		if (entry == null) {
+			mMisses++;
+			return null;
+		}
+		mHits++;
+		return entry.mValue;
+	}
+	
+	/**
+	 * Returns the current generation. Pass it to {@link #put} after loading a value so the
+	 * value is dropped if the cache was invalidated while it was being loaded.
+	 * 
+	 * @return	current generation number
+	 */
+	public synchronized long getGeneration() {
+		return mGeneration;
+	}
+	
+	/**
+	 * Stores a value loaded for a key, unless the cache was invalidated since <i>generation</i>.
+	 * 
+	 * @param key	lookup key
+	 * @param value	value loaded for the key
+	 * @param generation	generation obtained before the value was loaded
+	 */
+	public synchronized void put(K key, V value, long generation) {
+		if (generation == mGeneration)
+			mEntries.put(key, new CacheEntry<V>(value, System.currentTimeMillis() + mTimeToLiveMillis));
+	}
+	
+	/**
+	 * Removes a single key from the cache.
+	 * 
+	 * @param key	lookup key
+	 */
+	public synchronized void invalidate(K key) {
+		mGeneration++;
+		if (mEntries.remove(key) != null)
+			mInvalidations++;
+	}
+	
+	/**
+	 * Removes every entry from the cache.
+	 */
+	public synchronized void invalidateAll() {
+		mGeneration++;
+		mInvalidations += mEntries.size();
+		mEntries.clear();
+	}
+	
+	public synchronized int size() {
+		return mEntries.size();
+	}
+	
+	public synchronized long getHits() {
+		return mHits;
+	}
+	
+	public synchronized long getMisses() {
+		return mMisses;
+	}
+	
+	public synchronized long getEvictions() {
+		return mEvictions;
+	}
+	
+	public synchronized long getExpirations() {
+		return mExpirations;
+	}
+	
+	/**
+	 * Returns the fraction of lookups that were served from the cache.
+	 * 
+	 * @return	hit rate between 0 and 1
+	 */
+	public synchronized double getHitRate() {
+		long total = mHits + mMisses;
+		return total == 0 ? 0 : (double) mHits / total;
+	}
+	
+	/**
+	 * Returns a printable summary of the cache's size and usage statistics.
+	 * 
+	 * @return	output string of the cache statistics
+	 */
+	public synchronized String getStatistics() {
+		return String.format("%s: %d/%d entries, hits/misses = %d/%d (%.1f%% hit rate), " + 
+			"evictions = %d, expirations = %d, invalidations = %d\n",
+			mName, mEntries.size(), mMaxSize, mHits, mMisses, getHitRate() * 100, 
+			mEvictions, mExpirations, mInvalidations);
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * A single row of the <i>movies</i> table.
+ */
+public class FabFlixMovie
+{
+	private final int mID;
+	private final String mTitle;
+	private final int mYear;
+	private final String mDirector;
+	private final String mBannerURL;
+	private final String mTrailerURL;
+	
+	public FabFlixMovie(int id, String title, int year, String director, String bannerURL, String trailerURL) {
+		mID = id;
+		mTitle = title;
+		mYear = year;
+		mDirector = director;
+		mBannerURL = bannerURL;
+		mTrailerURL = trailerURL;
+	}
+	
+	public int getID() {
+		return mID;
+	}
+	
+	public String getTitle() {
+		return mTitle;
+	}
+	
+	public int getYear() {
+		return mYear;
+	}
+	
+	public String getDirector() {
+		return mDirector;
+	}
+	
+	/**
+	 * Returns the URL of the movie's banner.
+	 * 
+	 * @return	banner URL, or <i>null</i> if the movie has none
+	 */
+	public String getBannerURL() {
+		return mBannerURL;
+	}
+	
+	/**
+	 * Returns the URL of the movie's trailer.
+	 * 
+	 * @return	trailer URL, or <i>null</i> if the movie has none
+	 */
+	public String getTrailerURL() {
+		return mTrailerURL;
+	}
+}
@@ -0,0 +1,123 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * One page of a keyset-paginated result. Pages are ordered by the primary key of the paged
+ * table, and the continuation token holds the key of the last row of the page, so the next
+ * page is read with a <i>key &gt; last key</i> seek on the primary key index instead of an
+ * <i>OFFSET</i>; every page costs the same no matter how deep the caller goes.
+ * <p>
+ * Tokens are opaque to callers. They are bound to the query they were issued for, and are
+ * rejected if they are passed back with a different query.
+ */
+public class FabFlixPage<T>
+{
+	private static final int TOKEN_VERSION = 1;
+
+	private final List<T> mItems;
+	private final List<String> mColumnNames;
+	private final String mNextToken;
+
+	public FabFlixPage(List<T> items, List<String> columnNames, String nextToken) {
+		mItems = Collections.unmodifiableList(items);
+		mColumnNames = columnNames == null ? Collections.<String>emptyList() : Collections.unmodifiableList(columnNames);
+		mNextToken = nextToken;
+	}
+
+	public List<T> getItems() {
+		return mItems;
+	}
+
+	/**
+	 * Returns the column names of the page's rows, for pages of query rows.
+	 *
+	 * @return	column names, or an empty list for pages of typed items
+	 */
+	public List<String> getColumnNames() {
+		return mColumnNames;
+	}
+
+	/**
+	 * Returns the token to pass back to read the next page.
+	 *
+	 * @return	continuation token, or <i>null</i> if this is the last page
+	 */
+	public String getNextToken() {
+		return mNextToken;
+	}
+
+	public boolean hasNextPage() {
+		return mNextToken != null;
+	}
+
+	/**
+	 * Creates a continuation token that resumes a query after the given key.
+	 *
+	 * @param query	identifies the paged query and its parameters
+	 * @param lastKey	primary key values of the last row returned, in key order
+	 * @return	URL-safe token
+	 */
+	static String encodeToken(String query, List<String> lastKey) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(TOKEN_VERSION);
+			out.writeInt(fingerprint(query));
+			out.writeShort(lastKey.size());
+			for (String value : lastKey)
+				out.writeUTF(value);
+			out.close();
+
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+		} catch (IOException e) {
+			// Writing to memory cannot fail
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Reads the key a continuation token resumes after.
+	 *
+	 * @param token	token returned with a previous page
+	 * @param query	identifies the paged query and its parameters
+	 * @return	primary key values of the last row of the previous page
+	 * @throws IllegalArgumentException	if the token is malformed or was issued for a different query
+	 */
+	static List<String> decodeToken(String token, String query) {
+		int fingerprint;
+		List<String> lastKey;
+
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(token.trim())));
+			if (in.readByte() != TOKEN_VERSION)
+				throw new IOException("Unknown token version.");
+			fingerprint = in.readInt();
+
+			int count = in.readShort();
+			lastKey = new ArrayList<String>(count);
+			for (int i = 0; i < count; i++)
+				lastKey.add(in.readUTF());
+		} catch (IOException | IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid page token.");
+		}
+
+		if (fingerprint != fingerprint(query))
+			throw new IllegalArgumentException("Page token does not belong to this query.");
+		return lastKey;
+	}
+
+	private static int fingerprint(String query) {
+		CRC32 crc = new CRC32();
+		crc.update(query.getBytes(StandardCharsets.UTF_8));
+		return (int) crc.getValue();
+	}
+}
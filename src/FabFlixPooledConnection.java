@@ -0,0 +1,137 @@
+import java.sql.*;
+
+/**
+ * A single physical connection owned by a {@link FabFlixConnectionPool}. Keeps track of
+ * when the connection was last handed back to the pool and whether it has been marked
+ * as broken so the pool can discard it instead of reusing it.
+ */
+public class FabFlixPooledConnection
+{
+	private final FabFlixConnectionPool mPool;
+	private final Connection mConnection;
+	private final FabFlixStatementCache mStatementCache;
+	private long mLastUsedTime;
+	private boolean mBroken;
+
+	public FabFlixPooledConnection(FabFlixConnectionPool pool, Connection connection, 
+		int statementCacheSize, FabFlixStatementCache.Counters statementCacheCounters) {
+		mPool = pool;
+		mConnection = connection;
+		mStatementCache = new FabFlixStatementCache(connection, statementCacheSize, statementCacheCounters);
+		mLastUsedTime = System.currentTimeMillis();
+		mBroken = false;
+	}
+
+	/**
+	 * Returns the underlying JDBC connection.
+	 *
+	 * @return	the physical connection to the database
+	 */
+	public Connection getConnection() {
+		return mConnection;
+	}
+
+	/**
+	 * Returns a cached prepared statement for the SQL text. The statement is owned by the
+	 * connection and must not be closed by the caller.
+	 *
+	 * @param sql	parameterized SQL text
+	 * @return	prepared statement with its parameters cleared
+	 * @throws SQLException	if the statement could not be prepared
+	 */
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		return mStatementCache.prepare(sql);
+	}
+
+	/**
+	 * Returns a cached prepared statement for the SQL text. The statement is owned by the
+	 * connection and must not be closed by the caller.
+	 *
+	 * @param sql	parameterized SQL text
+	 * @param autoGeneratedKeys	either <i>Statement.RETURN_GENERATED_KEYS</i> or <i>Statement.NO_GENERATED_KEYS</i>
+	 * @return	prepared statement with its parameters cleared
+	 * @throws SQLException	if the statement could not be prepared
+	 */
+	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+		return mStatementCache.prepare(sql, autoGeneratedKeys);
+	}
+
+	/**
+	 * Returns the pool that owns this connection.
+	 *
+	 * @return	pool the connection must be returned to
+	 */
+	public FabFlixConnectionPool getPool() {
+		return mPool;
+	}
+
+	/**
+	 * Returns the time (in milliseconds since the epoch) when the connection was last returned to the pool.
+	 *
+	 * @return	time of last use
+	 */
+	public long getLastUsedTime() {
+		return mLastUsedTime;
+	}
+
+	/**
+	 * Marks the connection as used at the current time.
+	 */
+	public void touch() {
+		mLastUsedTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Marks the connection as broken (e.g. after a communication failure) so the pool closes
+	 * it when it is returned instead of handing it to another caller.
+	 */
+	public void markBroken() {
+		mBroken = true;
+	}
+
+	public boolean isBroken() {
+		return mBroken;
+	}
+
+	/**
+	 * Checks if the connection is still usable by asking the driver to validate it.
+	 *
+	 * @param timeoutSeconds	seconds to wait for the validation to complete
+	 * @return	true if the connection is open and valid, false otherwise
+	 */
+	public boolean isValid(int timeoutSeconds) {
+		try {
+			return !mBroken && !mConnection.isClosed() && mConnection.isValid(timeoutSeconds);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Restores the connection to the default state expected by callers borrowing it from the pool.
+	 * Any transaction left open by the previous borrower is rolled back.
+	 */
+	public void reset() {
+		try {
+			if (!mConnection.getAutoCommit()) {
+				mConnection.rollback();
+				mConnection.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			mBroken = true;
+		}
+	}
+
+	/**
+	 * Closes the underlying connection, ignoring any error raised while closing.
+	 */
+	public void close() {
+		mStatementCache.close();
+		try {
+			if (!mConnection.isClosed())
+				mConnection.close();
+		} catch (SQLException e) {
+			// Connection is being discarded anyway
+		}
+	}
+}
@@ -0,0 +1,349 @@
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms of every FabFlixDBManager operation and a log of the slowest calls.
+ * A call is timed from {@link #start} to {@link Sample#finish}; while it runs, the data
+ * access code marks when its statement finished executing and when its results were read,
+ * which splits the call's time into execute, fetch and format phases for the slow-query log.
+ * <p>
+ * Marks are tracked per thread, so the typed data access methods can be timed on their own
+ * and still add their marks to the operation that called them.
+ * <p>
+ * When statement capture is enabled, every statement marked as executed is also counted by
+ * its normalized text, for {@link FabFlixIndexAdvisor} to explain later.
+ */
+public class FabFlixQueryMetrics
+{
+	public static final long DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS = 100;
+	public static final int SLOW_QUERY_LOG_SIZE = 100;
+	public static final int MAX_CAPTURED_STATEMENTS = 500;
+
+	/**
+	 * A call that took longer than the slow-query threshold.
+	 */
+	public static class SlowQuery
+	{
+		private final long mTime;
+		private final String mOperation;
+		private final String mStatement;
+		private final long mExecuteNanos;
+		private final long mFetchNanos;
+		private final long mFormatNanos;
+		private final int mErrorCode;
+
+		SlowQuery(long time, String operation, String statement, long executeNanos, long fetchNanos,
+			long formatNanos, int errorCode) {
+			mTime = time;
+			mOperation = operation;
+			mStatement = statement;
+			mExecuteNanos = executeNanos;
+			mFetchNanos = fetchNanos;
+			mFormatNanos = formatNanos;
+			mErrorCode = errorCode;
+		}
+
+		/**
+		 * Returns when the call finished.
+		 *
+		 * @return	time in milliseconds since the epoch
+		 */
+		public long getTime() {
+			return mTime;
+		}
+
+		public String getOperation() {
+			return mOperation;
+		}
+
+		/**
+		 * Returns the SQL text the call ran.
+		 *
+		 * @return	SQL text, or <i>null</i> if the call was served without running a statement
+		 */
+		public String getStatement() {
+			return mStatement;
+		}
+
+		/**
+		 * Returns the time from the start of the call until its statement finished executing,
+		 * including the wait for a connection.
+		 *
+		 * @return	execute time in milliseconds
+		 */
+		public double getExecuteMillis() {
+			return mExecuteNanos / 1000000.0;
+		}
+
+		/**
+		 * Returns the time spent reading the statement's results from the driver.
+		 *
+		 * @return	fetch time in milliseconds
+		 */
+		public double getFetchMillis() {
+			return mFetchNanos / 1000000.0;
+		}
+
+		/**
+		 * Returns the time spent building the call's output after the results were read.
+		 *
+		 * @return	format time in milliseconds
+		 */
+		public double getFormatMillis() {
+			return mFormatNanos / 1000000.0;
+		}
+
+		public double getTotalMillis() {
+			return (mExecuteNanos + mFetchNanos + mFormatNanos) / 1000000.0;
+		}
+
+		/**
+		 * Returns the vendor error code the call failed with.
+		 *
+		 * @return	error code, or -1 if the call succeeded
+		 */
+		public int getErrorCode() {
+			return mErrorCode;
+		}
+	}
+
+	/**
+	 * Timing of one call. Must be finished by the thread that started it.
+	 */
+	public class Sample
+	{
+		private final FabFlixLatencyHistogram mHistogram;
+		private final Sample mOuter;
+		private final long mStart = System.nanoTime();
+		private long mExecuted;
+		private long mFetched;
+		private String mStatement;
+		private int mErrorCode = -1;
+
+		Sample(FabFlixLatencyHistogram histogram, Sample outer) {
+			mHistogram = histogram;
+			mOuter = outer;
+		}
+
+		/**
+		 * Marks the call as failed. The failure is recorded when the call is finished.
+		 *
+		 * @param errorCode	vendor error code of the failure, or 0 if it had none
+		 */
+		public void fail(int errorCode) {
+			mErrorCode = errorCode;
+		}
+
+		/**
+		 * Records the call's latency. A call started while another call was running on the same
+		 * thread is only recorded if it belongs to a different operation.
+		 */
+		public void finish() {
+			long end = System.nanoTime();
+			mCurrentSample.set(mOuter);
+
+			// Pass the marks on so the outer call can still split its time
+			if (mOuter != null && mExecuted != 0) {
+				mOuter.mExecuted = mExecuted;
+				mOuter.mFetched = mFetched;
+				mOuter.mStatement = mStatement;
+			}
+			if (mOuter != null && mOuter.mHistogram == mHistogram)
+				return;
+
+			long total = end - mStart;
+			if (mErrorCode >= 0)
+				mHistogram.recordError(total, mErrorCode);
+			else
+				mHistogram.record(total);
+
+			if (total >= mSlowQueryThresholdNanos) {
+				long executed = mExecuted == 0 ? mStart : mExecuted;
+				long fetched = mFetched == 0 ? executed : mFetched;
+				logSlowQuery(new SlowQuery(System.currentTimeMillis(), mHistogram.getOperation(), mStatement,
+					executed - mStart, fetched - executed, end - fetched, mErrorCode));
+			}
+		}
+	}
+
+	private final ConcurrentMap<String, FabFlixLatencyHistogram> mHistograms =
+		new ConcurrentHashMap<String, FabFlixLatencyHistogram>();
+	private final ThreadLocal<Sample> mCurrentSample = new ThreadLocal<Sample>();
+	private final ArrayDeque<SlowQuery> mSlowQueries = new ArrayDeque<SlowQuery>();
+	private volatile long mSlowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS);
+	private volatile boolean mStatementCaptureEnabled;
+	private final Map<String, Long> mCapturedStatements = new LinkedHashMap<String, Long>();
+
+	/**
+	 * Starts timing a call of an operation on the calling thread.
+	 *
+	 * @param operation	name of the operation
+	 * @return	sample to finish when the call returns
+	 */
+	public Sample start(String operation) {
+		FabFlixLatencyHistogram histogram = mHistograms.get(operation);
+		if (histogram == null) {
+			FabFlixLatencyHistogram existing = mHistograms.putIfAbsent(operation,
+				histogram = new FabFlixLatencyHistogram(operation));
+			if (existing != null)
+				histogram = existing;
+		}
+
+		Sample sample = new Sample(histogram, mCurrentSample.get());
+		mCurrentSample.set(sample);
+		return sample;
+	}
+
+	/**
+	 * Marks that the calling thread's current call finished executing its statement.
+	 *
+	 * @param statement	SQL text of the statement
+	 */
+	public void markExecuted(String statement) {
+		Sample sample = mCurrentSample.get();
+		if (sample != null) {
+			sample.mExecuted = System.nanoTime();
+			sample.mStatement = statement;
+		}
+		if (mStatementCaptureEnabled)
+			captureStatement(statement);
+	}
+	
+	/**
+	 * Counts an executed statement. Statements not seen before are dropped once
+	 * {@link #MAX_CAPTURED_STATEMENTS} distinct statements have been captured.
+	 */
+	private synchronized void captureStatement(String statement) {
+		String key = FabFlixResultCache.normalize(statement);
+		Long count = mCapturedStatements.get(key);
+		if (count != null || mCapturedStatements.size() < MAX_CAPTURED_STATEMENTS)
+			mCapturedStatements.put(key, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Marks that the calling thread's current call finished reading its results.
+	 */
+	public void markFetched() {
+		Sample sample = mCurrentSample.get();
+		if (sample != null)
+			sample.mFetched = System.nanoTime();
+	}
+
+	public long getSlowQueryThresholdMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(mSlowQueryThresholdNanos);
+	}
+
+	/**
+	 * Sets how long a call must take to be added to the slow-query log.
+	 *
+	 * @param millis	threshold in milliseconds (0 logs every call)
+	 */
+	public void setSlowQueryThresholdMillis(long millis) {
+		mSlowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+	}
+
+	/**
+	 * Enables or disables counting the statements marked as executed.
+	 *
+	 * @param enabled	true to capture statements
+	 */
+	public void setStatementCaptureEnabled(boolean enabled) {
+		mStatementCaptureEnabled = enabled;
+	}
+
+	public boolean isStatementCaptureEnabled() {
+		return mStatementCaptureEnabled;
+	}
+
+	/**
+	 * Returns the statements captured so far and how many times each was executed.
+	 *
+	 * @return	copy of the execution counts by normalized statement text, in capture order
+	 */
+	public synchronized Map<String, Long> getCapturedStatements() {
+		return new LinkedHashMap<String, Long>(mCapturedStatements);
+	}
+
+	private synchronized void logSlowQuery(SlowQuery query) {
+		if (mSlowQueries.size() == SLOW_QUERY_LOG_SIZE)
+			mSlowQueries.removeFirst();
+		mSlowQueries.addLast(query);
+	}
+
+	/**
+	 * Returns the most recent slow calls, oldest first.
+	 *
+	 * @return	copy of the slow-query log
+	 */
+	public synchronized List<SlowQuery> getSlowQueries() {
+		return new ArrayList<SlowQuery>(mSlowQueries);
+	}
+
+	/**
+	 * Returns a snapshot of the histogram of every operation called so far, in name order.
+	 *
+	 * @return	snapshots of the operation histograms
+	 */
+	public List<FabFlixLatencyHistogram.Snapshot> getSnapshots() {
+		List<String> operations = new ArrayList<String>(mHistograms.keySet());
+		Collections.sort(operations);
+
+		List<FabFlixLatencyHistogram.Snapshot> snapshots = new ArrayList<FabFlixLatencyHistogram.Snapshot>();
+		for (String operation : operations)
+			snapshots.add(mHistograms.get(operation).snapshot());
+		return snapshots;
+	}
+
+	/**
+	 * Clears every histogram, the slow-query log and the captured statements.
+	 */
+	public synchronized void reset() {
+		mHistograms.clear();
+		mSlowQueries.clear();
+		mCapturedStatements.clear();
+	}
+
+	/**
+	 * Returns a printable table of the operation latencies followed by the slow-query log.
+	 *
+	 * @return	output string of the latency statistics
+	 */
+	public String getStatistics() {
+		StringBuilder buffer = new StringBuilder();
+		buffer.append(String.format("%-24s %8s %10s %10s %10s %10s %10s  %s\n",
+			"OPERATION", "CALLS", "MEAN ms", "P50 ms", "P99 ms", "P99.9 ms", "MAX ms", "ERRORS (CODE x COUNT)"));
+
+		for (FabFlixLatencyHistogram.Snapshot snapshot : getSnapshots()) {
+			StringBuilder errors = new StringBuilder();
+			for (Map.Entry<Integer, Long> error : snapshot.getErrors().entrySet())
+				errors.append(errors.length() == 0 ? "" : ", ").append(error.getKey()).append(" x ").append(error.getValue());
+
+			buffer.append(String.format("%-24s %8d %10.3f %10.3f %10.3f %10.3f %10.3f  %s\n",
+				snapshot.getOperation(), snapshot.getCount(), snapshot.getMeanMillis(),
+				snapshot.getPercentileMillis(50), snapshot.getPercentileMillis(99), snapshot.getPercentileMillis(99.9),
+				snapshot.getMaxMillis(), errors.length() == 0 ? "-" : errors));
+		}
+
+		List<SlowQuery> slowQueries = getSlowQueries();
+		buffer.append("\nSlow queries (>= " + getSlowQueryThresholdMillis() + " ms, last " + slowQueries.size() + "):\n");
+		SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+
+		for (SlowQuery query : slowQueries) {
+			buffer.append(String.format("%s %-24s total %.3f ms = execute %.3f + fetch %.3f + format %.3f%s\n    %s\n",
+				timeFormat.format(new Date(query.getTime())), query.getOperation(), query.getTotalMillis(),
+				query.getExecuteMillis(), query.getFetchMillis(), query.getFormatMillis(),
+				query.getErrorCode() >= 0 ? " (error " + query.getErrorCode() + ")" : "",
+				query.getStatement() == null ? "(no statement)" : query.getStatement()));
+		}
+		return buffer.toString();
+	}
+}
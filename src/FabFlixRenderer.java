@@ -0,0 +1,396 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes typed query results (movies, stars and generic rows) to an <i>Appendable</i> in one
+ * output format. Values are written straight to the output as they are read, with escaping done
+ * character by character, so rendering does not build a temporary string per field or per row.
+ * <p>
+ * Renderers are stateless and may be shared between threads. Rows of a generic query are
+ * rendered as a stream: {@link #beginRows}, then {@link #renderRow} once per row with the same
+ * values array refilled each time, then {@link #endRows}.
+ */
+public abstract class FabFlixRenderer
+{
+	/** The console layout: one <i>name = value</i> line per field, rows separated by blank lines */
+	public static final FabFlixRenderer TEXT = new Text();
+
+	/** RFC 4180 CSV with a header row */
+	public static final FabFlixRenderer CSV = new CSV();
+
+	/** JSON arrays of objects, one object per record */
+	public static final FabFlixRenderer JSON = new JSON();
+
+	/**
+	 * Returns the renderer of an output format.
+	 *
+	 * @param format	<i>text</i>, <i>csv</i> or <i>json</i> (case-insensitive)
+	 * @return	renderer of the format
+	 * @throws IllegalArgumentException	if the format is unknown
+	 */
+	public static FabFlixRenderer forFormat(String format) {
+		if (format.equalsIgnoreCase("text"))
+			return TEXT;
+		if (format.equalsIgnoreCase("csv"))
+			return CSV;
+		if (format.equalsIgnoreCase("json"))
+			return JSON;
+		throw new IllegalArgumentException("Unknown output format '" + format + "'; expected text, csv or json.");
+	}
+
+	/**
+	 * Returns the name of the format, as accepted by {@link #forFormat}.
+	 *
+	 * @return	format name
+	 */
+	public abstract String getFormat();
+
+	public abstract void renderMovies(List<FabFlixMovie> movies, Appendable out) throws IOException;
+
+	public abstract void renderStars(List<FabFlixStar> stars, Appendable out) throws IOException;
+
+	/**
+	 * Starts a stream of generic rows.
+	 *
+	 * @param tableName	table the rows come from, or <i>null</i> if unknown
+	 * @param columnNames	column names of the rows
+	 * @param out	output to write to
+	 * @throws IOException	if writing to the output failed
+	 */
+	public abstract void beginRows(String tableName, String[] columnNames, Appendable out) throws IOException;
+
+	/**
+	 * Writes one generic row.
+	 *
+	 * @param columnNames	column names of the rows
+	 * @param values	values of the row, <i>null</i> for SQL nulls
+	 * @param rowIndex	position of the row in the stream, starting at 0
+	 * @param out	output to write to
+	 * @throws IOException	if writing to the output failed
+	 */
+	public abstract void renderRow(String[] columnNames, String[] values, long rowIndex, Appendable out) throws IOException;
+
+	/**
+	 * Ends a stream of generic rows.
+	 *
+	 * @param rowCount	number of rows written
+	 * @param out	output to write to
+	 * @throws IOException	if writing to the output failed
+	 */
+	public abstract void endRows(long rowCount, Appendable out) throws IOException;
+
+	/**
+	 * Renders a whole list of generic rows.
+	 *
+	 * @param tableName	table the rows come from, or <i>null</i> if unknown
+	 * @param columnNames	column names of the rows
+	 * @param rows	values of each row
+	 * @param out	output to write to
+	 * @throws IOException	if writing to the output failed
+	 */
+	public void renderRows(String tableName, List<String> columnNames, List<String[]> rows, Appendable out) throws IOException {
+		String[] names = columnNames.toArray(new String[columnNames.size()]);
+		beginRows(tableName, names, out);
+		for (int i = 0; i < rows.size(); i++)
+			renderRow(names, rows.get(i), i, out);
+		endRows(rows.size(), out);
+	}
+
+	/**
+	 * Writes an integer without creating a string for it.
+	 */
+	static void appendInt(Appendable out, int value) throws IOException {
+		if (value < 0) {
+			if (value == Integer.MIN_VALUE) {
+				out.append("-2147483648");
+				return;
+			}
+			out.append('-');
+			value = -value;
+		}
+
+		int divisor = 1;
+		while (value / divisor >= 10)
+			divisor *= 10;
+		for (; divisor > 0; divisor /= 10)
+			out.append((char) ('0' + value / divisor % 10));
+	}
+
+	/**
+	 * The console layout used by FabFlixConsole.
+	 */
+	private static class Text extends FabFlixRenderer
+	{
+		@Override
+		public String getFormat() {
+			return "text";
+		}
+
+		@Override
+		public void renderMovies(List<FabFlixMovie> movies, Appendable out) throws IOException {
+			out.append('\n');
+			for (FabFlixMovie movie : movies) {
+				out.append("ID = ");
+				appendInt(out, movie.getID());
+				out.append("\nTitle = ").append(movie.getTitle());
+				out.append("\nYear = ");
+				appendInt(out, movie.getYear());
+				out.append("\nDirector = ").append(movie.getDirector());
+				out.append("\nBanner URL = ").append(isNullOrEmpty(movie.getBannerURL()) ? "N/A" : movie.getBannerURL());
+				out.append("\nTrailer URL = ").append(isNullOrEmpty(movie.getTrailerURL()) ? "N/A" : movie.getTrailerURL());
+				out.append("\n\n");
+			}
+
+			// If there are no results, add a message for no results found
+			if (movies.isEmpty())
+				out.append("No results found!\n");
+		}
+
+		@Override
+		public void renderStars(List<FabFlixStar> stars, Appendable out) throws IOException {
+			out.append('\n');
+			for (FabFlixStar star : stars) {
+				out.append("ID = ");
+				appendInt(out, star.getID());
+				out.append(", name = ");
+				if (!isNullOrEmpty(star.getFirstName()))
+					out.append(star.getFirstName()).append(' ');
+				out.append(star.getLastName());
+				if (star.getDOB() != null)
+					out.append(", dob = ").append(star.getDOB().toString());
+				out.append('\n');
+			}
+			if (stars.isEmpty())
+				out.append("No results found!\n");
+		}
+
+		@Override
+		public void beginRows(String tableName, String[] columnNames, Appendable out) throws IOException {
+			if (tableName != null)
+				out.append("\nTable: ").append(tableName).append("\n--------------------------\n");
+			else
+				out.append('\n');
+		}
+
+		@Override
+		public void renderRow(String[] columnNames, String[] values, long rowIndex, Appendable out) throws IOException {
+			for (int i = 0; i < values.length; i++) {
+				out.append(columnNames[i]).append(" = ");
+				out.append(values[i] == null ? "null" : values[i]).append('\n');
+			}
+			out.append('\n');
+		}
+
+		@Override
+		public void endRows(long rowCount, Appendable out) throws IOException {
+			if (rowCount == 0)
+				out.append("No results found!\n");
+		}
+
+		private static boolean isNullOrEmpty(String value) {
+			return value == null || value.isEmpty();
+		}
+	}
+
+	/**
+	 * RFC 4180 CSV: a header row, CRLF line endings, and fields quoted only when they contain a
+	 * comma, quote or line break. SQL nulls are written as empty fields.
+	 */
+	private static class CSV extends FabFlixRenderer
+	{
+		@Override
+		public String getFormat() {
+			return "csv";
+		}
+
+		@Override
+		public void renderMovies(List<FabFlixMovie> movies, Appendable out) throws IOException {
+			out.append("id,title,year,director,banner_url,trailer_url\r\n");
+			for (FabFlixMovie movie : movies) {
+				appendInt(out, movie.getID());
+				out.append(',');
+				appendField(out, movie.getTitle());
+				out.append(',');
+				appendInt(out, movie.getYear());
+				out.append(',');
+				appendField(out, movie.getDirector());
+				out.append(',');
+				appendField(out, movie.getBannerURL());
+				out.append(',');
+				appendField(out, movie.getTrailerURL());
+				out.append("\r\n");
+			}
+		}
+
+		@Override
+		public void renderStars(List<FabFlixStar> stars, Appendable out) throws IOException {
+			out.append("id,first_name,last_name,dob,photo_url\r\n");
+			for (FabFlixStar star : stars) {
+				appendInt(out, star.getID());
+				out.append(',');
+				appendField(out, star.getFirstName());
+				out.append(',');
+				appendField(out, star.getLastName());
+				out.append(',');
+				appendField(out, star.getDOB() == null ? null : star.getDOB().toString());
+				out.append(',');
+				appendField(out, star.getPhotoURL());
+				out.append("\r\n");
+			}
+		}
+
+		@Override
+		public void beginRows(String tableName, String[] columnNames, Appendable out) throws IOException {
+			renderRow(columnNames, columnNames, -1, out);
+		}
+
+		@Override
+		public void renderRow(String[] columnNames, String[] values, long rowIndex, Appendable out) throws IOException {
+			for (int i = 0; i < values.length; i++) {
+				if (i > 0)
+					out.append(',');
+				appendField(out, values[i]);
+			}
+			out.append("\r\n");
+		}
+
+		@Override
+		public void endRows(long rowCount, Appendable out) {
+		}
+
+		private static void appendField(Appendable out, String value) throws IOException {
+			if (value == null)
+				return;
+
+			boolean quoted = false;
+			for (int i = 0; i < value.length() && !quoted; i++) {
+				char c = value.charAt(i);
+				quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+			}
+			if (!quoted) {
+				out.append(value);
+				return;
+			}
+
+			out.append('"');
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '"')
+					out.append('"');
+				out.append(c);
+			}
+			out.append('"');
+		}
+	}
+
+	/**
+	 * JSON arrays of objects. Generic rows are written as an object holding the table name,
+	 * the column names and the array of rows.
+	 */
+	private static class JSON extends FabFlixRenderer
+	{
+		@Override
+		public String getFormat() {
+			return "json";
+		}
+
+		@Override
+		public void renderMovies(List<FabFlixMovie> movies, Appendable out) throws IOException {
+			out.append('[');
+			for (int i = 0; i < movies.size(); i++) {
+				FabFlixMovie movie = movies.get(i);
+				out.append(i == 0 ? "{\"id\":" : ",{\"id\":");
+				appendInt(out, movie.getID());
+				out.append(",\"title\":");
+				appendString(out, movie.getTitle());
+				out.append(",\"year\":");
+				appendInt(out, movie.getYear());
+				out.append(",\"director\":");
+				appendString(out, movie.getDirector());
+				out.append(",\"bannerURL\":");
+				appendString(out, movie.getBannerURL());
+				out.append(",\"trailerURL\":");
+				appendString(out, movie.getTrailerURL());
+				out.append('}');
+			}
+			out.append("]\n");
+		}
+
+		@Override
+		public void renderStars(List<FabFlixStar> stars, Appendable out) throws IOException {
+			out.append('[');
+			for (int i = 0; i < stars.size(); i++) {
+				FabFlixStar star = stars.get(i);
+				out.append(i == 0 ? "{\"id\":" : ",{\"id\":");
+				appendInt(out, star.getID());
+				out.append(",\"firstName\":");
+				appendString(out, star.getFirstName());
+				out.append(",\"lastName\":");
+				appendString(out, star.getLastName());
+				out.append(",\"dob\":");
+				appendString(out, star.getDOB() == null ? null : star.getDOB().toString());
+				out.append(",\"photoURL\":");
+				appendString(out, star.getPhotoURL());
+				out.append('}');
+			}
+			out.append("]\n");
+		}
+
+		@Override
+		public void beginRows(String tableName, String[] columnNames, Appendable out) throws IOException {
+			out.append("{\"table\":");
+			appendString(out, tableName);
+			out.append(",\"columns\":[");
+			for (int i = 0; i < columnNames.length; i++) {
+				if (i > 0)
+					out.append(',');
+				appendString(out, columnNames[i]);
+			}
+			out.append("],\"rows\":[");
+		}
+
+		@Override
+		public void renderRow(String[] columnNames, String[] values, long rowIndex, Appendable out) throws IOException {
+			out.append(rowIndex == 0 ? "{" : ",{");
+			for (int i = 0; i < values.length; i++) {
+				if (i > 0)
+					out.append(',');
+				appendString(out, columnNames[i]);
+				out.append(':');
+				appendString(out, values[i]);
+			}
+			out.append('}');
+		}
+
+		@Override
+		public void endRows(long rowCount, Appendable out) throws IOException {
+			out.append("]}\n");
+		}
+
+		private static void appendString(Appendable out, String value) throws IOException {
+			if (value == null) {
+				out.append("null");
+				return;
+			}
+
+			out.append('"');
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				switch (c) {
+				case '"':	out.append("\\\""); break;
+				case '\\':	out.append("\\\\"); break;
+				case '\n':	out.append("\\n"); break;
+				case '\r':	out.append("\\r"); break;
+				case '\t':	out.append("\\t"); break;
+				default:
+					if (c < 0x20) {
+						out.append("\\u00");
+						out.append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+					} else
+						out.append(c);
+				}
+			}
+			out.append('"');
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * Outcome of a write made through {@link FabFlixDBManager}: whether it succeeded, the console
+ * output describing it, and the IDs it generated. Callers decide what to do next from
+ * {@link #isSucceeded()} rather than from the wording of the output.
+ * <p>
+ * An operation on several rows only succeeds if every row does; the rows that were written
+ * still have their generated IDs when others were rejected.
+ */
+public class FabFlixResult
+{
+	private static final int[] NO_IDS = new int[0];
+
+	private final boolean mSucceeded;
+	private final String mOutput;
+	private final int mErrorCode;
+	private final int[] mGeneratedIDs;
+
+	public FabFlixResult(boolean succeeded, String output, int errorCode, int[] generatedIDs) {
+		mSucceeded = succeeded;
+		mOutput = output;
+		mErrorCode = errorCode;
+		mGeneratedIDs = generatedIDs == null ? NO_IDS : generatedIDs;
+	}
+
+	/**
+	 * Returns a successful result.
+	 *
+	 * @param output	output describing the result
+	 * @param generatedIDs	IDs generated by the operation, if any
+	 * @return	successful result
+	 */
+	public static FabFlixResult succeeded(String output, int... generatedIDs) {
+		return new FabFlixResult(true, output, 0, generatedIDs);
+	}
+
+	/**
+	 * Returns a failed result with an error message.
+	 *
+	 * @param message	error message, without the error header
+	 * @return	failed result
+	 */
+	public static FabFlixResult failed(String message) {
+		return failed(message, 0);
+	}
+
+	/**
+	 * Returns a failed result with an error message.
+	 *
+	 * @param message	error message, without the error header
+	 * @param errorCode	SQL error code of the failure, or 0 if it was not a SQL error
+	 * @return	failed result
+	 */
+	public static FabFlixResult failed(String message, int errorCode) {
+		return new FabFlixResult(false, FabFlixConsole.getErrorMessage(message), errorCode, null);
+	}
+
+	/**
+	 * Returns whether the operation succeeded. An operation on several rows only succeeds
+	 * if none of its rows was rejected.
+	 *
+	 * @return	true if the operation succeeded
+	 */
+	public boolean isSucceeded() {
+		return mSucceeded;
+	}
+
+	/**
+	 * Returns the console output of the operation: its results, or the reason it failed.
+	 *
+	 * @return	output string of the operation
+	 */
+	public String getOutput() {
+		return mOutput;
+	}
+
+	/**
+	 * Returns the SQL error code the operation failed with.
+	 *
+	 * @return	vendor error code, or 0 if the operation succeeded or did not fail with a SQL error
+	 */
+	public int getErrorCode() {
+		return mErrorCode;
+	}
+
+	/**
+	 * Returns the IDs generated by the operation. Operations on several rows return one ID per
+	 * row in input order, with 0 for the rows that were not inserted.
+	 *
+	 * @return	generated IDs, empty if the operation generated none
+	 */
+	public int[] getGeneratedIDs() {
+		return mGeneratedIDs.clone();
+	}
+
+	@Override
+	public String toString() {
+		return mOutput;
+	}
+}
@@ -0,0 +1,291 @@
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Thread-safe cache of query results, keyed by normalized SQL text. Each entry records the
+ * tables its query reads, so a write only removes the entries that read one of the tables it
+ * changed. The cache holds at most a fixed number of bytes (estimated from the cached strings)
+ * and evicts entries in least-recently-used order to stay within it.
+ * <p>
+ * Like {@link FabFlixLookupCache}, every invalidation bumps a generation number so a query that
+ * started before a write cannot store a result that the write made stale.
+ */
+public class FabFlixResultCache
+{
+	public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+	// A single result may use at most this fraction of the budget, so one large report cannot flush the cache
+	private static final int MAX_ENTRY_FRACTION = 4;
+
+	// Rough per-object overheads used to estimate the size of a result
+	private static final int ROW_OVERHEAD_BYTES = 16;
+	private static final int STRING_OVERHEAD_BYTES = 40;
+
+	/**
+	 * Rows of a cached query result and the tables it was read from.
+	 */
+	public static class Result
+	{
+		private final String mTableName;
+		private final String[] mColumnNames;
+		private final List<String[]> mRows;
+		private final Set<String> mTables;
+		private final long mBytes;
+
+		/**
+		 * @param tableName	table name reported for the first column of the result
+		 * @param columnNames	column names of the result
+		 * @param rows	rows of the result; the arrays must not be modified afterwards
+		 * @param tables	lower case names of the tables the query reads
+		 * @param bytes	estimated size of the rows, see {@link #estimateBytes}
+		 */
+		public Result(String tableName, String[] columnNames, List<String[]> rows, Set<String> tables, long bytes) {
+			mTableName = tableName;
+			mColumnNames = columnNames;
+			mRows = Collections.unmodifiableList(rows);
+			mTables = Collections.unmodifiableSet(tables);
+			mBytes = bytes + estimateBytes(columnNames);
+		}
+
+		public String getTableName() {
+			return mTableName;
+		}
+
+		public String[] getColumnNames() {
+			return mColumnNames.clone();
+		}
+
+		public List<String[]> getRows() {
+			return mRows;
+		}
+
+		public Set<String> getTables() {
+			return mTables;
+		}
+
+		public long getBytes() {
+			return mBytes;
+		}
+	}
+
+	private final long mMaxBytes;
+	private final LinkedHashMap<String, Result> mEntries = new LinkedHashMap<String, Result>(16, 0.75f, true);
+	private long mBytes;
+
+	private long mGeneration;
+	private long mHits;
+	private long mMisses;
+	private long mEvictions;
+	private long mInvalidations;
+	private long mRejections;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param maxBytes	memory budget of the cached results
+	 */
+	public FabFlixResultCache(long maxBytes) {
+		if (maxBytes < 1)
+			throw new IllegalArgumentException("Invalid result cache size.");
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the cache key of a query: its text with comments removed, whitespace outside of
+	 * quotes collapsed to single spaces and trailing semicolons dropped. Quoted strings and
+	 * identifiers, and the case of the text, are left unchanged.
+	 *
+	 * @param sql	query text
+	 * @return	normalized query text
+	 */
+	public static String normalize(String sql) {
+		StringBuilder key = new StringBuilder(sql.length());
+		char quote = 0;
+		boolean space = false;
+
+		for (int i = 0; i < sql.length(); i++) {
+			char c = sql.charAt(i);
+
+			if (quote != 0) {
+				key.append(c);
+				if (c == '\\' && quote != '`' && i + 1 < sql.length())
+					key.append(sql.charAt(++i));
+				else if (c == quote)
+					quote = 0;
+				continue;
+			}
+
+			// Comments separate tokens like whitespace
+			if (c == '#' || (c == '-' && sql.startsWith("-- ", i))) {
+				while (i + 1 < sql.length() && sql.charAt(i + 1) != '\n')
+					i++;
+				space = true;
+			} else if (c == '/' && sql.startsWith("/*", i) && !sql.startsWith("/*!", i)) {
+				int end = sql.indexOf("*/", i + 2);
+				i = end < 0 ? sql.length() : end + 1;
+				space = true;
+			} else if (Character.isWhitespace(c)) {
+				space = true;
+			} else {
+				if (space && key.length() > 0)
+					key.append(' ');
+				space = false;
+				key.append(c);
+				if (c == '\'' || c == '"' || c == '`')
+					quote = c;
+			}
+		}
+
+		while (key.length() > 0 && key.charAt(key.length() - 1) == ';') {
+			key.setLength(key.length() - 1);
+			while (key.length() > 0 && key.charAt(key.length() - 1) == ' ')
+				key.setLength(key.length() - 1);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Returns an estimate of the memory used by a row of strings.
+	 *
+	 * @param values	values of the row
+	 * @return	estimated size in bytes
+	 */
+	public static long estimateBytes(String[] values) {
+		long bytes = ROW_OVERHEAD_BYTES + 8L * values.length;
+		for (String value : values) {
+			if (value != null)
+				bytes += STRING_OVERHEAD_BYTES + 2L * value.length();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the largest result that may be stored.
+	 *
+	 * @return	maximum estimated size of a single result, in bytes
+	 */
+	public long getMaxEntryBytes() {
+		return mMaxBytes / MAX_ENTRY_FRACTION;
+	}
+
+	public long getMaxBytes() {
+		return mMaxBytes;
+	}
+
+	/**
+	 * Returns the cached result of a query.
+	 *
+	 * @param key	normalized query text, see {@link #normalize}
+	 * @return	cached result, or <i>null</i> on a miss
+	 */
+	public synchronized Result get(String key) {
+		Result result = mEntries.get(key);
+		if (result == null)
+			mMisses++;
+		else
+			mHits++;
+		return result;
+	}
+
+	/**
+	 * Returns the current generation. Pass it to {@link #put} after running a query so its
+	 * result is dropped if a write invalidated the cache while the query was running.
+	 *
+	 * @return	current generation number
+	 */
+	public synchronized long getGeneration() {
+		return mGeneration;
+	}
+
+	/**
+	 * Stores the result of a query, unless the cache was invalidated since <i>generation</i>,
+	 * evicting the least recently used results until it fits in the budget.
+	 *
+	 * @param key	normalized query text
+	 * @param result	result of the query
+	 * @param generation	generation obtained before the query was run
+	 */
+	public synchronized void put(String key, Result result, long generation) {
+		if (generation != mGeneration || result.getBytes() > getMaxEntryBytes()) {
+			mRejections++;
+			return;
+		}
+
+		Result previous = mEntries.remove(key);
+		if (previous != null)
+			mBytes -= previous.getBytes();
+
+		Iterator<Result> eldest = mEntries.values().iterator();
+		while (mBytes + result.getBytes() > mMaxBytes && eldest.hasNext()) {
+			mBytes -= eldest.next().getBytes();
+			eldest.remove();
+			mEvictions++;
+		}
+
+		mEntries.put(key, result);
+		mBytes += result.getBytes();
+	}
+
+	/**
+	 * Removes every result read from any of the given tables.
+	 *
+	 * @param tables	lower case names of the tables that were written
+	 */
+	public synchronized void invalidateTables(Collection<String> tables) {
+		mGeneration++;
+
+		Iterator<Map.Entry<String, Result>> entries = mEntries.entrySet().iterator();
+		while (entries.hasNext()) {
+			Result result = entries.next().getValue();
+			if (!Collections.disjoint(result.getTables(), tables)) {
+				mBytes -= result.getBytes();
+				entries.remove();
+				mInvalidations++;
+			}
+		}
+	}
+
+	/**
+	 * Removes every result from the cache.
+	 */
+	public synchronized void invalidateAll() {
+		mGeneration++;
+		mInvalidations += mEntries.size();
+		mEntries.clear();
+		mBytes = 0;
+	}
+
+	public synchronized int size() {
+		return mEntries.size();
+	}
+
+	public synchronized long getBytes() {
+		return mBytes;
+	}
+
+	public synchronized long getHits() {
+		return mHits;
+	}
+
+	public synchronized long getMisses() {
+		return mMisses;
+	}
+
+	/**
+	 * Returns a printable summary of the cache's size and usage statistics.
+	 *
+	 * @return	output string of the cache statistics
+	 */
+	public synchronized String getStatistics() {
+		long total = mHits + mMisses;
+		return String.format("Query result cache: %d entries, %.1f/%.1f KB, hits/misses = %d/%d (%.1f%% hit rate), " +
+			"evictions = %d, invalidations = %d, not stored = %d\n",
+			mEntries.size(), mBytes / 1024.0, mMaxBytes / 1024.0, mHits, mMisses,
+			total == 0 ? 0 : mHits * 100.0 / total, mEvictions, mInvalidations, mRejections);
+	}
+}
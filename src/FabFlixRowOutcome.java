@@ -0,0 +1,62 @@
+/**
+ * Outcome of one row of a batch written through {@link FabFlixDBManager}: the ID generated for
+ * the row if it was inserted, or the reason it was rejected. Outcomes are returned in the order
+ * of the batch's rows.
+ */
+public class FabFlixRowOutcome
+{
+	private final int mID;
+	private final String mRejection;
+
+	private FabFlixRowOutcome(int id, String rejection) {
+		mID = id;
+		mRejection = rejection;
+	}
+
+	/**
+	 * Returns the outcome of an inserted row.
+	 *
+	 * @param id	ID generated for the row
+	 * @return	inserted row outcome
+	 */
+	public static FabFlixRowOutcome inserted(int id) {
+		return new FabFlixRowOutcome(id, null);
+	}
+
+	/**
+	 * Returns the outcome of a rejected row.
+	 *
+	 * @param reason	reason the row was rejected
+	 * @return	rejected row outcome
+	 */
+	public static FabFlixRowOutcome rejected(String reason) {
+		return new FabFlixRowOutcome(0, reason);
+	}
+
+	public boolean isInserted() {
+		return mRejection == null;
+	}
+
+	/**
+	 * Returns the ID generated for the row.
+	 *
+	 * @return	generated ID, or 0 if the row was rejected
+	 */
+	public int getID() {
+		return mID;
+	}
+
+	/**
+	 * Returns the reason the row was rejected.
+	 *
+	 * @return	rejection reason, or <i>null</i> if the row was inserted
+	 */
+	public String getRejection() {
+		return mRejection;
+	}
+
+	@Override
+	public String toString() {
+		return isInserted() ? "inserted " + mID : "rejected: " + mRejection;
+	}
+}
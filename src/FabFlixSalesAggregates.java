@@ -0,0 +1,455 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * In-memory sales totals per movie, per customer and per genre and month. The totals are read
+ * from <i>sales</i> once, and then kept up to date by {@link #addSale} and
+ * {@link #removeCustomer} as sales are inserted and customers deleted, so top-seller and
+ * per-genre questions are answered without scanning and grouping <i>sales</i>.
+ * <p>
+ * Each customer's sales are kept as packed movie ID and month pairs, so deleting a customer
+ * (and, through <i>ON DELETE CASCADE</i>, their sales) can be subtracted from every total
+ * without reading the deleted rows back. Writes made by other clients are not seen;
+ * {@link #check} compares the totals with the base tables.
+ */
+public class FabFlixSalesAggregates
+{
+	private static final String SALES_QUERY =
+		"select customer_id, movie_id, sale_date from sales";
+	private static final String MOVIES_QUERY =
+		"select id, title from movies";
+	private static final String GENRES_QUERY =
+		"select id, name from genres";
+	private static final String GENRES_IN_MOVIES_QUERY =
+		"select genre_id, movie_id from genres_in_movies";
+
+	// Queries the consistency check compares the totals with
+	private static final String MOVIE_TOTALS_QUERY =
+		"select movie_id, count(*) from sales group by movie_id";
+	private static final String CUSTOMER_TOTALS_QUERY =
+		"select customer_id, count(*) from sales group by customer_id";
+	private static final String GENRE_MONTH_TOTALS_QUERY =
+		"select gm.genre_id, year(s.sale_date) * 100 + month(s.sale_date), count(*) " +
+		"from sales s, genres_in_movies gm where gm.movie_id = s.movie_id " +
+		"group by gm.genre_id, year(s.sale_date) * 100 + month(s.sale_date)";
+
+	// Differences listed by the consistency check before the rest are only counted
+	private static final int MAX_LISTED_DIFFERENCES = 20;
+
+	/**
+	 * Number of sales of a movie, customer, or genre in a month.
+	 */
+	public static class Total
+	{
+		private final int mID;
+		private final String mName;
+		private final int mMonth;
+		private final int mCount;
+
+		Total(int id, String name, int month, int count) {
+			mID = id;
+			mName = name;
+			mMonth = month;
+			mCount = count;
+		}
+
+		/**
+		 * Returns the ID of the movie, customer or genre the total counts the sales of.
+		 */
+		public int getID() {
+			return mID;
+		}
+
+		/**
+		 * Returns the movie title or genre name, or <i>null</i> for customer totals.
+		 */
+		public String getName() {
+			return mName;
+		}
+
+		/**
+		 * Returns the month of a genre total as <i>yyyyMM</i>, or 0 for other totals.
+		 */
+		public int getMonth() {
+			return mMonth;
+		}
+
+		public int getCount() {
+			return mCount;
+		}
+	}
+
+	// Orders totals by descending count, then by ID
+	private static final Comparator<Total> BY_COUNT = new Comparator<Total>() {
+		@Override
+		public int compare(Total a, Total b) {
+			return a.mCount != b.mCount ? Integer.compare(b.mCount, a.mCount) : Integer.compare(a.mID, b.mID);
+		}
+	};
+
+	// Catalog data needed to attribute a sale and label the totals
+	private final Map<Integer, String> mMovieTitles;
+	private final Map<Integer, String> mGenreNames;
+	private final Map<Integer, int[]> mMovieGenres;
+
+	// Totals, held in one-element arrays so they are updated without re-boxing
+	private final Map<Integer, int[]> mMovieTotals = new HashMap<Integer, int[]>();
+	private final Map<Long, int[]> mGenreMonthTotals = new HashMap<Long, int[]>();
+	private final Map<Integer, CustomerSales> mCustomerSales = new HashMap<Integer, CustomerSales>();
+	private long mSaleCount;
+
+	private final long mLoadTimeNanos;
+	private long mAddedCount;
+	private long mRemovedCount;
+
+	/**
+	 * Sales of one customer, as movie ID and month pairs packed into longs.
+	 */
+	private static class CustomerSales
+	{
+		long[] mSales = new long[4];
+		int mSize;
+
+		void add(long sale) {
+			if (mSize == mSales.length)
+				mSales = Arrays.copyOf(mSales, mSize * 2);
+			mSales[mSize++] = sale;
+		}
+	}
+
+	private FabFlixSalesAggregates(Map<Integer, String> movieTitles, Map<Integer, String> genreNames,
+		Map<Integer, int[]> movieGenres, long start) {
+
+		mMovieTitles = movieTitles;
+		mGenreNames = genreNames;
+		mMovieGenres = movieGenres;
+		mLoadTimeNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * Reads every sale and computes the totals.
+	 *
+	 * @param connection	connection to read the tables on
+	 * @return	totals as of the time they were read
+	 * @throws SQLException	if an error occurred reading the tables
+	 */
+	public static FabFlixSalesAggregates load(Connection connection) throws SQLException {
+		long start = System.nanoTime();
+		Map<Integer, String> movieTitles = new HashMap<Integer, String>();
+		Map<Integer, String> genreNames = new HashMap<Integer, String>();
+		Map<Integer, int[]> movieGenres = new HashMap<Integer, int[]>();
+		List<long[]> sales = new ArrayList<long[]>();
+
+		Statement select = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		try {
+			select.setFetchSize(Integer.MIN_VALUE);
+
+			ResultSet result = select.executeQuery(MOVIES_QUERY);
+			while (result.next())
+				movieTitles.put(result.getInt(1), result.getString(2));
+			result.close();
+
+			result = select.executeQuery(GENRES_QUERY);
+			while (result.next())
+				genreNames.put(result.getInt(1), result.getString(2));
+			result.close();
+
+			result = select.executeQuery(GENRES_IN_MOVIES_QUERY);
+			while (result.next()) {
+				int[] genres = movieGenres.get(result.getInt(2));
+				genres = genres == null ? new int[1] : Arrays.copyOf(genres, genres.length + 1);
+				genres[genres.length - 1] = result.getInt(1);
+				movieGenres.put(result.getInt(2), genres);
+			}
+			result.close();
+
+			// Sales are applied once the catalog is read, since the results cannot be interleaved
+			result = select.executeQuery(SALES_QUERY);
+			while (result.next())
+				sales.add(new long[] { result.getInt(1), result.getInt(2), toMonth(result.getDate(3)) });
+			result.close();
+		} finally {
+			select.close();
+		}
+
+		FabFlixSalesAggregates aggregates = new FabFlixSalesAggregates(movieTitles, genreNames, movieGenres, start);
+		for (long[] sale : sales)
+			aggregates.apply((int) sale[0], (int) sale[1], (int) sale[2], 1);
+		return aggregates;
+	}
+
+	/**
+	 * Adds a newly inserted sale to the totals.
+	 *
+	 * @param customerID	customer who bought the movie
+	 * @param movieID	movie sold
+	 * @param saleDate	date of the sale
+	 */
+	public synchronized void addSale(int customerID, int movieID, Date saleDate) {
+		apply(customerID, movieID, toMonth(saleDate), 1);
+		mAddedCount++;
+	}
+
+	/**
+	 * Subtracts every sale of a deleted customer from the totals.
+	 *
+	 * @param customerID	ID of the deleted customer
+	 * @return	number of sales removed
+	 */
+	public synchronized int removeCustomer(int customerID) {
+		CustomerSales sales = mCustomerSales.get(customerID);
+		if (sales == null)
+			return 0;
+
+		// Copied since subtracting the last sale drops the customer's list
+		long[] removed = Arrays.copyOf(sales.mSales, sales.mSize);
+		for (long sale : removed)
+			apply(customerID, (int) (sale >>> 32), (int) sale, -1);
+		mRemovedCount += removed.length;
+		return removed.length;
+	}
+
+	/**
+	 * Adds a sale to, or subtracts it from, every total it counts towards.
+	 */
+	private void apply(int customerID, int movieID, int month, int delta) {
+		mSaleCount += delta;
+		increment(mMovieTotals, movieID, delta);
+
+		int[] genres = mMovieGenres.get(movieID);
+		if (genres != null) {
+			for (int genreID : genres)
+				increment(mGenreMonthTotals, toGenreMonthKey(genreID, month), delta);
+		}
+
+		long sale = (long) movieID << 32 | (month & 0xFFFFFFFFL);
+		CustomerSales sales = mCustomerSales.get(customerID);
+		if (delta > 0) {
+			if (sales == null)
+				mCustomerSales.put(customerID, sales = new CustomerSales());
+			sales.add(sale);
+		} else if (sales != null) {
+			for (int i = 0; i < sales.mSize; i++) {
+				if (sales.mSales[i] == sale) {
+					sales.mSales[i] = sales.mSales[--sales.mSize];
+					break;
+				}
+			}
+			if (sales.mSize == 0)
+				mCustomerSales.remove(customerID);
+		}
+	}
+
+	private static <K> void increment(Map<K, int[]> totals, K key, int delta) {
+		int[] total = totals.get(key);
+		if (total == null)
+			totals.put(key, total = new int[1]);
+		total[0] += delta;
+		if (total[0] == 0)
+			totals.remove(key);
+	}
+
+	/**
+	 * Returns the best-selling movies.
+	 *
+	 * @param limit	maximum number of movies returned
+	 * @return	movie totals, by descending number of sales
+	 */
+	public synchronized List<Total> getTopMovies(int limit) {
+		PriorityQueue<Total> top = new PriorityQueue<Total>(Math.max(1, limit), Collections.reverseOrder(BY_COUNT));
+		for (Map.Entry<Integer, int[]> entry : mMovieTotals.entrySet()) {
+			offer(top, new Total(entry.getKey(), mMovieTitles.get(entry.getKey()), 0, entry.getValue()[0]), limit);
+		}
+		return sorted(top);
+	}
+
+	/**
+	 * Returns the customers with the most sales.
+	 *
+	 * @param limit	maximum number of customers returned
+	 * @return	customer totals, by descending number of sales
+	 */
+	public synchronized List<Total> getTopCustomers(int limit) {
+		PriorityQueue<Total> top = new PriorityQueue<Total>(Math.max(1, limit), Collections.reverseOrder(BY_COUNT));
+		for (Map.Entry<Integer, CustomerSales> entry : mCustomerSales.entrySet())
+			offer(top, new Total(entry.getKey(), null, 0, entry.getValue().mSize), limit);
+		return sorted(top);
+	}
+
+	/**
+	 * Returns the number of sales of a customer.
+	 *
+	 * @param customerID	customer ID
+	 * @return	number of sales, 0 if the customer has none or does not exist
+	 */
+	public synchronized int getCustomerSales(int customerID) {
+		CustomerSales sales = mCustomerSales.get(customerID);
+		return sales == null ? 0 : sales.mSize;
+	}
+
+	/**
+	 * Returns the number of sales of each genre in each month with sales.
+	 *
+	 * @return	genre totals, by genre name and then by month
+	 */
+	public synchronized List<Total> getGenreMonthTotals() {
+		List<Total> totals = new ArrayList<Total>(mGenreMonthTotals.size());
+		for (Map.Entry<Long, int[]> entry : mGenreMonthTotals.entrySet()) {
+			int genreID = (int) (entry.getKey() >>> 32);
+			totals.add(new Total(genreID, mGenreNames.get(genreID), (int) (long) entry.getKey(), entry.getValue()[0]));
+		}
+		Collections.sort(totals, new Comparator<Total>() {
+			@Override
+			public int compare(Total a, Total b) {
+				int byName = String.valueOf(a.mName).compareTo(String.valueOf(b.mName));
+				if (byName != 0)
+					return byName;
+				return a.mID != b.mID ? Integer.compare(a.mID, b.mID) : Integer.compare(a.mMonth, b.mMonth);
+			}
+		});
+		return totals;
+	}
+
+	public synchronized long getSaleCount() {
+		return mSaleCount;
+	}
+
+	/**
+	 * Compares the totals with totals grouped from the base tables, and lists every difference.
+	 * Sales written while the check runs may show up as differences.
+	 *
+	 * @param connection	connection to run the grouping queries on
+	 * @return	descriptions of the differences, empty if the totals are consistent
+	 * @throws SQLException	if an error occurred querying the tables
+	 */
+	public List<String> check(Connection connection) throws SQLException {
+		Map<Long, Integer> expectedMovies = new HashMap<Long, Integer>();
+		Map<Long, Integer> expectedCustomers = new HashMap<Long, Integer>();
+		Map<Long, Integer> expectedGenreMonths = new HashMap<Long, Integer>();
+
+		Statement select = connection.createStatement();
+		try {
+			ResultSet result = select.executeQuery(MOVIE_TOTALS_QUERY);
+			while (result.next())
+				expectedMovies.put((long) result.getInt(1), result.getInt(2));
+			result.close();
+
+			result = select.executeQuery(CUSTOMER_TOTALS_QUERY);
+			while (result.next())
+				expectedCustomers.put((long) result.getInt(1), result.getInt(2));
+			result.close();
+
+			result = select.executeQuery(GENRE_MONTH_TOTALS_QUERY);
+			while (result.next())
+				expectedGenreMonths.put(toGenreMonthKey(result.getInt(1), result.getInt(2)), result.getInt(3));
+			result.close();
+		} finally {
+			select.close();
+		}
+
+		Map<Long, Integer> actualMovies = new HashMap<Long, Integer>();
+		Map<Long, Integer> actualCustomers = new HashMap<Long, Integer>();
+		Map<Long, Integer> actualGenreMonths = new HashMap<Long, Integer>();
+		synchronized (this) {
+			for (Map.Entry<Integer, int[]> entry : mMovieTotals.entrySet())
+				actualMovies.put((long) entry.getKey(), entry.getValue()[0]);
+			for (Map.Entry<Integer, CustomerSales> entry : mCustomerSales.entrySet())
+				actualCustomers.put((long) entry.getKey(), entry.getValue().mSize);
+			for (Map.Entry<Long, int[]> entry : mGenreMonthTotals.entrySet())
+				actualGenreMonths.put(entry.getKey(), entry.getValue()[0]);
+		}
+
+		List<String> differences = new ArrayList<String>();
+		compare("Movie", expectedMovies, actualMovies, differences);
+		compare("Customer", expectedCustomers, actualCustomers, differences);
+		compare("Genre and month", expectedGenreMonths, actualGenreMonths, differences);
+		return differences;
+	}
+
+	private static void compare(String kind, Map<Long, Integer> expected, Map<Long, Integer> actual, List<String> differences) {
+		int unlisted = 0;
+
+		Map<Long, Integer> keys = new HashMap<Long, Integer>(expected);
+		keys.putAll(actual);
+		for (Long key : keys.keySet()) {
+			int expectedCount = expected.containsKey(key) ? expected.get(key) : 0;
+			int actualCount = actual.containsKey(key) ? actual.get(key) : 0;
+			if (expectedCount == actualCount)
+				continue;
+
+			if (differences.size() >= MAX_LISTED_DIFFERENCES) {
+				unlisted++;
+				continue;
+			}
+			String name = kind.startsWith("Genre") ?
+				(key >>> 32) + " in " + formatMonth((int) (long) key) : String.valueOf(key);
+			differences.add(kind + " " + name + ": " + actualCount + " sale(s) aggregated, " + expectedCount + " in sales");
+		}
+		if (unlisted > 0)
+			differences.add(unlisted + " more " + kind.toLowerCase() + " difference(s)");
+	}
+
+	private static long toGenreMonthKey(int genreID, int month) {
+		return (long) genreID << 32 | (month & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Returns the month of a date as <i>yyyyMM</i>.
+	 */
+	private static int toMonth(Date date) {
+		if (date == null)
+			return 0;
+		LocalDate day = date.toLocalDate();
+		return day.getYear() * 100 + day.getMonthValue();
+	}
+
+	/**
+	 * Returns a month in <i>yyyyMM</i> form as <i>yyyy-MM</i>.
+	 *
+	 * @param month	month as <i>yyyyMM</i>
+	 * @return	printable month
+	 */
+	public static String formatMonth(int month) {
+		return String.format("%04d-%02d", month / 100, month % 100);
+	}
+
+	private static void offer(PriorityQueue<Total> top, Total total, int limit) {
+		if (limit < 1)
+			return;
+		if (top.size() < limit)
+			top.add(total);
+		else if (BY_COUNT.compare(total, top.peek()) < 0) {
+			top.poll();
+			top.add(total);
+		}
+	}
+
+	private static List<Total> sorted(PriorityQueue<Total> top) {
+		List<Total> totals = new ArrayList<Total>(top);
+		Collections.sort(totals, BY_COUNT);
+		return totals;
+	}
+
+	public double getLoadTimeMillis() {
+		return mLoadTimeNanos / 1000000.0;
+	}
+
+	/**
+	 * Returns a printable summary of the totals and of the changes applied since they were read.
+	 *
+	 * @return	output string of the aggregate statistics
+	 */
+	public synchronized String getStatistics() {
+		return String.format("Sales aggregates: %d sale(s), %d movie(s), %d customer(s), %d genre/month total(s), " +
+			"%d sale(s) added and %d removed since loaded in %.3f ms\n", mSaleCount, mMovieTotals.size(),
+			mCustomerSales.size(), mGenreMonthTotals.size(), mAddedCount, mRemovedCount, getLoadTimeMillis());
+	}
+}
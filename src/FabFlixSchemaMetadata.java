@@ -0,0 +1,326 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of the tables, columns, indexes and foreign keys of the current database, along
+ * with which tables are views and which have triggers. The whole catalog is read with one
+ * pass over <i>DatabaseMetaData.getColumns</i> and one query over <i>information_schema</i>
+ * for the rest, instead of one round trip per table. The driver only answers <i>getColumns</i> with a single query when the
+ * connection URL sets <i>useInformationSchema=true</i>, as
+ * {@link FabFlixDBManager#DATABASE_URL} does; otherwise it sends one
+ * <i>SHOW FULL COLUMNS</i> per table.
+ */
+public class FabFlixSchemaMetadata
+{
+	// Indexes, foreign keys, views and triggers of every table in the current database, in one result
+	private static final String KEYS_QUERY =
+		"select 'INDEX', table_name, index_name, column_name, seq_in_index, non_unique, null, null " +
+			"from information_schema.statistics where table_schema = database() " +
+		"union all " +
+		"select 'FOREIGN KEY', table_name, constraint_name, column_name, ordinal_position, null, " +
+			"referenced_table_name, referenced_column_name " +
+			"from information_schema.key_column_usage " +
+			"where table_schema = database() and referenced_table_name is not null " +
+		"union all " +
+		"select 'VIEW', table_name, null, null, 0, null, null, null " +
+			"from information_schema.tables where table_schema = database() and table_type <> 'BASE TABLE' " +
+		"union all " +
+		"select 'TRIGGER', event_object_table, trigger_name, null, 0, null, null, null " +
+			"from information_schema.triggers where trigger_schema = database() " +
+		"order by 2, 1, 3, 5";
+
+	/**
+	 * A single column of a table.
+	 */
+	public static class Column
+	{
+		private final String mName;
+		private final int mType;
+		private final String mTypeName;
+		private final int mSize;
+		private final boolean mNullable;
+
+		public Column(String name, int type, String typeName, int size, boolean nullable) {
+			mName = name;
+			mType = type;
+			mTypeName = typeName;
+			mSize = size;
+			mNullable = nullable;
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		/**
+		 * Returns the column's type as a <i>java.sql.Types</i> constant.
+		 *
+		 * @return	JDBC type of the column
+		 */
+		public int getType() {
+			return mType;
+		}
+
+		/**
+		 * Returns the database-specific name of the column's type (e.g. <i>VARCHAR</i>).
+		 *
+		 * @return	type name reported by the driver
+		 */
+		public String getTypeName() {
+			return mTypeName;
+		}
+
+		public int getSize() {
+			return mSize;
+		}
+
+		public boolean isNullable() {
+			return mNullable;
+		}
+	}
+
+	/**
+	 * An index or foreign key of a table, with its columns in key order.
+	 */
+	public static class Key
+	{
+		private final String mName;
+		private final boolean mUnique;
+		private final boolean mForeignKey;
+		private final List<String> mColumns = new ArrayList<String>();
+		private final List<String> mReferencedColumns = new ArrayList<String>();
+		private final String mReferencedTable;
+
+		Key(String name, boolean unique, boolean foreignKey, String referencedTable) {
+			mName = name;
+			mUnique = unique;
+			mForeignKey = foreignKey;
+			mReferencedTable = referencedTable;
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		public boolean isPrimaryKey() {
+			return !mForeignKey && mName.equals("PRIMARY");
+		}
+
+		public boolean isUnique() {
+			return mUnique;
+		}
+
+		public boolean isForeignKey() {
+			return mForeignKey;
+		}
+
+		public List<String> getColumns() {
+			return Collections.unmodifiableList(mColumns);
+		}
+
+		/**
+		 * Returns the table referenced by a foreign key.
+		 *
+		 * @return	referenced table, or <i>null</i> if the key is an index
+		 */
+		public String getReferencedTable() {
+			return mReferencedTable;
+		}
+
+		public List<String> getReferencedColumns() {
+			return Collections.unmodifiableList(mReferencedColumns);
+		}
+	}
+
+	/**
+	 * The columns, indexes and foreign keys of a single table.
+	 */
+	public static class Table
+	{
+		private final String mName;
+		private final List<Column> mColumns = new ArrayList<Column>();
+		private final List<Key> mIndexes = new ArrayList<Key>();
+		private final List<Key> mForeignKeys = new ArrayList<Key>();
+		private boolean mView;
+		private boolean mTriggers;
+
+		Table(String name) {
+			mName = name;
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		public List<Column> getColumns() {
+			return Collections.unmodifiableList(mColumns);
+		}
+
+		/**
+		 * Returns the indexes of the table, including its primary key.
+		 *
+		 * @return	indexes of the table
+		 */
+		public List<Key> getIndexes() {
+			return Collections.unmodifiableList(mIndexes);
+		}
+
+		public List<Key> getForeignKeys() {
+			return Collections.unmodifiableList(mForeignKeys);
+		}
+
+		/**
+		 * Returns whether the table is a view (or another kind of table that is not a base
+		 * table), whose rows come from other tables.
+		 *
+		 * @return	true for a view
+		 */
+		public boolean isView() {
+			return mView;
+		}
+
+		/**
+		 * Returns whether the table has triggers, so writing to it may also change other tables.
+		 *
+		 * @return	true if at least one trigger is defined on the table
+		 */
+		public boolean hasTriggers() {
+			return mTriggers;
+		}
+
+		/**
+		 * Returns the primary key of the table.
+		 *
+		 * @return	primary key, or <i>null</i> if the table has none
+		 */
+		public Key getPrimaryKey() {
+			for (Key index : mIndexes) {
+				if (index.isPrimaryKey())
+					return index;
+			}
+			return null;
+		}
+
+		/**
+		 * Returns a column of the table by name (case-insensitive).
+		 *
+		 * @param name	column name
+		 * @return	column, or <i>null</i> if the table has no such column
+		 */
+		public Column getColumn(String name) {
+			for (Column column : mColumns) {
+				if (column.getName().equalsIgnoreCase(name))
+					return column;
+			}
+			return null;
+		}
+	}
+
+	private final Map<String, Table> mTables;
+	private final long mLoadTimeNanos;
+
+	private FabFlixSchemaMetadata(Map<String, Table> tables, long loadTimeNanos) {
+		mTables = tables;
+		mLoadTimeNanos = loadTimeNanos;
+	}
+
+	/**
+	 * Reads the schema of the connection's current database.
+	 *
+	 * @param connection	connection to the database
+	 * @return	snapshot of the schema
+	 * @throws SQLException	if an error occurred reading the metadata
+	 */
+	public static FabFlixSchemaMetadata load(Connection connection) throws SQLException {
+		long start = System.nanoTime();
+		Map<String, Table> tables = new LinkedHashMap<String, Table>();
+
+		// thanks to: http://tutorials.jenkov.com/jdbc/databasemetadata.html
+		// One pass over the columns of every table, ordered by table name and column position
+		ResultSet columns = connection.getMetaData().getColumns(connection.getCatalog(), null, "%", "%");
+		try {
+			while (columns.next()) {
+				String tableName = columns.getString("TABLE_NAME");
+				Table table = tables.get(tableName.toLowerCase());
+				if (table == null) {
+					table = new Table(tableName);
+					tables.put(tableName.toLowerCase(), table);
+				}
+				table.mColumns.add(new Column(columns.getString("COLUMN_NAME"), columns.getInt("DATA_TYPE"),
+					columns.getString("TYPE_NAME"), columns.getInt("COLUMN_SIZE"),
+					columns.getInt("NULLABLE") == DatabaseMetaData.columnNullable));
+			}
+		} finally {
+			columns.close();
+		}
+
+		Statement select = connection.createStatement();
+		try {
+			ResultSet keys = select.executeQuery(KEYS_QUERY);
+			Key key = null;
+
+			while (keys.next()) {
+				String kind = keys.getString(1);
+				Table table = tables.get(keys.getString(2).toLowerCase());
+				if (table == null)
+					continue;
+				if (kind.equals("VIEW")) {
+					table.mView = true;
+					continue;
+				}
+				if (kind.equals("TRIGGER")) {
+					table.mTriggers = true;
+					continue;
+				}
+				boolean foreignKey = kind.equals("FOREIGN KEY");
+
+				// Rows of the same key arrive together, ordered by their position in the key
+				String name = keys.getString(3);
+				if (key == null || keys.getInt(5) == 1 || !key.mName.equals(name) || key.mForeignKey != foreignKey) {
+					key = new Key(name, !foreignKey && keys.getInt(6) == 0, foreignKey, keys.getString(7));
+					(foreignKey ? table.mForeignKeys : table.mIndexes).add(key);
+				}
+				key.mColumns.add(keys.getString(4));
+				if (foreignKey)
+					key.mReferencedColumns.add(keys.getString(8));
+			}
+			keys.close();
+		} finally {
+			select.close();
+		}
+
+		return new FabFlixSchemaMetadata(tables, System.nanoTime() - start);
+	}
+
+	/**
+	 * Returns every table of the database, in name order.
+	 *
+	 * @return	tables of the database
+	 */
+	public List<Table> getTables() {
+		return new ArrayList<Table>(mTables.values());
+	}
+
+	/**
+	 * Returns a table by name (case-insensitive).
+	 *
+	 * @param name	table name
+	 * @return	table, or <i>null</i> if the database has no such table
+	 */
+	public Table getTable(String name) {
+		return name == null ? null : mTables.get(name.toLowerCase());
+	}
+
+	/**
+	 * Returns how long it took to read the schema from the database.
+	 *
+	 * @return	load time in milliseconds
+	 */
+	public double getLoadTimeMillis() {
+		return mLoadTimeNanos / 1000000.0;
+	}
+}
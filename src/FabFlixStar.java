@@ -0,0 +1,55 @@
+import java.sql.Date;
+
+/**
+ * A single row of the <i>stars</i> table.
+ */
+public class FabFlixStar
+{
+	private final int mID;
+	private final String mFirstName;
+	private final String mLastName;
+	private final Date mDOB;
+	private final String mPhotoURL;
+
+	public FabFlixStar(int id, String firstName, String lastName, Date dob, String photoURL) {
+		mID = id;
+		mFirstName = firstName;
+		mLastName = lastName;
+		mDOB = dob;
+		mPhotoURL = photoURL;
+	}
+
+	public int getID() {
+		return mID;
+	}
+
+	public String getFirstName() {
+		return mFirstName;
+	}
+
+	public String getLastName() {
+		return mLastName;
+	}
+
+	/**
+	 * Returns the star's full name, without a leading space if the star has no first name.
+	 *
+	 * @return	first and last name separated by a space
+	 */
+	public String getFullName() {
+		return mFirstName == null || mFirstName.isEmpty() ? mLastName : mFirstName + " " + mLastName;
+	}
+
+	/**
+	 * Returns the star's date of birth.
+	 *
+	 * @return	date of birth, or <i>null</i> if unknown
+	 */
+	public Date getDOB() {
+		return mDOB;
+	}
+
+	public String getPhotoURL() {
+		return mPhotoURL;
+	}
+}
@@ -0,0 +1,381 @@
+import java.sql.*;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory prefix index over the names of every star. Each star is indexed under its full
+ * name and under every word of its name, all normalized to lower case without accents, in one
+ * sorted array; a prefix search is then a binary search followed by a scan of the matching
+ * range, so lookups never touch the database and take microseconds.
+ * <p>
+ * Stars added after the index was loaded are kept in a small unsorted list that every search
+ * also scans, and are merged into the sorted array once the list grows.
+ */
+public class FabFlixStarIndex
+{
+	private static final String ALL_STARS_QUERY = "select id, first_name, last_name, dob, photo_url from stars";
+	private static final int MAX_PENDING_STARS = 64;
+	private static final Pattern COMBINING_MARKS_PATTERN = Pattern.compile("\\p{M}+");
+	private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
+
+	// Match ranks, best first
+	private static final int RANK_EXACT = 0;
+	private static final int RANK_FULL_NAME_PREFIX = 1;
+	private static final int RANK_LAST_NAME_PREFIX = 2;
+	private static final int RANK_WORD_PREFIX = 3;
+	private static final int RANK_ALL_WORDS = 4;
+
+	// Kinds of index keys
+	private static final byte KEY_FULL_NAME = 0;
+	private static final byte KEY_LAST_NAME = 1;
+	private static final byte KEY_WORD = 2;
+
+	// Orders stars by ID, so a star can be found in the index by its ID
+	private static final Comparator<FabFlixStar> BY_ID = new Comparator<FabFlixStar>() {
+		@Override
+		public int compare(FabFlixStar a, FabFlixStar b) {
+			return Integer.compare(a.getID(), b.getID());
+		}
+	};
+
+	/**
+	 * Immutable contents of the index, replaced as a whole whenever stars are added. Indexed
+	 * stars are sorted by ID; pending stars are in the order they were added.
+	 */
+	private static class State
+	{
+		private final FabFlixStar[] mStars;
+		private final String[] mKeys;
+		private final int[] mKeyStars;
+		private final byte[] mKeyKinds;
+		private final FabFlixStar[] mPending;
+
+		State(FabFlixStar[] stars, String[] keys, int[] keyStars, byte[] keyKinds, FabFlixStar[] pending) {
+			mStars = stars;
+			mKeys = keys;
+			mKeyStars = keyStars;
+			mKeyKinds = keyKinds;
+			mPending = pending;
+		}
+	}
+
+	private volatile State mState = build(new ArrayList<FabFlixStar>());
+	private volatile long mLoadTimeNanos;
+
+	/**
+	 * Reads every star from the database into a new index.
+	 *
+	 * @param connection	connection to read the stars with
+	 * @return	index of every star
+	 * @throws SQLException	if an error occurred querying the database
+	 */
+	public static FabFlixStarIndex load(Connection connection) throws SQLException {
+		long start = System.nanoTime();
+		List<FabFlixStar> stars = new ArrayList<FabFlixStar>();
+
+		Statement select = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		try {
+			select.setFetchSize(Integer.MIN_VALUE);
+			ResultSet result = select.executeQuery(ALL_STARS_QUERY);
+			while (result.next()) {
+				stars.add(new FabFlixStar(result.getInt(1), result.getString(2), result.getString(3),
+					result.getDate(4), result.getString(5)));
+			}
+			result.close();
+		} finally {
+			select.close();
+		}
+
+		FabFlixStarIndex index = create(stars);
+		index.mLoadTimeNanos = System.nanoTime() - start;
+		return index;
+	}
+
+	/**
+	 * Creates an index of stars that were read from somewhere other than the database, such as
+	 * a catalog snapshot.
+	 *
+	 * @param stars	every star to index
+	 * @return	index of the stars
+	 */
+	public static FabFlixStarIndex create(List<FabFlixStar> stars) {
+		long start = System.nanoTime();
+		FabFlixStarIndex index = new FabFlixStarIndex();
+		index.mState = build(stars);
+		index.mLoadTimeNanos = System.nanoTime() - start;
+		return index;
+	}
+
+	/**
+	 * Adds a star that was inserted into the database after the index was loaded. A star that
+	 * is already indexed, because the index was read after it was inserted, is not added again.
+	 *
+	 * @param star	newly added star
+	 */
+	public synchronized void add(FabFlixStar star) {
+		State state = mState;
+		if (contains(state, star.getID()))
+			return;
+
+		FabFlixStar[] pending = Arrays.copyOf(state.mPending, state.mPending.length + 1);
+		pending[pending.length - 1] = star;
+
+		if (pending.length <= MAX_PENDING_STARS) {
+			mState = new State(state.mStars, state.mKeys, state.mKeyStars, state.mKeyKinds, pending);
+			return;
+		}
+
+		List<FabFlixStar> stars = new ArrayList<FabFlixStar>(Arrays.asList(state.mStars));
+		stars.addAll(Arrays.asList(pending));
+		mState = build(stars);
+	}
+
+	/**
+	 * Finds the stars whose name starts with the query, or whose name has a word starting with
+	 * each word of the query, ignoring case and accents. Results are ranked with exact full name
+	 * matches first, then full name prefixes, last name prefixes, prefixes of any other word of
+	 * the name and finally names matching every query word; ties are broken by the shortest name.
+	 *
+	 * @param query	name or name prefix, e.g. <i>tom h</i> or <i>hanks</i>
+	 * @param limit	maximum number of stars returned
+	 * @return	matching stars, best match first
+	 */
+	public List<FabFlixStar> search(String query, int limit) {
+		String normalized = normalize(query);
+		if (normalized.isEmpty() || limit <= 0)
+			return Collections.emptyList();
+
+		State state = mState;
+		String[] words = normalized.split(" ");
+		final Map<FabFlixStar, Integer> ranks = new HashMap<FabFlixStar, Integer>();
+
+		// The whole query is a prefix of a full name, or of a single word for one-word queries
+		int end = upperBound(state.mKeys, normalized);
+		for (int i = lowerBound(state.mKeys, normalized); i < end; i++) {
+			FabFlixStar star = state.mStars[state.mKeyStars[i]];
+			rank(ranks, star, getRank(state.mKeyKinds[i], state.mKeys[i].equals(normalized)));
+		}
+
+		// Every query word is a prefix of some word of the name; only the longest word is looked up
+		if (words.length > 1) {
+			String longest = words[0];
+			for (String word : words) {
+				if (word.length() > longest.length())
+					longest = word;
+			}
+
+			end = upperBound(state.mKeys, longest);
+			for (int i = lowerBound(state.mKeys, longest); i < end; i++) {
+				FabFlixStar star = state.mStars[state.mKeyStars[i]];
+				if (state.mKeyKinds[i] != KEY_FULL_NAME && !ranks.containsKey(star) && matchesAllWords(star, words))
+					ranks.put(star, RANK_ALL_WORDS);
+			}
+		}
+
+		for (FabFlixStar star : state.mPending) {
+			String fullName = normalize(star.getFullName());
+			if (fullName.startsWith(normalized))
+				rank(ranks, star, fullName.equals(normalized) ? RANK_EXACT : RANK_FULL_NAME_PREFIX);
+			else if (normalize(star.getLastName()).startsWith(normalized))
+				rank(ranks, star, RANK_LAST_NAME_PREFIX);
+			else if (words.length == 1 && matchesAllWords(star, words))
+				rank(ranks, star, RANK_WORD_PREFIX);
+			else if (words.length > 1 && matchesAllWords(star, words))
+				rank(ranks, star, RANK_ALL_WORDS);
+		}
+
+		List<FabFlixStar> stars = new ArrayList<FabFlixStar>(ranks.keySet());
+		Collections.sort(stars, new Comparator<FabFlixStar>() {
+			@Override
+			public int compare(FabFlixStar a, FabFlixStar b) {
+				int result = ranks.get(a) - ranks.get(b);
+				if (result == 0)
+					result = a.getFullName().length() - b.getFullName().length();
+				if (result == 0)
+					result = a.getFullName().compareToIgnoreCase(b.getFullName());
+				return result != 0 ? result : a.getID() - b.getID();
+			}
+		});
+		return stars.size() > limit ? new ArrayList<FabFlixStar>(stars.subList(0, limit)) : stars;
+	}
+
+	public int size() {
+		State state = mState;
+		return state.mStars.length + state.mPending.length;
+	}
+
+	/**
+	 * Returns how long it took to read the stars and build the index.
+	 *
+	 * @return	load time in milliseconds
+	 */
+	public double getLoadTimeMillis() {
+		return mLoadTimeNanos / 1000000.0;
+	}
+
+	/**
+	 * Returns a printable summary of the index size.
+	 *
+	 * @return	output string of the index statistics
+	 */
+	public String getStatistics() {
+		State state = mState;
+		return String.format("Star name index: %d star(s), %d key(s), %d pending, loaded in %.3f ms\n",
+			state.mStars.length + state.mPending.length, state.mKeys.length, state.mPending.length, getLoadTimeMillis());
+	}
+
+	/**
+	 * Returns a name in the form it is indexed under: lower case, without accents and with
+	 * single spaces between words.
+	 *
+	 * @param name	name to normalize
+	 * @return	normalized name (empty for <i>null</i>)
+	 */
+	static String normalize(String name) {
+		if (name == null)
+			return "";
+
+		String normalized = Normalizer.normalize(name, Normalizer.Form.NFD);
+		normalized = COMBINING_MARKS_PATTERN.matcher(normalized).replaceAll("");
+		return WHITESPACE_PATTERN.matcher(normalized.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+	}
+
+	private static boolean contains(State state, int starID) {
+		for (FabFlixStar star : state.mPending) {
+			if (star.getID() == starID)
+				return true;
+		}
+
+		int low = 0, high = state.mStars.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (state.mStars[middle].getID() < starID)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low < state.mStars.length && state.mStars[low].getID() == starID;
+	}
+
+	private static State build(List<FabFlixStar> stars) {
+		stars = new ArrayList<FabFlixStar>(stars);
+		Collections.sort(stars, BY_ID);
+
+		final List<String> keys = new ArrayList<String>();
+		List<Integer> keyStars = new ArrayList<Integer>();
+		List<Byte> keyKinds = new ArrayList<Byte>();
+
+		for (int i = 0; i < stars.size(); i++) {
+			FabFlixStar star = stars.get(i);
+			String fullName = normalize(star.getFullName());
+			if (fullName.isEmpty())
+				continue;
+
+			keys.add(fullName);
+			keyStars.add(i);
+			keyKinds.add(KEY_FULL_NAME);
+
+			// A multi-word last name is indexed as a whole as well as by its words
+			String lastName = normalize(star.getLastName());
+			if (!lastName.isEmpty() && !lastName.equals(fullName)) {
+				keys.add(lastName);
+				keyStars.add(i);
+				keyKinds.add(KEY_LAST_NAME);
+			}
+			for (String word : fullName.split(" ")) {
+				if (word.equals(lastName) || word.equals(fullName))
+					continue;
+				keys.add(word);
+				keyStars.add(i);
+				keyKinds.add(KEY_WORD);
+			}
+		}
+
+		// Sort the key positions by key, then unpack them into parallel arrays
+		Integer[] order = new Integer[keys.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return keys.get(a).compareTo(keys.get(b));
+			}
+		});
+
+		String[] sortedKeys = new String[order.length];
+		int[] sortedKeyStars = new int[order.length];
+		byte[] sortedKeyKinds = new byte[order.length];
+		for (int i = 0; i < order.length; i++) {
+			sortedKeys[i] = keys.get(order[i]);
+			sortedKeyStars[i] = keyStars.get(order[i]);
+			sortedKeyKinds[i] = keyKinds.get(order[i]);
+		}
+
+		return new State(stars.toArray(new FabFlixStar[stars.size()]), sortedKeys, sortedKeyStars,
+			sortedKeyKinds, new FabFlixStar[0]);
+	}
+
+	private static int getRank(byte keyKind, boolean exact) {
+		switch (keyKind) {
+		case KEY_FULL_NAME:
+			return exact ? RANK_EXACT : RANK_FULL_NAME_PREFIX;
+		case KEY_LAST_NAME:
+			return RANK_LAST_NAME_PREFIX;
+		default:
+			return RANK_WORD_PREFIX;
+		}
+	}
+
+	private static void rank(Map<FabFlixStar, Integer> ranks, FabFlixStar star, int rank) {
+		Integer current = ranks.get(star);
+		if (current == null || rank < current)
+			ranks.put(star, rank);
+	}
+
+	private static boolean matchesAllWords(FabFlixStar star, String[] words) {
+		String[] nameWords = normalize(star.getFullName()).split(" ");
+		for (String word : words) {
+			boolean matched = false;
+			for (String nameWord : nameWords) {
+				if (nameWord.startsWith(word)) {
+					matched = true;
+					break;
+				}
+			}
+			if (!matched)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the position of the first key that is not less than the prefix.
+	 */
+	private static int lowerBound(String[] keys, String prefix) {
+		int low = 0, high = keys.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (keys[middle].compareTo(prefix) < 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the position after the last key that starts with the prefix.
+	 */
+	private static int upperBound(String[] keys, String prefix) {
+		// Every key starting with the prefix sorts before the prefix followed by the largest char
+		return lowerBound(keys, prefix + Character.MAX_VALUE);
+	}
+}
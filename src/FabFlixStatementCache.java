@@ -0,0 +1,146 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least-recently-used cache of prepared statements for a single connection. Statements
+ * handed out by the cache stay open between calls and must not be closed by the caller;
+ * only their result sets should be closed. The least recently used statement is closed
+ * when the cache grows beyond its maximum size.
+ */
+public class FabFlixStatementCache
+{
+	public static final int DEFAULT_MAX_SIZE = 32;
+
+	/**
+	 * Hit, miss and eviction counters. One instance is shared by the caches of every
+	 * connection in a pool so the totals survive connections being closed.
+	 */
+	public static class Counters
+	{
+		private final AtomicLong mHits = new AtomicLong();
+		private final AtomicLong mMisses = new AtomicLong();
+		private final AtomicLong mEvictions = new AtomicLong();
+
+		public long getHits() {
+			return mHits.get();
+		}
+
+		public long getMisses() {
+			return mMisses.get();
+		}
+
+		public long getEvictions() {
+			return mEvictions.get();
+		}
+
+		/**
+		 * Returns the fraction of statement lookups that were served from a cache.
+		 *
+		 * @return	hit ratio between 0 and 1
+		 */
+		public double getHitRatio() {
+			long hits = mHits.get(), total = hits + mMisses.get();
+			return total == 0 ? 0 : (double) hits / total;
+		}
+	}
+
+	private final Connection mConnection;
+	private final Counters mCounters;
+	private final LinkedHashMap<String, PreparedStatement> mStatements;
+
+	/**
+	 * Creates an empty statement cache for a connection.
+	 *
+	 * @param connection	connection the statements are prepared on
+	 * @param maxSize	maximum number of statements kept open
+	 * @param counters	counters updated on every lookup
+	 */
+	public FabFlixStatementCache(Connection connection, final int maxSize, Counters counters) {
+		mConnection = connection;
+		mCounters = counters;
+
+		// Access-ordered map so the eldest entry is always the least recently used statement
+		mStatements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= maxSize)
+					return false;
+
+				closeQuietly(eldest.getValue());
+				mCounters.mEvictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns a prepared statement for the SQL text, preparing it on the connection if it
+	 * is not cached yet. The statement's parameters are cleared before it is returned.
+	 *
+	 * @param sql	parameterized SQL text
+	 * @return	prepared statement for the SQL text
+	 * @throws SQLException	if the statement could not be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		return prepare(sql, Statement.NO_GENERATED_KEYS);
+	}
+
+	/**
+	 * Returns a prepared statement for the SQL text, preparing it on the connection if it
+	 * is not cached yet. The statement's parameters are cleared before it is returned.
+	 *
+	 * @param sql	parameterized SQL text
+	 * @param autoGeneratedKeys	either <i>Statement.RETURN_GENERATED_KEYS</i> or <i>Statement.NO_GENERATED_KEYS</i>
+	 * @return	prepared statement for the SQL text
+	 * @throws SQLException	if the statement could not be prepared
+	 */
+	public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+		String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : "N:" + sql;
+		PreparedStatement statement = mStatements.get(key);
+
+		if (statement != null && !statement.isClosed()) {
+			mCounters.mHits.incrementAndGet();
+			statement.clearParameters();
+			return statement;
+		}
+
+		mCounters.mMisses.incrementAndGet();
+		statement = mConnection.prepareStatement(sql, autoGeneratedKeys);
+		mStatements.put(key, statement);
+		return statement;
+	}
+
+	/**
+	 * Returns the number of statements currently held open by the cache.
+	 *
+	 * @return	number of cached statements
+	 */
+	public int size() {
+		return mStatements.size();
+	}
+
+	/**
+	 * Closes every cached statement and empties the cache.
+	 */
+	public void close() {
+		List<PreparedStatement> statements = new ArrayList<PreparedStatement>(mStatements.values());
+		mStatements.clear();
+
+		for (PreparedStatement statement : statements)
+			closeQuietly(statement);
+	}
+
+	private static void closeQuietly(Statement statement) {
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			// Statement is being discarded anyway
+		}
+	}
+}
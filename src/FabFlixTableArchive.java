@@ -0,0 +1,413 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Exports tables to compressed columnar files and imports them back. Each table is streamed
+ * from the driver and cut into chunks of a fixed number of rows; every chunk is laid out column
+ * by column, compressed with <i>Deflater</i> and written through a <i>FileChannel</i>, so memory
+ * use depends on the chunk size and never on the size of the table. Tables are exported at the
+ * same time on their own connections, up to one per processor.
+ * <p>
+ * A file holds a header followed by chunks:
+ * <pre>
+ * header:	magic, version, table name, column count, column names
+ * chunk:	row count, raw length, compressed length, CRC-32 of the raw bytes, compressed bytes
+ * </pre>
+ * A chunk with a row count of 0 ends the file. Inside a chunk each column is stored as its byte
+ * length followed by one value per row: a variable-length <i>length + 1</i> (0 for NULL) and
+ * the value's UTF-8 bytes. Values are exported as strings, the same way {@link FabFlixBulkLoader}
+ * inserts them.
+ * <p>
+ * Every table is read in its own transaction, so tables exported together are not a single
+ * consistent snapshot if they are written during the export.
+ */
+public class FabFlixTableArchive
+{
+	public static final String FILE_EXTENSION = ".ffc";
+	public static final int DEFAULT_CHUNK_ROWS = 4096;
+
+	private static final int MAGIC = 0x46464341;	// "FFCA"
+	private static final int VERSION = 1;
+	private static final int CHUNK_HEADER_BYTES = 16;
+	private static final Pattern TABLE_NAME_PATTERN = Pattern.compile("\\w+");
+
+	/**
+	 * Values of one column of the chunk being written.
+	 */
+	private static class ColumnBuffer
+	{
+		byte[] mBytes = new byte[1 << 12];
+		int mSize;
+
+		void add(String value) {
+			if (value == null) {
+				writeVarInt(0);
+				return;
+			}
+			byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(utf8.length + 1);
+			ensureCapacity(utf8.length);
+			System.arraycopy(utf8, 0, mBytes, mSize, utf8.length);
+			mSize += utf8.length;
+		}
+
+		private void writeVarInt(int value) {
+			ensureCapacity(5);
+			while ((value & ~0x7F) != 0) {
+				mBytes[mSize++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			mBytes[mSize++] = (byte) value;
+		}
+
+		private void ensureCapacity(int extra) {
+			if (mSize + extra > mBytes.length)
+				mBytes = Arrays.copyOf(mBytes, Math.max(mBytes.length * 2, mSize + extra));
+		}
+	}
+
+	private final FabFlixConnectionPool mPool;
+	private final int mChunkRows;
+	private final int mThreads;
+
+	/**
+	 * Creates an archive that reads and writes tables through connections of the given pool.
+	 *
+	 * @param pool	pool connected to the movie database
+	 * @param chunkRows	number of rows compressed together
+	 * @param threads	maximum number of tables exported at once
+	 */
+	public FabFlixTableArchive(FabFlixConnectionPool pool, int chunkRows, int threads) {
+		mPool = pool;
+		mChunkRows = Math.max(1, chunkRows);
+		mThreads = Math.max(1, threads);
+	}
+
+	/**
+	 * Exports tables to one file per table, named after the table, replacing existing files.
+	 *
+	 * @param directory	directory the files are written to (created if needed)
+	 * @param tableNames	names of the tables to export
+	 * @return	output message with the rows, sizes and time of each table and of the whole export
+	 */
+	public String exportTables(final File directory, List<String> tableNames) {
+		for (String tableName : tableNames) {
+			if (!TABLE_NAME_PATTERN.matcher(tableName).matches())
+				return FabFlixConsole.getErrorMessage("Invalid table name '" + tableName + "'.");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs())
+			return FabFlixConsole.getErrorMessage("Unable to create directory '" + directory + "'.");
+
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(mThreads, Math.max(1, tableNames.size())));
+		List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+
+		for (final String tableName : tableNames) {
+			futures.add(executor.submit(new Callable<long[]>() {
+				@Override
+				public long[] call() throws SQLException, IOException {
+					return exportTable(tableName, new File(directory, tableName + FILE_EXTENSION));
+				}
+			}));
+		}
+		executor.shutdown();
+
+		StringBuilder buffer = new StringBuilder("\n");
+		long totalRows = 0, totalBytes = 0;
+		boolean failed = false;
+
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				long[] result = futures.get(i).get();
+				totalRows += result[0];
+				totalBytes += result[2];
+				buffer.append(String.format("Table '%s': %d row(s), %.1f KB raw, %.1f KB compressed (%.1fx) in %.2f s\n",
+					tableNames.get(i), result[0], result[1] / 1024.0, result[2] / 1024.0,
+					result[2] == 0 ? 0 : (double) result[1] / result[2], result[3] / 1e9));
+			} catch (ExecutionException e) {
+				failed = true;
+				buffer.append(FabFlixConsole.getErrorMessage("Table '" + tableNames.get(i) + "' failed: " + describe(e.getCause())));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failed = true;
+				buffer.append(FabFlixConsole.getErrorMessage("Export of table '" + tableNames.get(i) + "' interrupted."));
+			}
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		String summary = String.format("Exported %d row(s) of %d table(s) to '%s' (%.1f KB) in %.2f s (%.0f rows/s).\n",
+			totalRows, tableNames.size(), directory, totalBytes / 1024.0, seconds, seconds > 0 ? totalRows / seconds : 0);
+		return buffer.append(failed ? FabFlixConsole.getErrorMessage(summary) : FabFlixConsole.getInfoMessage(summary)).toString();
+	}
+
+	/**
+	 * Streams a table into a file. The file is written under a temporary name and renamed when
+	 * complete, so a failed export never leaves a truncated file behind.
+	 *
+	 * @param tableName	table to export
+	 * @param file	file to write
+	 * @return	rows, raw bytes and compressed bytes written, and the export time in nanoseconds
+	 * @throws SQLException	if an error occurred reading the table
+	 * @throws IOException	if an error occurred writing the file
+	 */
+	private long[] exportTable(String tableName, File file) throws SQLException, IOException {
+		long start = System.nanoTime();
+		long rowCount = 0, rawBytes = 0, fileBytes = 0;
+		File temporary = new File(file.getPath() + ".tmp");
+		FabFlixPooledConnection connection = mPool.borrowConnection();
+		Statement select = null;
+		FileChannel channel = null;
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+		try {
+			select = connection.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			select.setFetchSize(Integer.MIN_VALUE);
+			ResultSet result = select.executeQuery("select * from `" + tableName + "`");
+
+			ResultSetMetaData metaData = result.getMetaData();
+			int columnCount = metaData.getColumnCount();
+			ColumnBuffer[] columns = new ColumnBuffer[columnCount];
+			for (int i = 0; i < columnCount; i++)
+				columns[i] = new ColumnBuffer();
+
+			channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+			fileBytes += writeHeader(channel, tableName, metaData);
+
+			int chunkRows = 0;
+			while (result.next()) {
+				for (int i = 0; i < columnCount; i++)
+					columns[i].add(result.getString(i + 1));
+				rowCount++;
+
+				if (++chunkRows == mChunkRows) {
+					rawBytes += getChunkBytes(columns);
+					fileBytes += writeChunk(channel, columns, chunkRows, deflater);
+					chunkRows = 0;
+				}
+			}
+			result.close();
+
+			if (chunkRows > 0) {
+				rawBytes += getChunkBytes(columns);
+				fileBytes += writeChunk(channel, columns, chunkRows, deflater);
+			}
+			fileBytes += writeChunk(channel, columns, 0, deflater);
+			channel.force(false);
+			channel.close();
+			channel = null;
+
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return new long[] { rowCount, rawBytes, fileBytes, System.nanoTime() - start };
+
+		} finally {
+			deflater.end();
+			if (channel != null) {
+				channel.close();
+				temporary.delete();
+			}
+			if (select != null)
+				select.close();
+			mPool.returnConnection(connection);
+		}
+	}
+
+	private static int writeHeader(FileChannel channel, String tableName, ResultSetMetaData metaData)
+		throws SQLException, IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.writeUTF(tableName);
+		header.writeInt(metaData.getColumnCount());
+		for (int i = 1; i <= metaData.getColumnCount(); i++)
+			header.writeUTF(metaData.getColumnName(i));
+		header.close();
+
+		writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()));
+		return bytes.size();
+	}
+
+	private static long getChunkBytes(ColumnBuffer[] columns) {
+		long bytes = 0;
+		for (ColumnBuffer column : columns)
+			bytes += 4 + column.mSize;
+		return bytes;
+	}
+
+	/**
+	 * Compresses the buffered columns as one chunk, writes it and empties the buffers.
+	 *
+	 * @return	number of bytes written
+	 */
+	private static int writeChunk(FileChannel channel, ColumnBuffer[] columns, int rowCount, Deflater deflater)
+		throws IOException {
+
+		ByteBuffer raw = ByteBuffer.allocate((int) getChunkBytes(columns));
+		for (ColumnBuffer column : columns) {
+			raw.putInt(column.mSize);
+			raw.put(column.mBytes, 0, column.mSize);
+			column.mSize = 0;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(raw.array(), 0, raw.position());
+
+		deflater.reset();
+		deflater.setInput(raw.array(), 0, raw.position());
+		deflater.finish();
+		byte[] compressed = new byte[Math.max(64, raw.position() + raw.position() / 1000 + 64)];
+		int compressedLength = 0;
+		while (!deflater.finished()) {
+			if (compressedLength == compressed.length)
+				compressed = Arrays.copyOf(compressed, compressed.length * 2);
+			compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+		}
+
+		ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_BYTES);
+		chunkHeader.putInt(rowCount).putInt(raw.position()).putInt(compressedLength).putInt((int) crc.getValue());
+		chunkHeader.flip();
+		writeFully(channel, chunkHeader);
+		writeFully(channel, ByteBuffer.wrap(compressed, 0, compressedLength));
+		return CHUNK_HEADER_BYTES + compressedLength;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	/**
+	 * Reads exported files and spools their rows into a bulk loader, which then loads the
+	 * tables in foreign key order. Only one chunk of each file is held in memory at a time.
+	 *
+	 * @param files	exported table files
+	 * @param loader	loader the rows are added to
+	 * @return	number of rows read from each file, in the same order
+	 * @throws IOException	if a file could not be read or is corrupt
+	 */
+	public static long[] addToLoader(List<File> files, FabFlixBulkLoader loader) throws IOException {
+		long[] rowCounts = new long[files.size()];
+
+		for (int f = 0; f < files.size(); f++) {
+			FileChannel channel = FileChannel.open(files.get(f).toPath(), StandardOpenOption.READ);
+			Inflater inflater = new Inflater();
+
+			try {
+				// Unbuffered, so the channel is left right after the header, whatever its encoded length
+				DataInputStream header = new DataInputStream(Channels.newInputStream(channel));
+				if (header.readInt() != MAGIC)
+					throw new IOException("'" + files.get(f) + "' is not a table export file.");
+				if (header.readInt() != VERSION)
+					throw new IOException("'" + files.get(f) + "' has an unsupported version.");
+				String tableName = header.readUTF();
+				String[] columnNames = new String[header.readInt()];
+				for (int i = 0; i < columnNames.length; i++)
+					columnNames[i] = header.readUTF();
+
+				ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_BYTES);
+				String[] values = new String[columnNames.length];
+				while (true) {
+					chunkHeader.clear();
+					readFully(channel, chunkHeader, files.get(f));
+					chunkHeader.flip();
+					int rowCount = chunkHeader.getInt(), rawLength = chunkHeader.getInt();
+					int compressedLength = chunkHeader.getInt(), checksum = chunkHeader.getInt();
+					if (rowCount == 0)
+						break;
+
+					ByteBuffer compressed = ByteBuffer.allocate(compressedLength);
+					readFully(channel, compressed, files.get(f));
+					byte[] raw = new byte[rawLength];
+					inflater.reset();
+					inflater.setInput(compressed.array());
+					if (inflater.inflate(raw) != rawLength)
+						throw new IOException("Truncated chunk in '" + files.get(f) + "'.");
+
+					CRC32 crc = new CRC32();
+					crc.update(raw);
+					if ((int) crc.getValue() != checksum)
+						throw new IOException("Checksum mismatch in '" + files.get(f) + "'.");
+
+					addChunk(ByteBuffer.wrap(raw), rowCount, tableName, columnNames, values, loader);
+					rowCounts[f] += rowCount;
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt chunk in '" + files.get(f) + "': " + e.getMessage());
+			} finally {
+				inflater.end();
+				channel.close();
+			}
+		}
+		return rowCounts;
+	}
+
+	/**
+	 * Turns the columns of a chunk back into rows and adds them to the loader.
+	 */
+	private static void addChunk(ByteBuffer raw, int rowCount, String tableName, String[] columnNames, String[] values,
+		FabFlixBulkLoader loader) throws IOException {
+
+		// Position of the next value of each column
+		int[] positions = new int[columnNames.length];
+		for (int i = 0; i < columnNames.length; i++) {
+			int length = raw.getInt();
+			positions[i] = raw.position();
+			raw.position(raw.position() + length);
+		}
+
+		byte[] bytes = raw.array();
+		for (int row = 0; row < rowCount; row++) {
+			for (int i = 0; i < columnNames.length; i++) {
+				int length = 0, shift = 0, b;
+				do {
+					b = bytes[positions[i]++];
+					length |= (b & 0x7F) << shift;
+					shift += 7;
+				} while ((b & 0x80) != 0);
+
+				if (length == 0)
+					values[i] = null;
+				else {
+					values[i] = new String(bytes, positions[i], length - 1, StandardCharsets.UTF_8);
+					positions[i] += length - 1;
+				}
+			}
+			loader.addRow(tableName, columnNames, values);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, File file) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0)
+				throw new IOException("Unexpected end of '" + file + "'.");
+		}
+	}
+
+	private static String describe(Throwable e) {
+		if (e instanceof SQLException)
+			return "Error code " + ((SQLException) e).getErrorCode() + ": " + e.getMessage();
+		return e.getMessage();
+	}
+}
@@ -0,0 +1,368 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind queue for single-row inserts. Callers queue rows and get a <i>CompletableFuture</i>
+ * of the generated ID; a background thread drains the queue and inserts every row drained
+ * together as JDBC batches inside one transaction. A batch is flushed as soon as it holds
+ * {@link #getMaxBatchSize()} rows, or {@link #getMaxDelayMillis()} after its first row was
+ * queued, so the cost of each commit is shared by every row of the batch.
+ * <p>
+ * Futures are only completed once the transaction holding their row has been committed. If a
+ * batch fails, it is rolled back and its rows are inserted one at a time instead, so only the
+ * failing rows have their futures completed with their own <i>SQLException</i>. A batch whose
+ * transaction was rolled back by a deadlock or lock wait timeout is restarted as a whole.
+ */
+public class FabFlixWriteBehindQueue
+{
+	public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 10;
+	static final int MAX_BATCH_ATTEMPTS = 3;
+
+	/**
+	 * A queued insert and the future of its generated ID.
+	 */
+	public abstract static class Row
+	{
+		private final String mStatement;
+		private final CompletableFuture<Integer> mFuture = new CompletableFuture<Integer>();
+
+		/**
+		 * @param statement	insert statement of the row; rows sharing a statement are batched together
+		 */
+		protected Row(String statement) {
+			mStatement = statement;
+		}
+
+		public String getStatement() {
+			return mStatement;
+		}
+
+		public CompletableFuture<Integer> getFuture() {
+			return mFuture;
+		}
+
+		/**
+		 * Sets the parameters of the insert statement to the values of this row.
+		 *
+		 * @param insert	prepared insert statement
+		 * @throws SQLException	if a parameter could not be set
+		 */
+		protected abstract void setParameters(PreparedStatement insert) throws SQLException;
+
+		/**
+		 * Called on the flushing thread once the row has been committed, before its future is
+		 * completed.
+		 *
+		 * @param id	generated ID of the row
+		 */
+		protected void inserted(int id) {
+		}
+	}
+
+	// Queued after the last row by close() to stop the flushing thread
+	private static final Row END_OF_QUEUE = new Row(null) {
+		@Override
+		protected void setParameters(PreparedStatement insert) {
+		}
+	};
+
+	private final FabFlixConnectionPool mPool;
+	private final int mMaxBatchSize;
+	private final long mMaxDelayMillis;
+	private final BlockingQueue<Row> mQueue = new LinkedBlockingQueue<Row>();
+	private final Thread mFlusher;
+	private boolean mClosed;
+
+	private final AtomicLong mRowCount = new AtomicLong();
+	private final AtomicLong mFailedRowCount = new AtomicLong();
+	private final AtomicLong mBatchCount = new AtomicLong();
+	private final AtomicLong mRetriedBatchCount = new AtomicLong();
+	private final AtomicLong mRestartedBatchCount = new AtomicLong();
+
+	/**
+	 * Creates a write-behind queue and starts its flushing thread.
+	 *
+	 * @param pool	pool the flushing thread borrows its connection from
+	 * @param maxBatchSize	maximum number of rows inserted by one transaction
+	 * @param maxDelayMillis	maximum time a row waits for the rest of its batch
+	 */
+	public FabFlixWriteBehindQueue(FabFlixConnectionPool pool, int maxBatchSize, long maxDelayMillis) {
+		if (maxBatchSize < 1 || maxDelayMillis < 0)
+			throw new IllegalArgumentException("Invalid write-behind batch size or delay.");
+
+		mPool = pool;
+		mMaxBatchSize = maxBatchSize;
+		mMaxDelayMillis = maxDelayMillis;
+		mFlusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flushUntilClosed();
+			}
+		}, "FabFlixWriteBehind-flusher");
+		mFlusher.setDaemon(true);
+		mFlusher.start();
+	}
+
+	/**
+	 * Queues a row to be inserted with the next batch.
+	 *
+	 * @param row	row to insert
+	 * @return	future completed with the generated ID of the row (or -1 if none was generated),
+	 * 			or with the <i>SQLException</i> that prevented it from being inserted
+	 */
+	public CompletableFuture<Integer> add(Row row) {
+		synchronized (mQueue) {
+			if (mClosed)
+				row.getFuture().completeExceptionally(new SQLException("Write-behind queue is closed."));
+			else
+				mQueue.add(row);
+		}
+		return row.getFuture();
+	}
+
+	/**
+	 * Stops accepting rows, and waits until every row already queued has been flushed.
+	 */
+	public void close() {
+		synchronized (mQueue) {
+			if (mClosed)
+				return;
+			mClosed = true;
+			mQueue.add(END_OF_QUEUE);
+		}
+
+		boolean interrupted = false;
+		while (mFlusher.isAlive()) {
+			try {
+				mFlusher.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	public int getMaxBatchSize() {
+		return mMaxBatchSize;
+	}
+
+	public long getMaxDelayMillis() {
+		return mMaxDelayMillis;
+	}
+
+	public int getPendingCount() {
+		return mQueue.size();
+	}
+
+	/**
+	 * Collects batches from the queue and flushes them until the end of the queue is reached.
+	 */
+	private void flushUntilClosed() {
+		List<Row> batch = new ArrayList<Row>(mMaxBatchSize);
+		boolean closed = false;
+
+		while (!closed) {
+			try {
+				Row row = mQueue.take();
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mMaxDelayMillis);
+
+				// Wait for the rest of the batch until it is full or its first row has waited long enough
+				while (row != END_OF_QUEUE) {
+					batch.add(row);
+					if (batch.size() >= mMaxBatchSize)
+						break;
+
+					long remaining = deadline - System.nanoTime();
+					row = remaining > 0 ? mQueue.poll(remaining, TimeUnit.NANOSECONDS) : mQueue.poll();
+					if (row == null)
+						break;
+				}
+				closed = row == END_OF_QUEUE;
+			} catch (InterruptedException e) {
+				// Only close() stops the flusher, so that no queued row is ever dropped
+			}
+
+			if (!batch.isEmpty())
+				flush(batch);
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Inserts a batch of rows in one transaction and completes their futures.
+	 *
+	 * @param batch	rows to insert
+	 */
+	private void flush(List<Row> batch) {
+		int[] ids = new int[batch.size()];
+		SQLException[] errors = new SQLException[batch.size()];
+		FabFlixPooledConnection connection = null;
+
+		try {
+			connection = mPool.borrowConnection();
+			for (int attempt = 1; ; attempt++) {
+				try {
+					insertBatch(connection, batch, ids, errors);
+					break;
+				} catch (SQLException e) {
+					// Rows written before the rollback are gone, so the whole batch is inserted again
+					if (!isTransactionRolledBack(e) || attempt == MAX_BATCH_ATTEMPTS)
+						throw e;
+					mRestartedBatchCount.incrementAndGet();
+					Arrays.fill(ids, 0);
+					Arrays.fill(errors, null);
+				}
+			}
+		} catch (SQLException | RuntimeException e) {
+			// Nothing was committed, so every row of the batch fails
+			SQLException error = e instanceof SQLException ? (SQLException) e : new SQLException(e);
+			for (int i = 0; i < batch.size(); i++)
+				errors[i] = error;
+		} finally {
+			if (connection != null)
+				mPool.returnConnection(connection);
+		}
+
+		mBatchCount.incrementAndGet();
+		for (int i = 0; i < batch.size(); i++) {
+			Row row = batch.get(i);
+			if (errors[i] != null) {
+				mFailedRowCount.incrementAndGet();
+				row.getFuture().completeExceptionally(errors[i]);
+				continue;
+			}
+
+			mRowCount.incrementAndGet();
+			try {
+				if (ids[i] > 0)
+					row.inserted(ids[i]);
+				row.getFuture().complete(ids[i]);
+			} catch (RuntimeException e) {
+				row.getFuture().completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * Inserts a batch of rows in a single transaction, using one JDBC batch per insert
+	 * statement. If a JDBC batch fails, the transaction is rolled back and the rows are inserted
+	 * one at a time instead, each behind its own savepoint, so each failing row gets its own error
+	 * and is undone without the rows before it. A deadlock or lock wait timeout is thrown instead
+	 * since it may have rolled back the whole transaction.
+	 *
+	 * @param connection	connection to run the insertions on
+	 * @param batch	rows to insert
+	 * @param ids	array filled with the generated ID of each inserted row (-1 if none)
+	 * @param errors	array filled with the error of each row that could not be inserted
+	 * @throws SQLException	if the transaction could not be started or committed
+	 */
+	private void insertBatch(FabFlixPooledConnection connection, List<Row> batch, int[] ids, SQLException[] errors)
+		throws SQLException {
+
+		// Batch the rows of each statement together, keeping them in the order they were queued
+		Map<String, List<Integer>> rowsByStatement = new LinkedHashMap<String, List<Integer>>();
+		for (int i = 0; i < batch.size(); i++) {
+			List<Integer> rows = rowsByStatement.get(batch.get(i).getStatement());
+			if (rows == null)
+				rowsByStatement.put(batch.get(i).getStatement(), rows = new ArrayList<Integer>());
+			rows.add(i);
+		}
+
+		Connection jdbcConnection = connection.getConnection();
+		boolean committed = false;
+		jdbcConnection.setAutoCommit(false);
+
+		try {
+			try {
+				for (Map.Entry<String, List<Integer>> entry : rowsByStatement.entrySet()) {
+					PreparedStatement insert = connection.prepareStatement(entry.getKey(), Statement.RETURN_GENERATED_KEYS);
+					for (int row : entry.getValue()) {
+						batch.get(row).setParameters(insert);
+						insert.addBatch();
+					}
+					insert.executeBatch();
+
+					// Generated keys are returned in the same order as the batched rows
+					ResultSet keys = insert.getGeneratedKeys();
+					for (int row : entry.getValue())
+						ids[row] = keys.next() ? keys.getInt(1) : -1;
+					keys.close();
+				}
+			} catch (BatchUpdateException e) {
+				if (isTransactionRolledBack(e))
+					throw e;
+				jdbcConnection.rollback();
+				mRetriedBatchCount.incrementAndGet();
+
+				for (Map.Entry<String, List<Integer>> entry : rowsByStatement.entrySet()) {
+					PreparedStatement insert = connection.prepareStatement(entry.getKey(), Statement.RETURN_GENERATED_KEYS);
+					insert.clearBatch();
+
+					for (int row : entry.getValue()) {
+						Savepoint savepoint = jdbcConnection.setSavepoint();
+						try {
+							batch.get(row).setParameters(insert);
+							insert.executeUpdate();
+
+							ResultSet keys = insert.getGeneratedKeys();
+							ids[row] = keys.next() ? keys.getInt(1) : -1;
+							keys.close();
+							jdbcConnection.releaseSavepoint(savepoint);
+						} catch (SQLException rowError) {
+							if (isTransactionRolledBack(rowError))
+								throw rowError;
+							jdbcConnection.rollback(savepoint);
+							errors[row] = rowError;
+						}
+					}
+				}
+			}
+			jdbcConnection.commit();
+			committed = true;
+
+		} finally {
+			// Never let re-enabling auto-commit commit a partial batch
+			if (!committed)
+				jdbcConnection.rollback();
+			jdbcConnection.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * Returns whether an error is a deadlock (1213) or lock wait timeout (1205), after which
+	 * InnoDB may have rolled back the transaction rather than only the failing statement.
+	 *
+	 * @param e	error raised by a statement of the transaction
+	 * @return	true if the transaction has to be restarted
+	 */
+	static boolean isTransactionRolledBack(SQLException e) {
+		return e.getErrorCode() == 1213 || e.getErrorCode() == 1205;
+	}
+
+	/**
+	 * Returns a printable summary of the rows written, the average batch size and the rows
+	 * still waiting to be flushed.
+	 *
+	 * @return	output string of the queue statistics
+	 */
+	public String getStatistics() {
+		long batches = mBatchCount.get();
+		long rows = mRowCount.get() + mFailedRowCount.get();
+
+		return String.format("Write-behind: %d row(s) inserted, %d failed, %d batch(es) (%.1f rows/batch, %d retried row by row, " +
+			"%d restarted), %d pending, limits = %d rows/%d ms\n",
+			mRowCount.get(), mFailedRowCount.get(), batches, batches == 0 ? 0.0 : (double) rows / batches,
+			mRetriedBatchCount.get(), mRestartedBatchCount.get(), getPendingCount(), mMaxBatchSize, mMaxDelayMillis);
+	}
+}